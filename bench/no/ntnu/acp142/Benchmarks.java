@@ -0,0 +1,74 @@
+﻿package no.ntnu.acp142;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Runs the JMH benchmarks of the library with the GC profiler attached, so
+ * that allocation rates are reported next to throughput. <br>
+ * <br>
+ * The benchmarks live in their own source root, bench, and need the JMH core
+ * and annotation processor jars on the class path when compiled. The
+ * arguments are regular expressions selecting the benchmarks to run; all
+ * benchmarks are run if none are given.
+ * 
+ * @author libjpmul contributors
+ */
+public class Benchmarks {
+
+    /**
+     * Runs the selected benchmarks.
+     * 
+     * @param args
+     *            regular expressions matching the benchmarks to run.
+     * @throws RunnerException
+     *             if JMH fails to run the benchmarks.
+     */
+    public static void main( String[] args ) throws RunnerException {
+        OptionsBuilder builder = new OptionsBuilder();
+        if ( args.length == 0 ) {
+            builder.include("no\\.ntnu\\.acp142\\..*");
+        }
+        for (String pattern : args) {
+            builder.include(pattern);
+        }
+        Options options = builder.addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
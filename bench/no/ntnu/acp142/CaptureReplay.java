@@ -0,0 +1,159 @@
+﻿package no.ntnu.acp142;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import no.ntnu.acp142.udp.ReplayTransport;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Replays a capture file, written when CAPTURE_FILE is set, into the receive
+ * pipeline of a single Libjpmul instance, and reports how fast the pipeline
+ * took the datagrams. <br>
+ * <br>
+ * Settings are given as key=value: capture is the capture file, speed is the
+ * replay speed relative to the captured speed, 0 replaying as fast as
+ * possible, and config is a configuration file to load first. The node
+ * replays as the captured node, so it must be given the configuration of that
+ * node for static groups to match. Everything the node sends is discarded.
+ * <br>
+ * The results are written to standard out as JSON. CPU time is the time of all
+ * threads of the node.
+ * 
+ * @author libjpmul contributors
+ * 
+ */
+public class CaptureReplay {
+
+    private static final String[][] DEFAULTS = {
+            { "capture", "capture.jpc" },
+            { "speed", "0" },
+            { "config", "" } };
+
+    private static class NoEmconHandler implements IEmconHandler {
+        @Override
+        public void enterEmcon( int nodeId ) {
+        }
+
+        @Override
+        public void leaveEmcon( int nodeId ) {
+        }
+
+        @Override
+        public boolean isInEmcon( int nodeId ) {
+            return false;
+        }
+    }
+
+    /**
+     * Replays the capture and writes the results.
+     * 
+     * @param args
+     *            settings as key=value.
+     * @throws Exception
+     *             if the configuration or the capture can not be read.
+     */
+    public static void main( String[] args ) throws Exception {
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        for (String[] setting : DEFAULTS) {
+            settings.put(setting[0], setting[1]);
+        }
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if ( split < 0 || !settings.containsKey(arg.substring(0, split)) ) {
+                throw new IllegalArgumentException("Unknown setting: " + arg);
+            }
+            settings.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+
+        if ( !settings.get("config").isEmpty() ) {
+            Configuration.load(settings.get("config"));
+        }
+        Log.setLogLevel(Log.LOG_LEVEL_QUIET);
+
+        final ReplayTransport transport = new ReplayTransport(settings.get("capture"),
+                Double.parseDouble(settings.get("speed")));
+        final Libjpmul[] libjpmul = new Libjpmul[1];
+        ThreadGroup group = new ThreadGroup("CaptureReplay");
+
+        long start = System.nanoTime();
+        // All threads of the node are created in this group
+        Thread startThread = new Thread(group, new Runnable() {
+            @Override
+            public void run() {
+                libjpmul[0] = new Libjpmul(transport, new NoEmconHandler());
+            }
+        }, "CaptureReplay");
+        startThread.start();
+        startThread.join();
+        transport.awaitEnd();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Thread[] nodeThreads = new Thread[group.activeCount() * 2];
+        long cpuTime = 0;
+        for (int i = group.enumerate(nodeThreads); i-- > 0;) {
+            long threadCpuTime = threads.getThreadCpuTime(nodeThreads[i].getId());
+            if ( threadCpuTime > 0 ) {
+                cpuTime += threadCpuTime;
+            }
+        }
+
+        long packets = transport.getReplayedPackets();
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"capture\": \"").append(settings.get("capture")).append("\",\n");
+        json.append("  \"speed\": ").append(settings.get("speed")).append(",\n");
+        json.append("  \"nodeId\": ").append(libjpmul[0].getNodeId()).append(",\n");
+        json.append("  \"packets\": ").append(packets).append(",\n");
+        json.append("  \"seconds\": ").append(format(seconds)).append(",\n");
+        json.append("  \"packetsPerSecond\": ").append(format(packets / seconds)).append(",\n");
+        json.append("  \"cpuSeconds\": ").append(format(cpuTime / 1e9)).append(",\n");
+        json.append("  \"cpuMicrosPerPacket\": ").append(format(packets == 0 ? 0 : cpuTime / 1e3 / packets))
+                .append(",\n");
+        json.append("  \"messagesCompleted\": ").append(libjpmul[0].completedMessages.size()).append(",\n");
+        json.append("  \"pdusSent\": ").append(transport.getDiscardedPackets()).append("\n");
+        json.append("}");
+        System.out.println(json);
+        // The protocol threads of the node never end
+        System.exit(0);
+    }
+
+    private static String format( double value ) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -0,0 +1,628 @@
+﻿package no.ntnu.acp142;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import no.ntnu.acp142.pdu.AddressPdu;
+import no.ntnu.acp142.pdu.DataPdu;
+import no.ntnu.acp142.pdu.Pdu;
+import no.ntnu.acp142.udp.LinkModel;
+import no.ntnu.acp142.udp.MemoryBus;
+import no.ntnu.acp142.udp.Transport;
+import no.ntnu.acp142.udp.Tuple;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * End-to-end benchmark of the library. Starts a sender and a number of
+ * receiver Libjpmul instances in one JVM, connected by a {@link MemoryBus},
+ * pushes a mix of message sizes and recipient sets through
+ * {@link ILibjpmul#send(Acp142Message)} and {@link ILibjpmul#receive()}, and
+ * writes the results as JSON. <br>
+ * <br>
+ * The results are the goodput, the latency from send until a receiver got a
+ * message and until all its recipients got it as percentiles, the PDUs and
+ * Data_PDU retransmissions per message, and the volume of Ack_PDUs. Every
+ * PDU sent by any node is counted by its type; a Data_PDU or Address_PDU
+ * sent again for the same message is counted as a retransmission. <br>
+ * <br>
+ * Settings are given as key=value arguments, see {@link #DEFAULTS}. Sizes
+ * and recipients are comma separated lists that every message picks from at
+ * random; a recipient count of "all" means every receiver. Messages are sent
+ * to a static multicast group of all nodes unless dynamic=true. The protocol
+ * timers are those of the configuration, loaded from the file given by
+ * config if any, and they bound what a run can achieve, so runs are only
+ * comparable with the same configuration. With virtual=true the run uses a
+ * {@link VirtualClock} in scheduler mode and a seeded {@link RandomSource},
+ * so the timers take no wall time; latencies and goodput are then in virtual
+ * time, and wallSeconds tells how long the run really took.
+ * 
+ * @author libjpmul contributors
+ */
+public class EndToEndBenchmark {
+
+    /**
+     * Default settings.
+     */
+    private static final String[][] DEFAULTS = {
+            { "receivers", "8" },
+            { "messages", "100" },
+            { "sizes", "100,1000,10000,100000" },
+            { "recipients", "1,all" },
+            { "window", "8" },
+            { "loss", "0" },
+            { "delay", "1" },
+            { "jitter", "0" },
+            { "duplicate", "0" },
+            { "reorder", "0" },
+            { "reorderDelay", "0" },
+            { "bandwidth", "0" },
+            { "dynamic", "false" },
+            { "expiry", "600" },
+            { "timeout", "600" },
+            { "seed", "142" },
+            { "virtual", "false" },
+            { "config", "" },
+            { "out", "e2e-results.json" } };
+
+    /**
+     * Size of the sequence number and send time at the start of every
+     * message.
+     */
+    private static final int PAYLOAD_HEADER_SIZE = 12;
+
+    /**
+     * Address of the static multicast group of all nodes.
+     */
+    private static final String GROUP_ADDRESS = "239.142.0.1";
+
+    /**
+     * State of a message sent during a run.
+     */
+    private static class MessageRecord {
+        private final int       size;
+        private final long      sendTime;
+        private final boolean[] recipients;
+        private final int       recipientCount;
+        private int             remaining;
+        private long            completionTime;
+
+        private MessageRecord(int size, long sendTime, boolean[] recipients, int recipientCount) {
+            this.size = size;
+            this.sendTime = sendTime;
+            this.recipients = recipients;
+            this.recipientCount = recipientCount;
+            this.remaining = recipientCount;
+        }
+    }
+
+    /**
+     * Counts the PDUs sent by all nodes of a run, by type.
+     */
+    private static class PduCounter {
+        private final AtomicLongArray packets        = new AtomicLongArray(Pdu.Repair_PDU + 1);
+        private final AtomicLongArray bytes          = new AtomicLongArray(Pdu.Repair_PDU + 1);
+        private final AtomicLong      dataResent     = new AtomicLong();
+        private final AtomicLong      addressResent  = new AtomicLong();
+        private final Set<Long>       dataSent       = Collections
+                                                             .newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        private final Set<Long>       addressSent    = Collections
+                                                             .newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+        private void count( byte[] data ) {
+            Pdu pdu = Pdu.parsePDU(data);
+            if ( pdu == null || pdu.getPduType() < 0 || pdu.getPduType() > Pdu.Repair_PDU ) {
+                return;
+            }
+            packets.incrementAndGet(pdu.getPduType());
+            bytes.addAndGet(pdu.getPduType(), pdu.getLengthOfPDU());
+            if ( pdu instanceof DataPdu ) {
+                DataPdu dataPdu = (DataPdu) pdu;
+                long key = ((long) dataPdu.getSourceID() << 48) ^ ((long) dataPdu.getMessageId() << 16)
+                        ^ dataPdu.getSequenceNumber();
+                if ( !dataSent.add(key) ) {
+                    dataResent.incrementAndGet();
+                }
+            } else if ( pdu instanceof AddressPdu ) {
+                AddressPdu addressPdu = (AddressPdu) pdu;
+                long key = ((long) addressPdu.getSourceID() << 32) ^ (addressPdu.getMessageId() & 0xffffffffL);
+                if ( !addressSent.add(key) ) {
+                    addressResent.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Transport that counts the PDUs sent through it.
+     */
+    private static class CountingTransport implements Transport {
+        private final Transport  transport;
+        private final PduCounter counter;
+
+        private CountingTransport(Transport transport, PduCounter counter) {
+            this.transport = transport;
+            this.counter = counter;
+        }
+
+        @Override
+        public InetAddress getLocalAddress( ) {
+            return transport.getLocalAddress();
+        }
+
+        @Override
+        public Tuple<InetAddress, byte[]> receivePacket( ) {
+            return transport.receivePacket();
+        }
+
+        @Override
+        public void joinMulticastGroup( InetAddress multicastGroup ) {
+            transport.joinMulticastGroup(multicastGroup);
+        }
+
+        @Override
+        public void leaveMulticastGroup( InetAddress multicastGroup ) {
+            transport.leaveMulticastGroup(multicastGroup);
+        }
+
+        @Override
+        public CopyOnWriteArrayList<InetAddress> getCurrentMulticastGroups( ) {
+            return transport.getCurrentMulticastGroups();
+        }
+
+        @Override
+        public void sendRequestReleasePdu( byte[] data, InetAddress group ) {
+            counter.count(data);
+            transport.sendRequestReleasePdu(data, group);
+        }
+
+        @Override
+        public void sendRejectPdu( byte[] data, InetAddress destination ) {
+            counter.count(data);
+            transport.sendRejectPdu(data, destination);
+        }
+
+        @Override
+        public void sendAnnouncePdu( byte[] data ) {
+            counter.count(data);
+            transport.sendAnnouncePdu(data);
+        }
+
+        @Override
+        public void sendAddressDataPdu( byte[] data, InetAddress destination, int priority ) throws IOException {
+            counter.count(data);
+            transport.sendAddressDataPdu(data, destination, priority);
+        }
+
+        @Override
+        public void sendAckPdu( byte[] data, InetAddress destination, int priority ) throws IOException {
+            counter.count(data);
+            transport.sendAckPdu(data, destination, priority);
+        }
+
+        @Override
+        public void sendDiscardPdu( byte[] binary, InetAddress destinationAddress, int priority )
+                throws IOException {
+            counter.count(binary);
+            transport.sendDiscardPdu(binary, destinationAddress, priority);
+        }
+
+        @Override
+        public void close( ) {
+            transport.close();
+        }
+    }
+
+    /**
+     * EMCON handler of nodes that never enter EMCON.
+     */
+    private static class NoEmconHandler implements IEmconHandler {
+        @Override
+        public void enterEmcon( int nodeId ) {
+        }
+
+        @Override
+        public void leaveEmcon( int nodeId ) {
+        }
+
+        @Override
+        public boolean isInEmcon( int nodeId ) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs the benchmark and writes the results.
+     * 
+     * @param args
+     *            settings as key=value.
+     * @throws Exception
+     *             if the configuration can not be loaded, or the results
+     *             can not be written.
+     */
+    public static void main( String[] args ) throws Exception {
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        for (String[] setting : DEFAULTS) {
+            settings.put(setting[0], setting[1]);
+        }
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if ( split < 0 || !settings.containsKey(arg.substring(0, split)) ) {
+                throw new IllegalArgumentException("Unknown setting: " + arg);
+            }
+            settings.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+
+        if ( !settings.get("config").isEmpty() ) {
+            Configuration.load(settings.get("config"));
+        }
+        Log.setLogLevel(Log.LOG_LEVEL_QUIET);
+
+        final Map<String, String> runSettings = settings;
+        final String[] json = new String[1];
+        final Exception[] failure = new Exception[1];
+        ThreadGroup group = new ThreadGroup("EndToEndBenchmark");
+        if ( Boolean.parseBoolean(settings.get("virtual")) ) {
+            VirtualClock clock = new VirtualClock(System.currentTimeMillis());
+            Clock.setClock(clock);
+            RandomSource.setSeed(Long.parseLong(settings.get("seed")));
+            clock.startScheduler(group);
+        }
+        // All threads of the nodes are created in the group of this thread
+        Thread runThread = new Thread(group, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    json[0] = EndToEndBenchmark.run(runSettings);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        }, "EndToEndBenchmark");
+        runThread.start();
+        runThread.join();
+        if ( failure[0] != null ) {
+            throw failure[0];
+        }
+        System.out.println(json[0]);
+        Writer writer = new FileWriter(settings.get("out"));
+        try {
+            writer.write(json[0]);
+        } finally {
+            writer.close();
+        }
+        // The protocol threads of the nodes never end
+        System.exit(0);
+    }
+
+    /**
+     * Runs the benchmark with the given settings.
+     * 
+     * @param settings
+     *            the settings.
+     * @return the results as JSON.
+     * @throws UnknownHostException
+     *             if a node or group address can not be created.
+     * @throws InterruptedException
+     *             if interrupted while sending.
+     */
+    private static String run( Map<String, String> settings ) throws UnknownHostException, InterruptedException {
+        final int receivers = Integer.parseInt(settings.get("receivers"));
+        int messages = Integer.parseInt(settings.get("messages"));
+        int[] sizes = parseList(settings.get("sizes"), receivers);
+        int[] recipientCounts = parseList(settings.get("recipients"), receivers);
+        boolean dynamic = Boolean.parseBoolean(settings.get("dynamic"));
+        Random random = new Random(Long.parseLong(settings.get("seed")));
+
+        MemoryBus bus = new MemoryBus(Long.parseLong(settings.get("seed")));
+        LinkModel linkModel = new LinkModel(Double.parseDouble(settings.get("loss")),
+                Long.parseLong(settings.get("delay")), Long.parseLong(settings.get("jitter")));
+        linkModel.setDuplicateRate(Double.parseDouble(settings.get("duplicate")));
+        linkModel.setReorderRate(Double.parseDouble(settings.get("reorder")));
+        linkModel.setReorderDelay(Long.parseLong(settings.get("reorderDelay")));
+        linkModel.setBandwidth(Long.parseLong(settings.get("bandwidth")));
+        bus.setDefaultLinkModel(linkModel);
+
+        // Node 0 is the sender
+        InetAddress[] addresses = new InetAddress[receivers + 1];
+        ArrayList<Integer> nodeIds = new ArrayList<Integer>();
+        for (int i = 0; i <= receivers; i++) {
+            addresses[i] = InetAddress.getByAddress(new byte[] { 10, (byte) (i >> 16), (byte) (i >> 8),
+                    (byte) (i + 1) });
+            nodeIds.add(Configuration.computeNodeId(addresses[i]));
+        }
+        if ( !dynamic ) {
+            Configuration.addMulticastGroup(new MulticastGroup(InetAddress.getByName(GROUP_ADDRESS), nodeIds));
+        }
+
+        PduCounter counter = new PduCounter();
+        IEmconHandler emconHandler = new NoEmconHandler();
+        Libjpmul[] nodes = new Libjpmul[receivers + 1];
+        for (int i = 0; i <= receivers; i++) {
+            nodes[i] = new Libjpmul(new CountingTransport(bus.createTransport(addresses[i]), counter), emconHandler);
+        }
+
+        final MessageRecord[] records = new MessageRecord[messages];
+        final long[] deliveryLatencies = new long[messages * receivers];
+        final AtomicLong deliveries = new AtomicLong();
+        final AtomicLong unexpectedDeliveries = new AtomicLong();
+        final Semaphore window = new Semaphore(Integer.parseInt(settings.get("window")));
+        final CountDownLatch completed = new CountDownLatch(messages);
+
+        for (int i = 1; i <= receivers; i++) {
+            final Libjpmul node = nodes[i];
+            final int index = i;
+            Thread receiveThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        Acp142Message message = node.receive();
+                        long now = Clock.nanoTime();
+                        if ( message == null || message.getData().length < PAYLOAD_HEADER_SIZE ) {
+                            unexpectedDeliveries.incrementAndGet();
+                            continue;
+                        }
+                        int sequence = ByteBuffer.wrap(message.getData()).getInt();
+                        MessageRecord record = sequence >= 0 && sequence < records.length ? records[sequence] : null;
+                        if ( record == null ) {
+                            unexpectedDeliveries.incrementAndGet();
+                            continue;
+                        }
+                        synchronized (record) {
+                            if ( !record.recipients[index] ) {
+                                unexpectedDeliveries.incrementAndGet();
+                                continue;
+                            }
+                            record.recipients[index] = false;
+                            deliveryLatencies[(int) deliveries.getAndIncrement()] = now - record.sendTime;
+                            if ( --record.remaining == 0 ) {
+                                record.completionTime = now;
+                                window.release();
+                                completed.countDown();
+                            }
+                        }
+                    }
+                }
+            }, "Receiver " + i);
+            receiveThread.setDaemon(true);
+            receiveThread.start();
+        }
+
+        long expiryTime = Long.parseLong(settings.get("expiry"));
+        long wallStart = System.nanoTime();
+        long deadline = wallStart + TimeUnit.SECONDS.toNanos(Long.parseLong(settings.get("timeout")));
+        long start = Clock.nanoTime();
+        int sent = 0;
+        for (int i = 0; i < messages; i++) {
+            int size = Math.max(PAYLOAD_HEADER_SIZE, sizes[random.nextInt(sizes.length)]);
+            int recipientCount = Math.min(receivers, recipientCounts[random.nextInt(recipientCounts.length)]);
+
+            ArrayList<Integer> candidates = new ArrayList<Integer>();
+            for (int j = 1; j <= receivers; j++) {
+                candidates.add(j);
+            }
+            Collections.shuffle(candidates, random);
+            boolean[] recipients = new boolean[receivers + 1];
+            ArrayList<Integer> destinations = new ArrayList<Integer>();
+            for (int j = 0; j < recipientCount; j++) {
+                recipients[candidates.get(j)] = true;
+                destinations.add(nodeIds.get(candidates.get(j)));
+            }
+
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            if ( !window.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) ) {
+                // The window is full of messages that do not complete
+                break;
+            }
+            long sendTime = Clock.nanoTime();
+            ByteBuffer.wrap(data).putInt(i).putLong(sendTime);
+            records[i] = new MessageRecord(size, sendTime, recipients, recipientCount);
+
+            Acp142Message message = new Acp142Message();
+            message.setData(data);
+            message.setDestinations(destinations);
+            message.setDynamic(dynamic);
+            message.setExpiryTime(Clock.currentTimeMillis() / 1000L + expiryTime);
+            nodes[0].send(message);
+            sent++;
+        }
+        boolean finished = sent == messages
+                && completed.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        double wallSeconds = (System.nanoTime() - wallStart) / 1e9;
+        for (Libjpmul node : nodes) {
+            node.shutdown();
+        }
+        bus.close();
+
+        // Collect the results of completed messages
+        long end = start;
+        long payloadBytes = 0;
+        long deliveredBytes = 0;
+        int completedMessages = 0;
+        long[] completionLatencies = new long[messages];
+        for (MessageRecord record : records) {
+            if ( record == null ) {
+                continue;
+            }
+            synchronized (record) {
+                if ( record.remaining == 0 ) {
+                    completionLatencies[completedMessages++] = record.completionTime - record.sendTime;
+                    end = Math.max(end, record.completionTime);
+                    payloadBytes += record.size;
+                }
+                deliveredBytes += (long) record.size * (record.recipientCount - record.remaining);
+            }
+        }
+        completionLatencies = Arrays.copyOf(completionLatencies, completedMessages);
+        long[] latencies = Arrays.copyOf(deliveryLatencies, (int) Math.min(deliveries.get(), deliveryLatencies.length));
+        Arrays.sort(completionLatencies);
+        Arrays.sort(latencies);
+        double seconds = Math.max(1, end - start) / 1e9;
+        double perMessage = Math.max(1, completedMessages);
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"settings\": {");
+        String separator = "\n";
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            json.append(separator).append("    \"").append(setting.getKey()).append("\": \"")
+                    .append(setting.getValue().replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+        json.append("  \"finished\": ").append(finished).append(",\n");
+        json.append("  \"messagesSent\": ").append(sent).append(",\n");
+        json.append("  \"messagesCompleted\": ").append(completedMessages).append(",\n");
+        json.append("  \"unexpectedDeliveries\": ").append(unexpectedDeliveries.get()).append(",\n");
+        json.append("  \"elapsedSeconds\": ").append(format(seconds)).append(",\n");
+        json.append("  \"wallSeconds\": ").append(format(wallSeconds)).append(",\n");
+        json.append("  \"goodputBytesPerSecond\": ").append(format(payloadBytes / seconds)).append(",\n");
+        json.append("  \"deliveredBytesPerSecond\": ").append(format(deliveredBytes / seconds)).append(",\n");
+        json.append("  \"deliveryLatencyMs\": ").append(percentiles(latencies)).append(",\n");
+        json.append("  \"completionLatencyMs\": ").append(percentiles(completionLatencies)).append(",\n");
+        json.append("  \"pdusPerMessage\": ").append(format(sum(counter.packets) / perMessage)).append(",\n");
+        json.append("  \"dataPdusPerMessage\": ")
+                .append(format(counter.packets.get(Pdu.Data_PDU) / perMessage)).append(",\n");
+        json.append("  \"dataRetransmissionsPerMessage\": ")
+                .append(format(counter.dataResent.get() / perMessage)).append(",\n");
+        json.append("  \"addressRetransmissionsPerMessage\": ")
+                .append(format(counter.addressResent.get() / perMessage)).append(",\n");
+        json.append("  \"ackPdus\": ").append(counter.packets.get(Pdu.Ack_PDU)).append(",\n");
+        json.append("  \"ackBytes\": ").append(counter.bytes.get(Pdu.Ack_PDU)).append(",\n");
+        json.append("  \"ackBytesPerMessage\": ")
+                .append(format(counter.bytes.get(Pdu.Ack_PDU) / perMessage)).append(",\n");
+        json.append("  \"pdus\": {");
+        String[] names = { "data", "ack", "address", "discardMessage", "announce", "request", "reject",
+                "release", "repair" };
+        separator = "\n";
+        for (int type = 0; type < names.length; type++) {
+            json.append(separator).append("    \"").append(names[type]).append("\": { \"packets\": ")
+                    .append(counter.packets.get(type)).append(", \"bytes\": ").append(counter.bytes.get(type))
+                    .append(" }");
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+        json.append("  \"bus\": { \"sent\": ").append(bus.getSentPackets()).append(", \"lost\": ")
+                .append(bus.getLostPackets()).append(", \"duplicated\": ").append(bus.getDuplicatedPackets())
+                .append(" }\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Parses a comma separated list of numbers, where "all" stands for the
+     * given number.
+     * 
+     * @param list
+     *            the list.
+     * @param all
+     *            value of "all".
+     * @return the numbers.
+     */
+    private static int[] parseList( String list, int all ) {
+        String[] items = list.split(",");
+        int[] values = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            String item = items[i].trim();
+            values[i] = item.equals("all") ? all : Integer.parseInt(item);
+        }
+        return values;
+    }
+
+    /**
+     * @return the sum of all counts.
+     */
+    private static long sum( AtomicLongArray counts ) {
+        long sum = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            sum += counts.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns p50, p99 and p99.9 of sorted latencies as a JSON object.
+     * 
+     * @param sorted
+     *            latencies in nanoseconds, in ascending order.
+     * @return the percentiles in milliseconds.
+     */
+    private static String percentiles( long[] sorted ) {
+        return "{ \"p50\": " + format(percentile(sorted, 0.50) / 1e6) + ", \"p99\": "
+                + format(percentile(sorted, 0.99) / 1e6) + ", \"p999\": " + format(percentile(sorted, 0.999) / 1e6)
+                + ", \"max\": " + format(percentile(sorted, 1.0) / 1e6) + ", \"count\": " + sorted.length + " }";
+    }
+
+    /**
+     * Returns the given percentile of sorted values.
+     * 
+     * @param sorted
+     *            values in ascending order.
+     * @param fraction
+     *            percentile as a fraction between 0 and 1.
+     * @return the percentile, or 0 if there are no values.
+     */
+    private static long percentile( long[] sorted, double fraction ) {
+        if ( sorted.length == 0 ) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * @return the value with three decimals, as a JSON number.
+     */
+    private static String format( double value ) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -0,0 +1,148 @@
+﻿package no.ntnu.acp142.pdu;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.acp142.Configuration;
+import no.ntnu.acp142.pdu.AckPdu.AckInfoEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Benchmarks creating AckPdus and parsing their ack info entries, across the
+ * number of missing sequence numbers per entry (MM).
+ *
+ * @author libjpmul contributors
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AckPduBenchmark {
+
+    /**
+     * Number of missing sequence numbers in each ack info entry
+     */
+    @Param({ "0", "1", "16", "256", "1024" })
+    public int mm;
+
+    /**
+     * Number of ack info entries, one for each message acknowledged
+     */
+    @Param({ "1", "16" })
+    public int entries;
+
+    private AckInfoEntry[] ackInfoEntries;
+
+    private ArrayList<byte[]> binaries;
+
+    /**
+     * MM before the setup raised it, restored on tear down
+     */
+    private int previousMm;
+
+    /**
+     * Creates the ack info entries, and the binaries of the AckPdus for the
+     * decode benchmark.
+     */
+    @Setup
+    public void setup( ) {
+        previousMm = Configuration.getMm();
+        Configuration.setMm(Math.max(mm, previousMm));
+
+        short[] missing = new short[mm];
+        for (int i = 0; i < mm; i++) {
+            missing[i] = (short) (2 * i + 1);
+        }
+        ackInfoEntries = new AckInfoEntry[entries];
+        for (int i = 0; i < entries; i++) {
+            ackInfoEntries[i] = new AckInfoEntry(1, i + 1, missing);
+        }
+
+        binaries = new ArrayList<byte[]>();
+        for (AckPdu ackPdu : encode()) {
+            binaries.add(ackPdu.getBinary());
+        }
+    }
+
+    /**
+     * Creates the AckPdus carrying all ack info entries, including checksums.
+     *
+     * @return the AckPdus
+     */
+    @Benchmark
+    public ArrayList<AckPdu> encode( ) {
+        return AckPdu.create(2, 0, ackInfoEntries);
+    }
+
+    /**
+     * Parses every AckPdu and the missing sequence numbers of its ack info
+     * entries.
+     *
+     * @param blackhole
+     *          sink for the missing sequence numbers
+     */
+    @Benchmark
+    public void decode( Blackhole blackhole ) {
+        for (byte[] binary : binaries) {
+            AckPdu ackPdu = (AckPdu) Pdu.parsePDU(binary);
+            for (AckInfoEntry ackInfoEntry : ackPdu.getAckInfoEntries()) {
+                blackhole.consume(ackInfoEntry.getMissingSequenceNumbers());
+            }
+        }
+    }
+
+    /**
+     * Restores MM, which is global configuration.
+     */
+    @TearDown
+    public void tearDown( ) {
+        Configuration.setMm(previousMm);
+    }
+}
@@ -0,0 +1,117 @@
+﻿package no.ntnu.acp142.pdu;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.acp142.pdu.AddressPdu.DestinationEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Benchmarks creating the AddressPdus of a message and parsing their
+ * destination entries, across destination counts.
+ *
+ * @author libjpmul contributors
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressPduBenchmark {
+
+    /**
+     * Number of destinations of the message
+     */
+    @Param({ "1", "10", "100", "1000", "5000" })
+    public int destinations;
+
+    private DestinationEntry[] destinationEntries;
+
+    private ArrayList<byte[]> binaries;
+
+    /**
+     * Creates the destination entries, and the binaries of the AddressPdus for
+     * the decode benchmark.
+     */
+    @Setup
+    public void setup( ) {
+        destinationEntries = new DestinationEntry[destinations];
+        for (int i = 0; i < destinations; i++) {
+            destinationEntries[i] = new DestinationEntry(i + 1, i + 1, null);
+        }
+
+        binaries = new ArrayList<byte[]>();
+        for (AddressPdu addressPdu : encode()) {
+            binaries.add(addressPdu.getBinary());
+        }
+    }
+
+    /**
+     * Creates the AddressPdus of a message, including checksums.
+     *
+     * @return the AddressPdus
+     */
+    @Benchmark
+    public ArrayList<AddressPdu> encode( ) {
+        return AddressPdu.create(0, (short) 1, 1, 1, 0, destinationEntries, 0);
+    }
+
+    /**
+     * Parses every AddressPdu of the message and its destination entries.
+     *
+     * @param blackhole
+     *          sink for the destination entries
+     */
+    @Benchmark
+    public void decode( Blackhole blackhole ) {
+        for (byte[] binary : binaries) {
+            AddressPdu addressPdu = (AddressPdu) Pdu.parsePDU(binary);
+            blackhole.consume(addressPdu.getDestinationEntries());
+        }
+    }
+}
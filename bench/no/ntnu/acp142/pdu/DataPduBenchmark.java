@@ -0,0 +1,115 @@
+﻿package no.ntnu.acp142.pdu;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Benchmarks fragmenting a message into DataPdus, and parsing DataPdus back
+ * into data fragments, across payload sizes.
+ *
+ * @author libjpmul contributors
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataPduBenchmark {
+
+    /**
+     * Size of the message payload in bytes
+     */
+    @Param({ "64", "1024", "16384", "262144", "1048576" })
+    public int payloadSize;
+
+    private byte[] payload;
+
+    private ArrayList<byte[]> binaries;
+
+    /**
+     * Creates the payload, and the binaries of its DataPdus for the decode
+     * benchmark.
+     */
+    @Setup
+    public void setup( ) {
+        payload = new byte[payloadSize];
+        new Random(142).nextBytes(payload);
+
+        binaries = new ArrayList<byte[]>();
+        for (DataPdu dataPdu : DataPdu.create(0, 1, 1, payload)) {
+            binaries.add(dataPdu.getBinary());
+        }
+    }
+
+    /**
+     * Fragments the payload into DataPdus, including checksums.
+     *
+     * @return the DataPdus
+     */
+    @Benchmark
+    public ArrayList<DataPdu> encode( ) {
+        return DataPdu.create(0, 1, 1, payload);
+    }
+
+    /**
+     * Parses every DataPdu of the payload and extracts its data fragment.
+     *
+     * @param blackhole
+     *          sink for the data fragments
+     */
+    @Benchmark
+    public void decode( Blackhole blackhole ) {
+        for (byte[] binary : binaries) {
+            DataPdu dataPdu = (DataPdu) Pdu.parsePDU(binary);
+            blackhole.consume(dataPdu.getDataFragment());
+        }
+    }
+}
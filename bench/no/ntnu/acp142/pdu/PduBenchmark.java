@@ -0,0 +1,148 @@
+﻿package no.ntnu.acp142.pdu;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.acp142.pdu.AckPdu.AckInfoEntry;
+import no.ntnu.acp142.pdu.AddressPdu.DestinationEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Benchmarks encoding one PDU of every type, the type dispatch of
+ * Pdu.parsePDU, and the checksum computation. The checksum is benchmarked
+ * through setChecksum, which computes it over the whole binary.
+ *
+ * @author libjpmul contributors
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PduBenchmark {
+
+    /**
+     * Type of PDU benchmarked
+     */
+    @Param({ "Data", "Ack", "Address", "DiscardMessage", "Announce", "Request", "Reject", "Release", "Repair" })
+    public String pduType;
+
+    private byte[] payload;
+
+    private DataPdu dataPdu;
+
+    private byte[] binary;
+
+    private Pdu pdu;
+
+    /**
+     * Creates a PDU of the benchmarked type, and its binary for the parse and
+     * checksum benchmarks.
+     */
+    @Setup
+    public void setup( ) {
+        payload = new byte[1024];
+        dataPdu = DataPdu.create(0, 1, 1, payload).get(0);
+        pdu = encode();
+        binary = pdu.getBinary().clone();
+    }
+
+    /**
+     * Creates one PDU of the benchmarked type, including its checksum.
+     *
+     * @return the PDU
+     */
+    @Benchmark
+    public Pdu encode( ) {
+        switch ( pduType ) {
+        case "Data":
+            return DataPdu.create(0, 1, 1, payload).get(0);
+        case "Ack":
+            return AckPdu.create(2, 0, new AckInfoEntry[] { new AckInfoEntry(1, 1, new short[] { 1, 2 }) }).get(0);
+        case "Address":
+            return AddressPdu.create(0, (short) 1, 1, 1, 0,
+                    new DestinationEntry[] { new DestinationEntry(2, 1, null) }, 0).get(0);
+        case "DiscardMessage":
+            return DiscardMessagePdu.create(0, 1, 1);
+        case "Announce":
+            return AnnouncePdu.create(1, 1, 0, 0xEF000001, new int[] { 2, 3, 4 }).get(0);
+        case "Request":
+            return RequestPdu.create(1, 1, 0xEF000001);
+        case "Reject":
+            return RejectPdu.create(1, 1, 0xEF000001);
+        case "Release":
+            return ReleasePdu.create(1, 1, 0xEF000001);
+        case "Repair":
+            ArrayList<DataPdu> block = new ArrayList<DataPdu>();
+            block.add(dataPdu);
+            return RepairPdu.create(0, 1, 1, block, 1).get(0);
+        default:
+            throw new IllegalArgumentException("Unknown PDU type " + pduType);
+        }
+    }
+
+    /**
+     * Parses the binary of a PDU of the benchmarked type.
+     *
+     * @return the parsed PDU
+     */
+    @Benchmark
+    public Pdu parse( ) {
+        return Pdu.parsePDU(binary);
+    }
+
+    /**
+     * Computes the checksum of a PDU of the benchmarked type.
+     *
+     * @return the checksum
+     */
+    @Benchmark
+    public short checksum( ) {
+        pdu.setChecksum();
+        return pdu.getChecksum();
+    }
+}
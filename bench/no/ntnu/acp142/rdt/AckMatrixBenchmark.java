@@ -0,0 +1,168 @@
+﻿package no.ntnu.acp142.rdt;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.acp142.Configuration;
+import no.ntnu.acp142.pdu.AckPdu.AckInfoEntry;
+import no.ntnu.acp142.pdu.AddressPdu;
+import no.ntnu.acp142.pdu.AddressPdu.DestinationEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Benchmarks the acknowledgment matrix of a sent message, without sockets or
+ * threads: recording one recipient's ack info entry with setAcked, and the
+ * completeness scan that ReceiveThread runs over the whole matrix for every
+ * received Ack_PDU. Both are measured per ack info entry, across recipient
+ * and fragment counts.
+ * 
+ * @author libjpmul contributors
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AckMatrixBenchmark {
+
+	/**
+	 * Number of recipients of the message.
+	 */
+	@Param({ "1", "10", "100", "1000", "2000" })
+	public int recipients;
+
+	/**
+	 * Number of Data_PDUs of the message.
+	 */
+	@Param({ "1", "64", "1024", "16384" })
+	public int fragments;
+
+	/**
+	 * Number of Data_PDUs every ack reports missing.
+	 */
+	@Param({ "0", "16" })
+	public int missing;
+
+	private MessageEntry messageEntry;
+
+	/**
+	 * One ack info entry from every recipient.
+	 */
+	private AckInfoEntry[] ackInfoEntries;
+
+	private int next;
+
+	private ArrayList<Integer> emconIndexes;
+
+	/**
+	 * MM before the setup raised it, restored on tear down
+	 */
+	private int previousMm;
+
+	/**
+	 * Creates a sent message with its ack matrix, and an ack info entry from
+	 * every recipient.
+	 */
+	@Setup
+	public void setup() {
+		previousMm = Configuration.getMm();
+		Configuration.setMm(Math.max(missing, previousMm));
+
+		DestinationEntry[] destinationEntries = new DestinationEntry[recipients];
+		for (int i = 0; i < recipients; i++) {
+			destinationEntries[i] = new DestinationEntry(i + 2, i + 1, null);
+		}
+		messageEntry = new MessageEntry();
+		for (AddressPdu addressPdu : AddressPdu.create(0, (short) fragments, 1, 1, 0, destinationEntries, 0)) {
+			messageEntry.addAddressPdu(addressPdu);
+		}
+		messageEntry.initAckedList();
+
+		short[] missingSequenceNumbers = new short[Math.min(missing, fragments)];
+		for (int i = 0; i < missingSequenceNumbers.length; i++) {
+			missingSequenceNumbers[i] = (short) (1 + i * fragments / missingSequenceNumbers.length);
+		}
+		ackInfoEntries = new AckInfoEntry[recipients];
+		for (int i = 0; i < recipients; i++) {
+			ackInfoEntries[i] = new AckInfoEntry(i + 2, 1, missingSequenceNumbers);
+		}
+		for (AckInfoEntry ackInfoEntry : ackInfoEntries) {
+			messageEntry.setAcked(ackInfoEntry);
+		}
+
+		emconIndexes = new ArrayList<Integer>();
+		next = 0;
+	}
+
+	/**
+	 * Records the ack info entry of the next recipient.
+	 */
+	@Benchmark
+	public void setAcked() {
+		messageEntry.setAcked(ackInfoEntries[next]);
+		next = (next + 1) % ackInfoEntries.length;
+	}
+
+	/**
+	 * Scans the ack matrix to determine whether every recipient has
+	 * acknowledged every Data_PDU.
+	 * 
+	 * @return true if the message is completely acknowledged.
+	 */
+	@Benchmark
+	public boolean scanAckMatrix() {
+		return ReceiveThread.isCompletelyAcked(messageEntry.getAckedMatrix(), emconIndexes);
+	}
+
+	/**
+	 * Restores MM, which is global configuration.
+	 */
+	@TearDown
+	public void tearDown() {
+		Configuration.setMm(previousMm);
+	}
+}
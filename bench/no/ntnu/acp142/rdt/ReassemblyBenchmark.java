@@ -0,0 +1,280 @@
+﻿package no.ntnu.acp142.rdt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.acp142.pdu.AddressPdu;
+import no.ntnu.acp142.pdu.AddressPdu.DestinationEntry;
+import no.ntnu.acp142.pdu.DataPdu;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Benchmarks the per Data_PDU work of reassembling a received message in a
+ * MessageEntry, without sockets or threads. Every invocation of receivePdu
+ * handles one Data_PDU the way ReceiveThread does, so the reported time and
+ * allocation are per Data_PDU, and grow with the fragment count where the
+ * work is quadratic. The remaining benchmarks measure single operations on a
+ * message entry that has received its Data_PDUs up to the loss pattern. <br>
+ * <br>
+ * The fragment count is capped at 32767, since the Address_PDU total is read
+ * as a signed short.
+ * 
+ * @author libjpmul contributors
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReassemblyBenchmark {
+
+	/**
+	 * Order in which the Data_PDUs of a message arrive.
+	 */
+	public enum Arrival {
+		/**
+		 * Every Data_PDU arrives once, in sequence number order.
+		 */
+		IN_ORDER,
+		/**
+		 * Every Data_PDU arrives once, in random order.
+		 */
+		OUT_OF_ORDER,
+		/**
+		 * Every tenth Data_PDU is lost, and arrives again after the rest of
+		 * the message, as when retransmitted after an ack.
+		 */
+		LOSSY
+	}
+
+	/**
+	 * Number of Data_PDUs of the message.
+	 */
+	@Param({ "1", "64", "1024", "16384", "32767" })
+	public int fragments;
+
+	/**
+	 * Order in which the Data_PDUs arrive.
+	 */
+	@Param({ "IN_ORDER", "OUT_OF_ORDER", "LOSSY" })
+	public Arrival arrival;
+
+	/**
+	 * Size of the data fragment of every Data_PDU.
+	 */
+	private static final int FRAGMENT_SIZE = 64;
+
+	private AddressPdu addressPdu;
+
+	private DataPdu[] dataPdus;
+
+	/**
+	 * Indexes into dataPdus, in arrival order.
+	 */
+	private int[] order;
+
+	/**
+	 * Number of arrivals before the first retransmission, when the receiver
+	 * would send an ack listing the missing Data_PDUs.
+	 */
+	private int firstPass;
+
+	private MessageEntry receiving;
+
+	private int next;
+
+	private MessageEntry partial;
+
+	private DataPduList partialList;
+
+	private MessageEntry complete;
+
+	/**
+	 * Creates the PDUs of a message and the arrival order.
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		ArrayList<DataPdu> pdus = DataPdu.create(0, 1, 1, new byte[fragments * FRAGMENT_SIZE],
+				DataPdu.DATA_PDU_BASE_SIZE + FRAGMENT_SIZE);
+		dataPdus = pdus.toArray(new DataPdu[pdus.size()]);
+		addressPdu = AddressPdu.create(0, (short) dataPdus.length, 1, 1, 0,
+				new DestinationEntry[] { new DestinationEntry(2, 1, null) }, 0).get(0);
+
+		ArrayList<Integer> arrivals = new ArrayList<Integer>();
+		ArrayList<Integer> lost = new ArrayList<Integer>();
+		for (int i = 0; i < dataPdus.length; i++) {
+			if (arrival == Arrival.LOSSY && i % 10 == 9) {
+				lost.add(i);
+			} else {
+				arrivals.add(i);
+			}
+		}
+		if (arrival == Arrival.OUT_OF_ORDER) {
+			Collections.shuffle(arrivals, new Random(142));
+		}
+		firstPass = arrivals.size();
+		arrivals.addAll(lost);
+
+		order = new int[arrivals.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = arrivals.get(i);
+		}
+	}
+
+	/**
+	 * Creates the message entries used by the single operation benchmarks,
+	 * and starts a new message for receivePdu.
+	 */
+	@Setup(Level.Iteration)
+	public void setupEntries() {
+		partial = newEntry();
+		partialList = new DataPduList();
+		for (int i = 0; i < firstPass; i++) {
+			partial.addDataPdu(dataPdus[order[i]]);
+			partialList.add(dataPdus[order[i]].getSequenceNumber(), dataPdus[order[i]]);
+		}
+		complete = newEntry();
+		for (DataPdu dataPdu : dataPdus) {
+			complete.addDataPdu(dataPdu);
+		}
+		receiving = newEntry();
+		next = 0;
+	}
+
+	/**
+	 * Handles the next arriving Data_PDU: adds it, checks whether the message
+	 * is complete, lists the missing Data_PDUs when an ack is due, and
+	 * reassembles the data once complete.
+	 * 
+	 * @param blackhole sink for the results.
+	 */
+	@Benchmark
+	public void receivePdu(Blackhole blackhole) {
+		receiving.addDataPdu(dataPdus[order[next++]]);
+		blackhole.consume(receiving.dataReady());
+		if (next == firstPass) {
+			blackhole.consume(receiving.getMissingDataSequenceNumbers());
+		}
+		if (next == order.length) {
+			blackhole.consume(receiving.getData());
+			receiving = newEntry();
+			next = 0;
+		}
+	}
+
+	/**
+	 * Adds a Data_PDU that was already received.
+	 */
+	@Benchmark
+	public void addDataPdu() {
+		complete.addDataPdu(dataPdus[dataPdus.length / 2]);
+	}
+
+	/**
+	 * Checks whether a message is complete.
+	 * 
+	 * @return true if complete.
+	 */
+	@Benchmark
+	public boolean dataReady() {
+		return partial.dataReady();
+	}
+
+	/**
+	 * Lists the missing Data_PDUs of a message.
+	 * 
+	 * @return missing sequence numbers.
+	 */
+	@Benchmark
+	public ArrayList<Integer> getMissingDataSequenceNumbers() {
+		return partial.getMissingDataSequenceNumbers();
+	}
+
+	/**
+	 * Reassembles the data of a complete message.
+	 * 
+	 * @return the data.
+	 */
+	@Benchmark
+	public byte[] getData() {
+		return complete.getData();
+	}
+
+	/**
+	 * Lists the missing Data_PDUs directly in the DataPduList.
+	 * 
+	 * @return missing sequence numbers.
+	 */
+	@Benchmark
+	public ArrayList<Integer> getMissing() {
+		return partialList.getMissing(dataPdus.length);
+	}
+
+	/**
+	 * Finds the highest sequence number received.
+	 * 
+	 * @return highest sequence number.
+	 */
+	@Benchmark
+	public int getHighestSequenceNumber() {
+		return partialList.getHighestSequenceNumber();
+	}
+
+	/**
+	 * Creates a message entry that has received the Address_PDU.
+	 * 
+	 * @return the message entry.
+	 */
+	private MessageEntry newEntry() {
+		MessageEntry messageEntry = new MessageEntry();
+		messageEntry.addAddressPdu(addressPdu);
+		return messageEntry;
+	}
+}
@@ -0,0 +1,240 @@
+﻿package no.ntnu.acp142.rdt;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Load profile of the timer subsystem. Runs the real TimerThread scheduling
+ * loop with the timer tasks replaced by a stub, so no ReliableDataTransfer
+ * or sockets are needed, while another thread churns timers the way the RDT
+ * layer does. For 1k, 10k and 100k live timers it reports the throughput of
+ * timer operations, the CPU time per operation of both threads, and the
+ * scheduling error of fired timers (fire time minus deadline) as
+ * percentiles. <br>
+ * <br>
+ * The live timers are a mix of long EXPIRY timers that never fire during a
+ * run, ACK_DELAY and RETRANSMISSION timers that are restarted often and fire
+ * when not restarted in time, and timers that are cancelled right after
+ * being started.
+ * 
+ * @author libjpmul contributors
+ */
+public class TimerLoadProfile {
+
+	/**
+	 * Numbers of live timers to profile.
+	 */
+	private static final int[] LIVE_TIMERS = { 1000, 10000, 100000 };
+
+	/**
+	 * Duration of each run in milliseconds.
+	 */
+	private static final long RUN_TIME = 10000;
+
+	/**
+	 * Deadline of the EXPIRY timers, beyond the end of a run.
+	 */
+	private static final long EXPIRY_TIME = 10 * RUN_TIME;
+
+	/**
+	 * TimerThread whose tasks only record when timers fire, and then stop
+	 * them as the real tasks do.
+	 */
+	private static class StubTimerThread extends TimerThread {
+
+		/**
+		 * Scheduling error of every fired timer in milliseconds.
+		 */
+		private long[] errors = new long[1024];
+
+		private int fired = 0;
+
+		/**
+		 * Creates a timer thread without a ReliableDataTransfer.
+		 */
+		StubTimerThread() {
+			super(null);
+			setDaemon(true);
+		}
+
+		@Override
+		void timeHandler(Timer timer) {
+			long error = System.currentTimeMillis() - (timer.getStartTime() + timer.getEndTime());
+			synchronized (this) {
+				if (fired == errors.length) {
+					errors = Arrays.copyOf(errors, 2 * fired);
+				}
+				errors[fired++] = error;
+			}
+			stopTimer(timer.getMsg(), timer.getType());
+		}
+
+		/**
+		 * Returns the sorted scheduling errors of all fired timers.
+		 * 
+		 * @return scheduling errors in milliseconds.
+		 */
+		synchronized long[] getErrors() {
+			long[] sorted = Arrays.copyOf(errors, fired);
+			Arrays.sort(sorted);
+			return sorted;
+		}
+	}
+
+	/**
+	 * Runs the load profile for every number of live timers.
+	 * 
+	 * @param args unused.
+	 * @throws InterruptedException if interrupted while waiting for a run.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		for (int live : LIVE_TIMERS) {
+			run(live);
+		}
+	}
+
+	/**
+	 * Runs the load profile with the given number of live timers, and prints
+	 * the results.
+	 * 
+	 * @param live number of live timers.
+	 * @throws InterruptedException if interrupted while waiting for the run.
+	 */
+	private static void run(int live) throws InterruptedException {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Random random = new Random(142);
+		StubTimerThread timerThread = new StubTimerThread();
+
+		// 70 % EXPIRY, 20 % ACK_DELAY and 10 % RETRANSMISSION timers
+		MessageEntry[] entries = new MessageEntry[live];
+		TimerType[] types = new TimerType[live];
+		for (int i = 0; i < live; i++) {
+			entries[i] = new MessageEntry();
+			int kind = i % 10;
+			if (kind < 7) {
+				types[i] = kind % 2 == 0 ? TimerType.EXPIRY_TIMER_RECEIVE : TimerType.EXPIRY_TIMER_TRANSMIT;
+			} else if (kind < 9) {
+				types[i] = TimerType.ACK_DELAY;
+			} else {
+				types[i] = TimerType.RETRANSMISSION_TIMER;
+			}
+			timerThread.addTimer(newTimer(types[i], entries[i], random));
+		}
+		timerThread.start();
+
+		long operations = 0;
+		long cpuStart = threads.getCurrentThreadCpuTime();
+		long timerCpuStart = threads.getThreadCpuTime(timerThread.getId());
+		long start = System.currentTimeMillis();
+		long end = start + RUN_TIME;
+		while (System.currentTimeMillis() < end) {
+			int i = 7 + 10 * random.nextInt(live / 10) + random.nextInt(3);
+			if (i >= live) {
+				continue;
+			}
+			int action = random.nextInt(10);
+			if (action < 8) {
+				// Restart, as when an ack or a retransmission arrives
+				timerThread.stopTimer(entries[i], types[i]);
+				timerThread.addTimer(newTimer(types[i], entries[i], random));
+				operations += 2;
+			} else {
+				// Start and cancel right away, as when a message completes
+				timerThread.addTimer(newTimer(TimerType.ACK_TIMER, entries[i], random));
+				timerThread.stopTimer(entries[i], TimerType.ACK_TIMER);
+				operations += 2;
+			}
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		long cpu = threads.getCurrentThreadCpuTime() - cpuStart;
+		long timerCpu = threads.getThreadCpuTime(timerThread.getId()) - timerCpuStart;
+
+		long[] errors = timerThread.getErrors();
+		System.out.println("Live timers: " + live);
+		System.out.println("  operations/s:            " + operations * 1000 / Math.max(1, elapsed));
+		System.out.println("  caller CPU ns/operation: " + cpu / Math.max(1, operations));
+		System.out.println("  timer CPU ns/operation:  " + timerCpu / Math.max(1, operations));
+		System.out.println("  timers fired:            " + errors.length);
+		System.out.println("  scheduling error ms p50: " + percentile(errors, 0.50) + ", p90: "
+				+ percentile(errors, 0.90) + ", p99: " + percentile(errors, 0.99) + ", p99.9: "
+				+ percentile(errors, 0.999) + ", max: " + percentile(errors, 1.0));
+		timerThread.shutdown();
+		timerThread.join();
+	}
+
+	/**
+	 * Creates a timer of the given type starting now, with a deadline typical
+	 * for the type.
+	 * 
+	 * @param type type of the timer.
+	 * @param messageEntry message the timer belongs to.
+	 * @param random source of deadline jitter.
+	 * @return the timer.
+	 */
+	private static Timer newTimer(TimerType type, MessageEntry messageEntry, Random random) {
+		long endTime;
+		switch (type) {
+		case EXPIRY_TIMER_RECEIVE:
+		case EXPIRY_TIMER_TRANSMIT:
+			endTime = EXPIRY_TIME;
+			break;
+		case RETRANSMISSION_TIMER:
+			endTime = 500 + random.nextInt(1500);
+			break;
+		default:
+			endTime = 10 + random.nextInt(190);
+			break;
+		}
+		return new Timer(endTime, System.currentTimeMillis(), type, messageEntry);
+	}
+
+	/**
+	 * Returns the given percentile of sorted values.
+	 * 
+	 * @param sorted values in ascending order.
+	 * @param fraction percentile as a fraction between 0 and 1.
+	 * @return the percentile, or 0 if there are no values.
+	 */
+	private static long percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+}
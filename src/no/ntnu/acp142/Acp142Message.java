@@ -4,6 +4,7 @@ import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import no.ntnu.acp142.pdu.AddressPdu;
 import no.ntnu.acp142.pdu.AddressPdu.DestinationEntry;
 import no.ntnu.acp142.pdu.DataPdu;
@@ -83,6 +84,12 @@ public class Acp142Message {
 	 */
 	private int priority;
 
+	/**
+	 * Reserved field of the destination entries, used by the library to mark
+	 * batched messages. Null if none.
+	 */
+	private byte[] reservedField;
+
 	/**
 	 * Default constructor for a Acp142Message.
 	 */
@@ -250,24 +257,157 @@ public class Acp142Message {
 	    return priority;
 	}
 
+	/**
+	 * Returns the reserved field of the destination entries of the message.
+	 * 
+	 * @return reserved field, or null if none.
+	 */
+	byte[] getReservedField() {
+		return reservedField;
+	}
+
+	/**
+	 * Sets the reserved field of the destination entries of the message.
+	 * 
+	 * @param reservedField
+	 *            reserved field, or null for none.
+	 */
+	void setReservedField(byte[] reservedField) {
+		this.reservedField = reservedField;
+	}
+
 	/**
 	 * Creates a MessageEntry from this Acp142Message, and returns it.
 	 * 
 	 * @return messageEntry The message entry representing this Acp142Message.
 	 */
 	public MessageEntry toMessageEntry() {
+		return toMessageEntry(Configuration.getPduMaxSize());
+	}
+
+	/**
+	 * Creates a MessageEntry from this Acp142Message with PDUs no larger than
+	 * the given size, and returns it.
+	 * 
+	 * @param pduMaxSize
+	 *            maximum size of the PDUs created.
+	 * @return messageEntry The message entry representing this Acp142Message.
+	 */
+	public MessageEntry toMessageEntry(int pduMaxSize) {
+		return toMessageEntry(Configuration.getNodeId(), pduMaxSize);
+	}
+
+	/**
+	 * Creates a MessageEntry from this Acp142Message, sent by the given node
+	 * with PDUs no larger than the given size, and returns it.
+	 * 
+	 * @param sourceId
+	 *            source ID of the sending node.
+	 * @param pduMaxSize
+	 *            maximum size of the PDUs created.
+	 * @return messageEntry The message entry representing this Acp142Message.
+	 */
+	public MessageEntry toMessageEntry(int sourceId, int pduMaxSize) {
+		return toMessageEntry(sourceId, Libjpmul.getMessageId(), data,
+				reservedField, pduMaxSize);
+	}
+
+	/**
+	 * Creates the MessageEntries needed to send this Acp142Message with PDUs
+	 * no larger than the given size. Data that does not fit into one ACP142
+	 * message, or is larger than SEGMENT_MAX_SIZE, is split into segments sent
+	 * as separate messages. Each segment carries a segment header linking it to
+	 * the message ID of the first segment, so the receiver can reassemble them.
+	 * 
+	 * @param pduMaxSize
+	 *            maximum size of the PDUs created.
+	 * @return messageEntries The message entries representing this
+	 *         Acp142Message, in segment order.
+	 */
+	public ArrayList<MessageEntry> toMessageEntries(int pduMaxSize) {
+		return toMessageEntries(Configuration.getNodeId(), pduMaxSize);
+	}
+
+	/**
+	 * Creates the MessageEntries needed to send this Acp142Message from the
+	 * given node, as {@link #toMessageEntries(int)}.
+	 * 
+	 * @param sourceId
+	 *            source ID of the sending node.
+	 * @param pduMaxSize
+	 *            maximum size of the PDUs created.
+	 * @return messageEntries The message entries representing this
+	 *         Acp142Message, in segment order.
+	 */
+	public ArrayList<MessageEntry> toMessageEntries(int sourceId, int pduMaxSize) {
+		ArrayList<MessageEntry> messageEntries = new ArrayList<MessageEntry>();
+
+		// The total number of PDUs is a signed short in the Address_PDU
+		long segmentSize = (long) Short.MAX_VALUE
+				* DataPdu.getMaxDataFragmentSize(priority, pduMaxSize);
+		if (Configuration.getSegmentMaxSize() > 0) {
+			segmentSize = Math.min(segmentSize, Configuration.getSegmentMaxSize());
+		}
+
+		if (data.length <= segmentSize) {
+			messageEntries.add(toMessageEntry(sourceId, pduMaxSize));
+			return messageEntries;
+		}
+
+		long segmentCount = (data.length + segmentSize - 1) / segmentSize;
+		if (segmentCount > SegmentReassembler.SEGMENT_COUNT_MAX) {
+			Log.writeLine(Log.LOG_LEVEL_QUIET, "Message of " + data.length
+					+ " bytes needs too many segments; message not sent.");
+			return messageEntries;
+		}
+
+		int objectId = 0;
+		for (int i = 0; i < segmentCount; i++) {
+			int messageId = Libjpmul.getMessageId();
+			if (i == 0) {
+				objectId = messageId;
+			}
+			int offset = (int) (i * segmentSize);
+			byte[] segment = Arrays.copyOfRange(data, offset,
+					(int) Math.min(data.length, offset + segmentSize));
+			byte[] segmentHeader = SegmentReassembler.createSegmentHeader(
+					objectId, i, (int) segmentCount);
+			messageEntries.add(toMessageEntry(sourceId, messageId, segment,
+					segmentHeader, pduMaxSize));
+		}
+		Log.writeLine(Log.LOG_LEVEL_VERBOSE, "Message of {} bytes split into {} segments.",
+				data.length, segmentCount);
+		return messageEntries;
+	}
+
+	/**
+	 * Creates a MessageEntry carrying the given data for this Acp142Message.
+	 * 
+	 * @param sourceId
+	 *            source ID of the sending node.
+	 * @param messageId
+	 *            message ID of the entry.
+	 * @param data
+	 *            data of the entry.
+	 * @param reservedField
+	 *            reserved field of every destination entry, null if none.
+	 * @param pduMaxSize
+	 *            maximum size of the PDUs created.
+	 * @return messageEntry The message entry.
+	 */
+	private MessageEntry toMessageEntry(int sourceId, int messageId, byte[] data,
+			byte[] reservedField, int pduMaxSize) {
 		MessageEntry messageEntry = new MessageEntry();
 		// Set state
 		messageEntry.setState(States.START_STATE);
 		messageEntry.setDynamicGroupTag(useDynamic);
 		messageEntry.setPersistentMulticastGroup(usePersistentGroup);
-		int messageId = Libjpmul.getMessageId();
 		messageEntry.setPriority(this.priority);
 
 		// First we create all the data pdu(s) that we want to send, and add
 		// them to the message entry.
 		ArrayList<DataPdu> dataPdus = DataPdu.create(priority,
-				Configuration.getNodeId(), messageId, data);
+				sourceId, messageId, data, pduMaxSize);
 
 		for (DataPdu dataPdu : dataPdus) {
 			messageEntry.addDataPdu(dataPdu);
@@ -276,7 +416,7 @@ public class Acp142Message {
 		// We need to make an array of DestinationEntries to pass to our
 		// address pdu create function.
 		int seqNumber = 1; // Sequence number for destination entries.
-		byte[] b = new byte[0];
+		byte[] b = reservedField == null ? new byte[0] : reservedField;
 		ArrayList<DestinationEntry> destinationEntries = new ArrayList<DestinationEntry>();
 		for (Integer destination : destinations) {
 			destinationEntries.add(new DestinationEntry(destination,
@@ -291,8 +431,8 @@ public class Acp142Message {
 		}
 
 		ArrayList<AddressPdu> addressPdus = AddressPdu.create(priority, (short) dataPdus.size(),
-				Configuration.getNodeId(), messageId, (int) this.expiryTime,
-				destinationsArray, (byte) 0);
+				sourceId, messageId, (int) this.expiryTime,
+				destinationsArray, b.length, pduMaxSize);
 		for (AddressPdu addressPdu : addressPdus) {
 			messageEntry.addAddressPdu(addressPdu);
 		}
@@ -311,17 +451,21 @@ public class Acp142Message {
 		Acp142Message message = new Acp142Message();
 
 		message.setDestinations(messageEntry.getRecipients());
-		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Adding "
-				+ messageEntry.getRecipients().size() + " recipients.");
+		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Adding {} recipients.",
+				messageEntry.getRecipients().size());
 		message.setData(messageEntry.getData());
-		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Adding: " + messageEntry.getData()
-				+ " as data.");
 		message.setSourceID(messageEntry.getAddressPdu().getSourceID());
-		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Adding sourceId: "
-				+ messageEntry.getAddressPdu().getSourceID());
+		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Adding sourceId: {}",
+				messageEntry.getAddressPdu().getSourceID());
 		message.setExpiryTime(messageEntry.getAddressPdu().getExpiryTime());
-		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Expiry time set to: "
-				+ messageEntry.getAddressPdu().getExpiryTime());
+		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Expiry time set to: {}",
+				messageEntry.getAddressPdu().getExpiryTime());
+		message.setPriority(messageEntry.getAddressPdu().getPriority());
+		if (messageEntry.getAddressPdu().getLengthOfReservedField() > 0
+				&& !messageEntry.getAddressPdu().getDestinationEntries().isEmpty()) {
+			message.setReservedField(messageEntry.getAddressPdu()
+					.getDestinationEntries().get(0).getReservedField());
+		}
 
 		return message;
 	}
@@ -0,0 +1,196 @@
+﻿package no.ntnu.acp142;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Source of time for the library. All protocol timers, expiry times and
+ * delays read the time and sleep through the clock set here, which is the
+ * system clock unless another is set with {@link #setClock(Clock)}. Setting a
+ * {@link VirtualClock} before creating any Libjpmul instance lets a
+ * simulation run faster than real time.
+ * 
+ * @author libjpmul contributors
+ */
+public abstract class Clock {
+
+    /**
+     * The clock used by the library.
+     */
+    private static volatile Clock clock = new SystemClock();
+
+    /**
+     * @return the clock used by the library.
+     */
+    public static Clock getClock( ) {
+        return clock;
+    }
+
+    /**
+     * Sets the clock used by the library. Should be set before any Libjpmul
+     * instance is created, as timers started on one clock are not moved to
+     * another.
+     * 
+     * @param clock
+     *            the clock to use.
+     */
+    public static void setClock( Clock clock ) {
+        Clock.clock = clock;
+    }
+
+    /**
+     * @return current time in milliseconds since the epoch, as
+     *         {@link System#currentTimeMillis()}.
+     */
+    public static long currentTimeMillis( ) {
+        return clock.timeMillis();
+    }
+
+    /**
+     * @return current value of a time source in nanoseconds, only meaningful
+     *         as a difference, as {@link System#nanoTime()}.
+     */
+    public static long nanoTime( ) {
+        return clock.timeNanos();
+    }
+
+    /**
+     * Sleeps for the given time, as {@link Thread#sleep(long)}.
+     * 
+     * @param millis
+     *            time to sleep in milliseconds.
+     * @throws InterruptedException
+     *             if interrupted while sleeping.
+     */
+    public static void sleep( long millis ) throws InterruptedException {
+        clock.sleepNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Waits on the given monitor for at most the given time, as
+     * {@link Object#wait(long)}. The caller must hold the monitor.
+     * 
+     * @param monitor
+     *            the monitor to wait on.
+     * @param millis
+     *            longest time to wait in milliseconds, 0 to wait until
+     *            notified.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    public static void waitOn( Object monitor, long millis ) throws InterruptedException {
+        waitOnNanos(monitor, TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Waits on the given monitor for at most the given time, as
+     * {@link Object#wait(long, int)}. The caller must hold the monitor.
+     * 
+     * @param monitor
+     *            the monitor to wait on.
+     * @param nanos
+     *            longest time to wait in nanoseconds, 0 to wait until
+     *            notified.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    public static void waitOnNanos( Object monitor, long nanos ) throws InterruptedException {
+        if ( nanos <= 0 ) {
+            monitor.wait();
+        } else {
+            clock.waitNanos(monitor, nanos);
+        }
+    }
+
+    /**
+     * @return current time of this clock in milliseconds since the epoch.
+     */
+    public abstract long timeMillis( );
+
+    /**
+     * @return current time of this clock in nanoseconds, from an arbitrary
+     *         origin.
+     */
+    public abstract long timeNanos( );
+
+    /**
+     * Sleeps for the given time of this clock.
+     * 
+     * @param nanos
+     *            time to sleep in nanoseconds.
+     * @throws InterruptedException
+     *             if interrupted while sleeping.
+     */
+    public abstract void sleepNanos( long nanos ) throws InterruptedException;
+
+    /**
+     * Waits on the given monitor until notified, or at most the given time of
+     * this clock. May return early. The caller must hold the monitor.
+     * 
+     * @param monitor
+     *            the monitor to wait on.
+     * @param nanos
+     *            longest time to wait in nanoseconds, more than 0.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    public abstract void waitNanos( Object monitor, long nanos ) throws InterruptedException;
+
+    /**
+     * The system clock.
+     */
+    private static class SystemClock extends Clock {
+
+        @Override
+        public long timeMillis( ) {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long timeNanos( ) {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleepNanos( long nanos ) throws InterruptedException {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+
+        @Override
+        public void waitNanos( Object monitor, long nanos ) throws InterruptedException {
+            TimeUnit.NANOSECONDS.timedWait(monitor, nanos);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 ﻿package no.ntnu.acp142;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -8,12 +9,18 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import no.ntnu.acp142.pdu.AckPdu;
 import no.ntnu.acp142.pdu.AckPdu.AckInfoEntry;
@@ -22,6 +29,7 @@ import no.ntnu.acp142.pdu.AddressPdu.DestinationEntry;
 import no.ntnu.acp142.pdu.AnnouncePdu;
 import no.ntnu.acp142.pdu.DataPdu;
 import no.ntnu.acp142.pdu.DiscardMessagePdu;
+import no.ntnu.acp142.pdu.RepairPdu;
 import no.ntnu.acp142.pdu.RequestRejectReleasePdu;
 
 /*
@@ -80,6 +88,14 @@ import no.ntnu.acp142.pdu.RequestRejectReleasePdu;
  * 5. Add the parameter to the load() method. Same order as previous steps. <br> 
  * 6. Add the parameter to the configurationFileAsString() method. Same order
  *    as previous steps. <br>
+ * <br>
+ * The getters read from an immutable snapshot of the parameters, compiled
+ * with addresses resolved and lookup tables built, so they are cheap on hot
+ * paths. A parameter that is read through the snapshot must also be added to
+ * the Snapshot class. The snapshot is compiled again on first use after a
+ * setter, and once after load(). A loaded configuration file is reloaded when
+ * it changes on disk, every RELOAD_INTERVAL milliseconds. A reload keeps the
+ * values set by setters since the file was loaded.
  * 
  * @author Erik Lothe, Karl Mardoff Kittilsen, Bjørn Tungesvik
  * 
@@ -94,6 +110,11 @@ public class Configuration {
                                                                    + COMMENT;
     // --------------------------------------------------------------------- //
 
+    // --- [NETWORK CONSTANTS ] -------------------------------------------- //
+    private static final int    IPV4_UDP_HEADER_SIZE       = 20 + 8;
+    private static final int    IPV6_UDP_HEADER_SIZE       = 40 + 8;
+    // --------------------------------------------------------------------- //
+
     // --- [CONFIGURATION PARAMETERS] -------------------------------------- //
 
     // B01 Predefined Protocol Parameters
@@ -118,7 +139,10 @@ public class Configuration {
 
     // Undefined, but useful, parameters
     private static Parameter    pduMaxSize                 = new Parameter("PDU_MAX_SIZE", 0x0f00);
-    private static Parameter    undefinedPduExpiryTime     = new Parameter("UNDEFINED_PDU_EXPIRY_TIME", 1800000);
+    private static Parameter    autoPduSize                = new Parameter("AUTO_PDU_SIZE", false);
+    private static Parameter    pduSizeProbing             = new Parameter("PDU_SIZE_PROBING", false);
+    private static String GROUP_PDU_MAX_SIZE_IDENTIFIER    = "GROUP_PDU_MAX_SIZE";
+    private static ArrayList<Parameter> groupPduMaxSizes   = new ArrayList<Parameter>();
     private static Parameter    nodeId                     = new Parameter("NODE_ID", 0);
     private static Parameter    ackDelayUpperBound         = new Parameter("ACK_DELAY_UPPER_BOUND", 5000L);
     private static Parameter    bindInterfaceAddress       = new Parameter("BIND_INTERFACE_ADDRESS", "");
@@ -131,6 +155,36 @@ public class Configuration {
     private static String PRIORITY_MAPPING_IDENTIFIER      = "PRIORITY_MAPPING";
     private static ArrayList<Parameter> priorityMappings    = new ArrayList<Parameter>();
     
+    // Forward error correction with XOR parity repair PDUs
+    private static Parameter    fecBlockSize               = new Parameter("FEC_BLOCK_SIZE", 0);
+    private static Parameter    fecAdaptive                = new Parameter("FEC_ADAPTIVE", false);
+    private static String FEC_PRIORITY_BLOCK_SIZE_IDENTIFIER = "FEC_PRIORITY_BLOCK_SIZE";
+    private static ArrayList<Parameter> fecPriorityBlockSizes = new ArrayList<Parameter>();
+
+    // Segmentation of messages too large for one ACP142 message
+    private static Parameter    segmentMaxSize             = new Parameter("SEGMENT_MAX_SIZE", 0);
+
+    // Batching of small messages into one ACP142 message
+    private static Parameter    batchLingerTime            = new Parameter("BATCH_LINGER_TIME", 0);
+    private static Parameter    batchMaxSize               = new Parameter("BATCH_MAX_SIZE", 1024);
+
+    // Memory bounds of received messages
+    private static Parameter    reassemblyBudget           = new Parameter("REASSEMBLY_BUDGET", 67108864);
+    private static Parameter    orphanTtl                  = new Parameter("ORPHAN_TTL", 10000);
+    private static Parameter    orphanSourceQuota          = new Parameter("ORPHAN_SOURCE_QUOTA", 1048576);
+    private static Parameter    orphanMaxBytes             = new Parameter("ORPHAN_MAX_BYTES", 8388608);
+
+    // Reuse of dynamic multicast groups
+    private static Parameter    groupIdleTime              = new Parameter("GROUP_IDLE_TIME", 60000);
+    private static Parameter    groupPoolSize              = new Parameter("GROUP_POOL_SIZE", 0);
+
+    // Diagnostics
+    private static Parameter    captureFile                = new Parameter("CAPTURE_FILE", "");
+    private static Parameter    messageTracing             = new Parameter("MESSAGE_TRACING", false);
+
+    // Reloading of the configuration file
+    private static Parameter    reloadInterval             = new Parameter("RELOAD_INTERVAL", 5000);
+
     // Static multicast group table
     private static String STATIC_MULTICAST_GROUP_IDENTIFIER   = "STATIC_MULTICAST_GROUP";
     private static ArrayList<Parameter> staticMulticastGroups = new ArrayList<Parameter>();
@@ -138,6 +192,32 @@ public class Configuration {
 
     // --------------------------------------------------------------------- //
 
+    /**
+     * Largest PDU that fits in one IP packet on the bound interface. 0 until
+     * computed, -1 if the MTU of the interface could not be determined.
+     */
+    private static volatile int interfacePduMaxSize = 0;
+
+    /**
+     * Compiled parameters, null when a parameter changed since it was
+     * compiled.
+     */
+    private static volatile Snapshot snapshot = null;
+
+    /**
+     * True while load() changes the parameters, so that the snapshot is only
+     * compiled once all of them are read. Guarded by the class lock.
+     */
+    private static boolean loading = false;
+
+    /**
+     * Configuration file reloaded when it changes, and its last modification
+     * time. Guarded by the class lock.
+     */
+    private static File watchedFile = null;
+    private static long watchedModified = 0;
+    private static Thread watcher = null;
+
     /**
      * Generates a default sourceID for the node initially. Takes the local IP
      * address and applies a SHA-1 hash to it. Uses the 4 least significant bits
@@ -149,26 +229,38 @@ public class Configuration {
      * @return A likely unique ID for this node.
      */
     private static int computeIPHash( ) {
-        
-            try {
-                if (Configuration.getBindInterfaceAddress() instanceof Inet4Address) {
-                    ByteBuffer bb = ByteBuffer.wrap(Configuration.getBindInterfaceAddress().getAddress());
-                    bb.order(ByteOrder.BIG_ENDIAN);
-                    return bb.getInt();
-                }
-            } catch (UnknownHostException e1) {
-                Log.writeLine(Log.LOG_LEVEL_NORMAL, "Could not set default nodeID, encountered exception:");
-                Log.writeLine(Log.LOG_LEVEL_NORMAL, e1.toString());
-            }
-        
+        try {
+            return computeNodeId(Configuration.getBindInterfaceAddress());
+        } catch (UnknownHostException e) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "Could not set default nodeID, encountered exception:");
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, e.toString());
+            return -1;
+        }
+    }
+
+    /**
+     * Computes the default sourceID of a node with the given IP address. An
+     * IPv4 address is used as the sourceID as is, other addresses are hashed
+     * as described for {@link #computeIPHash()}.
+     * 
+     * @param address
+     *            IP address of the node.
+     * @return A likely unique ID for the node.
+     */
+    public static int computeNodeId( InetAddress address ) {
+        if ( address instanceof Inet4Address ) {
+            ByteBuffer bb = ByteBuffer.wrap(address.getAddress());
+            bb.order(ByteOrder.BIG_ENDIAN);
+            return bb.getInt();
+        }
+
         byte array[];
         int returnInt;
         try {
-            array = Configuration.getBindInterfaceAddress().getAddress();
-            array = MessageDigest.getInstance("SHA-1").digest(array);
+            array = MessageDigest.getInstance("SHA-1").digest(address.getAddress());
             returnInt = (array[array.length - 4] << 24) + (array[array.length - 3] << 16)
                     + (array[array.length - 2] << 8) + array[array.length - 1];
-        } catch (UnknownHostException | NoSuchAlgorithmException e) {
+        } catch (NoSuchAlgorithmException e) {
             Log.writeLine(Log.LOG_LEVEL_NORMAL, "Could not set default nodeID, encountered exception:");
             Log.writeLine(Log.LOG_LEVEL_NORMAL, e.toString());
             return -1;
@@ -182,7 +274,7 @@ public class Configuration {
      * @return wait for reject time in milliseconds.
      */
     public static int getWaitForRejectTime( ) {
-        return (int) waitForRejectTime.getValue();
+        return snapshot().waitForRejectTime;
     }
 
     /**
@@ -192,7 +284,7 @@ public class Configuration {
      * @return announce delay in milliseconds.
      */
     public static int getAnnounceDelay( ) {
-        return (int) announceDelay.getValue();
+        return snapshot().announceDelay;
     }
 
     /**
@@ -201,7 +293,7 @@ public class Configuration {
      * @return announceCt number of times to transmit the Announce_PDU.
      */
     public static int getAnnounceCt( ) {
-        return (int) announceCt.getValue();
+        return snapshot().announceCt;
     }
 
     /**
@@ -211,7 +303,7 @@ public class Configuration {
      * @return ACK re-transmission time in milliseconds.
      */
     public static int getAckRetransmissionTime( ) {
-        return (int) ackRetransmissionTime.getValue();
+        return snapshot().ackRetransmissionTime;
     }
 
     /**
@@ -221,7 +313,7 @@ public class Configuration {
      * @return back-off factor
      */
     public static double getBackoffFactor( ) {
-        return (double) backoffFactor.getValue();
+        return snapshot().backoffFactor;
     }
 
     /**
@@ -231,7 +323,7 @@ public class Configuration {
      * @return emconRtc number of retransmissions.
      */
     public static int getEmconRtc( ) {
-        return (int) emconRtc.getValue();
+        return snapshot().emconRtc;
     }
 
     /**
@@ -241,7 +333,7 @@ public class Configuration {
      * @return EMCON RTI in milliseconds.
      */
     public static int getEmconRti( ) {
-        return (int) emconRti.getValue();
+        return snapshot().emconRti;
     }
 
     /**
@@ -251,7 +343,7 @@ public class Configuration {
      * @return MM
      */
     public static int getMm( ) {
-        return (int) mm.getValue();
+        return snapshot().mm;
     }
 
     /**
@@ -261,7 +353,7 @@ public class Configuration {
      * @return ACK PDU time in milliseconds.
      */
     public static int getAckPduTime( ) {
-        return (int) ackPduTime.getValue();
+        return snapshot().ackPduTime;
     }
 
     /**
@@ -272,7 +364,7 @@ public class Configuration {
      * @throws UnknownHostException if we fail to parse configuration parameter.
      */
     public static InetAddress getGg( ) throws UnknownHostException {
-            return InetAddress.getByName((String) gg.getValue());
+        return resolved(snapshot().gg, gg);
     }
     
     /**
@@ -280,7 +372,7 @@ public class Configuration {
      * @throws UnknownHostException if we fail to parse configuration parameter.
      */
     public static InetAddress getBindInterfaceAddress() throws UnknownHostException {
-        return InetAddress.getByName((String) bindInterfaceAddress.getValue());
+        return resolved(snapshot().bindInterfaceAddress, bindInterfaceAddress);
     }
     
     /**
@@ -289,7 +381,7 @@ public class Configuration {
      * @return dataAndAddressPduSendDelay in milliseconds.
      */
     public static int getDataAndAddressPduSendDelay() {
-        return (int) dataAndAddressPduSendDelay.getValue();
+        return snapshot().dataAndAddressPduSendDelay;
     }
     
     /**
@@ -300,7 +392,7 @@ public class Configuration {
      * @return TPORT
      */
     public static int getTPort( ) {
-        return (int) tPort.getValue();
+        return snapshot().tPort;
     }
 
     /**
@@ -312,7 +404,7 @@ public class Configuration {
      * @return TPORT
      */
     public static int getRPort( ) {
-        return (int) rPort.getValue();
+        return snapshot().rPort;
     }
 
     /**
@@ -322,7 +414,7 @@ public class Configuration {
      * @return DPORT
      */
     public static int getDPort( ) {
-        return (int) dPort.getValue();
+        return snapshot().dPort;
     }
 
     /**
@@ -332,25 +424,106 @@ public class Configuration {
      * @return APORT
      */
     public static int getAPort( ) {
-        return (int) aPort.getValue();
+        return snapshot().aPort;
     }
 
     /**
      * Returns the maximum size of a PDU. <br>
+     * If AUTO_PDU_SIZE is enabled, this is the largest PDU that fits in one IP
+     * packet on the bound interface, but never more than PDU_MAX_SIZE.
      * 
      * @return Maximum size of a PDU
      */
     public static int getPduMaxSize( ) {
-        return (int) pduMaxSize.getValue();
+        Snapshot current = snapshot();
+        int size = current.pduMaxSize;
+        if ( current.autoPduSize ) {
+            int interfaceSize = getInterfacePduMaxSize();
+            if ( interfaceSize > 0 && interfaceSize < size ) {
+                return interfaceSize;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the maximum size of a PDU sent to the given multicast group. A
+     * GROUP_PDU_MAX_SIZE entry for the group overrides getPduMaxSize().
+     * 
+     * @param group
+     *            multicast group the PDU is sent to, null if not yet known.
+     * @return Maximum size of a PDU sent to the group
+     */
+    public static int getPduMaxSize( InetAddress group ) {
+        if ( group != null ) {
+            Integer size = snapshot().groupPduMaxSizes.get(group);
+            if ( size != null ) {
+                return size;
+            }
+        }
+        return getPduMaxSize();
+    }
+
+    /**
+     * Returns the size of the buffer needed to receive any PDU. Other nodes
+     * may not be limited by the MTU of our interface, so this is the largest
+     * configured size, ignoring AUTO_PDU_SIZE.
+     * 
+     * @return Maximum size of a received PDU
+     */
+    public static int getPduMaxReceiveSize( ) {
+        return snapshot().pduMaxReceiveSize;
+    }
+
+    /**
+     * Determines whether the maximum PDU size is derived from the MTU of the
+     * bound interface.
+     * 
+     * @return autoPduSize
+     */
+    public static boolean isAutoPduSize( ) {
+        return snapshot().autoPduSize;
+    }
+
+    /**
+     * Determines whether the PDU size of each multicast group is probed,
+     * stepping down when receivers report loss and back up when they do not.
+     * 
+     * @return pduSizeProbing
+     */
+    public static boolean isPduSizeProbing( ) {
+        return snapshot().pduSizeProbing;
     }
 
     /**
-     * Returns the default timeout value of a PDU in milliseconds.
+     * Returns the largest PDU that fits in one IP packet on the bound
+     * interface. The MTU is looked up once and cached until the bind address
+     * changes.
      * 
-     * @return Default Expiry time of a PDU in milliseconds
+     * @return largest unfragmented PDU size, or -1 if unknown
      */
-    public static int getUndefinedPduExpiryTime( ) {
-        return (int) undefinedPduExpiryTime.getValue();
+    private static int getInterfacePduMaxSize( ) {
+        if ( interfacePduMaxSize == 0 ) {
+            int size = -1;
+            try {
+                InetAddress address = getBindInterfaceAddress();
+                NetworkInterface networkInterface = NetworkInterface.getByInetAddress(address);
+                if ( networkInterface != null && networkInterface.getMTU() > 0 ) {
+                    if ( address instanceof Inet4Address ) {
+                        size = networkInterface.getMTU() - IPV4_UDP_HEADER_SIZE;
+                    } else {
+                        size = networkInterface.getMTU() - IPV6_UDP_HEADER_SIZE;
+                    }
+                    Log.writeLine(Log.LOG_LEVEL_VERBOSE, "Interface MTU is {}, PDU size limited to {}",
+                            networkInterface.getMTU(), size);
+                }
+            } catch (UnknownHostException | SocketException e) {
+                Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: could not determine MTU of bound interface, " +
+                        "using PDU_MAX_SIZE");
+            }
+            interfacePduMaxSize = size;
+        }
+        return interfacePduMaxSize;
     }
 
     /**
@@ -359,7 +532,7 @@ public class Configuration {
      * @return The ID of this node
      */
     public static int getNodeId( ) {
-        return (int) nodeId.getValue();
+        return snapshot().nodeId;
     }
 
     /**
@@ -378,7 +551,7 @@ public class Configuration {
      * @throws UnknownHostException if we fail to parse configuration parameter.
      */
     public static InetAddress getMulticastStartRange( ) throws UnknownHostException {
-        return InetAddress.getByName((String) multicastRangeStart.getValue());
+        return resolved(snapshot().multicastRangeStart, multicastRangeStart);
     }
 
     /**
@@ -388,7 +561,7 @@ public class Configuration {
      * @throws UnknownHostException if we fail to parse configuration parameter.
      */
     public static InetAddress getMulticastEndRang( ) throws UnknownHostException {
-        return InetAddress.getByName((String) multicastRangeEnd.getValue());
+        return resolved(snapshot().multicastRangeEnd, multicastRangeEnd);
     }
     
     /**
@@ -396,9 +569,178 @@ public class Configuration {
      * @return enablePriorityMapping
      */
     public static boolean isEnablePriorityMapping() {
-        return (boolean) enablePriorityMapping.getValue();
+        return snapshot().enablePriorityMapping;
     }
     
+    /**
+     * Returns the largest number of bytes of data sent in one ACP142 message.
+     * Larger data is sent as several linked segments. 0 limits segments only by
+     * the number of Data_PDUs a message can hold.
+     * 
+     * @return maximum segment size in bytes
+     */
+    public static int getSegmentMaxSize( ) {
+        return snapshot().segmentMaxSize;
+    }
+
+    /**
+     * Returns how long a small message waits for other messages to the same
+     * destinations to be batched with. 0 disables batching.
+     * 
+     * @return batch linger time in milliseconds
+     */
+    public static int getBatchLingerTime( ) {
+        return snapshot().batchLingerTime;
+    }
+
+    /**
+     * Returns the largest number of bytes of data in one batch of small
+     * messages. Larger messages are sent on their own.
+     * 
+     * @return maximum batch size in bytes
+     */
+    public static int getBatchMaxSize( ) {
+        return snapshot().batchMaxSize;
+    }
+
+    /**
+     * Returns the number of bytes of PDUs that partially received messages may
+     * hold in total. When exceeded, partial messages are evicted, lowest
+     * priority first. 0 for no limit.
+     * 
+     * @return reassembly budget in bytes
+     */
+    public static int getReassemblyBudget( ) {
+        return snapshot().reassemblyBudget;
+    }
+
+    /**
+     * Returns how long a Data_PDU received before the Address_PDU of its
+     * message is kept while waiting for it.
+     * 
+     * @return orphan time to live in milliseconds
+     */
+    public static int getOrphanTtl( ) {
+        return snapshot().orphanTtl;
+    }
+
+    /**
+     * Returns the number of bytes of Data_PDUs waiting for their Address_PDU
+     * that are kept from one source. 0 for no limit per source.
+     * 
+     * @return orphan quota per source in bytes
+     */
+    public static int getOrphanSourceQuota( ) {
+        return snapshot().orphanSourceQuota;
+    }
+
+    /**
+     * Returns the number of bytes of Data_PDUs waiting for their Address_PDU
+     * that are kept in total. 0 to keep none.
+     * 
+     * @return orphan maximum in bytes
+     */
+    public static int getOrphanMaxBytes( ) {
+        return snapshot().orphanMaxBytes;
+    }
+
+    /**
+     * Returns the time a dynamic multicast group is kept after its last
+     * message, so that later messages to the same destinations can be sent on
+     * it without setting up a new group. 0 to release every dynamic group as
+     * soon as its message is complete.
+     * 
+     * @return group idle time in milliseconds
+     */
+    public static int getGroupIdleTime( ) {
+        return snapshot().groupIdleTime;
+    }
+
+    /**
+     * Returns the number of dynamic multicast group addresses requested ahead
+     * of time, so that a message needing a new group can be announced without
+     * waiting WAIT_FOR_REJECT_TIME. 0 to request every group when it is
+     * needed.
+     * 
+     * @return group pool size
+     */
+    public static int getGroupPoolSize( ) {
+        return snapshot().groupPoolSize;
+    }
+
+    /**
+     * Returns the file every received datagram is captured to, for replay
+     * with a ReplayTransport. Empty if capturing is disabled.
+     * 
+     * @return the capture file location
+     */
+    public static String getCaptureFile( ) {
+        return (String) captureFile.getValue();
+    }
+
+    /**
+     * Determines whether the state changes and timers of each message are
+     * traced, and a breakdown of where its time went written to the log at
+     * verbose level when it completes.
+     * 
+     * @return messageTracing
+     */
+    public static boolean isMessageTracing( ) {
+        return snapshot().messageTracing;
+    }
+
+    /**
+     * Returns the number of DataPdus covered by each RepairPdu when no block
+     * size is set for the priority of a message. 0 disables forward error
+     * correction.
+     * 
+     * @return FEC block size
+     */
+    public static int getFecBlockSize( ) {
+        return snapshot().fecBlockSize;
+    }
+
+    /**
+     * Returns the number of DataPdus covered by each RepairPdu for messages of
+     * the given priority. 0 disables forward error correction for the priority.
+     * 
+     * @param priority
+     *            P_Mul priority of the message
+     * @return FEC block size
+     */
+    public static int getFecBlockSize( int priority ) {
+        Integer blockSize = snapshot().fecPriorityBlockSizes.get(priority);
+        if ( blockSize != null ) {
+            return blockSize;
+        }
+        return getFecBlockSize();
+    }
+
+    /**
+     * Determines whether the FEC block size is reduced when receivers report
+     * loss.
+     * 
+     * @return fecAdaptive
+     */
+    public static boolean isFecAdaptive( ) {
+        return snapshot().fecAdaptive;
+    }
+
+    /**
+     * Converts a parameter value to integer. Values loaded from file are
+     * stored as Strings, values set through the API as Integers.
+     * 
+     * @param value to convert.
+     * @return integer we got out of it.
+     * @throws NumberFormatException if we fail to convert the string to an integer.
+     */
+    private static int parameterValueToInt( Object value ) throws NumberFormatException {
+        if ( value instanceof String ) {
+            return stringToInt((String) value);
+        }
+        return (Integer) value;
+    }
+
     /**
      * Converts a string to integer. Supports binary and hexadecimal radix
      * when prefixed with 0b and 0x respectively.
@@ -419,78 +761,52 @@ public class Configuration {
     }
     
     /**
-     * Returns a list of priority mappings. 
+     * Returns a list of priority mappings. The list is shared by all callers
+     * and must not be modified.
      * @return priorityMappings
      */
     public static ArrayList<PriorityMapping> getPriorityMappings() {
-        ArrayList<PriorityMapping> priorityMappingIntegers = new ArrayList<PriorityMapping>();
-        ArrayList<Object> values;
-        
-        for (Parameter parameter : priorityMappings) {
-            values = parameter.getValues();
-            try {
-                // Assume values are stored as Strings
-                int from = stringToInt((String) values.get(0));
-                int to = stringToInt((String) values.get(1));
-                priorityMappingIntegers.add(new PriorityMapping(to, from));
-            } catch (IndexOutOfBoundsException e) {
-                Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: a priority mapping had missing arguments");
-            } catch (NumberFormatException e) {
-                Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: a priority mapping had a non-integer argument");
-            } catch (IllegalArgumentException e) {
-                Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: a priority mapping overflowed 8 bit");
-                
-            } catch (ClassCastException e) {
-                // Assume values are stored as integers
-                int from = (int) values.get(0);
-                int to = (int) values.get(1);
-                priorityMappingIntegers.add(new PriorityMapping(to, from));
-            }
+        return snapshot().priorityMappings;
+    }
+
+    /**
+     * Returns the traffic class of the IP header that the given P_Mul priority
+     * is mapped to.
+     * @param priority P_Mul priority of a message.
+     * @return traffic class, or -1 if the priority is not mapped.
+     */
+    public static int getTrafficClass(int priority) {
+        if ( priority < 0 || priority > 0xff ) {
+            return -1;
         }
-        
-        return priorityMappingIntegers;
+        return snapshot().trafficClasses[priority];
     }
     
     /**
      * Returns a list of the static multicast groups of this configuration.
+     * The list is shared by all callers and must not be modified.
      * @return multicast groups
      */
     public static ArrayList<MulticastGroup> getMulticastGroups() {
-        ArrayList<MulticastGroup> multicastGroups = new ArrayList<MulticastGroup>();
-        ArrayList<Object> values;
-        ArrayList<Integer> sourceIds;
-        
-        // For all static multicast groups in the configuration
-        for (Parameter parameter : staticMulticastGroups) {
-            values = parameter.getValues();
-            sourceIds = new ArrayList<Integer>();
-            for (int i = 1; i < values.size(); i++) {
-                try {
-                	if ( values.get(i) instanceof String ) {
-                		String val = (String)values.get(i);
-                		sourceIds.add(stringToInt(val));
-                	} else {
-                		sourceIds.add((Integer)values.get(i));
-                	}
-                } catch (NumberFormatException e) {
-                    Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: a multicast group had a " +
-                    		"non-integer source ID");
-                }
-            }
-
-            InetAddress address = null;
-            try {
-            	address = InetAddress.getByName((String)values.get(0));
-            } catch (UnknownHostException e) { 
-            	Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: address of a multicast group caused an " +
-            			"UnknownHostException");
-            } catch (NumberFormatException e) {
-                Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: multicast group entry had no arguments");
-            }
+        return snapshot().multicastGroups;
+    }
 
-            multicastGroups.add(new MulticastGroup(address, sourceIds));
-        }
-        return multicastGroups;
+    /**
+     * Returns the routing index over the static multicast groups of this
+     * configuration.
+     * @return static group router
+     */
+    public static StaticGroupRouter getStaticGroupRouter() {
+        return snapshot().staticGroupRouter;
+    }
+    
+    /**
+     * Returns the interval between checks of whether the loaded configuration
+     * file changed on disk.
+     * @return reload interval in milliseconds, 0 if the file is not reloaded.
+     */
+    public static int getReloadInterval() {
+        return snapshot().reloadInterval;
     }
     
     /**
@@ -498,7 +814,7 @@ public class Configuration {
      * @return milliseconds of maximal wait time.
      */
     public static long getAckDelayUpperBound() {
-        return (long) ackDelayUpperBound.getValue();
+        return snapshot().ackDelayUpperBound;
     }
 
     /**
@@ -606,6 +922,7 @@ public class Configuration {
      */
     public static void setBindInterfaceAddress( InetAddress interfaceAddress ) {
         Configuration.bindInterfaceAddress.setValue(interfaceAddress.getHostAddress());
+        Configuration.interfacePduMaxSize = 0;
         Configuration.setNodeId(Configuration.computeIPHash());
     }
     
@@ -673,13 +990,41 @@ public class Configuration {
     }
 
     /**
-     * Returns the default timeout value of a PDU in milliseconds, without
-     * writing it to disk.
+     * Sets parameter without writing to disk.
+     * 
+     * @param autoPduSize set to true to limit the PDU size to the MTU of the bound interface.
+     */
+    public static void setAutoPduSize( boolean autoPduSize ) {
+        Configuration.autoPduSize.setValue(autoPduSize);
+    }
+
+    /**
+     * Sets parameter without writing to disk.
+     * 
+     * @param pduSizeProbing set to true to probe the PDU size of each multicast group.
+     */
+    public static void setPduSizeProbing( boolean pduSizeProbing ) {
+        Configuration.pduSizeProbing.setValue(pduSizeProbing);
+    }
+
+    /**
+     * Adds a maximum PDU size for the given multicast group to the current
+     * configuration without writing to disk.
      * 
-     * @param undefinedPduExpiryTime Default Expiry time of a PDU.
+     * @param group multicast group the size applies to.
+     * @param pduMaxSize maximum size of a pdu sent to the group.
      */
-    public static void setUndefinedPduExpiryTime( int undefinedPduExpiryTime ) {
-        Configuration.undefinedPduExpiryTime.setValue(undefinedPduExpiryTime);
+    public static void addGroupPduMaxSize( InetAddress group, int pduMaxSize ) {
+        ArrayList<Object> values = new ArrayList<Object>();
+        Parameter parameter;
+
+        values.add(group.getHostAddress());
+        values.add(pduMaxSize);
+
+        parameter = new Parameter(GROUP_PDU_MAX_SIZE_IDENTIFIER);
+        parameter.setValues(values);
+        groupPduMaxSizes.add(parameter);
+        invalidate();
     }
 
     /**
@@ -749,6 +1094,154 @@ public class Configuration {
         enablePriorityMapping.setValue(enable);
     }
     
+    /**
+     * Sets the maximum segment size without writing to disk.
+     * 
+     * @param size largest number of bytes of data in one message, 0 for no limit.
+     */
+    public static void setSegmentMaxSize( int size ) {
+        Configuration.segmentMaxSize.setValue(size);
+    }
+
+    /**
+     * Sets the batch linger time without writing to disk.
+     * 
+     * @param lingerTime in milliseconds, 0 to disable batching.
+     */
+    public static void setBatchLingerTime( int lingerTime ) {
+        Configuration.batchLingerTime.setValue(lingerTime);
+    }
+
+    /**
+     * Sets the maximum batch size without writing to disk.
+     * 
+     * @param size largest number of bytes of data in one batch.
+     */
+    public static void setBatchMaxSize( int size ) {
+        Configuration.batchMaxSize.setValue(size);
+    }
+
+    /**
+     * Sets the reassembly budget without writing to disk.
+     * 
+     * @param budget in bytes, 0 for no limit.
+     */
+    public static void setReassemblyBudget( int budget ) {
+        Configuration.reassemblyBudget.setValue(budget);
+    }
+
+    /**
+     * Sets the orphan time to live without writing to disk.
+     * 
+     * @param ttl in milliseconds.
+     */
+    public static void setOrphanTtl( int ttl ) {
+        Configuration.orphanTtl.setValue(ttl);
+    }
+
+    /**
+     * Sets the orphan quota per source without writing to disk.
+     * 
+     * @param quota in bytes, 0 for no limit per source.
+     */
+    public static void setOrphanSourceQuota( int quota ) {
+        Configuration.orphanSourceQuota.setValue(quota);
+    }
+
+    /**
+     * Sets the orphan maximum without writing to disk.
+     * 
+     * @param maxBytes in bytes, 0 to keep no orphans.
+     */
+    public static void setOrphanMaxBytes( int maxBytes ) {
+        Configuration.orphanMaxBytes.setValue(maxBytes);
+    }
+
+    /**
+     * Sets the group idle time without writing to disk.
+     * 
+     * @param idleTime in milliseconds, 0 to not keep dynamic groups.
+     */
+    public static void setGroupIdleTime( int idleTime ) {
+        Configuration.groupIdleTime.setValue(idleTime);
+    }
+
+    /**
+     * Sets the group pool size without writing to disk.
+     * 
+     * @param poolSize number of addresses, 0 to not request groups ahead of time.
+     */
+    public static void setGroupPoolSize( int poolSize ) {
+        Configuration.groupPoolSize.setValue(poolSize);
+    }
+
+    /**
+     * Sets the capture file without writing to disk. Takes effect for
+     * UDPWrappers created afterwards.
+     * 
+     * @param location the capture file location, empty to disable capturing.
+     */
+    public static void setCaptureFile( String location ) {
+        Configuration.captureFile.setValue(location);
+    }
+
+    /**
+     * Sets the parameter without writing to disk. Takes effect for messages
+     * created afterwards.
+     * 
+     * @param tracing set to true to trace each message.
+     */
+    public static void setMessageTracing( boolean tracing ) {
+        Configuration.messageTracing.setValue(tracing);
+    }
+
+    /**
+     * Sets the reload interval without writing to disk.
+     * 
+     * @param interval in milliseconds, 0 to not reload the configuration file.
+     */
+    public static void setReloadInterval( int interval ) {
+        Configuration.reloadInterval.setValue(interval);
+    }
+
+    /**
+     * Sets the default FEC block size without writing to disk.
+     * 
+     * @param blockSize number of DataPdus covered by each RepairPdu, 0 to disable.
+     */
+    public static void setFecBlockSize( int blockSize ) {
+        Configuration.fecBlockSize.setValue(blockSize);
+    }
+
+    /**
+     * Sets the parameter without writing to disk.
+     * 
+     * @param adaptive set to true to reduce the FEC block size on observed loss.
+     */
+    public static void setFecAdaptive( boolean adaptive ) {
+        Configuration.fecAdaptive.setValue(adaptive);
+    }
+
+    /**
+     * Adds a FEC block size for the given priority to the current
+     * configuration without writing to disk.
+     * 
+     * @param priority P_Mul priority the block size applies to.
+     * @param blockSize number of DataPdus covered by each RepairPdu, 0 to disable.
+     */
+    public static void addFecPriorityBlockSize( int priority, int blockSize ) {
+        ArrayList<Object> values = new ArrayList<Object>();
+        Parameter parameter;
+
+        values.add(priority);
+        values.add(blockSize);
+
+        parameter = new Parameter(FEC_PRIORITY_BLOCK_SIZE_IDENTIFIER);
+        parameter.setValues(values);
+        fecPriorityBlockSizes.add(parameter);
+        invalidate();
+    }
+
     /**
      * Adds a priority mapping to the current configuration without 
      * writing to disk.
@@ -764,6 +1257,7 @@ public class Configuration {
         parameter = new Parameter(PRIORITY_MAPPING_IDENTIFIER);
         parameter.setValues(values);
         priorityMappings.add(parameter);
+        invalidate();
     }
     
     
@@ -784,6 +1278,7 @@ public class Configuration {
         parameter = new Parameter(STATIC_MULTICAST_GROUP_IDENTIFIER);
         parameter.setValues(values);
         staticMulticastGroups.add(parameter);
+        invalidate();
     }
     
     /**
@@ -824,106 +1319,375 @@ public class Configuration {
      */
     public static void load( String path ) throws IndexOutOfBoundsException, NumberFormatException,
             IOException {
+        load(path, false);
+    }
+
+    /**
+     * Loads the configuration file into memory from given path, and publishes
+     * a new snapshot if it could be read.
+     * 
+     * @param path
+     *            the path of the file
+     * @param reload
+     *            true when reloading a changed file.
+     * @throws IOException if we fail to load the file.
+     */
+    private static void load( String path, boolean reload ) throws IndexOutOfBoundsException,
+            NumberFormatException, IOException {
+        synchronized (Configuration.class) {
+            loading = true;
+            try {
+                read(path, reload);
+            } finally {
+                loading = false;
+            }
+            snapshot = new Snapshot();
+            watch(path);
+        }
+    }
+
+    /**
+     * Reads the configuration file of the given path into the parameters. The
+     * whole file is parsed before any parameter changes, so a file that fails
+     * to parse leaves the parameters as they were.
+     * 
+     * @param path
+     *            the path of the file
+     * @param reload
+     *            true to set parameters missing from the file back to their
+     *            defaults and replace the parameter lists instead of adding
+     *            to them. Parameters set by a setter since the file was
+     *            loaded keep their value. The static multicast groups are
+     *            kept, as the groups are joined when a Libjpmul instance is
+     *            created.
+     * @throws IOException if we fail to read the file.
+     */
+    private static void read( String path, boolean reload ) throws IndexOutOfBoundsException,
+            NumberFormatException, IOException {
         BufferedReader bf;
         FileReader fr;
         String line;
         String words[];
+        // Parsed values, only applied once the whole file is parsed
+        LinkedHashMap<Parameter, Object> values = new LinkedHashMap<Parameter, Object>();
+        ArrayList<Parameter> newGroupPduMaxSizes = new ArrayList<Parameter>();
+        ArrayList<Parameter> newPriorityMappings = new ArrayList<Parameter>();
+        ArrayList<Parameter> newStaticMulticastGroups = new ArrayList<Parameter>();
+        ArrayList<Parameter> newFecPriorityBlockSizes = new ArrayList<Parameter>();
 
         fr = new FileReader(path);
         bf = new BufferedReader(fr);
 
-        while ((line = bf.readLine()) != null) {
-            if ( line.length() == 0 ) {
-                continue; // Skip empty line
-            }
-            if ( line.startsWith(COMMENT) ) {
-                continue; // Skip commented line
-            }
+        try {
+            while ((line = bf.readLine()) != null) {
+                if ( line.length() == 0 ) {
+                    continue; // Skip empty line
+                }
+                if ( line.startsWith(COMMENT) ) {
+                    continue; // Skip commented line
+                }
 
-            words = splitArguments(line);
+                words = splitArguments(line);
 
-            // Load attributes
-            if ( waitForRejectTime.hasKeyword(words[0]) ) {
-                waitForRejectTime.setValue(Integer.parseInt(words[1]));
+                // Load attributes
+                if ( waitForRejectTime.hasKeyword(words[0]) ) {
+                    values.put(waitForRejectTime, Integer.parseInt(words[1]));
 
-            } else if ( announceDelay.hasKeyword(words[0]) ) {
-                announceDelay.setValue(Integer.parseInt(words[1]));
+                } else if ( announceDelay.hasKeyword(words[0]) ) {
+                    values.put(announceDelay, Integer.parseInt(words[1]));
 
-            } else if ( announceCt.hasKeyword(words[0]) ) {
-                announceCt.setValue(Integer.parseInt(words[1]));
+                } else if ( announceCt.hasKeyword(words[0]) ) {
+                    values.put(announceCt, Integer.parseInt(words[1]));
 
-            } else if ( ackRetransmissionTime.hasKeyword(words[0]) ) {
-                ackRetransmissionTime.setValue(Integer.parseInt(words[1]));
+                } else if ( ackRetransmissionTime.hasKeyword(words[0]) ) {
+                    values.put(ackRetransmissionTime, Integer.parseInt(words[1]));
 
-            } else if ( backoffFactor.hasKeyword(words[0]) ) {
-                backoffFactor.setValue(Double.parseDouble(words[1]));
+                } else if ( backoffFactor.hasKeyword(words[0]) ) {
+                    values.put(backoffFactor, Double.parseDouble(words[1]));
 
-            } else if ( emconRtc.hasKeyword(words[0]) ) {
-                emconRtc.setValue(Integer.parseInt(words[1]));
+                } else if ( emconRtc.hasKeyword(words[0]) ) {
+                    values.put(emconRtc, Integer.parseInt(words[1]));
 
-            } else if ( emconRti.hasKeyword(words[0]) ) {
-                emconRti.setValue(Integer.parseInt(words[1]));
+                } else if ( emconRti.hasKeyword(words[0]) ) {
+                    values.put(emconRti, Integer.parseInt(words[1]));
 
-            } else if ( mm.hasKeyword(words[0]) ) {
-                mm.setValue(Integer.parseInt(words[1]));
+                } else if ( mm.hasKeyword(words[0]) ) {
+                    values.put(mm, Integer.parseInt(words[1]));
 
-            } else if ( ackPduTime.hasKeyword(words[0]) ) {
-                ackPduTime.setValue(Integer.parseInt(words[1]));
+                } else if ( ackPduTime.hasKeyword(words[0]) ) {
+                    values.put(ackPduTime, Integer.parseInt(words[1]));
 
-            } else if ( gg.hasKeyword(words[0]) ) {
-                gg.setValue(words[1]);
+                } else if ( gg.hasKeyword(words[0]) ) {
+                    values.put(gg, words[1]);
                 
-            } else if ( tPort.hasKeyword(words[0]) ) {
-                tPort.setValue(Integer.parseInt(words[1]));
+                } else if ( tPort.hasKeyword(words[0]) ) {
+                    values.put(tPort, Integer.parseInt(words[1]));
 
-            } else if ( rPort.hasKeyword(words[0]) ) {
-                rPort.setValue(Integer.parseInt(words[1]));
+                } else if ( rPort.hasKeyword(words[0]) ) {
+                    values.put(rPort, Integer.parseInt(words[1]));
 
-            } else if ( dPort.hasKeyword(words[0]) ) {
-                dPort.setValue(Integer.parseInt(words[1]));
+                } else if ( dPort.hasKeyword(words[0]) ) {
+                    values.put(dPort, Integer.parseInt(words[1]));
 
-            } else if ( aPort.hasKeyword(words[0]) ) {
-                aPort.setValue(Integer.parseInt(words[1]));
+                } else if ( aPort.hasKeyword(words[0]) ) {
+                    values.put(aPort, Integer.parseInt(words[1]));
           
-            } else if ( multicastRangeStart.hasKeyword(words[0]) ) {
-                multicastRangeStart.setValue(words[1]);
+                } else if ( multicastRangeStart.hasKeyword(words[0]) ) {
+                    values.put(multicastRangeStart, words[1]);
+
+                } else if ( multicastRangeEnd.hasKeyword(words[0]) ) {
+                    values.put(multicastRangeEnd, words[1]);
 
-            } else if ( multicastRangeEnd.hasKeyword(words[0]) ) {
-                multicastRangeEnd.setValue(words[1]);
+                } else if ( pduMaxSize.hasKeyword(words[0]) ) {
+                    values.put(pduMaxSize, Integer.parseInt(words[1]));
 
-            } else if ( pduMaxSize.hasKeyword(words[0]) ) {
-                pduMaxSize.setValue(Integer.parseInt(words[1]));
+                } else if ( autoPduSize.hasKeyword(words[0]) ) {
+                    boolean enable = words[1].equalsIgnoreCase("true");
+                    values.put(autoPduSize, enable);
 
-            } else if ( undefinedPduExpiryTime.hasKeyword(words[0]) ) {
-                undefinedPduExpiryTime.setValue(Integer.parseInt(words[1]));
+                } else if ( pduSizeProbing.hasKeyword(words[0]) ) {
+                    boolean enable = words[1].equalsIgnoreCase("true");
+                    values.put(pduSizeProbing, enable);
 
-            } else if ( nodeId.hasKeyword(words[0]) ) {
-                nodeId.setValue(Integer.parseInt(words[1]));
+                } else if ( GROUP_PDU_MAX_SIZE_IDENTIFIER.equals(words[0]) ) {
+                    newGroupPduMaxSizes.add(new Parameter(words));
+
+                } else if ( nodeId.hasKeyword(words[0]) ) {
+                    values.put(nodeId, Integer.parseInt(words[1]));
+                
+                } else if ( ackDelayUpperBound.hasKeyword(words[0]) ) {
+                    values.put(ackDelayUpperBound, Long.parseLong(words[1]));
+                
+                } else if ( bindInterfaceAddress.hasKeyword(words[0]) ) {
+                    values.put(bindInterfaceAddress, words[1]);
+                
+                } else if ( dataAndAddressPduSendDelay.hasKeyword(words[0]) ) {
+                    values.put(dataAndAddressPduSendDelay, Integer.parseInt(words[1]));
+                
+                } else if ( enablePriorityMapping.hasKeyword(words[0]) ) {
+                    boolean enable = words[1].equalsIgnoreCase("true");
+                    values.put(enablePriorityMapping, enable);
                 
-            } else if ( ackDelayUpperBound.hasKeyword(words[0]) ) {
-                ackDelayUpperBound.setValue(Long.parseLong(words[1]));
+                } else if ( PRIORITY_MAPPING_IDENTIFIER.equals(words[0]) ) {
+                    newPriorityMappings.add(new Parameter(words));
                 
-            } else if ( bindInterfaceAddress.hasKeyword(words[0]) ) {
-                bindInterfaceAddress.setValue(words[1]);
+                } else if ( STATIC_MULTICAST_GROUP_IDENTIFIER.equals(words[0]) ) {
+                    newStaticMulticastGroups.add(new Parameter(words));
                 
-            } else if ( dataAndAddressPduSendDelay.hasKeyword(words[0]) ) {
-                dataAndAddressPduSendDelay.setValue(words[1]);
+                } else if ( fecBlockSize.hasKeyword(words[0]) ) {
+                    values.put(fecBlockSize, Integer.parseInt(words[1]));
                 
-            } else if ( enablePriorityMapping.hasKeyword(words[0]) ) {
-                boolean enable = words[1].equalsIgnoreCase("true");
-                enablePriorityMapping.setValue(enable);
+                } else if ( fecAdaptive.hasKeyword(words[0]) ) {
+                    boolean adaptive = words[1].equalsIgnoreCase("true");
+                    values.put(fecAdaptive, adaptive);
                 
-            } else if ( PRIORITY_MAPPING_IDENTIFIER.equals(words[0]) ) {
-                priorityMappings.add(new Parameter(words));
+                } else if ( FEC_PRIORITY_BLOCK_SIZE_IDENTIFIER.equals(words[0]) ) {
+                    newFecPriorityBlockSizes.add(new Parameter(words));
                 
-            } else if ( STATIC_MULTICAST_GROUP_IDENTIFIER.equals(words[0]) ) {
-                staticMulticastGroups.add(new Parameter(words));
+                } else if ( segmentMaxSize.hasKeyword(words[0]) ) {
+                    values.put(segmentMaxSize, Integer.parseInt(words[1]));
                 
-            } else if ( logFileLocation.hasKeyword(words[0])) {
-                logFileLocation.setValue(words[1]);
+                } else if ( batchLingerTime.hasKeyword(words[0]) ) {
+                    values.put(batchLingerTime, Integer.parseInt(words[1]));
+                
+                } else if ( batchMaxSize.hasKeyword(words[0]) ) {
+                    values.put(batchMaxSize, Integer.parseInt(words[1]));
+                
+                } else if ( reassemblyBudget.hasKeyword(words[0]) ) {
+                    values.put(reassemblyBudget, Integer.parseInt(words[1]));
+                
+                } else if ( orphanTtl.hasKeyword(words[0]) ) {
+                    values.put(orphanTtl, Integer.parseInt(words[1]));
+                
+                } else if ( orphanSourceQuota.hasKeyword(words[0]) ) {
+                    values.put(orphanSourceQuota, Integer.parseInt(words[1]));
+                
+                } else if ( orphanMaxBytes.hasKeyword(words[0]) ) {
+                    values.put(orphanMaxBytes, Integer.parseInt(words[1]));
+                
+                } else if ( groupIdleTime.hasKeyword(words[0]) ) {
+                    values.put(groupIdleTime, Integer.parseInt(words[1]));
+                
+                } else if ( groupPoolSize.hasKeyword(words[0]) ) {
+                    values.put(groupPoolSize, Integer.parseInt(words[1]));
+                
+                } else if ( captureFile.hasKeyword(words[0]) ) {
+                    values.put(captureFile, words.length > 1 ? words[1] : "");
+                
+                } else if ( messageTracing.hasKeyword(words[0]) ) {
+                    boolean tracing = words[1].equalsIgnoreCase("true");
+                    values.put(messageTracing, tracing);
+                
+                } else if ( reloadInterval.hasKeyword(words[0]) ) {
+                    values.put(reloadInterval, Integer.parseInt(words[1]));
+                
+                } else if ( logFileLocation.hasKeyword(words[0])) {
+                    values.put(logFileLocation, words[1]);
+                }
+            }
+        } finally {
+            bf.close();
+        }
+
+        if ( reload ) {
+            // A parameter removed from the file goes back to its default
+            Parameter.resetAll();
+        }
+        for (Map.Entry<Parameter, Object> value : values.entrySet()) {
+            value.getKey().setFileValue(value.getValue(), reload);
+        }
+        if ( reload || values.containsKey(bindInterfaceAddress) ) {
+            interfacePduMaxSize = 0;
+        }
+        if ( reload ) {
+            Parameter.removeFileValues(groupPduMaxSizes);
+            Parameter.removeFileValues(priorityMappings);
+            Parameter.removeFileValues(fecPriorityBlockSizes);
+            ArrayList<Parameter> fileStaticMulticastGroups = new ArrayList<Parameter>(staticMulticastGroups);
+            Parameter.removeSetterValues(fileStaticMulticastGroups);
+            if ( !newStaticMulticastGroups.toString().equals(fileStaticMulticastGroups.toString()) ) {
+                Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: {} changed in {}, restart to apply it",
+                        STATIC_MULTICAST_GROUP_IDENTIFIER, path);
             }
+        } else {
+            staticMulticastGroups.addAll(newStaticMulticastGroups);
+        }
+        groupPduMaxSizes.addAll(newGroupPduMaxSizes);
+        priorityMappings.addAll(newPriorityMappings);
+        fecPriorityBlockSizes.addAll(newFecPriorityBlockSizes);
+    }
+
+    /**
+     * Returns the current snapshot of the parameters, compiling it if a
+     * parameter changed since it was last compiled.
+     * 
+     * @return snapshot
+     */
+    private static Snapshot snapshot( ) {
+        Snapshot current = snapshot;
+        if ( current == null ) {
+            current = compile();
+        }
+        return current;
+    }
+
+    /**
+     * Compiles and publishes a new snapshot, unless another thread did.
+     * 
+     * @return snapshot
+     */
+    private static synchronized Snapshot compile( ) {
+        if ( snapshot == null ) {
+            snapshot = new Snapshot();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Drops the snapshot after a parameter changed, so that it is compiled
+     * again on next use. While loading, the snapshot is kept until all
+     * parameters are read.
+     */
+    private static synchronized void invalidate( ) {
+        if ( !loading ) {
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Returns an address resolved in the snapshot, or throws the exception
+     * resolving it gave.
+     * 
+     * @param address resolved address, null if it could not be resolved.
+     * @param parameter the address was resolved from.
+     * @return address
+     * @throws UnknownHostException if the address could not be resolved.
+     */
+    private static InetAddress resolved( InetAddress address, Parameter parameter ) throws UnknownHostException {
+        if ( address == null ) {
+            throw new UnknownHostException((String) parameter.getValue());
+        }
+        return address;
+    }
+
+    /**
+     * Resolves an address parameter.
+     * 
+     * @param parameter holding the address.
+     * @return address, or null if it could not be resolved.
+     */
+    private static InetAddress resolve( Parameter parameter ) {
+        try {
+            return InetAddress.getByName((String) parameter.getValue());
+        } catch (UnknownHostException e) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: could not resolve {} {}", parameter.identifier,
+                    parameter.getValue());
+            return null;
+        }
+    }
+
+    /**
+     * Starts reloading the given configuration file when it changes on disk,
+     * unless RELOAD_INTERVAL is 0. Only the last loaded file is watched.
+     * 
+     * @param path of the configuration file.
+     */
+    private static synchronized void watch( String path ) {
+        watchedFile = new File(path);
+        watchedModified = watchedFile.lastModified();
+        if ( watcher != null || getReloadInterval() <= 0 ) {
+            return;
+        }
+        watcher = new Thread(new Runnable() {
+            @Override
+            public void run( ) {
+                while ( checkWatchedFile() ) {
+                    // Keep watching.
+                }
+            }
+        }, "Configuration watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Waits RELOAD_INTERVAL, and reloads the watched configuration file if it
+     * changed. The parameters of the file replace the current ones, and the
+     * new snapshot replaces the old one at once. If the file cannot be read,
+     * the current parameters are kept. Ports, GG, the bind interface, the node
+     * id and the static multicast groups are read when a Libjpmul instance is
+     * created, so a change to them needs a restart.
+     * 
+     * @return false when the file should no longer be watched.
+     */
+    private static boolean checkWatchedFile( ) {
+        int interval = getReloadInterval();
+        if ( interval > 0 ) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                interval = 0;
+            }
+        }
+        synchronized (Configuration.class) {
+            if ( interval <= 0 ) {
+                watcher = null;
+                return false;
+            }
+            if ( watchedFile.lastModified() == watchedModified ) {
+                return true;
+            }
+            Log.writeLine(Log.LOG_LEVEL_VERBOSE, "Configuration file {} changed, reloading it", watchedFile.getPath());
+            try {
+                load(watchedFile.getPath(), true);
+            } catch (IOException | RuntimeException e) {
+                // Do not retry until the file changes again
+                watchedModified = watchedFile.lastModified();
+                Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: could not reload {}: {}", watchedFile.getPath(),
+                        e.toString());
+            }
+            return true;
         }
-        bf.close();
     }
 
     /**
@@ -995,17 +1759,38 @@ public class Configuration {
         confString += Configuration.multicastRangeStart + "\n";
         confString += Configuration.multicastRangeEnd + "\n";
         confString += Configuration.pduMaxSize + "\n";
-        confString += Configuration.undefinedPduExpiryTime + "\n";
+        confString += Configuration.autoPduSize + "\n";
+        confString += Configuration.pduSizeProbing + "\n";
         confString += Configuration.nodeId + "\n";
         confString += Configuration.ackDelayUpperBound + "\n";
         confString += Configuration.enablePriorityMapping + "\n";
         confString += Configuration.logFileLocation + "\n";
+        confString += Configuration.fecBlockSize + "\n";
+        confString += Configuration.fecAdaptive + "\n";
+        for (Parameter blockSize : fecPriorityBlockSizes) {
+            confString += blockSize + "\n";
+        }
+        confString += Configuration.segmentMaxSize + "\n";
+        confString += Configuration.batchLingerTime + "\n";
+        confString += Configuration.batchMaxSize + "\n";
+        confString += Configuration.reassemblyBudget + "\n";
+        confString += Configuration.orphanTtl + "\n";
+        confString += Configuration.orphanSourceQuota + "\n";
+        confString += Configuration.orphanMaxBytes + "\n";
+        confString += Configuration.groupIdleTime + "\n";
+        confString += Configuration.groupPoolSize + "\n";
+        confString += Configuration.captureFile + "\n";
+        confString += Configuration.messageTracing + "\n";
+        confString += Configuration.reloadInterval + "\n";
         for (Parameter mapping: priorityMappings) {
             confString += mapping + "\n";
         }
         for (Parameter multicastGroup : staticMulticastGroups) {
             confString += multicastGroup + "\n";
         }
+        for (Parameter groupPduMaxSize : groupPduMaxSizes) {
+            confString += groupPduMaxSize + "\n";
+        }
 
         return confString;
     }
@@ -1022,6 +1807,15 @@ public class Configuration {
         if (!validatePduMaxSize()) {
             faultyParameters.add(pduMaxSize);
         }
+        for (Parameter parameter : groupPduMaxSizes) {
+            try {
+                if (!validatePduMaxSize(parameterValueToInt(parameter.getValues().get(1)))) {
+                    faultyParameters.add(parameter);
+                }
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                faultyParameters.add(parameter);
+            }
+        }
         
         if (!validateMm()) {
             faultyParameters.add(mm);
@@ -1076,6 +1870,39 @@ public class Configuration {
         } catch (UnknownHostException e) {
             faultyParameters.add(multicastRangeEnd);
         }
+        if (getFecBlockSize() < 0) {
+            faultyParameters.add(fecBlockSize);
+        }
+        if (getSegmentMaxSize() < 0) {
+            faultyParameters.add(segmentMaxSize);
+        }
+        if (getBatchLingerTime() < 0) {
+            faultyParameters.add(batchLingerTime);
+        }
+        if (getBatchMaxSize() < 0) {
+            faultyParameters.add(batchMaxSize);
+        }
+        if (getReassemblyBudget() < 0) {
+            faultyParameters.add(reassemblyBudget);
+        }
+        if (getOrphanTtl() < 0) {
+            faultyParameters.add(orphanTtl);
+        }
+        if (getOrphanSourceQuota() < 0) {
+            faultyParameters.add(orphanSourceQuota);
+        }
+        if (getOrphanMaxBytes() < 0) {
+            faultyParameters.add(orphanMaxBytes);
+        }
+        if (getGroupIdleTime() < 0) {
+            faultyParameters.add(groupIdleTime);
+        }
+        if (getGroupPoolSize() < 0) {
+            faultyParameters.add(groupPoolSize);
+        }
+        if (getReloadInterval() < 0) {
+            faultyParameters.add(reloadInterval);
+        }
         return faultyParameters;
     }
     
@@ -1085,8 +1912,16 @@ public class Configuration {
      * @return valid
      */
     private static boolean validatePduMaxSize() {
-        int pduMaxSize = getPduMaxSize();
-        
+        return validatePduMaxSize(getPduMaxSize());
+    }
+
+    /**
+     * Validates if the given PDU size can handle an instance of every PDU
+     * type with at least one entry.
+     * @param pduMaxSize the size to validate.
+     * @return valid
+     */
+    private static boolean validatePduMaxSize(int pduMaxSize) {
         if (pduMaxSize < AckPdu.ACK_PDU_BASE_SIZE + AckInfoEntry.ACK_INFO_ENTRY_BASE_SIZE) {
             return false;
         }
@@ -1099,6 +1934,9 @@ public class Configuration {
         if (pduMaxSize < DataPdu.DATA_PDU_BASE_SIZE + 1) {
             return false;
         }
+        if (pduMaxSize < RepairPdu.REPAIR_PDU_BASE_SIZE + 1) {
+            return false;
+        }
         if (pduMaxSize < DiscardMessagePdu.DISCARD_MESSAGE_PDU_SIZE) {
             return false;
         }
@@ -1149,6 +1987,234 @@ public class Configuration {
         return arguments.toArray(new String[arguments.size()]);
     }
 
+    /**
+     * Immutable snapshot of the parameters, with addresses resolved and
+     * lookup tables built from the lists of parameters.
+     */
+    private static final class Snapshot {
+        private final int                             waitForRejectTime;
+        private final int                             announceDelay;
+        private final int                             announceCt;
+        private final int                             ackRetransmissionTime;
+        private final double                          backoffFactor;
+        private final int                             emconRtc;
+        private final int                             emconRti;
+        private final int                             mm;
+        private final int                             ackPduTime;
+        private final InetAddress                     gg;
+        private final InetAddress                     bindInterfaceAddress;
+        private final int                             tPort;
+        private final int                             rPort;
+        private final int                             dPort;
+        private final int                             aPort;
+        private final InetAddress                     multicastRangeStart;
+        private final InetAddress                     multicastRangeEnd;
+        private final int                             pduMaxSize;
+        private final boolean                         autoPduSize;
+        private final boolean                         pduSizeProbing;
+        private final HashMap<InetAddress, Integer>   groupPduMaxSizes;
+        private final int                             pduMaxReceiveSize;
+        private final int                             nodeId;
+        private final long                            ackDelayUpperBound;
+        private final int                             dataAndAddressPduSendDelay;
+        private final boolean                         enablePriorityMapping;
+        private final ArrayList<PriorityMapping>      priorityMappings;
+        private final int[]                           trafficClasses;
+        private final int                             fecBlockSize;
+        private final boolean                         fecAdaptive;
+        private final HashMap<Integer, Integer>       fecPriorityBlockSizes;
+        private final int                             segmentMaxSize;
+        private final int                             batchLingerTime;
+        private final int                             batchMaxSize;
+        private final int                             reassemblyBudget;
+        private final int                             orphanTtl;
+        private final int                             orphanSourceQuota;
+        private final int                             orphanMaxBytes;
+        private final int                             groupIdleTime;
+        private final int                             groupPoolSize;
+        private final boolean                         messageTracing;
+        private final int                             reloadInterval;
+        private final ArrayList<MulticastGroup>       multicastGroups;
+        private final StaticGroupRouter               staticGroupRouter;
+
+        /**
+         * Compiles the current values of the parameters.
+         */
+        private Snapshot( ) {
+            waitForRejectTime = (int) Configuration.waitForRejectTime.getValue();
+            announceDelay = (int) Configuration.announceDelay.getValue();
+            announceCt = (int) Configuration.announceCt.getValue();
+            ackRetransmissionTime = (int) Configuration.ackRetransmissionTime.getValue();
+            backoffFactor = (double) Configuration.backoffFactor.getValue();
+            emconRtc = (int) Configuration.emconRtc.getValue();
+            emconRti = (int) Configuration.emconRti.getValue();
+            mm = (int) Configuration.mm.getValue();
+            ackPduTime = (int) Configuration.ackPduTime.getValue();
+            gg = resolve(Configuration.gg);
+            bindInterfaceAddress = resolve(Configuration.bindInterfaceAddress);
+            tPort = (int) Configuration.tPort.getValue();
+            rPort = (int) Configuration.rPort.getValue();
+            dPort = (int) Configuration.dPort.getValue();
+            aPort = (int) Configuration.aPort.getValue();
+            multicastRangeStart = resolve(Configuration.multicastRangeStart);
+            multicastRangeEnd = resolve(Configuration.multicastRangeEnd);
+            pduMaxSize = (int) Configuration.pduMaxSize.getValue();
+            autoPduSize = (boolean) Configuration.autoPduSize.getValue();
+            pduSizeProbing = (boolean) Configuration.pduSizeProbing.getValue();
+            nodeId = (int) Configuration.nodeId.getValue();
+            ackDelayUpperBound = (long) Configuration.ackDelayUpperBound.getValue();
+            dataAndAddressPduSendDelay = (int) Configuration.dataAndAddressPduSendDelay.getValue();
+            enablePriorityMapping = (boolean) Configuration.enablePriorityMapping.getValue();
+            fecBlockSize = (int) Configuration.fecBlockSize.getValue();
+            fecAdaptive = (boolean) Configuration.fecAdaptive.getValue();
+            segmentMaxSize = (int) Configuration.segmentMaxSize.getValue();
+            batchLingerTime = (int) Configuration.batchLingerTime.getValue();
+            batchMaxSize = (int) Configuration.batchMaxSize.getValue();
+            reassemblyBudget = (int) Configuration.reassemblyBudget.getValue();
+            orphanTtl = (int) Configuration.orphanTtl.getValue();
+            orphanSourceQuota = (int) Configuration.orphanSourceQuota.getValue();
+            orphanMaxBytes = (int) Configuration.orphanMaxBytes.getValue();
+            groupIdleTime = (int) Configuration.groupIdleTime.getValue();
+            groupPoolSize = (int) Configuration.groupPoolSize.getValue();
+            messageTracing = (boolean) Configuration.messageTracing.getValue();
+            reloadInterval = (int) Configuration.reloadInterval.getValue();
+
+            groupPduMaxSizes = compileGroupPduMaxSizes();
+            int receiveSize = pduMaxSize;
+            for (int size : groupPduMaxSizes.values()) {
+                receiveSize = Math.max(receiveSize, size);
+            }
+            pduMaxReceiveSize = receiveSize;
+
+            priorityMappings = compilePriorityMappings();
+            trafficClasses = new int[0x100];
+            for (int i = 0; i < trafficClasses.length; i++) {
+                trafficClasses[i] = -1;
+            }
+            for (PriorityMapping mapping : priorityMappings) {
+                // The first mapping of a priority applies
+                if ( mapping.getFrom() >= 0 && mapping.getFrom() < trafficClasses.length
+                        && trafficClasses[mapping.getFrom()] < 0 ) {
+                    trafficClasses[mapping.getFrom()] = mapping.getTo();
+                }
+            }
+
+            fecPriorityBlockSizes = compileFecPriorityBlockSizes();
+
+            multicastGroups = compileMulticastGroups();
+            staticGroupRouter = new StaticGroupRouter(multicastGroups);
+        }
+
+        private static HashMap<InetAddress, Integer> compileGroupPduMaxSizes( ) {
+            HashMap<InetAddress, Integer> sizes = new HashMap<InetAddress, Integer>();
+            ArrayList<Object> values;
+            for (Parameter parameter : Configuration.groupPduMaxSizes) {
+                values = parameter.getValues();
+                try {
+                    InetAddress group = InetAddress.getByName(values.get(0).toString());
+                    if ( !sizes.containsKey(group) ) {
+                        sizes.put(group, parameterValueToInt(values.get(1)));
+                    }
+                } catch (IndexOutOfBoundsException e) {
+                    Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: a group PDU max size had missing arguments");
+                } catch (NumberFormatException e) {
+                    Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: a group PDU max size had a non-integer size");
+                } catch (UnknownHostException e) {
+                    Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: address of a group PDU max size caused an " +
+                            "UnknownHostException");
+                }
+            }
+            return sizes;
+        }
+
+        private static ArrayList<PriorityMapping> compilePriorityMappings( ) {
+            ArrayList<PriorityMapping> priorityMappingIntegers = new ArrayList<PriorityMapping>();
+            ArrayList<Object> values;
+            
+            for (Parameter parameter : Configuration.priorityMappings) {
+                values = parameter.getValues();
+                try {
+                    // Assume values are stored as Strings
+                    int from = stringToInt((String) values.get(0));
+                    int to = stringToInt((String) values.get(1));
+                    priorityMappingIntegers.add(new PriorityMapping(to, from));
+                } catch (IndexOutOfBoundsException e) {
+                    Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: a priority mapping had missing arguments");
+                } catch (NumberFormatException e) {
+                    Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: a priority mapping had a non-integer argument");
+                } catch (IllegalArgumentException e) {
+                    Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: a priority mapping overflowed 8 bit");
+                    
+                } catch (ClassCastException e) {
+                    // Assume values are stored as integers
+                    int from = (int) values.get(0);
+                    int to = (int) values.get(1);
+                    priorityMappingIntegers.add(new PriorityMapping(to, from));
+                }
+            }
+            return priorityMappingIntegers;
+        }
+
+        private static HashMap<Integer, Integer> compileFecPriorityBlockSizes( ) {
+            HashMap<Integer, Integer> blockSizes = new HashMap<Integer, Integer>();
+            ArrayList<Object> values;
+
+            for (Parameter parameter : Configuration.fecPriorityBlockSizes) {
+                values = parameter.getValues();
+                try {
+                    int priority = parameterValueToInt(values.get(0));
+                    if ( !blockSizes.containsKey(priority) ) {
+                        blockSizes.put(priority, parameterValueToInt(values.get(1)));
+                    }
+                } catch (IndexOutOfBoundsException e) {
+                    Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: a FEC priority block size had missing arguments");
+                } catch (NumberFormatException e) {
+                    Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: a FEC priority block size had a non-integer " +
+                            "argument");
+                }
+            }
+            return blockSizes;
+        }
+
+        private static ArrayList<MulticastGroup> compileMulticastGroups( ) {
+            ArrayList<MulticastGroup> multicastGroups = new ArrayList<MulticastGroup>();
+            ArrayList<Object> values;
+            ArrayList<Integer> sourceIds;
+        
+            // For all static multicast groups in the configuration
+            for (Parameter parameter : staticMulticastGroups) {
+                values = parameter.getValues();
+                sourceIds = new ArrayList<Integer>();
+                for (int i = 1; i < values.size(); i++) {
+                    try {
+                    	if ( values.get(i) instanceof String ) {
+                    		String val = (String)values.get(i);
+                    		sourceIds.add(stringToInt(val));
+                    	} else {
+                    		sourceIds.add((Integer)values.get(i));
+                    	}
+                    } catch (NumberFormatException e) {
+                        Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: a multicast group had a " +
+                        		"non-integer source ID");
+                    }
+                }
+
+                InetAddress address = null;
+                try {
+                	address = InetAddress.getByName((String)values.get(0));
+                } catch (UnknownHostException e) { 
+                	Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: address of a multicast group caused an " +
+                			"UnknownHostException");
+                } catch (NumberFormatException e) {
+                    Log.writeLine(Log.LOG_LEVEL_NORMAL, "Configuration: multicast group entry had no arguments");
+                }
+
+                multicastGroups.add(new MulticastGroup(address, sourceIds));
+            }
+            return multicastGroups;
+        }
+    }
+
     /**
      * The parameter. <br>
      * This class contains both the parameter's identifier and its value.
@@ -1157,8 +2223,19 @@ public class Configuration {
      * 
      */
     private static class Parameter {
+        /**
+         * Parameters created with a default value, in order of creation.
+         */
+        private static final ArrayList<Parameter> withDefaults = new ArrayList<Parameter>();
+
         private String identifier;
         private ArrayList<Object> values;
+        private Object defaultValue;
+        /**
+         * True when the value was set by a setter rather than read from the
+         * configuration file, so that a reload does not change it.
+         */
+        private boolean overridden;
 
         /**
          * Creates a new parameter and sets the default value
@@ -1169,7 +2246,51 @@ public class Configuration {
         public Parameter(String identifier, Object defaultValue) {
             this.identifier = identifier;
             this.values = new ArrayList<Object>();
-            setValue(defaultValue);
+            this.defaultValue = defaultValue;
+            assign(defaultValue);
+            withDefaults.add(this);
+        }
+
+        /**
+         * Sets every parameter created with a default value back to that
+         * value, except the ones set by a setter.
+         */
+        public static void resetAll( ) {
+            for (Parameter parameter : withDefaults) {
+                if ( !parameter.overridden ) {
+                    parameter.assign(parameter.defaultValue);
+                }
+            }
+        }
+
+        /**
+         * Removes the parameters read from the configuration file from the
+         * given list, keeping the ones added by a setter.
+         * 
+         * @param parameters list to remove from.
+         */
+        public static void removeFileValues( ArrayList<Parameter> parameters ) {
+            Iterator<Parameter> iterator = parameters.iterator();
+            while ( iterator.hasNext() ) {
+                if ( !iterator.next().overridden ) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        /**
+         * Removes the parameters added by a setter from the given list,
+         * keeping the ones read from the configuration file.
+         * 
+         * @param parameters list to remove from.
+         */
+        public static void removeSetterValues( ArrayList<Parameter> parameters ) {
+            Iterator<Parameter> iterator = parameters.iterator();
+            while ( iterator.hasNext() ) {
+                if ( iterator.next().overridden ) {
+                    iterator.remove();
+                }
+            }
         }
 
         /**
@@ -1197,24 +2318,54 @@ public class Configuration {
         }
         
         /**
-         * Sets the value of this parameter
+         * Sets the value of this parameter, which a reload of the
+         * configuration file will not change.
          * 
          * @param value you want to set.
          */
         public void setValue( Object value ) {
+            assign(value);
+            overridden = true;
+        }
+
+        /**
+         * Sets the value of this parameter as read from the configuration
+         * file. A reload leaves a value set by a setter as it is, while
+         * loading a file replaces it.
+         * 
+         * @param value read from the file.
+         * @param reload true when reloading a changed file.
+         */
+        public void setFileValue( Object value, boolean reload ) {
+            if ( reload && overridden ) {
+                return;
+            }
+            assign(value);
+            overridden = false;
+        }
+
+        /**
+         * Sets the first value of this parameter.
+         * 
+         * @param value to set.
+         */
+        private void assign( Object value ) {
             if (values.size() > 0) {
                 values.set(0, value);
             } else {
                 values.add(value);
             }
+            invalidate();
         }
         
         /**
-         * Sets an ArrayList of objects to this parameter's values
+         * Sets an ArrayList of objects to this parameter's values, which a
+         * reload of the configuration file will not remove.
          * @param values the array list to set.
          */
         public void setValues( ArrayList<Object> values ) {
             this.values = values;
+            overridden = true;
         }
 
         /**
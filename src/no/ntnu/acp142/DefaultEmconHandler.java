@@ -168,8 +168,7 @@ public class DefaultEmconHandler implements IEmconHandler {
 
 			try {
 				Log.writeLine(Log.LOG_LEVEL_DEBUG,
-						"Binding our listening thread to port "
-								+ port);
+						"Binding our listening thread to port {}", port);
 				socket = new MulticastSocket(port);
 				socket.setInterface(bindAddress);
 			} catch (IOException e) {
@@ -181,8 +180,7 @@ public class DefaultEmconHandler implements IEmconHandler {
 
 			try {
 				Log.writeLine(Log.LOG_LEVEL_DEBUG,
-						"Joining multicast group "
-								+ multicastGroup.toString());
+						"Joining multicast group {}", multicastGroup);
 				socket.joinGroup(multicastGroup);
 			} catch (IOException e) {
 				// Was not able to join the multicast group.
@@ -191,9 +189,8 @@ public class DefaultEmconHandler implements IEmconHandler {
 								+ multicastGroup.toString());
 				Log.writeLine(Log.LOG_LEVEL_QUIET, e.toString());
 			}
-			Log.writeLine(Log.LOG_LEVEL_DEBUG,
-					"Now listening on: "
-							+ multicastGroup.toString() + ":" + port);
+			Log.writeLine(Log.LOG_LEVEL_DEBUG, "Now listening on: {}:{}",
+					multicastGroup, port);
 
 			while (isRunning) {
 				byte[] buffer = new byte[5];
@@ -238,8 +235,7 @@ public class DefaultEmconHandler implements IEmconHandler {
 
 			try {
 				Log.writeLine(Log.LOG_LEVEL_DEBUG,
-						"Leaving multicast group "
-								+ multicastGroup.toString());
+						"Leaving multicast group {}", multicastGroup);
 				socket.leaveGroup(multicastGroup);
 			} catch (IOException e) {
 				// There where some kind of error leaving the multicast group,
@@ -265,8 +261,8 @@ public class DefaultEmconHandler implements IEmconHandler {
 	public void enterEmcon(int nodeId) {
 		// Announce state change
 		DatagramPacket packet = createEnterEmconPacket(nodeId);
-		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Announcing that " + nodeId
-				+ " entered EMCON.");
+		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Announcing that {} entered EMCON.",
+				nodeId);
 		try {
 			socket.send(packet);
 		} catch (IOException e) {
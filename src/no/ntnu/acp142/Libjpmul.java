@@ -1,16 +1,19 @@
 ﻿package no.ntnu.acp142;
 
-import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Random;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicInteger;
+import no.ntnu.acp142.metrics.Metrics;
 import no.ntnu.acp142.rdt.MessageEntry;
+import no.ntnu.acp142.rdt.MulticastAddressAllocator;
 import no.ntnu.acp142.rdt.ReliableDataTransfer;
+import no.ntnu.acp142.udp.Transport;
 
 /*
  * Copyright (c) 2013, Karl Mardoff Kittilsen, Bjørn Tungesvik
@@ -63,7 +66,22 @@ public class Libjpmul implements ILibjpmul {
     /**
      * Here the RDT layer will put completely received messages.
      */
-    public static BlockingQueue<MessageEntry> completedMessages = new LinkedBlockingDeque<MessageEntry>();
+    public final BlockingQueue<MessageEntry>  completedMessages = new LinkedBlockingDeque<MessageEntry>();
+
+    /**
+     * Reassembles messages that were sent as several segments.
+     */
+    private final SegmentReassembler          segmentReassembler = new SegmentReassembler();
+
+    /**
+     * Batches small outgoing messages.
+     */
+    private final MessageBatcher              messageBatcher     = new MessageBatcher(this);
+
+    /**
+     * Messages unbatched from a received batch, not yet returned by receive.
+     */
+    private final Queue<Acp142Message>        unbatchedMessages  = new ConcurrentLinkedQueue<Acp142Message>();
 
     /**
      * Atomic Integer to keep track of our message ID.
@@ -109,7 +127,7 @@ public class Libjpmul implements ILibjpmul {
         Log.writeLine(Log.LOG_LEVEL_DEBUG, "RDT layer initialized.");
         this.emconHandler = new DefaultEmconHandler(bindAddress);
         Log.writeLine(Log.LOG_LEVEL_DEBUG, "DefaultEmconHandler initialized.");
-        Log.writeLine(Log.LOG_LEVEL_DEBUG, "MessageId initialized to: " + Libjpmul.currentMessageId.get());
+        Log.writeLine(Log.LOG_LEVEL_DEBUG, "MessageId initialized to: {}", Libjpmul.currentMessageId.get());
         
         // If we find any static multicast groups in our config file,
         // check if we are set as one of the clientId's in this group, 
@@ -117,15 +135,15 @@ public class Libjpmul implements ILibjpmul {
         final ArrayList<MulticastGroup> multicastGroups = Configuration.getMulticastGroups();
         
         final ArrayList<Integer> myClientId = new ArrayList<Integer>();
-        myClientId.add(Configuration.getNodeId());
-        Log.writeLine(Log.LOG_LEVEL_DEBUG, "Our clientId is: " + Configuration.getNodeId() + " "
-                + Integer.toHexString(Configuration.getNodeId()));
+        myClientId.add(rdt.getNodeId());
+        Log.writeLine(Log.LOG_LEVEL_DEBUG, "Our clientId is: {} {}", rdt.getNodeId(),
+                Integer.toHexString(rdt.getNodeId()));
         
         for (MulticastGroup multicastGroup : multicastGroups) {
             if (multicastGroup.isSubset(myClientId)) {
                 // We are contained in this multicast group, so we
                 // shall join it.
-                Log.writeLine(Log.LOG_LEVEL_DEBUG, "Joining multicast group: " + multicastGroup.getMulticastAddress());
+                Log.writeLine(Log.LOG_LEVEL_DEBUG, "Joining multicast group: {}", multicastGroup.getMulticastAddress());
                 rdt.joinMulticastGroup(multicastGroup.getMulticastAddress());
             }
         }
@@ -172,7 +190,7 @@ public class Libjpmul implements ILibjpmul {
         Log.writeLine(Log.LOG_LEVEL_DEBUG, "RDT layer initialized.");
         this.emconHandler = new DefaultEmconHandler(bindAddress);
         Log.writeLine(Log.LOG_LEVEL_DEBUG, "DefaultEmconHandler initialized.");
-        Log.writeLine(Log.LOG_LEVEL_DEBUG, "MessageId initialized to: " + Libjpmul.currentMessageId.get());
+        Log.writeLine(Log.LOG_LEVEL_DEBUG, "MessageId initialized to: {}", Libjpmul.currentMessageId.get());
         
         // If we find any static multicast groups in our config file,
         // check if we are set as one of the clientId's in this group, 
@@ -180,21 +198,89 @@ public class Libjpmul implements ILibjpmul {
         ArrayList<MulticastGroup> multicastGroups = Configuration.getMulticastGroups();
         
         ArrayList<Integer> myClientId = new ArrayList<Integer>();
-        myClientId.add(Configuration.getNodeId());
-        Log.writeLine(Log.LOG_LEVEL_DEBUG, "Our clientId is: " + Configuration.getNodeId() + " "
-                + Integer.toHexString(Configuration.getNodeId()));
+        myClientId.add(rdt.getNodeId());
+        Log.writeLine(Log.LOG_LEVEL_DEBUG, "Our clientId is: {} {}", rdt.getNodeId(),
+                Integer.toHexString(rdt.getNodeId()));
         
         for (MulticastGroup multicastGroup : multicastGroups) {
             if (multicastGroup.isSubset(myClientId)) {
                 // We are contained in this multicast group, so we
                 // shall join it.
-                Log.writeLine(Log.LOG_LEVEL_DEBUG, "Joining multicast group: " + multicastGroup.getMulticastAddress());
+                Log.writeLine(Log.LOG_LEVEL_DEBUG, "Joining multicast group: {}", multicastGroup.getMulticastAddress());
                 rdt.joinMulticastGroup(multicastGroup.getMulticastAddress());
             }
         }
         
     }
 
+    /**
+     * 
+     * Public constructor with the transport to send and receive packets on
+     * and a custom EmconHandler. Lets several instances run in one JVM, for
+     * example over a {@link no.ntnu.acp142.udp.MemoryBus}. The node ID is
+     * derived from the local address of the transport. The transport belongs
+     * to the caller: shutdown() does not close it.
+     * 
+     * @param transport transport to send and receive packets on.
+     * @param handler EmconHandler to use.
+     */
+    public Libjpmul(Transport transport, IEmconHandler handler) {
+        this.rdt = new ReliableDataTransfer(this, transport,
+                Configuration.computeNodeId(transport.getLocalAddress()));
+        Log.writeLine(Log.LOG_LEVEL_DEBUG, "RDT layer initialized.");
+        this.emconHandler = handler;
+        
+        // If we find any static multicast groups in our config file,
+        // check if we are set as one of the clientId's in this group, 
+        // if so, join this group.
+        ArrayList<MulticastGroup> multicastGroups = Configuration.getMulticastGroups();
+        
+        ArrayList<Integer> myClientId = new ArrayList<Integer>();
+        myClientId.add(rdt.getNodeId());
+        Log.writeLine(Log.LOG_LEVEL_DEBUG, "Our clientId is: {} {}", rdt.getNodeId(),
+                Integer.toHexString(rdt.getNodeId()));
+        
+        for (MulticastGroup multicastGroup : multicastGroups) {
+            if (multicastGroup.isSubset(myClientId)) {
+                // We are contained in this multicast group, so we
+                // shall join it.
+                Log.writeLine(Log.LOG_LEVEL_DEBUG, "Joining multicast group: {}", multicastGroup.getMulticastAddress());
+                rdt.joinMulticastGroup(multicastGroup.getMulticastAddress());
+            }
+        }
+    }
+
+    /**
+     * Returns the source ID of this node.
+     * 
+     * @return node ID.
+     */
+    public int getNodeId( ) {
+        return rdt.getNodeId();
+    }
+
+    /**
+     * Returns the protocol metrics of this node. They are also available
+     * through JMX as no.ntnu.acp142:type=Metrics,node=&lt;node ID&gt;.
+     * 
+     * @return metrics.
+     */
+    public Metrics getMetrics( ) {
+        return rdt.getMetrics();
+    }
+
+    /**
+     * Shuts this node down. Messages waiting to be batched are handed to the
+     * RDT layer first. Its threads stop, its metrics are removed from JMX, and
+     * the UDP sockets it opened are closed, so a node can be created again on
+     * the same ports. A transport given to the constructor is not closed.
+     * Messages still being sent or received are dropped.
+     */
+    public void shutdown( ) {
+        messageBatcher.shutdown();
+        rdt.shutdown();
+    }
+
     /**
      * Send raw data over the ACP142 protocol
      * 
@@ -218,9 +304,9 @@ public class Libjpmul implements ILibjpmul {
     @Override
     public void send( byte[] data, ArrayList<Integer> destinations, long expiryTime, boolean dynamic, boolean persistent, int priority ) {
 
-        while( emconHandler.isInEmcon(Configuration.getNodeId()) && (System.currentTimeMillis() / 1000L) < expiryTime ) {
+        while( emconHandler.isInEmcon(rdt.getNodeId()) && (Clock.currentTimeMillis() / 1000L) < expiryTime ) {
             try {
-                Thread.sleep( 1000L );
+                Clock.sleep( 1000L );
             } catch ( Exception e ) {
                 Log.writeLine(Log.LOG_LEVEL_VERBOSE, "Could not sleep waiting for node to leave EMCON.");
             }
@@ -234,49 +320,11 @@ public class Libjpmul implements ILibjpmul {
         acp142Message.setPriority(priority);
         acp142Message.setPersistent(persistent);
 
-        MessageEntry message = acp142Message.toMessageEntry();
-
-        if ( acp142Message.useDynamic() ) {
-            // Set destination to null to indicate that RDT has to create a
-            // dynamic multicast address.
-            message.setMulticastAddress(null);
-        } else {
-            // We are using static multicast groups and need to check in what
-            // group we find these destinations as a subset.
-            for (MulticastGroup mGroup : Configuration.getMulticastGroups()) {
-                if ( mGroup.isSubset(acp142Message.getDestinations()) ) {
-                    // We found a MulticastGroup where all our destinations is a
-                    // subset. Use this group to send out the message.
-                    message.setMulticastAddress(mGroup.getMulticastAddress());
-
-                    try {
-                        rdt.getOutMessageQueue().put(message);
-                    } catch (InterruptedException e) {
-                        Log.writeLine(Log.LOG_LEVEL_NORMAL, "Interrupted while putting message in out queue; message not sent.");
-                    }
-
-                    return;
-                }
-            }
-
-            // If the destination is still null we did not find any multicast
-            // groups to send do.
-            // Error out.
-            Log.writeLine(Log.LOG_LEVEL_QUIET, "We are suppose to use static multicast groups, "
-                    + "but we did not find any that had all our destinations in it!");
-
-            String out = "We are looking for: ";
-            for (Integer destination : acp142Message.getDestinations()) {
-                out += destination + ", ";
-            }
-            Log.writeLine(Log.LOG_LEVEL_QUIET, out);
-
-            Log.writeLine(Log.LOG_LEVEL_QUIET, "But our multicast groups are:");
-            for (MulticastGroup mGroup : Configuration.getMulticastGroups()) {
-                Log.writeLine(Log.LOG_LEVEL_QUIET, "\t" + mGroup.toString());
-            }
+        if ( messageBatcher.add(acp142Message) ) {
+            return;
         }
 
+        transmit(acp142Message);
     }
 
     /**
@@ -293,43 +341,86 @@ public class Libjpmul implements ILibjpmul {
     @Override
     public void send( Acp142Message acp142Message ) {
 
-        while( emconHandler.isInEmcon(Configuration.getNodeId())
-                && (System.currentTimeMillis() / 1000L) < acp142Message.getExpiryTime() ) {
+        while( emconHandler.isInEmcon(rdt.getNodeId())
+                && (Clock.currentTimeMillis() / 1000L) < acp142Message.getExpiryTime() ) {
             try {
-                Thread.sleep( 1000L );
+                Clock.sleep( 1000L );
             } catch ( Exception e ) {
                 Log.writeLine(Log.LOG_LEVEL_VERBOSE, "Could not sleep waiting for node to leave EMCON.");
             }
         }
 
-        MessageEntry message = acp142Message.toMessageEntry();
+        if ( messageBatcher.add(acp142Message) ) {
+            return;
+        }
+        transmit(acp142Message);
+    }
 
+    /**
+     * Queues a message for transmission by the RDT layer, to a dynamic
+     * multicast group, to the static multicast group holding all its
+     * destinations, or split over several static groups that together hold
+     * them.
+     * 
+     * @param acp142Message
+     *            Message to send.
+     */
+    void transmit( Acp142Message acp142Message ) {
         if ( acp142Message.useDynamic() ) {
             // Set destination to null to indicate that RDT has to create a
             // dynamic multicast address.
-            message.setMulticastAddress(null);
             try {
-                rdt.getOutMessageQueue().put(message);
+                for (MessageEntry message : acp142Message.toMessageEntries(rdt.getNodeId(), rdt.getPduMaxSize(null))) {
+                    message.setMulticastAddress(null);
+                    rdt.getOutMessageQueue().put(message);
+                }
             } catch (InterruptedException e) {
                 Log.writeLine(Log.LOG_LEVEL_NORMAL, "Interrupted while putting message in out queue; message not sent.");
             }
         } else {
-            // We are using static multicast groups and need to check in what
-            // group we find these destinations as a subset.
-            for (MulticastGroup mGroup : Configuration.getMulticastGroups()) {
-                if ( mGroup.isSubset(acp142Message.getDestinations()) ) {
-                    // We found a MulticastGroup where all our destinations is a
-                    // subset. Use this group to send out the message.
-                    message.setMulticastAddress(mGroup.getMulticastAddress());
-
-                    try {
+            // We are using static multicast groups and need to find the
+            // smallest group we find these destinations in as a subset.
+            MulticastGroup staticGroup = Configuration.getStaticGroupRouter().route(acp142Message.getDestinations());
+            if ( staticGroup != null ) {
+                // We found a MulticastGroup where all our destinations is a
+                // subset. Use this group to send out the message. All
+                // segments are queued at once so that they are pipelined.
+                try {
+                    for (MessageEntry message : acp142Message.toMessageEntries(rdt.getNodeId(), rdt.getPduMaxSize(staticGroup
+                            .getMulticastAddress()))) {
+                        message.setMulticastAddress(staticGroup.getMulticastAddress());
                         rdt.getOutMessageQueue().put(message);
-                    } catch (InterruptedException e) {
-                        Log.writeLine(Log.LOG_LEVEL_NORMAL, "Interrupted while putting message in out queue; message not sent.");
                     }
+                } catch (InterruptedException e) {
+                    Log.writeLine(Log.LOG_LEVEL_NORMAL, "Interrupted while putting message in out queue; message not sent.");
+                }
+
+                return;
+            }
 
-                    return;
+            // No single group holds all our destinations. Send the message
+            // once to each of a set of groups that together do.
+            ArrayList<MulticastGroup> fanOut = Configuration.getStaticGroupRouter().cover(acp142Message.getDestinations());
+            if ( fanOut != null ) {
+                // The Data_PDUs are shared by all groups, so they must fit the
+                // smallest PDU size of the groups.
+                int pduMaxSize = Integer.MAX_VALUE;
+                for (MulticastGroup group : fanOut) {
+                    pduMaxSize = Math.min(pduMaxSize, rdt.getPduMaxSize(group.getMulticastAddress()));
+                }
+                Log.writeLine(Log.LOG_LEVEL_VERBOSE, "No static multicast group holds all destinations, "
+                        + "sending to {} groups.", fanOut.size());
+                try {
+                    for (MessageEntry message : acp142Message.toMessageEntries(rdt.getNodeId(), pduMaxSize)) {
+                        message.setMulticastAddress(fanOut.get(0).getMulticastAddress());
+                        message.setFanOut(fanOut);
+                        rdt.getOutMessageQueue().put(message);
+                    }
+                } catch (InterruptedException e) {
+                    Log.writeLine(Log.LOG_LEVEL_NORMAL, "Interrupted while putting message in out queue; message not sent.");
                 }
+
+                return;
             }
 
             // If the destination is still null we did not find any multicast
@@ -362,7 +453,17 @@ public class Libjpmul implements ILibjpmul {
     @Override
     public Acp142Message receive( ) {
         try {
-            return Acp142Message.convertMessageEntry(completedMessages.take());
+            Acp142Message message = unbatchedMessages.poll();
+            while ( message == null ) {
+                message = segmentReassembler.add(completedMessages.take());
+                if ( message != null && MessageBatcher.isBatch(message) ) {
+                    unbatchedMessages.addAll(MessageBatcher.unbatch(message));
+                    message = unbatchedMessages.poll();
+                }
+            }
+            // The segment or batch header is for the library only
+            message.setReservedField(null);
+            return message;
         } catch (InterruptedException e) {
             Log.writeLine(Log.LOG_LEVEL_VERBOSE, "Interrupted while retrieving message.");
         }
@@ -377,7 +478,7 @@ public class Libjpmul implements ILibjpmul {
     @Override
     public void enterEmcon( ) {
         if ( emconHandler != null ) {
-            emconHandler.enterEmcon(Configuration.getNodeId());
+            emconHandler.enterEmcon(rdt.getNodeId());
             //Notify rdt that the node has entered EMCON
             rdt.enterEmcon();
         }
@@ -391,7 +492,7 @@ public class Libjpmul implements ILibjpmul {
     @Override
     public void leaveEmcon( ) {
         if ( emconHandler != null ) {
-            emconHandler.leaveEmcon(Configuration.getNodeId());
+            emconHandler.leaveEmcon(rdt.getNodeId());
             //Notify rdt that the node has left EMCON
             rdt.leaveEmcon();
         }
@@ -407,8 +508,8 @@ public class Libjpmul implements ILibjpmul {
      * @param nodeId of client to remove from emcon. Can be our own.
      */
     public void leaveEmcon( int nodeId ) {
-        if ( emconHandler != null && nodeId == Configuration.getNodeId() ) {
-            emconHandler.leaveEmcon(Configuration.getNodeId());
+        if ( emconHandler != null && nodeId == rdt.getNodeId() ) {
+            emconHandler.leaveEmcon(rdt.getNodeId());
             //Notify rdt that we have left EMCON.
             rdt.leaveEmcon();
         } else if ( emconHandler != null ){
@@ -459,43 +560,12 @@ public class Libjpmul implements ILibjpmul {
      * the config file with multicastRangeStart and multicastRangeEnd.
      * 
      * @return A random multicast address form our pool.
-     * 
+     * @deprecated the address is not checked against the groups in use;
+     *             dynamic groups are allocated by
+     *             {@link MulticastAddressAllocator}, which this delegates to.
      */
+    @Deprecated
     public static InetAddress getRandomMulticastGroup( ) {
-        InetAddress startRange = null;
-        InetAddress endRange = null;
-        try {
-            startRange = Configuration.getMulticastStartRange();
-            endRange = Configuration.getMulticastEndRang();
-        } catch (UnknownHostException e) {
-            Log.writeLine(Log.LOG_LEVEL_NORMAL, "Could not resolve multicast start or end range address.");
-        }
-        BigInteger start = new BigInteger(startRange.getAddress());
-        BigInteger end = new BigInteger(endRange.getAddress());
-        
-        Log.writeLine(Log.LOG_LEVEL_DEBUG, "Subtracting " + start + " from "
-        + end);
-        
-        BigInteger numberOfAddressesInPool = end.subtract(start);
-        // Add one, because even if the two addresses are the same, we still got that one.
-        numberOfAddressesInPool = numberOfAddressesInPool.add(BigInteger.ONE);
-
-        Log.writeLine(Log.LOG_LEVEL_DEBUG, "The number of addresses in the multicast pool is: "
-                + numberOfAddressesInPool);
-
-        // Generate a random number between zero and numberOfAddressesInPool
-        Random random = new Random();
-        int randomInt = random.nextInt(numberOfAddressesInPool.intValue());
-        BigInteger randomBigInteger = new BigInteger(String.valueOf(randomInt));        
-        
-        BigInteger returnAddress = start.add(randomBigInteger);
-
-        byte[] bytes = returnAddress.toByteArray();
-        try {
-            return InetAddress.getByAddress(bytes);
-        } catch (UnknownHostException e) {
-            Log.writeLine(Log.LOG_LEVEL_NORMAL, "Could not resolve the selected multicast group's address");
-        }
-        return null; // Should never get here.
+        return MulticastAddressAllocator.randomAddress();
     }
 }
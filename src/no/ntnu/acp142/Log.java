@@ -1,9 +1,17 @@
 ﻿package no.ntnu.acp142;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
 /*
  * Copyright (c) 2013, Thomas Martin Schmid, Karl Mardoff Kittilsen
@@ -39,7 +47,16 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  */
 
 /**
- * Class that handles writing to the log file
+ * Class that handles writing to the log file. <br>
+ * <br>
+ * The level is checked before anything else, so a disabled log call costs a
+ * comparison. Messages that are expensive to build should be passed as a
+ * parameterized message or a Supplier, so they are only built when written.
+ * Lines are handed to a writer thread through a bounded lock-free ring, and
+ * appended to the log file in batches. If the ring is full, lines are dropped
+ * and the number dropped is written instead. The calling class and method are
+ * only prefixed to lines when enabled with {@link #setCaptureCaller(boolean)}.
+ * 
  * @author Thomas Martin Schmid, Karl Mardoff Kittilsen
  *
  */
@@ -75,31 +92,60 @@ public class Log {
 	// --------------------------------------
 
 	/**
-	 * The location of the log file
+	 * Number of lines the ring between the logging threads and the writer
+	 * thread holds.
+	 */
+	private static final int RING_SIZE = 8192;
+	/**
+	 * Size of the buffer lines are collected in before they are written to
+	 * the file.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+	/**
+	 * Longest time in milliseconds the writer thread sleeps without new lines.
 	 */
-	File logFile = null;
+	private static final long IDLE_TIME = 500;
 	/**
-	 * The level of operation
+	 * Longest time in milliseconds to wait for the writer thread to write the
+	 * remaining lines when stopped.
 	 */
-	byte logLevel;
+	private static final long STOP_TIME = 2000;
+
+	/**
+	 * The level of operation. Static so it can be checked without getting the
+	 * instance.
+	 */
+	private static volatile byte logLevel = LOG_LEVEL_NORMAL;
 	/**
 	 * If set to true, everything that is written to file is also printed to
 	 * system out.
 	 */
-	boolean printToStdOut;
+	private static volatile boolean printToStdOut = false;
 	/**
-	 * File writer we write to the file with.
+	 * If set to true, lines are prefixed with the calling class and method.
+	 */
+	private static volatile boolean captureCaller = false;
+	/**
+	 * The location of the log file
 	 */
-	private LogThread writerThread = null;
+	private volatile File logFile = null;
 	/**
-	 * Queue where messages to write are queued for the writer thread.
+	 * Ring where lines to write are queued for the writer thread.
 	 */
-	private ConcurrentLinkedQueue<String> messageQueue = null;
+	private final LogRing ring = new LogRing(RING_SIZE);
+	/**
+	 * Number of lines dropped since last reported, because the ring was full.
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+	/**
+	 * Thread writing the queued lines to the file.
+	 */
+	private volatile LogThread writerThread = null;
 	/**
 	 * The writing thread requires an instance, therefore the singleton. This is
 	 * the Log instance.
 	 */
-	private static Log instance = null; 
+	private static volatile Log instance = null; 
 	/**
 	 * The thread we create to handle the shutdown hook for writerThread
 	 */
@@ -110,53 +156,68 @@ public class Log {
 	 */
 	private Log() {
 		logFile = new File(Configuration.getLogFileLocation());
-		logLevel = LOG_LEVEL_NORMAL;
-		printToStdOut = false;
-		messageQueue = new ConcurrentLinkedQueue<String>();
 		
 		shutdownHookThread = new Thread() {
 			public void run() {
-				writerThread.stop();
+				LogThread thread = writerThread;
+				if ( thread != null ) {
+					thread.stopWriting();
+				}
 			}
 		};
 		startWriterThread();
 	}
 	
 	/**
-	 * Gets the singleton instance, initializing it first if it does not already exist.
+	 * Gets the singleton instance, initializing it first if it does not
+	 * already exist.
+	 * 
 	 * @return instance of Log with running LogThread.
 	 */
-	private synchronized static Log getSingleton() {
-		if ( instance == null ) {
-			instance = new Log();
+	private static Log getSingleton() {
+		Log log = instance;
+		if ( log != null && log.writerThread != null ) {
+			return log;
 		}
-		if ( instance.writerThread == null ) {
-			instance.startWriterThread();
+		synchronized (Log.class) {
+			if ( instance == null ) {
+				instance = new Log();
+			}
+			if ( instance.writerThread == null ) {
+				instance.startWriterThread();
+			}
+			return instance;
 		}
-		return instance;
 	}
 	
 	/**
 	 * Starts the writer thread (LogThread) and adds a shutdown hook for it.
 	 */
 	private void startWriterThread() {
-		// Start listening thread
-		writerThread = new LogThread();
-		new Thread(writerThread).start();
+		LogThread thread = new LogThread();
+		thread.start();
+		writerThread = thread;
 		
-		// Add the shutdown hook to stop the thread in case of
+		// Add the shutdown hook to write the remaining lines in case of
 		// crashes/interrupts.
 		Runtime.getRuntime().addShutdownHook(shutdownHookThread);
 	}
 	
 	/**
-	 * Closes the writer and stops the writerThread (removing the shutdown hook)
+	 * Writes the remaining lines, closes the log file and stops the
+	 * writerThread (removing the shutdown hook). Logging again starts a new
+	 * writerThread.
 	 */
 	public static void close() {
-		Log log = getSingleton();
-		log.writerThread.stop();
-		log.writerThread = null;
-		Runtime.getRuntime().removeShutdownHook(log.shutdownHookThread);
+		synchronized (Log.class) {
+			Log log = instance;
+			if ( log == null || log.writerThread == null ) {
+				return;
+			}
+			log.writerThread.stopWriting();
+			log.writerThread = null;
+			Runtime.getRuntime().removeShutdownHook(log.shutdownHookThread);
+		}
 	}
 	
 	/**
@@ -167,14 +228,25 @@ public class Log {
 	 * @param level the log level.
 	 */
 	public static void setLogLevel(byte level) {
-		getSingleton().logLevel = level;
+		logLevel = level;
 		if ( level == LOG_LEVEL_DEBUG ) {
 			setPrintToStdOut(true);
 		}
 	}
 
 	/**
-	 * Sets the log file's location
+	 * Determines whether anything logged at the given level is written. Use
+	 * this to skip work done only to build log messages.
+	 * 
+	 * @param level the log level.
+	 * @return true if the level is written, false otherwise.
+	 */
+	public static boolean isEnabled(byte level) {
+		return level <= logLevel;
+	}
+
+	/**
+	 * Sets the log file's location. Lines are appended to the file.
 	 *
 	 * @param fileLocation
 	 *            Path to log file
@@ -185,6 +257,18 @@ public class Log {
 		log.writerThread.setFileDirty();
 	}
 
+	/**
+	 * Sets whether lines written with writeLine are prefixed with the calling
+	 * class and method. Finding the caller walks the stack, so this is off by
+	 * default.
+	 * 
+	 * @param capture
+	 *            prefix the caller?
+	 */
+	public static void setCaptureCaller(boolean capture) {
+		captureCaller = capture;
+	}
+
 	/**
 	 * Writes a string to the logfile.
 	 * 
@@ -195,21 +279,14 @@ public class Log {
 	 *            String to log.
 	 */
 	public static void write(byte level, String str) {
-		Log log = getSingleton();
-		if (level > log.logLevel) {
+		if (level > logLevel) {
 			return;
 		}
-		// Check if the writerThread is not running, if so, start it
-		if ( log.writerThread == null ) {
-			log.startWriterThread();
-		}
-
-		log.messageQueue.add(str);
+		getSingleton().enqueue(str);
 	}
 
 	/**
-	 * Writes a string to the log file followed by a newline. Starts by printing
-	 * the calling function.
+	 * Writes a string to the log file followed by a newline.
 	 * 
 	 * @param level
 	 *            Minimum level the log should be set to for this to be written.
@@ -218,11 +295,149 @@ public class Log {
 	 *            String to log.
 	 */
 	public static void writeLine(byte level, String str) {
-		// Get caller
-		StackTraceElement[] elements = Thread.currentThread().getStackTrace();
-		write(level,
-				elements[2].getClassName() + "." + elements[2].getMethodName()
-						+ ": " + str + "\n");
+		if (level > logLevel) {
+			return;
+		}
+		line(str);
+	}
+
+	/**
+	 * Writes a parameterized message to the log file followed by a newline.
+	 * The message is only built if the level is written.
+	 * 
+	 * @param level
+	 *            Minimum level the log should be set to for this to be written.
+	 *            See the finals in this class.
+	 * @param format
+	 *            message where {} is replaced by the argument.
+	 * @param arg
+	 *            argument.
+	 */
+	public static void writeLine(byte level, String format, Object arg) {
+		if (level > logLevel) {
+			return;
+		}
+		line(format(format, arg));
+	}
+
+	/**
+	 * Writes a parameterized message to the log file followed by a newline.
+	 * The message is only built if the level is written.
+	 * 
+	 * @param level
+	 *            Minimum level the log should be set to for this to be written.
+	 *            See the finals in this class.
+	 * @param format
+	 *            message where each {} is replaced by the next argument.
+	 * @param arg1
+	 *            first argument.
+	 * @param arg2
+	 *            second argument.
+	 */
+	public static void writeLine(byte level, String format, Object arg1, Object arg2) {
+		if (level > logLevel) {
+			return;
+		}
+		line(format(format, arg1, arg2));
+	}
+
+	/**
+	 * Writes a parameterized message to the log file followed by a newline.
+	 * The message is only built if the level is written.
+	 * 
+	 * @param level
+	 *            Minimum level the log should be set to for this to be written.
+	 *            See the finals in this class.
+	 * @param format
+	 *            message where each {} is replaced by the next argument.
+	 * @param args
+	 *            arguments.
+	 */
+	public static void writeLine(byte level, String format, Object... args) {
+		if (level > logLevel) {
+			return;
+		}
+		line(format(format, args));
+	}
+
+	/**
+	 * Writes a message to the log file followed by a newline. The supplier is
+	 * only called if the level is written.
+	 * 
+	 * @param level
+	 *            Minimum level the log should be set to for this to be written.
+	 *            See the finals in this class.
+	 * @param message
+	 *            supplier of the message.
+	 */
+	public static void writeLine(byte level, Supplier<String> message) {
+		if (level > logLevel) {
+			return;
+		}
+		line(message.get());
+	}
+
+	/**
+	 * Queues a line, prefixed with the caller if enabled.
+	 * 
+	 * @param str line without the newline.
+	 */
+	private static void line(String str) {
+		if ( captureCaller ) {
+			str = caller() + ": " + str;
+		}
+		getSingleton().enqueue(str + "\n");
+	}
+
+	/**
+	 * Finds the first method on the stack outside this class.
+	 * 
+	 * @return class and method name of the caller.
+	 */
+	private static String caller() {
+		for (StackTraceElement element : new Throwable().getStackTrace()) {
+			if ( !element.getClassName().equals(Log.class.getName()) ) {
+				return element.getClassName() + "." + element.getMethodName();
+			}
+		}
+		return "unknown";
+	}
+
+	/**
+	 * Replaces each {} in the format with the next argument.
+	 * 
+	 * @param format message with placeholders.
+	 * @param args arguments.
+	 * @return the message.
+	 */
+	private static String format(String format, Object... args) {
+		StringBuilder message = new StringBuilder(format.length() + 16 * args.length);
+		int from = 0;
+		int placeholder;
+		for (Object arg : args) {
+			if ( (placeholder = format.indexOf("{}", from)) < 0 ) {
+				break;
+			}
+			message.append(format, from, placeholder).append(arg);
+			from = placeholder + 2;
+		}
+		message.append(format, from, format.length());
+		return message.toString();
+	}
+
+	/**
+	 * Queues a string for the writer thread, and wakes it if it is idle.
+	 * 
+	 * @param str to write.
+	 */
+	private void enqueue(String str) {
+		LogThread thread = writerThread;
+		if ( !ring.offer(str) ) {
+			dropped.incrementAndGet();
+		}
+		if ( thread != null && thread.idle ) {
+			LockSupport.unpark(thread);
+		}
 	}
 
 	/**
@@ -233,35 +448,135 @@ public class Log {
 	 *            to standard out?
 	 */
 	public static void setPrintToStdOut(boolean print) {
-		getSingleton().printToStdOut = print;
+		printToStdOut = print;
 	}
-	
+
+	/**
+	 * Bounded lock-free ring of strings, for many producers and one consumer.
+	 * Each slot carries a sequence number telling whether it is free for the
+	 * producer of a given position or holds a string for the consumer.
+	 */
+	private static final class LogRing {
+		private final AtomicReferenceArray<String> slots;
+		private final AtomicLongArray sequences;
+		private final int mask;
+		/**
+		 * Next position to produce at.
+		 */
+		private final AtomicLong tail = new AtomicLong();
+		/**
+		 * Next position to consume at. Only used by the consumer.
+		 */
+		private long head = 0;
+
+		/**
+		 * @param size number of slots, a power of two.
+		 */
+		LogRing(int size) {
+			slots = new AtomicReferenceArray<String>(size);
+			sequences = new AtomicLongArray(size);
+			mask = size - 1;
+			for (int i = 0; i < size; i++) {
+				sequences.set(i, i);
+			}
+		}
+
+		/**
+		 * @param str to add.
+		 * @return false if the ring is full.
+		 */
+		boolean offer(String str) {
+			long position = tail.get();
+			int index;
+			while ( true ) {
+				index = (int) position & mask;
+				long difference = sequences.get(index) - position;
+				if ( difference == 0 ) {
+					if ( tail.compareAndSet(position, position + 1) ) {
+						break;
+					}
+					position = tail.get();
+				} else if ( difference < 0 ) {
+					return false;
+				} else {
+					position = tail.get();
+				}
+			}
+			slots.set(index, str);
+			sequences.set(index, position + 1);
+			return true;
+		}
+
+		/**
+		 * @return the oldest string, or null if the ring is empty.
+		 */
+		String poll() {
+			int index = (int) head & mask;
+			if ( sequences.get(index) != head + 1 ) {
+				return null;
+			}
+			String str = slots.get(index);
+			slots.set(index, null);
+			sequences.set(index, head + mask + 1);
+			head++;
+			return str;
+		}
+
+		/**
+		 * @return true if the ring is empty. Only valid for the consumer.
+		 */
+		boolean isEmpty() {
+			return sequences.get((int) head & mask) != head + 1;
+		}
+	}
+
 	/**
-	 * Class that takes queued messages and writes them to the file.
+	 * Thread that takes queued lines and appends them to the file. Lines are
+	 * collected in a buffer, which is written when full and whenever the ring
+	 * runs empty.
 	 */
-	private class LogThread implements Runnable {
+	private class LogThread extends Thread {
 
 		/**
 		 * Boolean that controls the lifespan of the thread.
 		 */
-		private boolean isRunning = true;
+		private volatile boolean isRunning = true;
 		
 		/**
 		 * Boolean that tells the thread loop if the file is dirty and the
-		 * writer must be closed and reopened.
+		 * channel must be closed and reopened.
+		 */
+		private volatile boolean fileDirty = false;
+
+		/**
+		 * True while the thread waits for new lines.
 		 */
-		private boolean fileDirty = false;
+		volatile boolean idle = false;
+
+		private FileChannel channel = null;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		LogThread() {
+			super("Log");
+			setDaemon(true);
+		}
 		
 		/**
-		 * Stops the thread
+		 * Stops the thread, and waits for it to write the remaining lines.
 		 */
-		public void stop() {
+		public void stopWriting() {
 			isRunning = false;
+			LockSupport.unpark(this);
+			try {
+				join(STOP_TIME);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
 		}
 		
 		/**
 		 * Sets that logFile is dirty. This prompts the loop to close and reopen
-		 * the writer.
+		 * the channel.
 		 */
 		public void setFileDirty() {
 			fileDirty = true;
@@ -269,72 +584,101 @@ public class Log {
 		
 		@Override
 		public void run() {
-			// Create the writer
-			FileWriter writer;
-			try {
-				writer = new FileWriter(logFile);
-				// Write that the log was started
-				if ( logLevel > LOG_LEVEL_DEBUG ) {
-					writer.append("LogThread started\n");
-				}
-			} catch (IOException e) {
-				System.out.println("Error in Log (LogThread.run): Could not open log file for writing!");
-				System.out.println(e.toString());
-				return;
-			}			
-			
-			// Listen to messageQueue & append any strings that come in
-			while( isRunning ) {
-				if ( messageQueue.peek() == null ) {
-					try {
-						writer.close();
-						Thread.sleep(500L);
-					} catch (InterruptedException e) {
-						System.out.println("Sleep interrupted in Log( LogThread.run). Exception:");
-						e.printStackTrace();
-					} catch( IOException e ) {
-						System.out.println("Could not close Log file. Exception:");
-						e.printStackTrace();
+			open();
+			while ( isRunning || !ring.isEmpty() ) {
+				String out = ring.poll();
+				if ( out == null ) {
+					reportDropped();
+					flush();
+					idle = true;
+					if ( ring.isEmpty() && isRunning ) {
+						LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(IDLE_TIME));
 					}
+					idle = false;
 					continue;
 				}
-				// Test if the file is dirty, and if it is, reopen the writer to the potentially new file location
+				// Test if the file is dirty, and if it is, reopen the channel to the potentially new file location
 				if ( fileDirty ) {
-					try {
-						writer.close();
-						writer = new FileWriter(logFile);
-					} catch (IOException e) {
-						System.out.println("Error in Log (LogThread.run): Could not close and reopen log file");
-					}
+					flush();
+					close();
 					fileDirty = false;
+					open();
 				}
-				// We have a message, write it.
-				String out = messageQueue.poll();
-				try {
-					writer = new FileWriter(logFile);
-					writer.append(out);
-				} catch (IOException e) {
-					System.out.println("Error in Log (LogThread.run): Could not append to log file");
+				append(out);
+
+				// Print to std out
+				if ( printToStdOut ) {
+					System.out.print(out);
 				}
+			}
+			reportDropped();
+			flush();
+			close();
+		}
 
-                // Print to std out
-                if ( printToStdOut ) {
-                    System.out.print(out);
-                }
-				
+		/**
+		 * Writes the number of lines dropped since last reported, if any.
+		 */
+		private void reportDropped() {
+			long count = dropped.getAndSet(0);
+			if ( count > 0 ) {
+				append(count + " log lines dropped, the log could not keep up.\n");
+			}
+		}
+
+		private void append(String out) {
+			byte[] bytes = out.getBytes(StandardCharsets.UTF_8);
+			if ( bytes.length > buffer.remaining() ) {
+				flush();
+			}
+			if ( bytes.length > buffer.capacity() ) {
+				write(ByteBuffer.wrap(bytes));
+			} else {
+				buffer.put(bytes);
+			}
+		}
+
+		private void flush() {
+			buffer.flip();
+			write(buffer);
+			buffer.clear();
+		}
+
+		private void write(ByteBuffer bytes) {
+			if ( channel == null ) {
+				return;
 			}
-			
-			// Close the writer
 			try {
-				if ( logLevel > LOG_LEVEL_DEBUG ) {
-					writer.append("LogThread stopped\n");
+				while ( bytes.hasRemaining() ) {
+					channel.write(bytes);
 				}
-				writer.close();
 			} catch (IOException e) {
-				System.out.println("Error in Log (LogThread.run): Could not close log file for writing!");
+				System.out.println("Error in Log (LogThread.write): Could not append to log file");
+			}
+		}
+
+		private void open() {
+			try {
+				channel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.APPEND);
+			} catch (IOException e) {
+				System.out.println("Error in Log (LogThread.open): Could not open log file for writing!");
 				System.out.println(e.toString());
+				channel = null;
 			}
 		}
-		
+
+		private void close() {
+			if ( channel == null ) {
+				return;
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				System.out.println("Error in Log (LogThread.close): Could not close log file!");
+				System.out.println(e.toString());
+			}
+			channel = null;
+		}
 	}
 }
@@ -0,0 +1,351 @@
+﻿package no.ntnu.acp142;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Batches small messages to the same destinations into one ACP142 message,
+ * to save the Address_PDU, timers and Ack_PDUs of every small message. A
+ * message waits at most BATCH_LINGER_TIME for other messages to join its
+ * batch, and a batch holds at most BATCH_MAX_SIZE bytes of data. <br>
+ * <br>
+ * The data of a batch is a sequence of frames, each a 4 byte length followed
+ * by the data of one message. The destination entries of a batch carry a
+ * batch header in their reserved field, which the receiver uses to unbatch
+ * the messages again. A batch gets the earliest expiry time of its messages.
+ * 
+ * @author libjpmul contributors
+ */
+class MessageBatcher extends Thread {
+
+    // --- BATCH HEADER ---------------------------------------------------- //
+    private static final int BATCH_MARKER_OFFSET  = 0;
+    private static final int MESSAGE_COUNT_OFFSET = 4;
+    private static final int BATCH_HEADER_SIZE    = 8;
+    // --------------------------------------------------------------------- //
+
+    /**
+     * Size of the length field in front of every message in a batch.
+     */
+    private static final int FRAME_HEADER_SIZE    = 4;
+
+    /**
+     * Marks a reserved field as a batch header ("BAT1").
+     */
+    private static final int BATCH_MARKER         = 0x42415431;
+
+    /**
+     * Reference to the library that sends the batches.
+     */
+    private final Libjpmul libjpmul;
+
+    /**
+     * Given the destinations, priority and group type of a message, the batch
+     * currently collecting messages for them.
+     */
+    private final LinkedHashMap<String, Batch> batches = new LinkedHashMap<String, Batch>();
+
+    /**
+     * Batches that are full and ready to be sent.
+     */
+    private final ArrayList<Batch> fullBatches = new ArrayList<Batch>();
+
+    /**
+     * Cleared when the node shuts down.
+     */
+    private volatile boolean       running     = true;
+
+    /**
+     * Creates a batcher sending batches through the given library.
+     * 
+     * @param libjpmul
+     *            library that sends the batches.
+     */
+    MessageBatcher( Libjpmul libjpmul ) {
+        this.libjpmul = libjpmul;
+        setDaemon(true);
+        setName("MessageBatcher");
+    }
+
+    /**
+     * Adds a message to the batch for its destinations, if batching is
+     * enabled and the message is small enough.
+     * 
+     * @param message
+     *            message to send.
+     * @return true if the message was batched, false if the caller has to
+     *         send it.
+     */
+    synchronized boolean add( Acp142Message message ) {
+        int lingerTime = Configuration.getBatchLingerTime();
+        int frameSize = FRAME_HEADER_SIZE + message.getData().length;
+        if ( !running || lingerTime <= 0 || frameSize > Configuration.getBatchMaxSize() ) {
+            return false;
+        }
+        if ( getState() == State.NEW ) {
+            start();
+        }
+
+        String key = getBatchKey(message);
+        Batch batch = batches.get(key);
+        if ( batch != null && batch.size + frameSize > Configuration.getBatchMaxSize() ) {
+            batches.remove(key);
+            fullBatches.add(batch);
+            batch = null;
+        }
+        if ( batch == null ) {
+            batch = new Batch(Clock.currentTimeMillis() + lingerTime);
+            batches.put(key, batch);
+        }
+        batch.messages.add(message);
+        batch.size += frameSize;
+
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Sends batches as they become ready.
+     */
+    @Override
+    public void run( ) {
+        while (running) {
+            ArrayList<Batch> ready;
+            try {
+                ready = takeReadyBatches();
+            } catch (InterruptedException e) {
+                Log.writeLine(Log.LOG_LEVEL_NORMAL, "MessageBatcher interrupted; batched messages not sent.");
+                return;
+            }
+            for (Batch batch : ready) {
+                libjpmul.transmit(batch.toMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the thread, and sends the batches still collecting messages, so
+     * that every message accepted by add() is handed to the RDT layer.
+     */
+    void shutdown( ) {
+        ArrayList<Batch> pending;
+        synchronized (this) {
+            running = false;
+            pending = new ArrayList<Batch>(fullBatches);
+            pending.addAll(batches.values());
+            fullBatches.clear();
+            batches.clear();
+            notifyAll();
+        }
+        for (Batch batch : pending) {
+            libjpmul.transmit(batch.toMessage());
+        }
+    }
+
+    /**
+     * Waits until at least one batch is full or has lingered long enough, and
+     * removes all such batches.
+     * 
+     * @return the batches ready to be sent, empty once shut down.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    private synchronized ArrayList<Batch> takeReadyBatches( ) throws InterruptedException {
+        while (running) {
+            ArrayList<Batch> ready = new ArrayList<Batch>(fullBatches);
+            fullBatches.clear();
+
+            long now = Clock.currentTimeMillis();
+            long nextDeadline = Long.MAX_VALUE;
+            Iterator<Batch> iterator = batches.values().iterator();
+            while (iterator.hasNext()) {
+                Batch batch = iterator.next();
+                if ( batch.deadline <= now ) {
+                    ready.add(batch);
+                    iterator.remove();
+                } else {
+                    nextDeadline = Math.min(nextDeadline, batch.deadline);
+                }
+            }
+
+            if ( !ready.isEmpty() ) {
+                return ready;
+            }
+            if ( nextDeadline == Long.MAX_VALUE ) {
+                wait();
+            } else {
+                Clock.waitOn(this, nextDeadline - now);
+            }
+        }
+        return new ArrayList<Batch>();
+    }
+
+    /**
+     * Returns whether the given received message is a batch.
+     * 
+     * @param message
+     *            received message.
+     * @return true if the message is a batch.
+     */
+    static boolean isBatch( Acp142Message message ) {
+        byte[] reservedField = message.getReservedField();
+        return reservedField != null && reservedField.length == BATCH_HEADER_SIZE
+                && ByteBuffer.wrap(reservedField).getInt(BATCH_MARKER_OFFSET) == BATCH_MARKER;
+    }
+
+    /**
+     * Splits a received batch into the messages it carries.
+     * 
+     * @param batch
+     *            received batch.
+     * @return the messages of the batch, in the order they were sent.
+     */
+    static ArrayList<Acp142Message> unbatch( Acp142Message batch ) {
+        int count = ByteBuffer.wrap(batch.getReservedField()).getInt(MESSAGE_COUNT_OFFSET);
+        ArrayList<Acp142Message> messages = new ArrayList<Acp142Message>();
+        ByteBuffer frames = ByteBuffer.wrap(batch.getData());
+
+        for (int i = 0; i < count; i++) {
+            if ( frames.remaining() < FRAME_HEADER_SIZE ) {
+                break;
+            }
+            int length = frames.getInt();
+            if ( length < 0 || length > frames.remaining() ) {
+                break;
+            }
+            byte[] data = new byte[length];
+            frames.get(data);
+
+            Acp142Message message = new Acp142Message();
+            message.setData(data);
+            message.setDestinations(batch.getDestinations());
+            message.setSourceID(batch.getSourceID());
+            message.setExpiryTime(batch.getExpiryTime());
+            message.setPriority(batch.getPriority());
+            messages.add(message);
+        }
+        if ( messages.size() != count ) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "Batch from " + batch.getSourceID() + " held " + messages.size()
+                    + " of " + count + " messages.");
+        }
+        return messages;
+    }
+
+    /**
+     * Returns the key of the batch a message belongs to. Messages are only
+     * batched with messages to the same destinations, of the same priority and
+     * using the same kind of multicast group.
+     * 
+     * @param message
+     *            message to batch.
+     * @return batch key.
+     */
+    private static String getBatchKey( Acp142Message message ) {
+        ArrayList<Integer> destinations = new ArrayList<Integer>(message.getDestinations());
+        Collections.sort(destinations);
+        return message.getPriority() + ":" + message.useDynamic() + ":" + message.usePersistentGroup() + ":"
+                + destinations;
+    }
+
+    /**
+     * Messages collected for one batch.
+     */
+    private static class Batch {
+
+        /**
+         * Messages of the batch, in the order they were added.
+         */
+        private final ArrayList<Acp142Message> messages = new ArrayList<Acp142Message>();
+
+        /**
+         * Number of bytes of data in the batch, including frame headers.
+         */
+        private int                            size     = 0;
+
+        /**
+         * Time in milliseconds when the batch is sent even if not full.
+         */
+        private final long                     deadline;
+
+        /**
+         * Creates an empty batch.
+         * 
+         * @param deadline
+         *            time in milliseconds when the batch is to be sent.
+         */
+        private Batch( long deadline ) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * Returns the message to send for this batch. A batch of one message is
+         * sent as the message itself.
+         * 
+         * @return message to send.
+         */
+        private Acp142Message toMessage( ) {
+            Acp142Message first = messages.get(0);
+            if ( messages.size() == 1 ) {
+                return first;
+            }
+
+            ByteBuffer frames = ByteBuffer.allocate(size);
+            long expiryTime = first.getExpiryTime();
+            for (Acp142Message message : messages) {
+                frames.putInt(message.getData().length);
+                frames.put(message.getData());
+                expiryTime = Math.min(expiryTime, message.getExpiryTime());
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER_SIZE);
+            header.putInt(BATCH_MARKER_OFFSET, BATCH_MARKER);
+            header.putInt(MESSAGE_COUNT_OFFSET, messages.size());
+
+            Acp142Message batch = new Acp142Message();
+            batch.setData(frames.array());
+            batch.setDestinations(first.getDestinations());
+            batch.setExpiryTime(expiryTime);
+            batch.setDynamic(first.useDynamic());
+            batch.setPersistent(first.usePersistentGroup());
+            batch.setPriority(first.getPriority());
+            batch.setReservedField(header.array());
+            return batch;
+        }
+    }
+}
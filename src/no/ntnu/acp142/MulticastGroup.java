@@ -122,22 +122,8 @@ public class MulticastGroup {
      */
     public boolean isSubset( ArrayList<Integer> destinations ) {
         for (Integer destination : destinations) {
-            boolean found = false;
-            for (Integer clientId : clientIds) {
-                Log.writeLine(Log.LOG_LEVEL_DEBUG,
-                        "Checking if " + destination.toString() + " equals " + clientId.toString());
-                if ( destination.equals(clientId) ) {
-                    // This destination is contained in this multicast group,
-                    // continue to check the others.
-                    Log.writeLine(Log.LOG_LEVEL_DEBUG, destination.toString() + " equals " + clientId.toString());
-                    found = true;
-                }else{
-                	Log.writeLine(Log.LOG_LEVEL_DEBUG, "Different");	
-                }
-                
-            }
-            if (found == false) {
-               Log.writeLine(Log.LOG_LEVEL_VERBOSE, "We did not find the " + destination + " in this multicast group.");
+            if ( !clientIds.contains(destination) ) {
+               Log.writeLine(Log.LOG_LEVEL_VERBOSE, "We did not find the {} in this multicast group.", destination);
                return false;
             }
         }
@@ -0,0 +1,80 @@
+﻿package no.ntnu.acp142;
+
+import java.util.Random;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Creates the Random instances of the library, such as those drawing ack
+ * delays. Unseeded, every instance is seeded by the JVM as by
+ * {@code new Random()}. After {@link #setSeed(long)}, the instances are
+ * seeded from one seeded sequence, so a simulation draws the same values
+ * every run as long as its instances are created in the same order.
+ * 
+ * @author libjpmul contributors
+ */
+public class RandomSource {
+
+    /**
+     * Source of seeds, null if unseeded.
+     */
+    private static Random seeds = null;
+
+    /**
+     * Seeds all Random instances created from now on.
+     * 
+     * @param seed
+     *            the seed.
+     */
+    public static synchronized void setSeed( long seed ) {
+        seeds = new Random(seed);
+    }
+
+    /**
+     * Lets the JVM seed all Random instances created from now on.
+     */
+    public static synchronized void clearSeed( ) {
+        seeds = null;
+    }
+
+    /**
+     * @return a new Random instance.
+     */
+    public static synchronized Random newRandom( ) {
+        if ( seeds == null ) {
+            return new Random();
+        }
+        return new Random(seeds.nextLong());
+    }
+}
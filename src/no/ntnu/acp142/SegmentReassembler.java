@@ -0,0 +1,233 @@
+﻿package no.ntnu.acp142;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import no.ntnu.acp142.pdu.AddressPdu;
+import no.ntnu.acp142.pdu.AddressPdu.DestinationEntry;
+import no.ntnu.acp142.rdt.MessageEntry;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Reassembles messages that were too large for one ACP142 message, and were
+ * therefore sent as several linked segments. Every segment is an ordinary
+ * ACP142 message whose destination entries carry a segment header in their
+ * reserved field: a marker, the message ID of the first segment, the index of
+ * the segment and the number of segments. Receivers that do not know the
+ * segment header deliver the segments as separate messages.
+ * 
+ * @author libjpmul contributors
+ */
+class SegmentReassembler {
+
+    // --- SEGMENT HEADER -------------------------------------------------- //
+    private static final int SEGMENT_MARKER_OFFSET = 0;
+    private static final int OBJECT_ID_OFFSET      = 4;
+    private static final int SEGMENT_INDEX_OFFSET  = 8;
+    private static final int SEGMENT_COUNT_OFFSET  = 10;
+    // --------------------------------------------------------------------- //
+
+    /**
+     * Size of the segment header, and therefore of the reserved field of the
+     * destination entries of a segment.
+     */
+    static final int         SEGMENT_HEADER_SIZE   = 12;
+
+    /**
+     * Largest number of segments of one message.
+     */
+    static final int         SEGMENT_COUNT_MAX     = 0xFFFF;
+
+    /**
+     * Marks a reserved field as a segment header ("SEG1").
+     */
+    private static final int SEGMENT_MARKER        = 0x53454731;
+
+    /**
+     * Given the source ID and message ID of the first segment, it stores the
+     * segments received so far, indexed by segment index.
+     */
+    private HashMap<Long, MessageEntry[]> partialMessages = new HashMap<Long, MessageEntry[]>();
+
+    /**
+     * Creates the segment header of a segment.
+     * 
+     * @param objectId
+     *            message ID of the first segment.
+     * @param index
+     *            index of the segment, starting at 0.
+     * @param count
+     *            number of segments.
+     * @return the segment header.
+     */
+    static byte[] createSegmentHeader( int objectId, int index, int count ) {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(SEGMENT_MARKER_OFFSET, SEGMENT_MARKER);
+        header.putInt(OBJECT_ID_OFFSET, objectId);
+        header.putShort(SEGMENT_INDEX_OFFSET, (short) index);
+        header.putShort(SEGMENT_COUNT_OFFSET, (short) count);
+        return header.array();
+    }
+
+    /**
+     * Adds a completely received message. Messages that are not segments are
+     * returned as they are. Segments are held until all segments of their
+     * message have arrived, and the reassembled message is then returned.
+     * 
+     * @param messageEntry
+     *            the completely received message.
+     * @return the message to deliver, or null if more segments are needed.
+     */
+    synchronized Acp142Message add( MessageEntry messageEntry ) {
+        removeExpired();
+
+        ByteBuffer header = getSegmentHeader(messageEntry);
+        if ( header == null ) {
+            return Acp142Message.convertMessageEntry(messageEntry);
+        }
+
+        int sourceId = messageEntry.getAddressPdu().getSourceID();
+        int objectId = header.getInt(OBJECT_ID_OFFSET);
+        int index = header.getShort(SEGMENT_INDEX_OFFSET) & 0xFFFF;
+        int count = header.getShort(SEGMENT_COUNT_OFFSET) & 0xFFFF;
+        Long key = ((long) sourceId << 32) | (objectId & 0xFFFFFFFFL);
+
+        if ( count < 1 || index >= count ) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "Segment " + index + " of " + count + " of message " + objectId
+                    + " from " + sourceId + " is out of range; segment dropped.");
+            return null;
+        }
+        MessageEntry[] segments = partialMessages.get(key);
+        if ( segments == null ) {
+            segments = new MessageEntry[count];
+            partialMessages.put(key, segments);
+        } else if ( segments.length != count ) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "Segment " + index + " of message " + objectId + " from "
+                    + sourceId + " has " + count + " segments, not " + segments.length + "; segment dropped.");
+            return null;
+        }
+        segments[index] = messageEntry;
+
+        for (MessageEntry segment : segments) {
+            if ( segment == null ) {
+                return null;
+            }
+        }
+        partialMessages.remove(key);
+        Log.writeLine(Log.LOG_LEVEL_VERBOSE, "All {} segments of message {} from {} received.", count, objectId,
+                sourceId);
+        return join(segments);
+    }
+
+    /**
+     * Joins the data of all segments of a message into one message.
+     * 
+     * @param segments
+     *            all segments of the message, in order.
+     * @return the reassembled message, or null if it is too large.
+     */
+    private Acp142Message join( MessageEntry[] segments ) {
+        ArrayList<byte[]> parts = new ArrayList<byte[]>();
+        long size = 0;
+        for (MessageEntry segment : segments) {
+            byte[] part = segment.getData();
+            parts.add(part);
+            size += part.length;
+        }
+        if ( size > Integer.MAX_VALUE - 8 ) {
+            Log.writeLine(Log.LOG_LEVEL_QUIET, "Reassembled message of " + size
+                    + " bytes does not fit into an array; message dropped.");
+            return null;
+        }
+
+        byte[] data = new byte[(int) size];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, data, offset, part.length);
+            offset += part.length;
+        }
+
+        Acp142Message message = Acp142Message.convertMessageEntry(segments[0]);
+        message.setData(data);
+        return message;
+    }
+
+    /**
+     * Discards partially received messages whose expiry time has passed, as
+     * their missing segments will never arrive.
+     */
+    private void removeExpired( ) {
+        long now = Clock.currentTimeMillis() / 1000L;
+        Iterator<Map.Entry<Long, MessageEntry[]>> iterator = partialMessages.entrySet().iterator();
+        while (iterator.hasNext()) {
+            for (MessageEntry segment : iterator.next().getValue()) {
+                if ( segment != null ) {
+                    long expiryTime = segment.getAddressPdu().getExpiryTime();
+                    if ( expiryTime != 0 && expiryTime < now ) {
+                        Log.writeLine(Log.LOG_LEVEL_VERBOSE, "Segmented message expired before all segments "
+                                + "were received; segments dropped.");
+                        iterator.remove();
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the segment header of a message.
+     * 
+     * @param messageEntry
+     *            the message.
+     * @return the segment header, or null if the message is not a segment.
+     */
+    private static ByteBuffer getSegmentHeader( MessageEntry messageEntry ) {
+        AddressPdu addressPdu = messageEntry.getAddressPdu();
+        if ( addressPdu == null || addressPdu.getLengthOfReservedField() != SEGMENT_HEADER_SIZE ) {
+            return null;
+        }
+        ArrayList<DestinationEntry> destinationEntries = addressPdu.getDestinationEntries();
+        if ( destinationEntries.isEmpty() ) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.wrap(destinationEntries.get(0).getReservedField());
+        if ( header.getInt(SEGMENT_MARKER_OFFSET) != SEGMENT_MARKER ) {
+            return null;
+        }
+        return header;
+    }
+}
@@ -0,0 +1,273 @@
+﻿package no.ntnu.acp142;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Routing index over the static multicast groups of the configuration. Every
+ * node ID found in a static group gets a dense index, and every group a bitset
+ * over these indexes, so that checking whether a group holds all destinations
+ * of a message takes a few word operations. Groups are tried from the
+ * smallest to the largest, so that a message reaches as few other nodes as
+ * possible. Results are cached for repeated destination sets. <br>
+ * <br>
+ * When no single group holds all destinations, {@link #cover(ArrayList)}
+ * picks a small set of groups that together do, greedily taking the group
+ * holding the most destinations not yet covered. <br>
+ * <br>
+ * The index is compiled by {@link Configuration#getStaticGroupRouter()}, and
+ * compiled again whenever the static multicast groups change.
+ * 
+ * @author libjpmul contributors
+ */
+public class StaticGroupRouter {
+
+    /**
+     * Number of destination sets cached before the cache is cleared.
+     */
+    private static final int CACHE_SIZE = 1024;
+
+    /**
+     * Cached for destination sets no static group holds.
+     */
+    private static final MulticastGroup NO_GROUP = new MulticastGroup(null);
+
+    /**
+     * Destinations as a bitset over the node indexes.
+     */
+    private static class Key {
+        private final long[] bits;
+        private final int    hash;
+
+        private Key( long[] bits ) {
+            this.bits = bits;
+            this.hash = Arrays.hashCode(bits);
+        }
+
+        @Override
+        public int hashCode( ) {
+            return hash;
+        }
+
+        @Override
+        public boolean equals( Object other ) {
+            return other instanceof Key && Arrays.equals(bits, ( (Key) other ).bits);
+        }
+    }
+
+    private final Map<Integer, Integer>    nodeIndexes = new HashMap<Integer, Integer>();
+    private final MulticastGroup[]         groups;
+    private final long[][]                 members;
+    private final int                      words;
+    private final Map<Key, MulticastGroup> cache       = new HashMap<Key, MulticastGroup>();
+
+    /**
+     * Compiles the index. Groups without an address or members are left out.
+     * 
+     * @param multicastGroups
+     *          static multicast groups, in configuration order
+     */
+    StaticGroupRouter( ArrayList<MulticastGroup> multicastGroups ) {
+        ArrayList<MulticastGroup> usable = new ArrayList<MulticastGroup>();
+        for (MulticastGroup multicastGroup : multicastGroups) {
+            if ( multicastGroup.getMulticastAddress() == null || multicastGroup.getSourceIds() == null ) {
+                continue;
+            }
+            usable.add(multicastGroup);
+            for (Integer sourceId : multicastGroup.getSourceIds()) {
+                if ( sourceId != null && !nodeIndexes.containsKey(sourceId) ) {
+                    nodeIndexes.put(sourceId, nodeIndexes.size());
+                }
+            }
+        }
+        words = ( nodeIndexes.size() + 63 ) >>> 6;
+
+        final Map<MulticastGroup, long[]> bitsets = new HashMap<MulticastGroup, long[]>();
+        for (MulticastGroup multicastGroup : usable) {
+            long[] bits = new long[words];
+            for (Integer sourceId : multicastGroup.getSourceIds()) {
+                if ( sourceId != null ) {
+                    set(bits, nodeIndexes.get(sourceId));
+                }
+            }
+            bitsets.put(multicastGroup, bits);
+        }
+
+        // Smallest first. The sort is stable, so equal groups keep the
+        // configuration order.
+        Collections.sort(usable, new Comparator<MulticastGroup>() {
+            @Override
+            public int compare( MulticastGroup a, MulticastGroup b ) {
+                return count(bitsets.get(a)) - count(bitsets.get(b));
+            }
+        });
+        groups = usable.toArray(new MulticastGroup[usable.size()]);
+        members = new long[groups.length][];
+        for (int i = 0; i < groups.length; i++) {
+            members[i] = bitsets.get(groups[i]);
+        }
+    }
+
+    /**
+     * Finds the smallest static multicast group holding all the destinations.
+     * 
+     * @param destinations
+     *          destination IDs, in any order
+     * @return the group, or null if no static group holds all destinations
+     */
+    public MulticastGroup route( ArrayList<Integer> destinations ) {
+        long[] wanted = new long[words];
+        for (Integer destination : destinations) {
+            Integer index = nodeIndexes.get(destination);
+            if ( index == null ) {
+                return null;
+            }
+            set(wanted, index);
+        }
+
+        Key key = new Key(wanted);
+        MulticastGroup multicastGroup;
+        synchronized (cache) {
+            multicastGroup = cache.get(key);
+        }
+        if ( multicastGroup == null ) {
+            multicastGroup = find(wanted);
+            synchronized (cache) {
+                if ( cache.size() >= CACHE_SIZE ) {
+                    cache.clear();
+                }
+                cache.put(key, multicastGroup == null ? NO_GROUP : multicastGroup);
+            }
+        }
+        return multicastGroup == NO_GROUP ? null : multicastGroup;
+    }
+
+    /**
+     * Finds a small set of static multicast groups that together hold all the
+     * destinations. Each destination is assigned to exactly one of the groups.
+     * 
+     * @param destinations
+     *          destination IDs, in any order
+     * @return one MulticastGroup per chosen group, with the address of the
+     *         group and the destinations assigned to it, or null if some
+     *         destination is in no static group
+     */
+    public ArrayList<MulticastGroup> cover( ArrayList<Integer> destinations ) {
+        long[] remaining = new long[words];
+        for (Integer destination : destinations) {
+            Integer index = nodeIndexes.get(destination);
+            if ( index == null ) {
+                return null;
+            }
+            set(remaining, index);
+        }
+
+        ArrayList<MulticastGroup> chosen = new ArrayList<MulticastGroup>();
+        while (count(remaining) > 0) {
+            int best = -1;
+            int bestCount = 0;
+            for (int i = 0; i < groups.length; i++) {
+                int covered = countCommon(members[i], remaining);
+                if ( covered > bestCount ) {
+                    best = i;
+                    bestCount = covered;
+                }
+            }
+            if ( best < 0 ) {
+                return null;
+            }
+
+            ArrayList<Integer> assigned = new ArrayList<Integer>();
+            for (Integer destination : destinations) {
+                int index = nodeIndexes.get(destination);
+                if ( isSet(remaining, index) && isSet(members[best], index) && !assigned.contains(destination) ) {
+                    assigned.add(destination);
+                }
+            }
+            for (int i = 0; i < remaining.length; i++) {
+                remaining[i] &= ~members[best][i];
+            }
+            chosen.add(new MulticastGroup(groups[best].getMulticastAddress(), assigned));
+        }
+        return chosen;
+    }
+
+    private MulticastGroup find( long[] wanted ) {
+        for (int i = 0; i < groups.length; i++) {
+            if ( covers(members[i], wanted) ) {
+                return groups[i];
+            }
+        }
+        return null;
+    }
+
+    private static boolean covers( long[] group, long[] wanted ) {
+        for (int i = 0; i < wanted.length; i++) {
+            if ( ( wanted[i] & ~group[i] ) != 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void set( long[] bits, int index ) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private static boolean isSet( long[] bits, int index ) {
+        return ( bits[index >>> 6] & 1L << index ) != 0;
+    }
+
+    private static int countCommon( long[] a, long[] b ) {
+        int count = 0;
+        for (int i = 0; i < a.length; i++) {
+            count += Long.bitCount(a[i] & b[i]);
+        }
+        return count;
+    }
+
+    private static int count( long[] bits ) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+}
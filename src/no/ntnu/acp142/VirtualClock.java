@@ -0,0 +1,308 @@
+﻿package no.ntnu.acp142;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * A clock whose time only moves when it is advanced. Threads sleeping or
+ * waiting on the clock wake when the time passes their deadline, so timers of
+ * several seconds fire as soon as the clock is advanced past them. <br>
+ * <br>
+ * In scheduler mode, started with {@link #startScheduler(ThreadGroup)}, the
+ * clock works as a discrete-event scheduler: whenever every thread of the
+ * given thread group is waiting, and nothing touched the clock in the
+ * meantime, the clock jumps to the earliest deadline of its sleepers. Run all
+ * nodes of a simulation, connected by a MemoryBus, from threads in that group,
+ * and a scenario with realistic timer values runs as fast as the threads can
+ * do their work. Threads blocked in socket I/O never look idle, so a
+ * simulation must not use UDPWrapper. <br>
+ * <br>
+ * Together with {@link RandomSource#setSeed(long)} the timer values and random
+ * delays of a run are reproducible. The interleaving of the threads within one
+ * instant of virtual time is still up to the JVM.
+ * 
+ * @author libjpmul contributors
+ */
+public class VirtualClock extends Clock {
+
+    /**
+     * Real time the scheduler lets pass before it trusts that idle threads
+     * will stay idle, in nanoseconds.
+     */
+    private static final long            IDLE_CHECK_TIME = 100000;
+
+    /**
+     * Current time in nanoseconds since the epoch.
+     */
+    private volatile long                now;
+
+    /**
+     * Threads sleeping or waiting on the clock, earliest deadline first.
+     */
+    private final PriorityQueue<Sleeper> sleepers;
+
+    /**
+     * Monitor of threads sleeping on the clock.
+     */
+    private final Object                 sleepMonitor;
+
+    /**
+     * Counts every use of the clock, so the scheduler sees if any thread ran
+     * between two checks.
+     */
+    private final AtomicLong             activity;
+
+    /**
+     * The scheduler thread, null if not started.
+     */
+    private Thread                       scheduler;
+
+    /**
+     * Creates a virtual clock.
+     * 
+     * @param startMillis
+     *            time of the clock in milliseconds since the epoch.
+     */
+    public VirtualClock(long startMillis) {
+        now = TimeUnit.MILLISECONDS.toNanos(startMillis);
+        sleepers = new PriorityQueue<Sleeper>();
+        sleepMonitor = new Object();
+        activity = new AtomicLong();
+    }
+
+    @Override
+    public long timeMillis( ) {
+        activity.incrementAndGet();
+        return TimeUnit.NANOSECONDS.toMillis(now);
+    }
+
+    @Override
+    public long timeNanos( ) {
+        activity.incrementAndGet();
+        return now;
+    }
+
+    @Override
+    public void sleepNanos( long nanos ) throws InterruptedException {
+        if ( Thread.interrupted() ) {
+            throw new InterruptedException();
+        }
+        if ( nanos <= 0 ) {
+            activity.incrementAndGet();
+            return;
+        }
+        synchronized (sleepMonitor) {
+            Sleeper sleeper = addSleeper(sleepMonitor, now + nanos);
+            try {
+                while (now < sleeper.deadline) {
+                    sleepMonitor.wait();
+                }
+            } finally {
+                removeSleeper(sleeper);
+            }
+        }
+    }
+
+    @Override
+    public void waitNanos( Object monitor, long nanos ) throws InterruptedException {
+        Sleeper sleeper = addSleeper(monitor, now + nanos);
+        try {
+            monitor.wait();
+        } finally {
+            removeSleeper(sleeper);
+        }
+    }
+
+    /**
+     * Moves the clock forward by the given time, waking every thread whose
+     * deadline has passed.
+     * 
+     * @param millis
+     *            time to move forward in milliseconds.
+     */
+    public void advance( long millis ) {
+        advanceTo(now + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Moves the clock to the earliest deadline of the sleeping and waiting
+     * threads, and wakes them.
+     * 
+     * @return false if no thread sleeps or waits on the clock.
+     */
+    public boolean advanceToNextDeadline( ) {
+        long deadline;
+        synchronized (sleepers) {
+            Sleeper first = sleepers.peek();
+            if ( first == null ) {
+                return false;
+            }
+            deadline = first.deadline;
+        }
+        advanceTo(deadline);
+        return true;
+    }
+
+    /**
+     * Starts a daemon thread that advances the clock to the next deadline
+     * whenever all threads of the given group are idle.
+     * 
+     * @param group
+     *            the threads of the simulation.
+     */
+    public synchronized void startScheduler( final ThreadGroup group ) {
+        if ( scheduler != null ) {
+            return;
+        }
+        scheduler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    long seen = activity.get();
+                    if ( isIdle(group) ) {
+                        LockSupport.parkNanos(IDLE_CHECK_TIME);
+                        if ( activity.get() == seen && isIdle(group) && !advanceToNextDeadline() ) {
+                            LockSupport.parkNanos(IDLE_CHECK_TIME);
+                        }
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        }, "VirtualClock scheduler");
+        scheduler.setDaemon(true);
+        scheduler.start();
+    }
+
+    /**
+     * Stops the scheduler thread, if started.
+     */
+    public synchronized void stopScheduler( ) {
+        if ( scheduler != null ) {
+            scheduler.interrupt();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Moves the clock to the given time, if later than now, and wakes every
+     * thread whose deadline has passed.
+     * 
+     * @param nanos
+     *            the new time in nanoseconds since the epoch.
+     */
+    private void advanceTo( long nanos ) {
+        ArrayList<Object> monitors = new ArrayList<Object>();
+        synchronized (sleepers) {
+            if ( nanos > now ) {
+                now = nanos;
+            }
+            for (Sleeper sleeper : sleepers) {
+                if ( sleeper.deadline <= now && !monitors.contains(sleeper.monitor) ) {
+                    monitors.add(sleeper.monitor);
+                }
+            }
+        }
+        activity.incrementAndGet();
+        // Notify outside the lock of the sleepers, as waiting threads take
+        // that lock while holding their monitor.
+        for (Object monitor : monitors) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns whether all threads of the group, other than the scheduler, are
+     * waiting or sleeping.
+     * 
+     * @param group
+     *            the threads of the simulation.
+     * @return true if no thread of the group is running.
+     */
+    private boolean isIdle( ThreadGroup group ) {
+        Thread[] threads = new Thread[group.activeCount() + 16];
+        int count = group.enumerate(threads, true);
+        for (int i = 0; i < count; i++) {
+            if ( threads[i] == scheduler ) {
+                continue;
+            }
+            Thread.State state = threads[i].getState();
+            if ( state == Thread.State.RUNNABLE || state == Thread.State.BLOCKED || state == Thread.State.NEW ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Sleeper addSleeper( Object monitor, long deadline ) {
+        Sleeper sleeper = new Sleeper(monitor, deadline);
+        synchronized (sleepers) {
+            sleepers.add(sleeper);
+        }
+        activity.incrementAndGet();
+        return sleeper;
+    }
+
+    private void removeSleeper( Sleeper sleeper ) {
+        synchronized (sleepers) {
+            sleepers.remove(sleeper);
+        }
+        activity.incrementAndGet();
+    }
+
+    /**
+     * A thread sleeping or waiting on the clock.
+     */
+    private static class Sleeper implements Comparable<Sleeper> {
+        private final Object monitor;
+        private final long   deadline;
+
+        private Sleeper(Object monitor, long deadline) {
+            this.monitor = monitor;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int compareTo( Sleeper other ) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+﻿package no.ntnu.acp142.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import no.ntnu.acp142.pdu.AddressPdu;
+import no.ntnu.acp142.pdu.AnnouncePdu;
+import no.ntnu.acp142.pdu.DataPdu;
+import no.ntnu.acp142.pdu.DiscardMessagePdu;
+import no.ntnu.acp142.pdu.Pdu;
+import no.ntnu.acp142.pdu.RepairPdu;
+import no.ntnu.acp142.pdu.RequestRejectReleasePdu;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Fields shared by the flight recorder events describing a single PDU. <br>
+ * <br>
+ * All events of this package are disabled by default. They are enabled with a
+ * recording setting, e.g. <br>
+ * <code>-XX:StartFlightRecording:settings=acp142.jfc</code><br>
+ * where the settings file enables the events by their names. When disabled, an
+ * event is never filled in or committed, and the JIT removes its allocation.
+ * 
+ * @author libjpmul contributors
+ * 
+ */
+@Category({ "ACP142", "PDU" })
+public abstract class PduEvent extends Event {
+
+    private static final String[] PDU_TYPE_NAMES = { "Data_PDU", "Ack_PDU", "Address_PDU", "Discard_Message_PDU",
+            "Announce_PDU", "Request_PDU", "Reject_PDU", "Release_PDU", "Repair_PDU" };
+
+    @Label("PDU Type")
+    String                        pduType;
+
+    @Label("Message ID")
+    @Description("Message ID carried by the PDU, 0 for PDU types without one")
+    int                           messageId;
+
+    @Label("Source ID")
+    int                           sourceId;
+
+    @Label("Size")
+    @Description("Length of the PDU in bytes")
+    int                           size;
+
+    @Label("Priority")
+    short                         priority;
+
+    /**
+     * Fill in the fields describing the given PDU.
+     * 
+     * @param pdu
+     *          to describe
+     */
+    protected void set( Pdu pdu ) {
+        byte type = pdu.getPduType();
+        pduType = type >= 0 && type < PDU_TYPE_NAMES.length ? PDU_TYPE_NAMES[type] : Byte.toString(type);
+        messageId = messageIdOf(pdu);
+        sourceId = pdu.getSourceID();
+        size = pdu.getLengthOfPDU();
+        priority = pdu.getPriority();
+    }
+
+    /**
+     * Returns the message ID of the given PDU. AckPdus acknowledge several
+     * messages and carry none of their own.
+     * 
+     * @param pdu
+     *          to read
+     * @return message ID, or 0 if the PDU type has none
+     */
+    private static int messageIdOf( Pdu pdu ) {
+        if ( pdu instanceof DataPdu ) {
+            return ( (DataPdu) pdu ).getMessageId();
+        } else if ( pdu instanceof AddressPdu ) {
+            return ( (AddressPdu) pdu ).getMessageId();
+        } else if ( pdu instanceof RequestRejectReleasePdu ) {
+            return ( (RequestRejectReleasePdu) pdu ).getMessageId();
+        } else if ( pdu instanceof AnnouncePdu ) {
+            return ( (AnnouncePdu) pdu ).getMessageId();
+        } else if ( pdu instanceof DiscardMessagePdu ) {
+            return ( (DiscardMessagePdu) pdu ).getMessageId();
+        } else if ( pdu instanceof RepairPdu ) {
+            return ( (RepairPdu) pdu ).getMessageId();
+        }
+        return 0;
+    }
+}
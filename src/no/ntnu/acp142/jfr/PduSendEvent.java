@@ -0,0 +1,76 @@
+﻿package no.ntnu.acp142.jfr;
+
+import java.net.InetAddress;
+
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import no.ntnu.acp142.pdu.Pdu;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Flight recorder event for a PDU handed to the transport. The duration of the
+ * event is the time spent in the transport's send method.
+ * 
+ * @author libjpmul contributors
+ * 
+ */
+@Name("no.ntnu.acp142.PduSend")
+@Label("PDU Send")
+@Enabled(false)
+public class PduSendEvent extends PduEvent {
+
+    @Label("Destination")
+    @Description("Unicast or multicast address the PDU was sent to")
+    String destination;
+
+    /**
+     * End the event and commit it, if enabled, describing the given PDU.
+     * 
+     * @param pdu
+     *          that was sent
+     * @param destinationAddress
+     *          where it was sent, null if the transport picks the address
+     */
+    public void commit( Pdu pdu, InetAddress destinationAddress ) {
+        end();
+        if ( shouldCommit() ) {
+            set(pdu);
+            destination = destinationAddress == null ? null : destinationAddress.getHostAddress();
+            commit();
+        }
+    }
+}
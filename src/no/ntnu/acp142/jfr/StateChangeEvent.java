@@ -1,8 +1,16 @@
-﻿package no.ntnu.acp142.rdt;
+﻿package no.ntnu.acp142.jfr;
 
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import no.ntnu.acp142.pdu.AddressPdu;
+import no.ntnu.acp142.rdt.MessageEntry;
+import no.ntnu.acp142.rdt.States;
 
 /*
- * Copyright (c) 2013, Bjørn Tungesvik
+ * Copyright (c) 2026, the libjpmul contributors
  * All rights reserved.
  * 
  * Redistribution and use in source and binary forms, with or without
@@ -34,72 +42,50 @@
  * POSSIBILITY OF SUCH DAMAGE.
  */
 
-
 /**
- * The class is used to create an unique hash value to represent the messageId
- * and sourceId. The hash value is used to uniquely identify a message.
+ * Flight recorder event for a message entry changing state.
  * 
- * @author Bjørn Tungesvik
+ * @author libjpmul contributors
  * 
  */
+@Name("no.ntnu.acp142.StateChange")
+@Label("Message State Change")
+@Category({ "ACP142", "Message" })
+@Enabled(false)
+public class StateChangeEvent extends Event {
 
-public class HashValue {
-	private int msid;
-	private int sourceId;
-
-	/**
-	 * Create a new HashValue with the given message ID and Source ID.
-	 * @param msid of the hash value.
-	 * @param sourceId of the hash value.
-	 */
-	public HashValue(int msid, int sourceId) {
-		this.msid = msid;
-		this.sourceId = sourceId;
-	}
+    @Label("Message ID")
+    int    messageId;
 
-	/**
-	 * Debug method. Prints the source id and message id in a readable format.
-	 */
-	public String toString() {
-		String string = "";
-		string += "MessageId = " + msid;
-		string += "SourceId = " + sourceId;
-		return string;
-	}
+    @Label("Source ID")
+    int    sourceId;
 
-	/**
-	 * Creates and return the hashValue of <SourceId, MessageId>
-	 * 
-	 *@return unique hash value
-	 */
-	@Override
-	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + msid;
-		result = prime * result + sourceId;
-		return result;
-	}
+    @Label("From")
+    String from;
 
-	/**
-	 * Check whether two hash values are equal
-	 * 
-	 *@return True if equal, false otherwise
-	 */
-	@Override
-	public boolean equals(Object obj) {
-		if (this == obj)
-			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		HashValue other = (HashValue) obj;
-		if (msid != other.msid)
-			return false;
-		if (sourceId != other.sourceId)
-			return false;
-		return true;
-	}
+    @Label("To")
+    String to;
 
+    /**
+     * Commit the event, if enabled.
+     * 
+     * @param entry
+     *          that changed state
+     * @param previous
+     *          state, null if the entry had none
+     * @param next
+     *          state
+     */
+    public void commit( MessageEntry entry, States previous, States next ) {
+        if ( shouldCommit() ) {
+            AddressPdu addressPdu = entry.getAddressPdu();
+            if ( addressPdu != null ) {
+                messageId = addressPdu.getMessageId();
+                sourceId = addressPdu.getSourceID();
+            }
+            from = previous == null ? null : previous.name();
+            to = next == null ? null : next.name();
+            commit();
+        }
+    }
 }
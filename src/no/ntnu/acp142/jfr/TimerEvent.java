@@ -0,0 +1,106 @@
+﻿package no.ntnu.acp142.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import no.ntnu.acp142.Clock;
+import no.ntnu.acp142.pdu.AddressPdu;
+import no.ntnu.acp142.rdt.Timer;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Flight recorder event for a timer handled by the timer thread. The duration
+ * of the event is the time spent in the handler of the timer.
+ * 
+ * @author libjpmul contributors
+ * 
+ */
+@Name("no.ntnu.acp142.Timer")
+@Label("Timer")
+@Category({ "ACP142", "Timer" })
+@Enabled(false)
+public class TimerEvent extends Event {
+
+    @Label("Timer Type")
+    String timerType;
+
+    @Label("Message ID")
+    @Description("Message ID of the message the timer belongs to, 0 if none")
+    int    messageId;
+
+    @Label("Source ID")
+    int    sourceId;
+
+    @Label("Lateness")
+    @Description("Time between the scheduled end of the timer and the start of its handling")
+    @Timespan(Timespan.MILLISECONDS)
+    long   lateness;
+
+    /**
+     * Start the event, noting how late the given timer is handled.
+     * 
+     * @param timer
+     *          about to be handled
+     */
+    public void begin( Timer timer ) {
+        if ( isEnabled() ) {
+            lateness = Clock.currentTimeMillis() - timer.getStartTime() - timer.getEndTime();
+        }
+        begin();
+    }
+
+    /**
+     * End the event and commit it, if enabled.
+     * 
+     * @param timer
+     *          that was handled
+     */
+    public void commit( Timer timer ) {
+        end();
+        if ( shouldCommit() ) {
+            timerType = timer.getType().name();
+            AddressPdu addressPdu = timer.getMsg() == null ? null : timer.getMsg().getAddressPdu();
+            if ( addressPdu != null ) {
+                messageId = addressPdu.getMessageId();
+                sourceId = addressPdu.getSourceID();
+            }
+            commit();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+﻿package no.ntnu.acp142.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * A lock-free histogram of non-negative values. Each power of two is split
+ * into 8 buckets, so a percentile is reported at most 12.5% above the actual
+ * value. Recording never allocates, and threads recording at the same time
+ * only contend on the bucket they share.
+ * 
+ * @author libjpmul contributors
+ * 
+ */
+public class Histogram {
+
+    /**
+     * Number of bits of a value used to pick the bucket within its power of
+     * two.
+     */
+    private static final int     SUB_BUCKET_BITS  = 3;
+    private static final int     SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int     BUCKET_COUNT     = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets          = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder       count            = new LongAdder();
+    private final LongAdder       sum              = new LongAdder();
+    private final AtomicLong      max              = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * 
+     * @param value
+     *            to record.
+     */
+    public void record( long value ) {
+        if ( value < 0 ) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long currentMax;
+        while ( value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value) ) {
+            // Another thread raised the maximum, try again
+        }
+    }
+
+    /**
+     * @return number of values recorded.
+     */
+    public long getCount( ) {
+        return count.sum();
+    }
+
+    /**
+     * @return mean of the values recorded, 0 if none.
+     */
+    public long getMean( ) {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    /**
+     * @return largest value recorded, 0 if none.
+     */
+    public long getMax( ) {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which the given fraction of the recorded values
+     * lie, rounded up to the upper bound of its bucket.
+     * 
+     * @param fraction
+     *            between 0 and 1, such as 0.99.
+     * @return the percentile, 0 if no values are recorded.
+     */
+    public long getPercentile( double fraction ) {
+        long n = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+        if ( n == 0 ) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if ( seen >= rank ) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int bucketOf( long value ) {
+        if ( value < SUB_BUCKET_COUNT ) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT
+                + (int) ((value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKET_COUNT);
+    }
+
+    private static long upperBoundOf( int bucket ) {
+        if ( bucket < SUB_BUCKET_COUNT ) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        long lowerBound = (long) (SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,380 @@
+﻿package no.ntnu.acp142.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import no.ntnu.acp142.Log;
+import no.ntnu.acp142.pdu.Pdu;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Counters, histograms and gauges of one node. Counters are striped, so
+ * updating them from the send, receive and timer threads does not contend.
+ * <br>
+ * <br>
+ * The metrics are read with {@link #snapshot()}, or through JMX once
+ * {@link #register(int)} has been called, as read-only attributes of the MBean
+ * no.ntnu.acp142:type=Metrics,node=&lt;node ID&gt;. Times are in microseconds.
+ * 
+ * @author libjpmul contributors
+ * 
+ */
+public class Metrics implements DynamicMBean {
+
+    /**
+     * Names of the PDU types, indexed by type.
+     */
+    private static final String[]     PDU_TYPE_NAMES       = { "data", "ack", "address", "discard", "announce",
+            "request", "reject", "release", "repair" };
+
+    private final LongAdder[]         pdusSent             = newCounters(PDU_TYPE_NAMES.length);
+    private final LongAdder[]         bytesSent            = newCounters(PDU_TYPE_NAMES.length);
+    private final LongAdder[]         pdusReceived         = newCounters(PDU_TYPE_NAMES.length);
+    private final LongAdder[]         bytesReceived        = newCounters(PDU_TYPE_NAMES.length);
+
+    /**
+     * Datagrams received that could not be parsed as a PDU.
+     */
+    private final LongAdder           malformedPdus        = new LongAdder();
+
+    private final LongAdder           messagesCompleted    = new LongAdder();
+    private final LongAdder           messagesExpired      = new LongAdder();
+    private final LongAdder           messagesDiscarded    = new LongAdder();
+    private final LongAdder           retransmissionRounds = new LongAdder();
+
+    /**
+     * Partially received messages evicted to keep within the reassembly
+     * budget, and the bytes of PDUs they held.
+     */
+    private final LongAdder           messagesEvicted      = new LongAdder();
+    private final LongAdder           bytesEvicted         = new LongAdder();
+
+    /**
+     * Data_PDUs received before the Address_PDU of their message that were
+     * dropped, and that were promoted into their message when it arrived.
+     */
+    private final LongAdder           orphansDropped       = new LongAdder();
+    private final LongAdder           orphansPromoted      = new LongAdder();
+
+    /**
+     * Time from a transmission of a message to each Ack_PDU for it.
+     */
+    private final Histogram           ackRoundTrip         = new Histogram();
+
+    /**
+     * Time from the first PDU of a received message to its completion.
+     */
+    private final Histogram           completionTime       = new Histogram();
+
+    private final Map<String, Gauge>  gauges               = new ConcurrentSkipListMap<String, Gauge>();
+
+    /**
+     * Name the MBean is registered under, null if not registered.
+     */
+    private ObjectName                objectName           = null;
+
+    private static LongAdder[] newCounters( int length ) {
+        LongAdder[] counters = new LongAdder[length];
+        for (int i = 0; i < length; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    /**
+     * Counts a PDU sent.
+     * 
+     * @param pdu
+     *            that was sent.
+     */
+    public void pduSent( Pdu pdu ) {
+        int type = pdu.getPduType();
+        if ( type >= 0 && type < PDU_TYPE_NAMES.length ) {
+            pdusSent[type].increment();
+            bytesSent[type].add(pdu.getLengthOfPDU());
+        }
+    }
+
+    /**
+     * Counts a PDU received.
+     * 
+     * @param pdu
+     *            that was received, null if it could not be parsed.
+     */
+    public void pduReceived( Pdu pdu ) {
+        if ( pdu == null ) {
+            malformedPdus.increment();
+            return;
+        }
+        int type = pdu.getPduType();
+        if ( type >= 0 && type < PDU_TYPE_NAMES.length ) {
+            pdusReceived[type].increment();
+            bytesReceived[type].add(pdu.getLengthOfPDU());
+        }
+    }
+
+    /**
+     * Counts a received message completed.
+     * 
+     * @param nanos
+     *            time from the first PDU of the message to its completion, in
+     *            nanoseconds.
+     */
+    public void messageCompleted( long nanos ) {
+        messagesCompleted.increment();
+        completionTime.record(nanos / 1000);
+    }
+
+    /**
+     * Counts a message that expired before it was completely received or
+     * acknowledged.
+     */
+    public void messageExpired( ) {
+        messagesExpired.increment();
+    }
+
+    /**
+     * Counts an incomplete received message discarded by its sender.
+     */
+    public void messageDiscarded( ) {
+        messagesDiscarded.increment();
+    }
+
+    /**
+     * Counts a partially received message evicted to keep within the
+     * reassembly budget.
+     * 
+     * @param bytes
+     *            of PDUs the message held.
+     */
+    public void messageEvicted( long bytes ) {
+        messagesEvicted.increment();
+        bytesEvicted.add(bytes);
+    }
+
+    /**
+     * Counts Data_PDUs dropped while waiting for the Address_PDU of their
+     * message.
+     * 
+     * @param pdus
+     *            that were dropped.
+     */
+    public void orphansDropped( int pdus ) {
+        orphansDropped.add(pdus);
+    }
+
+    /**
+     * Counts Data_PDUs promoted into their message when its Address_PDU
+     * arrived.
+     * 
+     * @param pdus
+     *            that were promoted.
+     */
+    public void orphansPromoted( int pdus ) {
+        orphansPromoted.add(pdus);
+    }
+
+    /**
+     * Counts a round of retransmission of a message.
+     */
+    public void retransmissionRound( ) {
+        retransmissionRounds.increment();
+    }
+
+    /**
+     * Records the round-trip time of an Ack_PDU.
+     * 
+     * @param nanos
+     *            time from the transmission to the Ack_PDU, in nanoseconds.
+     */
+    public void ackReceived( long nanos ) {
+        ackRoundTrip.record(nanos / 1000);
+    }
+
+    /**
+     * Adds a gauge, replacing any gauge with the same name.
+     * 
+     * @param name
+     *            of the gauge.
+     * @param gauge
+     *            to sample.
+     */
+    public void addGauge( String name, Gauge gauge ) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Reads all metrics. Gauges are sampled at the time of the call.
+     * 
+     * @return metric values by name, sorted by name.
+     */
+    public Map<String, Long> snapshot( ) {
+        Map<String, Long> values = new TreeMap<String, Long>();
+        for (int i = 0; i < PDU_TYPE_NAMES.length; i++) {
+            values.put("pdusSent." + PDU_TYPE_NAMES[i], pdusSent[i].sum());
+            values.put("bytesSent." + PDU_TYPE_NAMES[i], bytesSent[i].sum());
+            values.put("pdusReceived." + PDU_TYPE_NAMES[i], pdusReceived[i].sum());
+            values.put("bytesReceived." + PDU_TYPE_NAMES[i], bytesReceived[i].sum());
+        }
+        values.put("pdusReceived.malformed", malformedPdus.sum());
+        values.put("messagesCompleted", messagesCompleted.sum());
+        values.put("messagesExpired", messagesExpired.sum());
+        values.put("messagesDiscarded", messagesDiscarded.sum());
+        values.put("retransmissionRounds", retransmissionRounds.sum());
+        values.put("messagesEvicted", messagesEvicted.sum());
+        values.put("bytesEvicted", bytesEvicted.sum());
+        values.put("orphansDropped", orphansDropped.sum());
+        values.put("orphansPromoted", orphansPromoted.sum());
+        putHistogram(values, "ackRoundTrip", ackRoundTrip);
+        putHistogram(values, "completionTime", completionTime);
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getValue());
+        }
+        return values;
+    }
+
+    private static void putHistogram( Map<String, Long> values, String name, Histogram histogram ) {
+        values.put(name + ".count", histogram.getCount());
+        values.put(name + ".mean", histogram.getMean());
+        values.put(name + ".p50", histogram.getPercentile(0.5));
+        values.put(name + ".p99", histogram.getPercentile(0.99));
+        values.put(name + ".p999", histogram.getPercentile(0.999));
+        values.put(name + ".max", histogram.getMax());
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server. A node ID already
+     * registered, by another node in the same JVM, is logged and ignored.
+     * 
+     * @param nodeId
+     *            ID of the node the metrics belong to.
+     */
+    public synchronized void register( int nodeId ) {
+        try {
+            ObjectName name = new ObjectName("no.ntnu.acp142:type=Metrics,node=" + nodeId);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "Could not register metrics of node " + nodeId + ": " + e);
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, if registered.
+     */
+    public synchronized void unregister( ) {
+        if ( objectName == null ) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "Could not unregister metrics: " + e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public Object getAttribute( String attribute ) throws AttributeNotFoundException {
+        Long value = snapshot().get(attribute);
+        if ( value == null ) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes( String[] attributes ) {
+        Map<String, Long> values = snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Long value = values.get(attribute);
+            if ( value != null ) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo( ) {
+        Map<String, Long> values = snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (String name : values.keySet()) {
+            attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Protocol metrics of a node", attributes, null,
+                new MBeanOperationInfo[0], null);
+    }
+
+    /**
+     * The metrics are read-only.
+     */
+    @Override
+    public void setAttribute( Attribute attribute ) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    /**
+     * The metrics are read-only.
+     */
+    @Override
+    public AttributeList setAttributes( AttributeList attributes ) {
+        return new AttributeList();
+    }
+
+    /**
+     * The MBean has no operations.
+     */
+    @Override
+    public Object invoke( String actionName, Object[] params, String[] signature ) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+}
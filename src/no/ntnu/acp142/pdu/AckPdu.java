@@ -79,9 +79,24 @@ public class AckPdu extends Pdu {
      * @return {@code ArrayList<AckPdu>} list of fragmented AckPdus         
      */
     public static ArrayList<AckPdu> create(int sourceID, int priority, AckInfoEntry[] ackInfoEntries) {
+        return create(sourceID, priority, ackInfoEntries, Configuration.getPduMaxSize());
+    }
+
+    /**
+     * Creates an AckPdu, using the given maximum PDU size
+     * @param sourceID
+     *          Source ID of this node
+     * @param priority
+     *          P_Mul priority of this packet
+     * @param ackInfoEntries 
+     *          All ackInfoEntries to send
+     * @param pduMaxSize
+     *          Maximum size of each AckPdu
+     * @return {@code ArrayList<AckPdu>} list of fragmented AckPdus         
+     */
+    public static ArrayList<AckPdu> create(int sourceID, int priority, AckInfoEntry[] ackInfoEntries, int pduMaxSize) {
 
         ArrayList<AckPdu> pduList = new ArrayList<AckPdu>();
-        int pduMaxSize = Configuration.getPduMaxSize();
         int lengthOfPDU;
         short countOfAckInfoEntries;
         ArrayList<AckInfoEntry> packageAckInfoEntries;
@@ -271,7 +286,7 @@ public class AckPdu extends Pdu {
          */
         private AckInfoEntry(byte[] binary, int offset) throws ArrayIndexOutOfBoundsException {
             int length;
-            length = (int) (binary[offset] & 0xff << 8) | (binary[offset + 1] & 0xff);
+            length = ((binary[offset] & 0xff) << 8) | (binary[offset + 1] & 0xff);
             this.binary = new byte[ length ];
             for ( int i = 0; i < length; ++i) {
                 this.binary[ i ] = binary[ i + offset ];
@@ -94,8 +94,34 @@ public class AddressPdu extends Pdu {
      */
     public static ArrayList<AddressPdu> create( int priority, short totalNumberOfPdus, int sourceId, int messageId,
             long expiryTime, DestinationEntry[] destinationEntries, int lengthOfReservedField ) {
+        return create(priority, totalNumberOfPdus, sourceId, messageId, expiryTime, destinationEntries,
+                lengthOfReservedField, Configuration.getPduMaxSize());
+    }
+
+    /**
+     * Creates an AddressPdu, using the given maximum PDU size
+     * 
+     * @param priority
+     *          P_Mul priority of the packet
+     * @param totalNumberOfPdus
+     *          Total number of subsequent Data_PDUs
+     * @param sourceId
+     *          ID of sender
+     * @param messageId
+     *          Message ID
+     * @param expiryTime
+     *          Expiry time in Unix time
+     * @param destinationEntries
+     *          List of destination entry instances
+     * @param lengthOfReservedField
+     *          The size of the reserved field
+     * @param pduMaxSize
+     *          Maximum size of each AddressPdu
+     * @return A list of AddressPdus
+     */
+    public static ArrayList<AddressPdu> create( int priority, short totalNumberOfPdus, int sourceId, int messageId,
+            long expiryTime, DestinationEntry[] destinationEntries, int lengthOfReservedField, int pduMaxSize ) {
 
-        int pduMaxSize = Configuration.getPduMaxSize();
         ArrayList<AddressPdu> pduList = new ArrayList<AddressPdu>();
 
         int lengthOfPDU;
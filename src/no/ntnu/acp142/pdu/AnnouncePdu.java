@@ -82,10 +82,31 @@ public class AnnouncePdu extends Pdu {
      */
     public static ArrayList<AnnouncePdu> create(int sourceId, int messageId, int expiryTime, 
             int multicastGroupAddress, int[] destinationIds) {
+        return create(sourceId, messageId, expiryTime, multicastGroupAddress, destinationIds,
+                Configuration.getPduMaxSize());
+    }
+
+    /**
+     * Initializes one or more AnnouncePdus, using the given maximum PDU size.
+     * @param sourceId
+     *          Source ID
+     * @param messageId
+     *          Message ID
+     * @param expiryTime
+     *          Expiry time in Unix time
+     * @param multicastGroupAddress
+     *          Address of multicast group
+     * @param destinationIds
+     *          List of IDs of recipients
+     * @param maxSize
+     *          Maximum size of each AnnouncePdu
+     * @return list of AnnouncePdus
+     */
+    public static ArrayList<AnnouncePdu> create(int sourceId, int messageId, int expiryTime, 
+            int multicastGroupAddress, int[] destinationIds, int maxSize) {
 
         ArrayList<AnnouncePdu> announcePdus = new ArrayList<AnnouncePdu>();
         byte map;
-        int maxSize = Configuration.getPduMaxSize();
 
         short lengthOfPdu;
         ArrayList<Integer> packageDestinationIds;
@@ -1,6 +1,7 @@
 ﻿package no.ntnu.acp142.pdu;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import no.ntnu.acp142.Configuration;
 import no.ntnu.acp142.Log;
@@ -83,9 +84,48 @@ public class DataPdu extends Pdu {
      * @return a list of fragmented DataPdus
      */
     public static ArrayList<DataPdu> create( int priority, int sourceId, int messageId, byte[] data ) {
+        return create(priority, sourceId, messageId, data, Configuration.getPduMaxSize());
+    }
+
+    /**
+     * Returns the largest data fragment a DataPdu of the given priority can
+     * carry within the given maximum PDU size
+     * 
+     * @param priority
+     *          P_Mul priority
+     * @param pduMaxSize
+     *          Maximum size of each DataPdu
+     * @return maximum length of data fragment
+     */
+    public static int getMaxDataFragmentSize( int priority, int pduMaxSize ) {
+        if ( Configuration.getFecBlockSize(priority) > 0 ) {
+            // Leave room for the larger header of the RepairPdus covering
+            // these fragments
+            return pduMaxSize - RepairPdu.REPAIR_PDU_BASE_SIZE;
+        }
+        return pduMaxSize - DATA_PDU_BASE_SIZE;
+    }
+
+    /**
+     * Creates all DataPdus for a message, using the given maximum PDU size
+     * 
+     * @param priority
+     *          P_Mul priority
+     * @param sourceId
+     *          Source ID
+     * @param messageId
+     *          Message ID
+     * @param data
+     *          Byte array representing all data to be transmitted
+     * @param pduMaxSize
+     *          Maximum size of each DataPdu
+     * @return a list of fragmented DataPdus
+     */
+    public static ArrayList<DataPdu> create( int priority, int sourceId, int messageId, byte[] data,
+            int pduMaxSize ) {
 
         ArrayList<DataPdu> pduList = new ArrayList<DataPdu>();
-        int pduMaxDataSize = Configuration.getPduMaxSize() - DATA_PDU_BASE_SIZE;
+        int pduMaxDataSize = getMaxDataFragmentSize(priority, pduMaxSize);
 
         int count;
         int remainingData;
@@ -130,7 +170,7 @@ public class DataPdu extends Pdu {
      * @throws ArrayIndexOutOfBoundsException 
      *            if data segment can not fit into binary
      */
-    private DataPdu( int priority, int sequenceNumber, int sourceId, int messageId, byte[] data, 
+    DataPdu( int priority, int sequenceNumber, int sourceId, int messageId, byte[] data, 
             int offset, int count ) throws ArrayIndexOutOfBoundsException {
         
         byte pduType = Data_PDU;
@@ -229,4 +269,19 @@ public class DataPdu extends Pdu {
     public int getLengthOfDataFragment( ) {
         return getLengthOfPDU() - DATA_PDU_BASE_SIZE;
     }
+
+    /**
+     * Returns this DataPdu with a binary no longer than the PDU. A received
+     * PDU is parsed from the whole receive buffer, which should not be kept
+     * for long.
+     * 
+     * @return this DataPdu if its binary is already trimmed, otherwise a copy
+     */
+    public DataPdu trimmed( ) {
+        int length = getLengthOfPDU();
+        if ( binary.length <= length ) {
+            return this;
+        }
+        return new DataPdu(Arrays.copyOf(binary, length));
+    }
 }
@@ -2,7 +2,9 @@
 
 import java.util.Arrays;
 
+import no.ntnu.acp142.Clock;
 import no.ntnu.acp142.Log;
+import no.ntnu.acp142.jfr.PduReceiveEvent;
 
 /*
  * Copyright (c) 2013, Erik Lothe, Bjørn Tungesvik, Karl Mardoff Kittilsen
@@ -82,6 +84,10 @@ public abstract class Pdu {
      * pduType value for ReleasePdu
      */
     public static final byte Release_PDU                          = 0x07;
+    /**
+     * pduType value for RepairPdu. Not part of ACP142.
+     */
+    public static final byte Repair_PDU                           = 0x08;
     // --------------------------------------------------------------------- //
 
     // --- COMMON OCTET PLACEMENTS ----------------------------------------- //
@@ -180,6 +186,21 @@ public abstract class Pdu {
      * @return PDU subclass of the proper PDU type
      */
     public static Pdu parsePDU( byte[] binary ) {
+        PduReceiveEvent event = new PduReceiveEvent();
+        event.begin();
+        Pdu pdu = parseType(binary);
+        event.commit(pdu);
+        return pdu;
+    }
+
+    /**
+     * Creates the PDU subclass matching the PDU type field of the binary.
+     * 
+     * @param binary
+     *          The binary representation of the the PDU 
+     * @return PDU subclass of the proper PDU type, or null if the type is unknown
+     */
+    private static Pdu parseType( byte[] binary ) {
         byte pduType = (byte) (binary[MAP_PDU_TYPE_OFFSET] & 0b00111111);
 
         switch ( pduType ) {
@@ -191,6 +212,7 @@ public abstract class Pdu {
         case Request_PDU:           return new RequestPdu(binary);
         case Reject_PDU:            return new RejectPdu(binary);
         case Release_PDU:           return new ReleasePdu(binary);
+        case Repair_PDU:            return new RepairPdu(binary);
 
         default:                    return null;
         }
@@ -487,6 +509,6 @@ public abstract class Pdu {
 	 * @return expiry time in Unix time
 	 */
 	public static long computeExpiryTime(int seconds) {
-	    return (System.currentTimeMillis()/1000) + seconds;
+	    return (Clock.currentTimeMillis()/1000) + seconds;
 	}
 }
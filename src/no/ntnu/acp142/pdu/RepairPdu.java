@@ -0,0 +1,262 @@
+﻿package no.ntnu.acp142.pdu;
+
+import java.util.ArrayList;
+
+import no.ntnu.acp142.Log;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * The RepairPdu carries the XOR parity of a block of consecutive DataPdus of a
+ * message. A receiver missing exactly one DataPdu of the block can rebuild it
+ * from the repair PDU and the other DataPdus of the block, without waiting for
+ * an acknowledgement round trip. <br>
+ * <br>
+ * This PDU type is not part of ACP142. Receivers that do not know it will fail
+ * to parse it and drop it, so enabling it does not break interoperability.
+ *
+ * @author libjpmul contributors
+ *
+ */
+public class RepairPdu extends Pdu {
+
+    // --- OCTET PLACEMENTS ------------------------------------------------ //
+    private static final int FIRST_SEQUENCE_NUMBER_OFFSET            = 4;
+    private static final int MSID_OFFSET                            = 12;
+    private static final int BLOCK_SIZE_OFFSET                      = 16;
+    private static final int LENGTH_PARITY_OFFSET                   = 18;
+    private static final int PARITY_FRAGMENT_OFFSET                 = 20;
+    // --------------------------------------------------------------------- //
+
+    // --- CONSTANTS ------------------------------------------------------- //
+    /**
+     * The size of a RepairPdu excluding the parity fragment
+     */
+    public static final int REPAIR_PDU_BASE_SIZE                   = 20;
+    // --------------------------------------------------------------------- //
+
+    /**
+     * Creates a RepairPdu from binary
+     *
+     * @param binary
+     *          Byte array representing the binary form of PDU
+     */
+    protected RepairPdu(byte[] binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * Creates all RepairPdus for a message. One RepairPdu is created for each
+     * block of blockSize consecutive DataPdus. The last block may be shorter.
+     *
+     * @param priority
+     *          P_Mul priority
+     * @param sourceId
+     *          Source ID
+     * @param messageId
+     *          Message ID
+     * @param dataPdus
+     *          All DataPdus of the message, ordered by sequence number
+     * @param blockSize
+     *          Number of DataPdus covered by each RepairPdu
+     * @return a list of RepairPdus
+     */
+    public static ArrayList<RepairPdu> create( int priority, int sourceId, int messageId,
+            ArrayList<DataPdu> dataPdus, int blockSize ) {
+
+        ArrayList<RepairPdu> pduList = new ArrayList<RepairPdu>();
+        if ( blockSize < 1 ) {
+            return pduList;
+        }
+
+        for (int first = 0; first < dataPdus.size(); first += blockSize) {
+            int last = Math.min(first + blockSize, dataPdus.size());
+            ArrayList<DataPdu> block = new ArrayList<DataPdu>(dataPdus.subList(first, last));
+            try {
+                pduList.add(new RepairPdu(priority, sourceId, messageId, block));
+            } catch (IllegalArgumentException e) {
+                Log.writeLine(Log.LOG_LEVEL_NORMAL, e.getMessage());
+            } catch (ArrayIndexOutOfBoundsException e) {
+                Log.writeLine(Log.LOG_LEVEL_NORMAL, "Parity fragment does not fit into binary of packet in method " +
+                        "create in class RepairPdu");
+            }
+        }
+        return pduList;
+    }
+
+    /**
+     * Initializes a single RepairPdu covering the given block of DataPdus.
+     *
+     * @param priority
+     *          P_Mul priority
+     * @param sourceId
+     *          Source ID
+     * @param messageId
+     *          Message ID
+     * @param block
+     *          Consecutive DataPdus covered by this RepairPdu
+     * @throws IllegalArgumentException
+     *          If length of PDU field overflows
+     * @throws ArrayIndexOutOfBoundsException
+     *          If parity fragment could not fit into binary
+     */
+    private RepairPdu( int priority, int sourceId, int messageId, ArrayList<DataPdu> block )
+            throws IllegalArgumentException, ArrayIndexOutOfBoundsException {
+
+        int parityLength = 0;
+        int lengthParity = 0;
+        for (DataPdu dataPdu : block) {
+            parityLength = Math.max(parityLength, dataPdu.getLengthOfDataFragment());
+            lengthParity ^= dataPdu.getLengthOfDataFragment();
+        }
+
+        initCommonBinary(REPAIR_PDU_BASE_SIZE + parityLength, priority, (byte) 0, Repair_PDU, sourceId);
+
+        addToBinary(FIRST_SEQUENCE_NUMBER_OFFSET, (short) block.get(0).getSequenceNumber());
+        addToBinary(MSID_OFFSET,                  messageId);
+        addToBinary(BLOCK_SIZE_OFFSET,            (short) block.size());
+        addToBinary(LENGTH_PARITY_OFFSET,         (short) lengthParity);
+
+        // XOR all data fragments into the parity fragment. Shorter fragments
+        // are treated as if they were padded with zeros.
+        for (DataPdu dataPdu : block) {
+            byte[] fragment = dataPdu.getDataFragment();
+            for (int i = 0; i < fragment.length; i++) {
+                binary[PARITY_FRAGMENT_OFFSET + i] ^= fragment[i];
+            }
+        }
+
+        setChecksum();
+    }
+
+    /**
+     * Rebuilds the single missing DataPdu of the block covered by this
+     * RepairPdu.
+     *
+     * @param missingSequenceNumber
+     *          Sequence number of the missing DataPdu
+     * @param received
+     *          All other DataPdus of the block
+     * @return the rebuilt DataPdu, or null if it could not be rebuilt
+     */
+    public DataPdu recover( int missingSequenceNumber, ArrayList<DataPdu> received ) {
+        if ( received.size() != getBlockSize() - 1 ) {
+            return null;
+        }
+
+        byte[] parity = getParityFragment();
+        int length = getLengthParity();
+        for (DataPdu dataPdu : received) {
+            byte[] fragment = dataPdu.getDataFragment();
+            if ( fragment.length > parity.length ) {
+                return null;
+            }
+            for (int i = 0; i < fragment.length; i++) {
+                parity[i] ^= fragment[i];
+            }
+            length ^= fragment.length;
+        }
+
+        if ( length > parity.length ) {
+            Log.writeLine(Log.LOG_LEVEL_VERBOSE, "RepairPdu did not match the received DataPdus of its block.");
+            return null;
+        }
+
+        try {
+            return new DataPdu(getPriority(), missingSequenceNumber, getSourceID(), getMessageId(), parity, 0, length);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "Data segment does not fit into binary of packet in method recover " +
+                    "in class RepairPdu");
+            return null;
+        }
+    }
+
+    /**
+     * Returns the sequence number of the first DataPdu covered by this
+     * RepairPdu.
+     *
+     * @return first sequence number
+     */
+    public int getFirstSequenceNumber( ) {
+        return unsigned( concatenateBytes(binary[FIRST_SEQUENCE_NUMBER_OFFSET],
+                                           binary[FIRST_SEQUENCE_NUMBER_OFFSET + 1]));
+    }
+
+    /**
+     * Returns the unique identifier created within the scope of Source_ID by
+     * the transmitter
+     *
+     * @return message ID
+     */
+    public int getMessageId( ) {
+        return concatenateBytes(binary[MSID_OFFSET],
+                                 binary[MSID_OFFSET + 1],
+                                 binary[MSID_OFFSET + 2],
+                                 binary[MSID_OFFSET + 3]);
+    }
+
+    /**
+     * Returns the number of consecutive DataPdus covered by this RepairPdu.
+     *
+     * @return block size
+     */
+    public int getBlockSize( ) {
+        return unsigned( concatenateBytes(binary[BLOCK_SIZE_OFFSET],
+                                           binary[BLOCK_SIZE_OFFSET + 1]));
+    }
+
+    /**
+     * Returns the XOR of the data fragment lengths of the covered DataPdus.
+     *
+     * @return length parity
+     */
+    public int getLengthParity( ) {
+        return unsigned( concatenateBytes(binary[LENGTH_PARITY_OFFSET],
+                                           binary[LENGTH_PARITY_OFFSET + 1]));
+    }
+
+    /**
+     * Returns a copy of the parity fragment.
+     *
+     * @return parity fragment
+     */
+    public byte[] getParityFragment( ) {
+        int length = getLengthOfPDU();
+        byte[] parity = new byte[length - PARITY_FRAGMENT_OFFSET];
+        for (int i = 0, j = PARITY_FRAGMENT_OFFSET; j < length; ++j, ++i) {
+            parity[i] = this.binary[j];
+        }
+        return parity;
+    }
+}
@@ -62,9 +62,8 @@ public class DataPduList extends ArrayList<DataPdu> {
 	 * @param p the dataPdu to add
 	 */
 	public void add(int index, DataPdu p) {
-		Log.writeLine(Log.LOG_LEVEL_DEBUG,
-				"Adding pdu seq: " + p.getSequenceNumber() + " to position "
-						+ index);
+		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Adding pdu seq: {} to position {}",
+				p.getSequenceNumber(), index);
 		if (index > numberOfPduSpots()) {
 			ensureNumberOfPduSpots(index);
 			super.set(index, p);
@@ -79,8 +78,8 @@ public class DataPduList extends ArrayList<DataPdu> {
 	 * @param numberOfPdus number of pdus to ensure spots are available for.
 	 */
 	private void ensureNumberOfPduSpots(int numberOfPdus) {
-		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Making sure we got room for "
-				+ numberOfPdus + " PDUs.");
+		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Making sure we got room for {} PDUs.",
+				numberOfPdus);
 		for (int i = numberOfPduSpots(); i < numberOfPdus; i++) {
 			this.add(null);
 		}
@@ -129,15 +128,15 @@ public class DataPduList extends ArrayList<DataPdu> {
 	 * @return missing sequence numbers
 	 */
 	public ArrayList<Integer> getMissing(int highestSequenceNumber) {
-		Log.writeLine(Log.LOG_LEVEL_DEBUG, "HighestSequenceNumber: "
-				+ highestSequenceNumber);
+		Log.writeLine(Log.LOG_LEVEL_DEBUG, "HighestSequenceNumber: {}",
+				highestSequenceNumber);
 		Log.writeLine(Log.LOG_LEVEL_DEBUG, "printing dataPduList.");
 		for (DataPdu pdu : this) {
 			if (pdu != null) {
-				Log.writeLine(Log.LOG_LEVEL_DEBUG,
-						"DataPdu: " + pdu.getSequenceNumber());
+				Log.writeLine(Log.LOG_LEVEL_DEBUG, "DataPdu: {}",
+						pdu.getSequenceNumber());
 			} else {
-				Log.writeLine(Log.LOG_LEVEL_DEBUG, "DataPdu: " + pdu);
+				Log.writeLine(Log.LOG_LEVEL_DEBUG, "DataPdu: {}", pdu);
 			}
 		}
 
@@ -152,10 +151,10 @@ public class DataPduList extends ArrayList<DataPdu> {
 				missing.add(i);
 			}
 			if (this.get(i) != null) {
-				Log.writeLine(Log.LOG_LEVEL_DEBUG, "DataPdu1: "
-						+ this.get(i).getSequenceNumber());
+				Log.writeLine(Log.LOG_LEVEL_DEBUG, "DataPdu1: {}",
+						this.get(i).getSequenceNumber());
 			} else {
-				Log.writeLine(Log.LOG_LEVEL_DEBUG, "DataPdu1: " + this.get(i));
+				Log.writeLine(Log.LOG_LEVEL_DEBUG, "DataPdu1: {}", this.get(i));
 			}
 
 		}
@@ -0,0 +1,262 @@
+﻿package no.ntnu.acp142.rdt;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import no.ntnu.acp142.Clock;
+import no.ntnu.acp142.Configuration;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Cache of the dynamic multicast groups this node has announced, keyed by the
+ * set of destinations they were announced to. A later message to the same
+ * destinations, in any order, is sent on the cached group instead of paying
+ * for a new Request_PDU, WAIT_FOR_REJECT_TIME, Announce_PDU and
+ * ANNOUNCE_DELAY. <br>
+ * <br>
+ * Each group keeps track of the messages currently sent on it. A group nobody
+ * has used for GROUP_IDLE_TIME is evicted and must be released by the caller.
+ * Groups of messages flagged persistent are pinned, and are kept until
+ * {@link #leave(ArrayList)} is called for their destinations.
+ * 
+ * @author libjpmul contributors
+ * 
+ */
+public class GroupCache {
+
+    /**
+     * Destination IDs in canonical form: sorted and without duplicates.
+     */
+    private static class RecipientSet {
+        private final int[] ids;
+        private final int   hash;
+
+        private RecipientSet( ArrayList<Integer> recipients ) {
+            int[] sorted = new int[recipients.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = recipients.get(i);
+            }
+            Arrays.sort(sorted);
+            int length = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if ( length == 0 || sorted[length - 1] != sorted[i] ) {
+                    sorted[length++] = sorted[i];
+                }
+            }
+            ids = Arrays.copyOf(sorted, length);
+            hash = Arrays.hashCode(ids);
+        }
+
+        @Override
+        public int hashCode( ) {
+            return hash;
+        }
+
+        @Override
+        public boolean equals( Object other ) {
+            return other instanceof RecipientSet && Arrays.equals(ids, ( (RecipientSet) other ).ids);
+        }
+    }
+
+    /**
+     * One cached group.
+     */
+    private static class Group {
+        private final RecipientSet      recipients;
+        private final InetAddress       address;
+        private final Set<MessageEntry> messages          = new HashSet<MessageEntry>();
+        private boolean                 pinned            = false;
+        private boolean                 releaseWhenUnused = false;
+        private long                    lastUsed;
+
+        private Group( RecipientSet recipients, InetAddress address ) {
+            this.recipients = recipients;
+            this.address = address;
+        }
+    }
+
+    private final Map<RecipientSet, Group> groups    = new HashMap<RecipientSet, Group>();
+    private final Map<InetAddress, Group>  addresses = new HashMap<InetAddress, Group>();
+
+    /**
+     * Caches the group of a message once it has been announced. Only groups of
+     * messages flagged persistent are cached if GROUP_IDLE_TIME is 0.
+     * 
+     * @param entry
+     *          message whose group was announced
+     * @return true if cached, false if not kept or the destinations already
+     *         have a cached group
+     */
+    public synchronized boolean add( MessageEntry entry ) {
+        if ( !entry.isPersistentMulticastGroups() && Configuration.getGroupIdleTime() == 0 ) {
+            return false;
+        }
+        RecipientSet recipients = new RecipientSet(entry.getRecipients());
+        if ( groups.containsKey(recipients) || addresses.containsKey(entry.getMulticastAddress()) ) {
+            return false;
+        }
+        Group group = new Group(recipients, entry.getMulticastAddress());
+        group.pinned = entry.isPersistentMulticastGroups();
+        group.messages.add(entry);
+        group.lastUsed = Clock.currentTimeMillis();
+        groups.put(recipients, group);
+        addresses.put(group.address, group);
+        return true;
+    }
+
+    /**
+     * Lets a message use the cached group of its destinations, if any. A
+     * message flagged persistent pins the group. If GROUP_IDLE_TIME is 0, a
+     * message not flagged persistent makes the group be released when it is
+     * no longer in use.
+     * 
+     * @param entry
+     *          message to send
+     * @return address of the group, null if none is cached
+     */
+    public synchronized InetAddress acquire( MessageEntry entry ) {
+        Group group = groups.get(new RecipientSet(entry.getRecipients()));
+        if ( group == null ) {
+            return null;
+        }
+        if ( entry.isPersistentMulticastGroups() ) {
+            group.pinned = true;
+        } else if ( Configuration.getGroupIdleTime() == 0 ) {
+            group.releaseWhenUnused = true;
+        }
+        group.messages.add(entry);
+        group.lastUsed = Clock.currentTimeMillis();
+        return group.address;
+    }
+
+    /**
+     * Determines whether a group is cached.
+     * 
+     * @param address
+     *          of the group
+     * @return true if cached
+     */
+    public synchronized boolean contains( InetAddress address ) {
+        return address != null && addresses.containsKey(address);
+    }
+
+    /**
+     * Removes a complete or expired message from the messages using its
+     * group. If the group is to be released when no longer in use, and this
+     * was its last message, it is removed from the cache.
+     * 
+     * @param entry
+     *          message that is done
+     * @return true if the group was removed and must be released
+     */
+    public synchronized boolean finish( MessageEntry entry ) {
+        Group group = entry.getMulticastAddress() == null ? null : addresses.get(entry.getMulticastAddress());
+        if ( group == null || !group.messages.remove(entry) ) {
+            return false;
+        }
+        group.lastUsed = Clock.currentTimeMillis();
+        if ( group.releaseWhenUnused && group.messages.isEmpty() ) {
+            remove(group);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stops keeping the group of the given destinations. A group in use is
+     * released when its last message is done.
+     * 
+     * @param recipients
+     *          destination IDs, in any order
+     * @return address of the group if it was removed and must be released now,
+     *         null otherwise
+     */
+    public synchronized InetAddress leave( ArrayList<Integer> recipients ) {
+        Group group = groups.get(new RecipientSet(recipients));
+        if ( group == null ) {
+            return null;
+        }
+        group.pinned = false;
+        if ( !group.messages.isEmpty() ) {
+            group.releaseWhenUnused = true;
+            return null;
+        }
+        remove(group);
+        return group.address;
+    }
+
+    /**
+     * Removes every group that is not pinned, not in use, and has not been
+     * used for GROUP_IDLE_TIME.
+     * 
+     * @param now
+     *          current time in milliseconds
+     * @return addresses of the removed groups, which must be released
+     */
+    public synchronized ArrayList<InetAddress> evictIdle( long now ) {
+        ArrayList<InetAddress> evicted = new ArrayList<InetAddress>();
+        long idleTime = Configuration.getGroupIdleTime();
+        Iterator<Group> iterator = groups.values().iterator();
+        while (iterator.hasNext()) {
+            Group group = iterator.next();
+            if ( !group.pinned && group.messages.isEmpty() && now - group.lastUsed >= idleTime ) {
+                iterator.remove();
+                addresses.remove(group.address);
+                evicted.add(group.address);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns the number of cached groups.
+     * 
+     * @return number of groups
+     */
+    public synchronized int size( ) {
+        return groups.size();
+    }
+
+    private void remove( Group group ) {
+        groups.remove(group.recipients);
+        addresses.remove(group.address);
+    }
+}
@@ -0,0 +1,146 @@
+﻿package no.ntnu.acp142.rdt;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import no.ntnu.acp142.Configuration;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Pool of dynamic multicast group addresses requested ahead of time. A
+ * message that needs a new dynamic group takes an address nobody rejected
+ * within WAIT_FOR_REJECT_TIME, and is announced right away instead of first
+ * sending its own Request_PDU and waiting out WAIT_FOR_REJECT_TIME. <br>
+ * <br>
+ * The pool is refilled to GROUP_POOL_SIZE addresses. While an address is in
+ * the pool this node rejects requests for it from other nodes, like it does
+ * for the groups it has joined.
+ * 
+ * @author libjpmul contributors
+ * 
+ */
+public class GroupPool {
+
+    /**
+     * Requested addresses, with the time in milliseconds they were requested.
+     */
+    private final HashMap<InetAddress, Long> pending  = new HashMap<InetAddress, Long>();
+    /**
+     * Addresses nobody rejected within WAIT_FOR_REJECT_TIME, oldest first.
+     */
+    private final ArrayDeque<InetAddress>    reserved = new ArrayDeque<InetAddress>();
+
+    /**
+     * Tells how many more addresses must be requested to fill the pool.
+     * 
+     * @param now
+     *            current time in milliseconds.
+     * @return number of addresses missing from the pool, that should be
+     *         requested.
+     */
+    public synchronized int missing( long now ) {
+        promote(now);
+        return Math.max(0, Configuration.getGroupPoolSize() - pending.size() - reserved.size());
+    }
+
+    /**
+     * Adds an address to the pool, once its Request_PDU is sent.
+     * 
+     * @param address
+     *            requested.
+     * @param now
+     *            current time in milliseconds.
+     */
+    public synchronized void requested( InetAddress address, long now ) {
+        pending.put(address, now);
+    }
+
+    /**
+     * Takes a reserved address out of the pool.
+     * 
+     * @param now
+     *            current time in milliseconds.
+     * @return the address, or null if none is reserved.
+     */
+    public synchronized InetAddress take( long now ) {
+        promote(now);
+        return reserved.poll();
+    }
+
+    /**
+     * Removes an address another node has rejected from the pool.
+     * 
+     * @param address
+     *            rejected.
+     * @return true if the address was in the pool.
+     */
+    public synchronized boolean rejected( InetAddress address ) {
+        return pending.remove(address) != null || reserved.remove(address);
+    }
+
+    /**
+     * @param address
+     *            of a group.
+     * @return true if the address is in the pool.
+     */
+    public synchronized boolean contains( InetAddress address ) {
+        return pending.containsKey(address) || reserved.contains(address);
+    }
+
+    /**
+     * @return number of reserved addresses.
+     */
+    public synchronized int size( ) {
+        return reserved.size();
+    }
+
+    /**
+     * Reserves the requested addresses that nobody rejected within
+     * WAIT_FOR_REJECT_TIME.
+     */
+    private void promote( long now ) {
+        Iterator<Map.Entry<InetAddress, Long>> it = pending.entrySet().iterator();
+        while ( it.hasNext() ) {
+            Map.Entry<InetAddress, Long> entry = it.next();
+            if ( now - entry.getValue() >= Configuration.getWaitForRejectTime() ) {
+                reserved.add(entry.getKey());
+                it.remove();
+            }
+        }
+    }
+}
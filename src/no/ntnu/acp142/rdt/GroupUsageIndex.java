@@ -0,0 +1,194 @@
+﻿package no.ntnu.acp142.rdt;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Index from each dynamic multicast group this node was announced into, to
+ * the messages using it. It maps the key of each message to its group, and
+ * each group to the number of its messages not yet completely received, so
+ * that a Release_PDU or Discard_Message_PDU can tell in constant time whether
+ * the group is still in use. <br>
+ * <br>
+ * Thread safe, as messages are unbound by the timer thread when they expire.
+ * 
+ * @author libjpmul contributors
+ * 
+ */
+public class GroupUsageIndex {
+
+    /**
+     * The group of one message.
+     */
+    private static class Binding {
+        private final int         group;
+        private final InetAddress address;
+        private boolean           complete = false;
+
+        private Binding( int group, InetAddress address ) {
+            this.group = group;
+            this.address = address;
+        }
+    }
+
+    private final MessageTable<Binding> bindings   = new MessageTable<Binding>();
+    private final Map<Integer, Integer> incomplete = new HashMap<Integer, Integer>();
+
+    /**
+     * Binds a message to the group it was announced on. The message counts as
+     * incomplete until {@link #complete(long)} is called for it. Binding
+     * a message to the group it is already bound to does nothing.
+     * 
+     * @param key
+     *          of the message
+     * @param address
+     *          of the group
+     */
+    public synchronized void bind( long key, InetAddress address ) {
+        int group = MulticastAddressAllocator.toInt(address);
+        Binding binding = bindings.get(key);
+        if ( binding != null ) {
+            if ( binding.group == group ) {
+                return;
+            }
+            unbind(key);
+        }
+        bindings.put(key, new Binding(group, address));
+        add(group, 1);
+    }
+
+    /**
+     * Marks a message as completely received, so it no longer keeps its group
+     * in use.
+     * 
+     * @param key
+     *          of the message
+     */
+    public synchronized void complete( long key ) {
+        Binding binding = bindings.get(key);
+        if ( binding != null && !binding.complete ) {
+            binding.complete = true;
+            add(binding.group, -1);
+        }
+    }
+
+    /**
+     * Determines whether a message is bound to a group.
+     * 
+     * @param key
+     *          of the message
+     * @return true if bound
+     */
+    public synchronized boolean isBound( long key ) {
+        return bindings.containsKey(key);
+    }
+
+    /**
+     * Determines whether a bound message is completely received.
+     * 
+     * @param key
+     *          of the message
+     * @return true if bound and complete
+     */
+    public synchronized boolean isComplete( long key ) {
+        Binding binding = bindings.get(key);
+        return binding != null && binding.complete;
+    }
+
+    /**
+     * Removes the binding of a message.
+     * 
+     * @param key
+     *          of the message
+     * @return address of the group the message was bound to, null if it was
+     *         not bound
+     */
+    public synchronized InetAddress unbind( long key ) {
+        Binding binding = bindings.remove(key);
+        if ( binding == null ) {
+            return null;
+        }
+        if ( !binding.complete ) {
+            add(binding.group, -1);
+        }
+        return binding.address;
+    }
+
+    /**
+     * Removes the bindings of every message bound to the group.
+     * 
+     * @param group
+     *          IPv4 address of the group as an int
+     */
+    public synchronized void unbindGroup( final int group ) {
+        final List<Long> keys = new ArrayList<Long>();
+        bindings.forEach(new MessageTable.Visitor<Binding>() {
+            @Override
+            public void visit( long key, Binding binding ) {
+                if ( binding.group == group ) {
+                    keys.add(key);
+                }
+            }
+        });
+        for ( long key : keys ) {
+            unbind(key);
+        }
+    }
+
+    /**
+     * Determines whether any incomplete message is bound to the group.
+     * 
+     * @param group
+     *          IPv4 address of the group as an int
+     * @return true if in use
+     */
+    public synchronized boolean isInUse( int group ) {
+        return incomplete.containsKey(group);
+    }
+
+    private void add( int group, int delta ) {
+        Integer count = incomplete.get(group);
+        int updated = ( count == null ? 0 : count ) + delta;
+        if ( updated <= 0 ) {
+            incomplete.remove(group);
+        } else {
+            incomplete.put(group, updated);
+        }
+    }
+}
@@ -1,13 +1,11 @@
 ﻿package no.ntnu.acp142.rdt;
 
 import java.util.ArrayList;
-import java.util.Map;
 import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import no.ntnu.acp142.Configuration;
 import no.ntnu.acp142.Log;
+import no.ntnu.acp142.RandomSource;
 import no.ntnu.acp142.pdu.AddressPdu;
 import no.ntnu.acp142.udp.Tuple;
 
@@ -84,12 +82,10 @@ public class LeavingEmcon extends Thread {
 	public void run() {
 		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Starting leaveEmcon thread.");
 		ackList = new ArrayList<Tuple<Integer, ArrayList<MessageEntry>>>();
-		Set<Map.Entry<HashValue, MessageEntry>> entries = rdt.readyToAckEmcon
-				.entrySet();
+		ArrayList<MessageEntry> entries = rdt.readyToAckEmcon.values();
 		Tuple<Integer, ArrayList<MessageEntry>> temp;
 		System.err.println("entries length: " + entries.size());
-		for (java.util.Map.Entry<HashValue, MessageEntry> entry : entries) {
-			MessageEntry currentEntry = entry.getValue();
+		for (MessageEntry currentEntry : entries) {
 			AddressPdu addressPdu = currentEntry.getAddressPdu();
 			int sourceId = addressPdu.getSourceID();
 			int index;
@@ -108,7 +104,7 @@ public class LeavingEmcon extends Thread {
 		// Start ack delay timer to prevent ack implosion
 		for (int i = 0; i < ackList.size(); i++) {
 			Tuple<Integer, ArrayList<MessageEntry>> tuple = ackList.get(i);
-			Random random = new Random();
+			Random random = RandomSource.newRandom();
 			long endTime = random.nextInt((int) Configuration
 					.getAckDelayUpperBound());
 
@@ -140,7 +136,7 @@ public class LeavingEmcon extends Thread {
 			}
 		}
 		System.err.println("Setting readyToAckEmcon to null.");
-		rdt.readyToAckEmcon = new ConcurrentHashMap<HashValue, MessageEntry>();
+		rdt.readyToAckEmcon.clear();
 	}
 
 	/**
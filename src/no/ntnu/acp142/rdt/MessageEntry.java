@@ -2,17 +2,22 @@
 
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import no.ntnu.acp142.Clock;
 import no.ntnu.acp142.Configuration;
 import no.ntnu.acp142.Log;
+import no.ntnu.acp142.MulticastGroup;
+import no.ntnu.acp142.jfr.StateChangeEvent;
 import no.ntnu.acp142.pdu.AckPdu.AckInfoEntry;
 import no.ntnu.acp142.pdu.AddressPdu;
 import no.ntnu.acp142.pdu.AddressPdu.DestinationEntry;
 import no.ntnu.acp142.pdu.AnnouncePdu;
 import no.ntnu.acp142.pdu.DataPdu;
 import no.ntnu.acp142.pdu.Pdu;
+import no.ntnu.acp142.pdu.RepairPdu;
 
 /*
  * Copyright (c) 2013, Erik Lothe, Bjørn Tungesvik,  Karl Mardoff Kittilsen
@@ -77,6 +82,10 @@ public class MessageEntry extends Entry {
      * AddressPdu for this entry
      */
     private ArrayList<AddressPdu> addressPdus = null;
+    /**
+     * RepairPdus for this entry, not yet used to rebuild a missing DataPdu
+     */
+    private ArrayList<RepairPdu>  repairPdus = null;
 
     /**
      * Matrix of acked pdus
@@ -113,6 +122,12 @@ public class MessageEntry extends Entry {
       */
      private boolean persistent = false;
      
+     /**
+      * Static multicast groups the message is fanned out to, each with the
+      * destinations it is sent to there. Null if sent to one group only.
+      */
+     private ArrayList<MulticastGroup> fanOut = null;
+     
     /**
      * Numbers of retransmissions to nodes in EMCON
      */
@@ -127,6 +142,26 @@ public class MessageEntry extends Entry {
       * The time until next re-transmission. Used when creating re-transmission timers
       */
      private long reTransmissionTime = 0;
+
+     /**
+      * Time this entry was created, in nanoseconds.
+      */
+     private final long creationTime = Clock.nanoTime();
+
+     /**
+      * Time the PDUs of this message were last transmitted, in nanoseconds. 0 if not yet transmitted.
+      */
+     private volatile long transmitTime = 0;
+
+     /**
+      * Whether loss on this message has already stepped the PDU size probe down.
+      */
+     private boolean pduSizeLossReported = false;
+
+     /**
+      * Lifecycle trace of this message, null unless MESSAGE_TRACING is enabled.
+      */
+     private final MessageTrace trace = Configuration.isMessageTracing() ? new MessageTrace(creationTime) : null;
      
      /**
       * ACP 142 message priority.
@@ -154,6 +189,7 @@ public class MessageEntry extends Entry {
     public MessageEntry() {
         dataPdus = new DataPduList();
         addressPdus = new ArrayList<AddressPdu>();
+        repairPdus = new ArrayList<RepairPdu>();
         ackedInitialized = false;
         emconRtc = Configuration.getEmconRtc();
     }
@@ -170,8 +206,8 @@ public class MessageEntry extends Entry {
                 return false;
             }
             int numberOfDataPdus = addressPdus.get(0).getTotalNumberOfPDUs();
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Expected packet count" + numberOfDataPdus);
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Actual packet count" + dataPdus.getNumberOfDataPdus());
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Expected packet count{}", numberOfDataPdus);
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Actual packet count{}", dataPdus.getNumberOfDataPdus());
             return dataPdus.getNumberOfDataPdus() == numberOfDataPdus;
         } finally {
             read.unlock();
@@ -237,6 +273,83 @@ public class MessageEntry extends Entry {
         
     }
 
+    /**
+     * Adds a RepairPdu to this message entry.
+     * 
+     * @param repairPdu to add.
+     */
+    public void addRepairPdu( RepairPdu repairPdu ) {
+        write.lock();
+        try {
+            repairPdus.add(repairPdu);
+        } finally {
+            write.unlock();
+        }
+    }
+
+    /**
+     * Returns all RepairPdus of this message entry.
+     * 
+     * @return ArrayList<RepairPdu> of all RepairPdus contained in this MessageEntry
+     */
+    public ArrayList<RepairPdu> getRepairPdus( ) {
+        read.lock();
+        try {
+            return repairPdus;
+        } finally {
+            read.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds DataPdus from the RepairPdus of this entry. A DataPdu can be
+     * rebuilt when it is the only one missing from the block covered by a
+     * RepairPdu. RepairPdus whose block is complete, or has been rebuilt, are
+     * dropped. <br>
+     * The rebuilt DataPdus are not added to this entry, so they can be handled
+     * as if they were received.
+     * 
+     * @return ArrayList<DataPdu> of rebuilt DataPdus
+     */
+    public ArrayList<DataPdu> recoverDataPdus( ) {
+        write.lock();
+        try {
+            ArrayList<DataPdu> recovered = new ArrayList<DataPdu>();
+            Iterator<RepairPdu> iterator = repairPdus.iterator();
+            while (iterator.hasNext()) {
+                RepairPdu repairPdu = iterator.next();
+                int first = repairPdu.getFirstSequenceNumber();
+                int last = first + repairPdu.getBlockSize() - 1;
+
+                ArrayList<DataPdu> received = new ArrayList<DataPdu>();
+                int missingSequenceNumber = 0;
+                int missingCount = 0;
+                for (int i = first; i <= last; i++) {
+                    DataPdu dataPdu = i < dataPdus.size() ? dataPdus.get(i) : null;
+                    if (dataPdu != null) {
+                        received.add(dataPdu);
+                    } else {
+                        missingSequenceNumber = i;
+                        missingCount++;
+                    }
+                }
+
+                if (missingCount == 0) {
+                    iterator.remove();
+                } else if (missingCount == 1) {
+                    DataPdu dataPdu = repairPdu.recover(missingSequenceNumber, received);
+                    if (dataPdu != null) {
+                        recovered.add(dataPdu);
+                    }
+                    iterator.remove();
+                }
+            }
+            return recovered;
+        } finally {
+            write.unlock();
+        }
+    }
+
     /**
      * Returns the matrix specifying who has acked which data packets.<br>
      * The first dimension represents the recipients, and the second represents
@@ -304,7 +417,7 @@ public class MessageEntry extends Entry {
 
             // Throw exception if no ack was expected from source
             if ( sourcePosition < 0 ) {
-                Log.writeLine(Log.LOG_LEVEL_VERBOSE, "Did not expect ack from this source! SourceID = " + sourceId);
+                Log.writeLine(Log.LOG_LEVEL_VERBOSE, "Did not expect ack from this source! SourceID = {}", sourceId);
                 return;
             }
 
@@ -367,9 +480,9 @@ public class MessageEntry extends Entry {
                 entries.addAll(addressPdu.getDestinationEntries());
             }
             
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Number of destination entries: " + entries.size());
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Number of destination entries: {}", entries.size());
             for (DestinationEntry destinationEntry : entries) {
-                Log.writeLine(Log.LOG_LEVEL_DEBUG, "DestinationID: " + destinationEntry.getDestinationID());
+                Log.writeLine(Log.LOG_LEVEL_DEBUG, "DestinationID: {}", destinationEntry.getDestinationID());
                 
                 recipients.add(destinationEntry.getDestinationID());
                 numberOfRecipients++;
@@ -443,6 +556,10 @@ public class MessageEntry extends Entry {
            for (Pdu pdu : dataPdus) {
                pdus.add(pdu);
            }
+
+           for (Pdu pdu : repairPdus) {
+               pdus.add(pdu);
+           }
            return pdus;
        } finally {
            read.unlock();
@@ -558,7 +675,12 @@ public class MessageEntry extends Entry {
      * @param state to set.
      */
     public void setState(States state){
+    	StateChangeEvent event = new StateChangeEvent();
+    	event.commit(this, this.state, state);
     	this.state = state;
+    	if (trace != null) {
+    		trace.stateChanged(state);
+    	}
     }
     
     /**
@@ -659,6 +781,26 @@ public class MessageEntry extends Entry {
     	return persistent;
     }
     
+    /**
+     * Set the static multicast groups the message is fanned out to, when no
+     * single static group holds all its destinations.
+     * 
+     * @param fanOut groups with the destinations assigned to each, or null.
+     */
+    public void setFanOut(ArrayList<MulticastGroup> fanOut){
+    	this.fanOut = fanOut;
+    }
+    
+    /**
+     * Get the static multicast groups the message is fanned out to.
+     * 
+     * @return groups with the destinations assigned to each, or null if the
+     *         message is sent to one group only.
+     */
+    public ArrayList<MulticastGroup> getFanOut(){
+    	return fanOut;
+    }
+    
 	/**
 	 * Set number of retransmissions that should occur for this message when
 	 * sending it to EMCON nodes
@@ -734,6 +876,105 @@ public class MessageEntry extends Entry {
 		return reTransmissionTime;
 	}
 
+	/**
+	 * Get the time this entry was created, in nanoseconds. For a received
+	 * message this is when its first PDU arrived.
+	 * 
+	 * @return creation time in nanoseconds.
+	 */
+	public long getCreationTime(){
+		return creationTime;
+	}
+
+	/**
+	 * Set the time the PDUs of this message were last transmitted.
+	 * 
+	 * @param time in nanoseconds.
+	 */
+	public void setTransmitTime(long time){
+		this.transmitTime = time;
+	}
+
+	/**
+	 * Get the time the PDUs of this message were last transmitted.
+	 * 
+	 * @return time in nanoseconds, 0 if not yet transmitted.
+	 */
+	public long getTransmitTime(){
+		return transmitTime;
+	}
+
+	/**
+	 * Marks that loss on this message has stepped the PDU size probe down.
+	 * 
+	 * @return true the first time this is called, false afterwards.
+	 */
+	public boolean reportPduSizeLoss(){
+		if (pduSizeLossReported) {
+			return false;
+		}
+		pduSizeLossReported = true;
+		return true;
+	}
+
+	/**
+	 * Determines whether this message is traced. Use this to skip building
+	 * trace causes on hot paths.
+	 * 
+	 * @return true if traced, false otherwise.
+	 */
+	public boolean isTraced(){
+		return trace != null;
+	}
+
+	/**
+	 * Record an event in the trace of this message, if traced.
+	 * 
+	 * @param cause of the event.
+	 */
+	public void trace(String cause){
+		if (trace != null) {
+			trace.record(cause);
+		}
+	}
+
+	/**
+	 * Record an event starting a new phase in the trace of this message, if
+	 * traced.
+	 * 
+	 * @param phase started by the event.
+	 * @param cause of the event.
+	 */
+	public void trace(MessageTrace.Phase phase, String cause){
+		if (trace != null) {
+			trace.enter(phase, cause);
+		}
+	}
+
+	/**
+	 * End the trace of this message, if traced, and write it to the log. Does
+	 * nothing if the trace has already ended.
+	 * 
+	 * @param cause of the end.
+	 */
+	public void finishTrace(String cause){
+		if (trace != null && trace.finish(cause)) {
+			AddressPdu addressPdu = getAddressPdu();
+			String label = addressPdu == null ? "message" : "message " + addressPdu.getMessageId() + " from "
+					+ addressPdu.getSourceID();
+			Log.writeLine(Log.LOG_LEVEL_VERBOSE, trace.format(label));
+		}
+	}
+
+	/**
+	 * Get the trace of this message.
+	 * 
+	 * @return trace, null unless MESSAGE_TRACING was enabled when the entry was created.
+	 */
+	public MessageTrace getTrace(){
+		return trace;
+	}
+
     /**
      * Set the priority of this message. Valid values are from 0 to 255.
      * 
@@ -0,0 +1,397 @@
+﻿package no.ntnu.acp142.rdt;
+
+import java.util.ArrayList;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Table of message state keyed by the pair of Source_ID and Message_ID packed
+ * into one long. The keys are kept in a primitive array with open addressing
+ * and linear probing, so a lookup allocates nothing and boxes nothing.
+ * Operations that would otherwise take a containsKey followed by a get or a
+ * put, take a single probe here. <br>
+ * <br>
+ * All operations are synchronized on the table. Values may not be null.
+ * 
+ * @author libjpmul contributors
+ * 
+ * @param <V>
+ *          type of the values
+ */
+public class MessageTable<V> {
+
+    /**
+     * Receives the entries of the table, see {@link MessageTable#forEach}.
+     * 
+     * @param <V>
+     *          type of the values
+     */
+    public interface Visitor<V> {
+        /**
+         * Visits one entry.
+         * 
+         * @param key
+         *          of the entry
+         * @param value
+         *          of the entry
+         */
+        public void visit( long key, V value );
+    }
+
+    /**
+     * Creates the value of an absent key, see
+     * {@link MessageTable#computeIfAbsent}.
+     * 
+     * @param <V>
+     *          type of the values
+     */
+    public interface Factory<V> {
+        /**
+         * Creates the value for the key.
+         * 
+         * @param key
+         *          to create the value for
+         * @return the value, or null to leave the key absent
+         */
+        public V create( long key );
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[]           keys;
+    private Object[]         values;
+    private int              size;
+
+    /**
+     * Creates an empty table.
+     */
+    public MessageTable( ) {
+        keys = new long[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Packs the identity of a message into a key.
+     * 
+     * @param messageId
+     *          of the message
+     * @param sourceId
+     *          of the sender of the message
+     * @return key of the message
+     */
+    public static long key( int messageId, int sourceId ) {
+        return (long) sourceId << 32 | messageId & 0xffffffffL;
+    }
+
+    /**
+     * Returns the Message_ID of a key.
+     * 
+     * @param key
+     *          of a message
+     * @return message ID
+     */
+    public static int messageId( long key ) {
+        return (int) key;
+    }
+
+    /**
+     * Returns the Source_ID of a key.
+     * 
+     * @param key
+     *          of a message
+     * @return source ID
+     */
+    public static int sourceId( long key ) {
+        return (int) ( key >>> 32 );
+    }
+
+    /**
+     * Returns the value of the key.
+     * 
+     * @param key
+     *          to look up
+     * @return the value, or null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V get( long key ) {
+        int slot = find(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /**
+     * Determines whether the key has a value.
+     * 
+     * @param key
+     *          to look up
+     * @return true if present
+     */
+    public synchronized boolean containsKey( long key ) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Sets the value of the key.
+     * 
+     * @param key
+     *          to set
+     * @param value
+     *          to set, not null
+     * @return the previous value, or null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V put( long key, V value ) {
+        requireValue(value);
+        int slot = probe(key);
+        V previous = (V) values[slot];
+        if ( previous == null ) {
+            insert(slot, key, value);
+        } else {
+            values[slot] = value;
+        }
+        return previous;
+    }
+
+    /**
+     * Sets the value of the key, unless it already has one.
+     * 
+     * @param key
+     *          to set
+     * @param value
+     *          to set, not null
+     * @return the present value, or null if the value was set
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V putIfAbsent( long key, V value ) {
+        int slot = probe(key);
+        V present = (V) values[slot];
+        if ( present == null ) {
+            insert(slot, key, value);
+        }
+        return present;
+    }
+
+    /**
+     * Returns the value of the key, creating it first if absent.
+     * 
+     * @param key
+     *          to look up
+     * @param factory
+     *          to create the value with, called with the table locked
+     * @return the present or created value, null if the factory returned null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V computeIfAbsent( long key, Factory<? extends V> factory ) {
+        int slot = probe(key);
+        V present = (V) values[slot];
+        if ( present == null ) {
+            present = factory.create(key);
+            if ( present != null ) {
+                insert(slot, key, present);
+            }
+        }
+        return present;
+    }
+
+    /**
+     * Removes the value of the key.
+     * 
+     * @param key
+     *          to remove
+     * @return the removed value, or null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove( long key ) {
+        int slot = find(key);
+        if ( slot < 0 ) {
+            return null;
+        }
+        V removed = (V) values[slot];
+        delete(slot);
+        return removed;
+    }
+
+    /**
+     * Removes the value of the key, if it is the given value.
+     * 
+     * @param key
+     *          to remove
+     * @param value
+     *          expected value
+     * @return true if removed
+     */
+    public synchronized boolean remove( long key, V value ) {
+        int slot = find(key);
+        if ( slot < 0 || values[slot] != value ) {
+            return false;
+        }
+        delete(slot);
+        return true;
+    }
+
+    /**
+     * Returns the number of keys with a value.
+     * 
+     * @return size
+     */
+    public synchronized int size( ) {
+        return size;
+    }
+
+    /**
+     * Removes all values.
+     */
+    public synchronized void clear( ) {
+        keys = new long[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Returns a snapshot of the values, in no particular order.
+     * 
+     * @return values
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized ArrayList<V> values( ) {
+        ArrayList<V> snapshot = new ArrayList<V>(size);
+        for (Object value : values) {
+            if ( value != null ) {
+                snapshot.add((V) value);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Visits every entry, in no particular order, with the table locked. The
+     * visitor must not modify the table.
+     * 
+     * @param visitor
+     *          to visit the entries with
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void forEach( Visitor<? super V> visitor ) {
+        for (int slot = 0; slot < values.length; slot++) {
+            if ( values[slot] != null ) {
+                visitor.visit(keys[slot], (V) values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Spreads the bits of the key over the slots (the finalizer of
+     * MurmurHash3), since message IDs of one source are often sequential.
+     */
+    private int slotOf( long key ) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & ( keys.length - 1 );
+    }
+
+    /**
+     * Finds the slot of the key.
+     * 
+     * @return slot, or -1 if absent
+     */
+    private int find( long key ) {
+        int slot = probe(key);
+        return values[slot] == null ? -1 : slot;
+    }
+
+    /**
+     * Finds the slot of the key, or the empty slot it would be inserted in.
+     */
+    private int probe( long key ) {
+        int mask = keys.length - 1;
+        int slot = slotOf(key);
+        while ( values[slot] != null && keys[slot] != key ) {
+            slot = ( slot + 1 ) & mask;
+        }
+        return slot;
+    }
+
+    private void insert( int slot, long key, Object value ) {
+        requireValue(value);
+        keys[slot] = key;
+        values[slot] = value;
+        if ( ++size > keys.length / 2 ) {
+            resize(keys.length * 2);
+        }
+    }
+
+    private static void requireValue( Object value ) {
+        if ( value == null ) {
+            throw new NullPointerException("MessageTable does not hold null values");
+        }
+    }
+
+    /**
+     * Empties the slot, and moves later entries of the same probe sequence back
+     * so no tombstones are needed.
+     */
+    private void delete( int slot ) {
+        int mask = keys.length - 1;
+        values[slot] = null;
+        size--;
+        int next = ( slot + 1 ) & mask;
+        while ( values[next] != null ) {
+            int home = slotOf(keys[next]);
+            // Move the entry back if its home is not between the hole and it
+            if ( ( next - home & mask ) >= ( next - slot & mask ) ) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                values[next] = null;
+                slot = next;
+            }
+            next = ( next + 1 ) & mask;
+        }
+    }
+
+    private void resize( int capacity ) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        for (int i = 0; i < oldValues.length; i++) {
+            if ( oldValues[i] != null ) {
+                int slot = probe(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
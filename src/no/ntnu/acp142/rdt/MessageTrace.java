@@ -0,0 +1,239 @@
+﻿package no.ntnu.acp142.rdt;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import no.ntnu.acp142.Clock;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Trace of the lifecycle of one message, kept by its MessageEntry when
+ * MESSAGE_TRACING is enabled. Every state change, timer firing and major
+ * protocol event is recorded with a monotonic timestamp and its cause. The
+ * time between two events is attributed to the phase the message was in, so
+ * the trace shows both the order of events and where the time went.
+ * 
+ * @author libjpmul contributors
+ * 
+ */
+public class MessageTrace {
+
+    /**
+     * Phases of the lifecycle of a message.
+     */
+    public enum Phase {
+        /**
+         * Waiting in the outgoing queue.
+         */
+        QUEUEING,
+        /**
+         * Setting up a dynamic multicast group: request, waiting for rejects
+         * and announcing.
+         */
+        GROUP_SETUP,
+        /**
+         * Transmitting the Address_PDU and Data_PDUs for the first time.
+         */
+        TRANSMISSION,
+        /**
+         * Waiting for the first acknowledgements.
+         */
+        ACK_WAIT,
+        /**
+         * Retransmitting, and waiting for the acknowledgements to it.
+         */
+        REPAIR,
+        /**
+         * Receiving the PDUs of the message.
+         */
+        RECEIVING,
+        /**
+         * Complete, or given up.
+         */
+        COMPLETE
+    }
+
+    /**
+     * Timestamps of the events, in nanoseconds.
+     */
+    private final ArrayList<Long>   times  = new ArrayList<Long>();
+    private final ArrayList<String> causes = new ArrayList<String>();
+    /**
+     * Phase each event started, null if the event did not change the phase.
+     */
+    private final ArrayList<Phase>  phases = new ArrayList<Phase>();
+
+    private Phase                   phase;
+    private boolean                 finished = false;
+
+    /**
+     * Starts a trace.
+     * 
+     * @param time
+     *            time the message was created, in nanoseconds.
+     */
+    public MessageTrace(long time) {
+        add(time, Phase.QUEUEING, "created");
+    }
+
+    /**
+     * Records an event that does not change the phase.
+     * 
+     * @param cause
+     *            of the event.
+     */
+    public synchronized void record( String cause ) {
+        if ( !finished ) {
+            add(Clock.nanoTime(), null, cause);
+        }
+    }
+
+    /**
+     * Records an event that starts a new phase.
+     * 
+     * @param newPhase
+     *            the phase started.
+     * @param cause
+     *            of the event.
+     */
+    public synchronized void enter( Phase newPhase, String cause ) {
+        if ( !finished ) {
+            add(Clock.nanoTime(), newPhase == phase ? null : newPhase, cause);
+        }
+    }
+
+    /**
+     * Records a state change of the message, and the phase it starts. The
+     * transmission and repair phases are entered explicitly by the send and
+     * timer threads, since the retransmitting states are set on the entries
+     * that carry a retransmission rather than on the message itself.
+     * 
+     * @param state
+     *            the new state.
+     */
+    public synchronized void stateChanged( States state ) {
+        switch ( state ) {
+        case WAIT_FOR_ACK:
+            enter(phase == Phase.TRANSMISSION ? Phase.ACK_WAIT : phase, "state " + state);
+            break;
+        case RECEIVING:
+            enter(Phase.RECEIVING, "state " + state);
+            break;
+        case COMPLETE:
+            enter(Phase.COMPLETE, "state " + state);
+            break;
+        default:
+            record("state " + state);
+        }
+    }
+
+    /**
+     * Ends the trace. Later events are ignored.
+     * 
+     * @param cause
+     *            of the end, such as complete or expired.
+     * @return true if the trace was ended by this call, false if it had
+     *         already ended.
+     */
+    public synchronized boolean finish( String cause ) {
+        if ( finished ) {
+            return false;
+        }
+        enter(Phase.COMPLETE, cause);
+        finished = true;
+        return true;
+    }
+
+    private void add( long time, Phase newPhase, String cause ) {
+        times.add(time);
+        causes.add(cause);
+        phases.add(newPhase);
+        if ( newPhase != null ) {
+            phase = newPhase;
+        }
+    }
+
+    /**
+     * Returns the time spent in each phase, in nanoseconds, up to the last
+     * event.
+     * 
+     * @return time per phase, indexed by ordinal.
+     */
+    public synchronized long[] getPhaseTimes( ) {
+        long[] phaseTimes = new long[Phase.values().length];
+        Phase current = phases.get(0);
+        for (int i = 1; i < times.size(); i++) {
+            phaseTimes[current.ordinal()] += times.get(i) - times.get(i - 1);
+            if ( phases.get(i) != null ) {
+                current = phases.get(i);
+            }
+        }
+        return phaseTimes;
+    }
+
+    /**
+     * Formats the trace as one line: the total time and the time of each phase
+     * the message passed through, followed by every event with its time since
+     * the message was created. Times are in milliseconds.
+     * 
+     * @param label
+     *            identifying the message.
+     * @return the formatted trace.
+     */
+    public synchronized String format( String label ) {
+        long start = times.get(0);
+        StringBuilder line = new StringBuilder("Trace of ").append(label);
+        line.append(": ").append(milliseconds(times.get(times.size() - 1) - start)).append(" ms total");
+        long[] phaseTimes = getPhaseTimes();
+        for (Phase p : Phase.values()) {
+            if ( phaseTimes[p.ordinal()] > 0 ) {
+                line.append(", ").append(p.name().toLowerCase(Locale.ROOT).replace('_', ' ')).append(' ')
+                        .append(milliseconds(phaseTimes[p.ordinal()])).append(" ms");
+            }
+        }
+        line.append(" |");
+        for (int i = 0; i < times.size(); i++) {
+            line.append(" +").append(milliseconds(times.get(i) - start)).append(' ').append(causes.get(i));
+            if ( i < times.size() - 1 ) {
+                line.append(',');
+            }
+        }
+        return line.toString();
+    }
+
+    private static String milliseconds( long nanos ) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,363 @@
+﻿package no.ntnu.acp142.rdt;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import no.ntnu.acp142.Clock;
+import no.ntnu.acp142.Configuration;
+import no.ntnu.acp142.Log;
+import no.ntnu.acp142.RandomSource;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Picks the multicast addresses of new dynamic multicast groups from the pool
+ * given by MULTICAST_START_RANGE and MULTICAST_END_RANGE. <br>
+ * <br>
+ * A Request_PDU for an address some node already uses costs a Reject_PDU, a
+ * Release_PDU and a new Request_PDU after WAIT_FOR_REJECT_TIME. To avoid
+ * that, the allocator keeps track of the addresses it sees in Request_PDUs,
+ * Announce_PDUs and Release_PDUs on the GG, of the addresses it has handed
+ * out itself, and of the groups this node has joined or cached, and picks an
+ * address none of them uses when it can. <br>
+ * <br>
+ * PDUs carry the group address in 32 bits, so only IPv4 ranges are
+ * supported.
+ * 
+ * @author libjpmul contributors
+ * 
+ */
+public class MulticastAddressAllocator {
+
+    /**
+     * Number of addresses tried before giving up on finding a free one.
+     */
+    private static final int                MAX_PROBES = 1024;
+
+    private final ReliableDataTransfer      rdt;
+    private final Random                    random;
+    /**
+     * Addresses handed out by us, with the time in milliseconds they are
+     * held until.
+     */
+    private final HashMap<InetAddress, Long> allocated = new HashMap<InetAddress, Long>();
+    /**
+     * Addresses other nodes use, with the time in milliseconds they are
+     * assumed used until.
+     */
+    private final HashMap<InetAddress, Long> seen      = new HashMap<InetAddress, Long>();
+
+    private InetAddress                     startAddress = null;
+    private InetAddress                     endAddress   = null;
+    private int                             start;
+    private long                            size;
+
+    /**
+     * Creates an allocator for the given node.
+     * 
+     * @param rdt
+     *          the groups are allocated by
+     */
+    public MulticastAddressAllocator( ReliableDataTransfer rdt ) {
+        this.rdt = rdt;
+        this.random = RandomSource.newRandom();
+    }
+
+    /**
+     * Picks an address for a new dynamic multicast group, and holds it until
+     * it is freed or the given time has passed. If every address of the pool
+     * seems to be in use, a random one is returned.
+     * 
+     * @param until
+     *            time in milliseconds the address is held until, normally
+     *            the expiry time of the message.
+     * @return address of the new group, or null if the pool can not be
+     *         resolved.
+     */
+    public synchronized InetAddress allocate( long until ) {
+        return allocate(until, false);
+    }
+
+    /**
+     * Picks an address for a new dynamic multicast group like
+     * {@link #allocate(long)}, but only if one seems free.
+     * 
+     * @param until
+     *            time in milliseconds the address is held until.
+     * @return address of the new group, or null if none is free.
+     */
+    public synchronized InetAddress allocateFree( long until ) {
+        return allocate(until, true);
+    }
+
+    private InetAddress allocate( long until, boolean free ) {
+        if ( !updateRange() ) {
+            return null;
+        }
+        long now = Clock.currentTimeMillis();
+        purge(allocated, now);
+        purge(seen, now);
+
+        long first = Math.floorMod(random.nextLong(), size);
+        int probes = (int) Math.min(size, MAX_PROBES);
+        InetAddress address = null;
+        for (int i = 0; i < probes; i++) {
+            long offset = first + i;
+            if ( offset >= size || offset < 0 ) {
+                offset -= size;
+            }
+            InetAddress candidate = addressAt(offset);
+            if ( !isUsed(candidate) ) {
+                address = candidate;
+                break;
+            }
+        }
+        if ( address == null ) {
+            Log.writeLine(Log.LOG_LEVEL_VERBOSE, "Found no free multicast address in {} tries.", probes);
+            if ( free ) {
+                return null;
+            }
+            address = addressAt(first);
+        }
+        allocated.put(address, until);
+        return address;
+    }
+
+    /**
+     * Holds an address handed out by {@link #allocate(long)} until another
+     * time.
+     * 
+     * @param address
+     *            handed out.
+     * @param until
+     *            time in milliseconds the address is held until.
+     */
+    public synchronized void hold( InetAddress address, long until ) {
+        allocated.put(address, until);
+    }
+
+    /**
+     * Frees an address handed out by {@link #allocate(long)}, once its group
+     * has been released.
+     * 
+     * @param address
+     *            of the released group.
+     */
+    public synchronized void free( InetAddress address ) {
+        allocated.remove(address);
+    }
+
+    /**
+     * Notes an address another node has requested, or rejected because it
+     * uses it. It is assumed used for WAIT_FOR_REJECT_TIME and ANNOUNCE_DELAY,
+     * after which an Announce_PDU should tell for how long.
+     * 
+     * @param address
+     *            of the group.
+     */
+    public synchronized void requested( InetAddress address ) {
+        see(address, Clock.currentTimeMillis() + Configuration.getWaitForRejectTime()
+                + Configuration.getAnnounceDelay());
+    }
+
+    /**
+     * Notes an address another node has announced a message on.
+     * 
+     * @param address
+     *            of the group.
+     * @param until
+     *            expiry time of the message, in milliseconds.
+     */
+    public synchronized void announced( InetAddress address, long until ) {
+        see(address, until);
+    }
+
+    /**
+     * Notes an address another node has released.
+     * 
+     * @param address
+     *            of the group.
+     */
+    public synchronized void released( InetAddress address ) {
+        seen.remove(address);
+    }
+
+    /**
+     * @return number of addresses currently held or seen in use.
+     */
+    public synchronized int size( ) {
+        return allocated.size() + seen.size();
+    }
+
+    /**
+     * Picks a random address of the configured pool, without checking
+     * whether it is in use.
+     * 
+     * @return a random address of the pool, or null if the pool can not be
+     *         resolved or is not IPv4.
+     */
+    public static InetAddress randomAddress( ) {
+        InetAddress first;
+        InetAddress last;
+        try {
+            first = Configuration.getMulticastStartRange();
+            last = Configuration.getMulticastEndRang();
+        } catch (UnknownHostException e) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "Could not resolve multicast start or end range address.");
+            return null;
+        }
+        if ( !( first instanceof Inet4Address ) || !( last instanceof Inet4Address ) ) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "The multicast range {} - {} is not IPv4, which PDUs can not carry.",
+                    first.getHostAddress(), last.getHostAddress());
+            return null;
+        }
+        int start = toInt(first);
+        long offset = Math.floorMod(RandomSource.newRandom().nextLong(), poolSize(start, toInt(last)));
+        return toInetAddress(start + (int) offset);
+    }
+
+    /**
+     * Converts a multicast address to an int, as carried in the Request_PDU,
+     * Reject_PDU, Release_PDU and Announce_PDU.
+     * 
+     * @param address
+     *            IPv4 address.
+     * @return the address as an int.
+     * @throws IllegalArgumentException
+     *             if the address is not IPv4.
+     */
+    public static int toInt( InetAddress address ) {
+        byte[] bytes = address.getAddress();
+        if ( bytes.length != 4 ) {
+            throw new IllegalArgumentException("Not an IPv4 address: " + address.getHostAddress());
+        }
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+
+    /**
+     * Converts a multicast address as carried in the Request_PDU,
+     * Reject_PDU, Release_PDU and Announce_PDU to an InetAddress.
+     * 
+     * @param address
+     *            IPv4 address as an int.
+     * @return the address.
+     */
+    public static InetAddress toInetAddress( int address ) {
+        try {
+            return InetAddress.getByAddress(ByteBuffer.allocate(4).putInt(address).array());
+        } catch (UnknownHostException e) {
+            // Never happens for four bytes.
+            return null;
+        }
+    }
+
+    private void see( InetAddress address, long until ) {
+        if ( address == null ) {
+            return;
+        }
+        Long current = seen.get(address);
+        if ( current == null || current < until ) {
+            seen.put(address, until);
+        }
+    }
+
+    private boolean isUsed( InetAddress address ) {
+        return allocated.containsKey(address) || seen.containsKey(address)
+                || rdt.transport.getCurrentMulticastGroups().contains(address) || rdt.groupCache.contains(address);
+    }
+
+    private static void purge( HashMap<InetAddress, Long> addresses, long now ) {
+        Iterator<Map.Entry<InetAddress, Long>> it = addresses.entrySet().iterator();
+        while ( it.hasNext() ) {
+            if ( it.next().getValue() < now ) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Resolves the pool again if the configuration changed.
+     * 
+     * @return false if the pool can not be resolved.
+     */
+    private boolean updateRange( ) {
+        InetAddress first;
+        InetAddress last;
+        try {
+            first = Configuration.getMulticastStartRange();
+            last = Configuration.getMulticastEndRang();
+        } catch (UnknownHostException e) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "Could not resolve multicast start or end range address.");
+            return false;
+        }
+        if ( first.equals(startAddress) && last.equals(endAddress) ) {
+            return true;
+        }
+        if ( !( first instanceof Inet4Address ) || !( last instanceof Inet4Address ) ) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "The multicast range {} - {} is not IPv4, which PDUs can not carry.",
+                    first.getHostAddress(), last.getHostAddress());
+            return false;
+        }
+        startAddress = first;
+        endAddress = last;
+        start = toInt(first);
+        size = poolSize(start, toInt(last));
+        Log.writeLine(Log.LOG_LEVEL_DEBUG, "The number of addresses in the multicast pool is: {}", size);
+        return true;
+    }
+
+    /**
+     * Number of addresses from start to end, both included. An end before the
+     * start gives a pool of the start address only.
+     */
+    private static long poolSize( int start, int end ) {
+        long first = start & 0xffffffffL;
+        long last = end & 0xffffffffL;
+        return last < first ? 1 : last - first + 1;
+    }
+
+    /**
+     * @return the address the given number of addresses after the start of
+     *         the pool.
+     */
+    private InetAddress addressAt( long offset ) {
+        return toInetAddress(start + (int) offset);
+    }
+}
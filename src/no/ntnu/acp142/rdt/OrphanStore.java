@@ -0,0 +1,223 @@
+﻿package no.ntnu.acp142.rdt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import no.ntnu.acp142.Clock;
+import no.ntnu.acp142.Configuration;
+import no.ntnu.acp142.Log;
+import no.ntnu.acp142.metrics.Metrics;
+import no.ntnu.acp142.pdu.DataPdu;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Holds Data_PDUs received before the Address_PDU of their message. Such
+ * orphans are kept for ORPHAN_TTL, at most ORPHAN_SOURCE_QUOTA bytes from one
+ * source and ORPHAN_MAX_BYTES in total, and are promoted into a message entry
+ * only when the Address_PDU arrives and names this node. This replaces the
+ * Data_PDU entry of ACP142 para 313, which held a full message entry and an
+ * Unidentified_Data_PDU_Validity_Timer for every unknown message, including
+ * traffic on shared groups this node is not a destination of. <br>
+ * <br>
+ * Orphans are stored as the DataPdus they were parsed into, which hold
+ * nothing but their binary. Expired orphans are dropped when the store is next
+ * used, so no timers are needed. When the total is exceeded, the messages
+ * whose first orphan arrived first are dropped first. A PDU that would exceed
+ * the quota of its source is dropped on arrival.
+ * 
+ * @author libjpmul contributors
+ * 
+ */
+public class OrphanStore {
+
+    /**
+     * Orphans of one message.
+     */
+    private static class Orphans {
+        private final int                sourceId;
+        private final long               arrival;
+        private final ArrayList<DataPdu> pdus  = new ArrayList<DataPdu>();
+        private int                      bytes = 0;
+
+        private Orphans( int sourceId, long arrival ) {
+            this.sourceId = sourceId;
+            this.arrival = arrival;
+        }
+    }
+
+    private final Metrics                           metrics;
+    /**
+     * Orphans by message, in order of arrival of the first orphan
+     */
+    private final LinkedHashMap<Long, Orphans>      messages    = new LinkedHashMap<Long, Orphans>();
+    private final Map<Integer, Integer>             sourceBytes = new HashMap<Integer, Integer>();
+    private long                                    totalBytes  = 0;
+
+    /**
+     * Creates an empty store.
+     * 
+     * @param metrics
+     *          to count dropped and promoted orphans in
+     */
+    public OrphanStore( Metrics metrics ) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Stores a Data_PDU whose message is not known yet.
+     * 
+     * @param dataPdu
+     *          to store
+     * @return true if stored, false if dropped because of a limit or a
+     *         duplicate
+     */
+    public synchronized boolean add( DataPdu dataPdu ) {
+        long now = Clock.currentTimeMillis();
+        dropExpired(now);
+
+        long key = MessageTable.key(dataPdu.getMessageId(), dataPdu.getSourceID());
+        Orphans orphans = messages.get(key);
+        if ( orphans != null ) {
+            for (DataPdu stored : orphans.pdus) {
+                if ( stored.getSequenceNumber() == dataPdu.getSequenceNumber() ) {
+                    return false;
+                }
+            }
+        }
+
+        int bytes = dataPdu.getLengthOfPDU();
+        int quota = Configuration.getOrphanSourceQuota();
+        Integer fromSource = sourceBytes.get(dataPdu.getSourceID());
+        if ( bytes > Configuration.getOrphanMaxBytes()
+                || quota > 0 && ( fromSource == null ? 0 : fromSource ) + bytes > quota ) {
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Dropped orphan DataPdu from {}, over quota", dataPdu.getSourceID());
+            metrics.orphansDropped(1);
+            return false;
+        }
+
+        while ( totalBytes + bytes > Configuration.getOrphanMaxBytes() && !messages.isEmpty() ) {
+            Iterator<Orphans> oldest = messages.values().iterator();
+            drop(oldest.next());
+            oldest.remove();
+        }
+
+        // Eviction may have dropped the orphans of this message, or of its
+        // source
+        orphans = messages.get(key);
+        fromSource = sourceBytes.get(dataPdu.getSourceID());
+        if ( orphans == null ) {
+            orphans = new Orphans(dataPdu.getSourceID(), now);
+            messages.put(key, orphans);
+        }
+        // Do not keep the whole receive buffer
+        orphans.pdus.add(dataPdu.trimmed());
+        orphans.bytes += bytes;
+        sourceBytes.put(orphans.sourceId, ( fromSource == null ? 0 : fromSource ) + bytes);
+        totalBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Removes the orphans of a message, to be promoted into its message entry
+     * or discarded with it.
+     * 
+     * @param key
+     *          of the message
+     * @return the orphans of the message, empty if there are none
+     */
+    public synchronized ArrayList<DataPdu> remove( long key ) {
+        dropExpired(Clock.currentTimeMillis());
+        Orphans orphans = messages.remove(key);
+        if ( orphans == null ) {
+            return new ArrayList<DataPdu>();
+        }
+        release(orphans);
+        return orphans.pdus;
+    }
+
+    /**
+     * Returns the number of bytes of orphans currently stored.
+     * 
+     * @return stored bytes
+     */
+    public synchronized long getBytes( ) {
+        return totalBytes;
+    }
+
+    /**
+     * Drops the orphans that have outlived ORPHAN_TTL. Messages are in order
+     * of arrival, so the first one not expired ends the search.
+     * 
+     * @param now
+     *          current time in milliseconds
+     */
+    private void dropExpired( long now ) {
+        long ttl = Configuration.getOrphanTtl();
+        Iterator<Orphans> iterator = messages.values().iterator();
+        while ( iterator.hasNext() ) {
+            Orphans orphans = iterator.next();
+            if ( now - orphans.arrival < ttl ) {
+                return;
+            }
+            drop(orphans);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Releases the bytes of the orphans of a message and counts them as
+     * dropped. The caller removes them from the store.
+     * 
+     * @param orphans
+     *          to drop
+     */
+    private void drop( Orphans orphans ) {
+        release(orphans);
+        metrics.orphansDropped(orphans.pdus.size());
+    }
+
+    private void release( Orphans orphans ) {
+        totalBytes -= orphans.bytes;
+        int remaining = sourceBytes.get(orphans.sourceId) - orphans.bytes;
+        if ( remaining == 0 ) {
+            sourceBytes.remove(orphans.sourceId);
+        } else {
+            sourceBytes.put(orphans.sourceId, remaining);
+        }
+    }
+}
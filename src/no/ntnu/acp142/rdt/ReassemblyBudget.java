@@ -0,0 +1,211 @@
+﻿package no.ntnu.acp142.rdt;
+
+import java.util.Comparator;
+import java.util.TreeSet;
+
+import no.ntnu.acp142.Clock;
+import no.ntnu.acp142.Configuration;
+import no.ntnu.acp142.Log;
+import no.ntnu.acp142.pdu.Pdu;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Accounts for the bytes of PDUs held by partially received messages, and
+ * keeps them within REASSEMBLY_BUDGET. Each received PDU stored in an
+ * incomplete message entry is charged to that entry, and the charge is
+ * released when the message completes or is removed. When a charge exceeds the
+ * budget, partial messages are evicted: lowest ACP142 priority first, then the
+ * one that has gone longest without receiving a new PDU. <br>
+ * <br>
+ * Evicting a message removes it from inMessages and stops its timers, as if it
+ * had expired. The sender's retransmissions may start it again.
+ * 
+ * @author libjpmul contributors
+ * 
+ */
+public class ReassemblyBudget {
+
+    /**
+     * Bytes charged to one partially received message.
+     */
+    private static class Account {
+        private final long         key;
+        private final MessageEntry entry;
+        private long               bytes        = 0;
+        private int                priority     = 0;
+        private long               lastProgress = 0;
+
+        private Account( long key, MessageEntry entry ) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Orders accounts in eviction order: lowest priority, then least recent
+     * progress.
+     */
+    private static final Comparator<Account> EVICTION_ORDER = new Comparator<Account>() {
+        @Override
+        public int compare( Account a, Account b ) {
+            if ( a.priority != b.priority ) {
+                return a.priority < b.priority ? -1 : 1;
+            }
+            if ( a.lastProgress != b.lastProgress ) {
+                return a.lastProgress < b.lastProgress ? -1 : 1;
+            }
+            return Long.compare(a.key, b.key);
+        }
+    };
+
+    private final ReliableDataTransfer  rdt;
+    private final MessageTable<Account> accounts  = new MessageTable<Account>();
+    /**
+     * The accounts of the table in eviction order. An account is taken out
+     * while its priority or progress changes.
+     */
+    private final TreeSet<Account>      victims   = new TreeSet<Account>(EVICTION_ORDER);
+    private long                        usedBytes = 0;
+
+    /**
+     * Creates an empty budget for the received messages of the given node.
+     * 
+     * @param rdt
+     *          the messages are received by
+     */
+    public ReassemblyBudget( ReliableDataTransfer rdt ) {
+        this.rdt = rdt;
+    }
+
+    /**
+     * Charges a PDU stored in a partially received message to that message,
+     * and evicts partial messages until the budget is kept.
+     * 
+     * @param key
+     *          of the message in inMessages
+     * @param entry
+     *          the PDU was stored in
+     * @param pdu
+     *          that was stored
+     * @return false if the message itself was evicted, true otherwise
+     */
+    public synchronized boolean charge( long key, MessageEntry entry, Pdu pdu ) {
+        Account account = accounts.get(key);
+        if ( account == null || account.entry != entry ) {
+            if ( account != null ) {
+                usedBytes -= account.bytes;
+                victims.remove(account);
+            }
+            account = new Account(key, entry);
+            accounts.put(key, account);
+        } else {
+            victims.remove(account);
+        }
+        int bytes = pdu.getBinary().length;
+        account.bytes += bytes;
+        account.priority = pdu.getPriority();
+        account.lastProgress = Clock.nanoTime();
+        victims.add(account);
+        usedBytes += bytes;
+
+        int budget = Configuration.getReassemblyBudget();
+        if ( budget > 0 ) {
+            while ( usedBytes > budget && !victims.isEmpty() ) {
+                evict(victims.first().key);
+            }
+        }
+        return accounts.get(key) == account;
+    }
+
+    /**
+     * Releases the charge of a message that completed or was removed. Does
+     * nothing if no charge was made for the key.
+     * 
+     * @param key
+     *          of the message in inMessages
+     */
+    public synchronized void release( long key ) {
+        Account account = accounts.remove(key);
+        if ( account != null ) {
+            usedBytes -= account.bytes;
+            victims.remove(account);
+        }
+    }
+
+    /**
+     * Returns the number of bytes currently charged to partially received
+     * messages.
+     * 
+     * @return used bytes
+     */
+    public synchronized long getUsedBytes( ) {
+        return usedBytes;
+    }
+
+    /**
+     * Returns the number of partially received messages currently charged.
+     * 
+     * @return number of messages
+     */
+    public synchronized int getMessageCount( ) {
+        return accounts.size();
+    }
+
+    /**
+     * Removes the message from inMessages, stops its timers and releases its
+     * charge.
+     * 
+     * @param key
+     *          of the message to evict
+     */
+    private void evict( long key ) {
+        Account account = accounts.remove(key);
+        victims.remove(account);
+        usedBytes -= account.bytes;
+        MessageEntry entry = account.entry;
+
+        rdt.inMessages.remove(key, entry);
+        rdt.readyToAckEmcon.remove(key, entry);
+        rdt.groupUsage.unbind(key);
+        rdt.stopTimer(TimerType.EXPIRY_TIMER_RECEIVE, entry);
+        rdt.stopTimer(TimerType.ACK_DELAY, entry);
+        rdt.stopTimer(TimerType.ACK_TIMER, entry);
+
+        rdt.metrics.messageEvicted(account.bytes);
+        entry.finishTrace("evicted");
+        Log.writeLine(Log.LOG_LEVEL_VERBOSE, "Evicted partial message {} from {} of priority {}, holding {} bytes",
+                MessageTable.messageId(key), MessageTable.sourceId(key), account.priority, account.bytes);
+    }
+}
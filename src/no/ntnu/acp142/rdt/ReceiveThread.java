@@ -1,19 +1,14 @@
 ﻿package no.ntnu.acp142.rdt;
 
-import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Map;
 import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CopyOnWriteArraySet;
-import no.ntnu.acp142.Libjpmul;
+import no.ntnu.acp142.Clock;
 import no.ntnu.acp142.Configuration;
 import no.ntnu.acp142.Log;
+import no.ntnu.acp142.RandomSource;
 import no.ntnu.acp142.pdu.AckPdu;
 import no.ntnu.acp142.pdu.AckPdu.AckInfoEntry;
 import no.ntnu.acp142.pdu.AddressPdu;
@@ -24,6 +19,7 @@ import no.ntnu.acp142.pdu.DiscardMessagePdu;
 import no.ntnu.acp142.pdu.Pdu;
 import no.ntnu.acp142.pdu.RejectPdu;
 import no.ntnu.acp142.pdu.ReleasePdu;
+import no.ntnu.acp142.pdu.RepairPdu;
 import no.ntnu.acp142.pdu.RequestRejectReleasePdu;
 import no.ntnu.acp142.udp.Tuple;
 
@@ -73,12 +69,12 @@ public class ReceiveThread extends Thread {
 	 * Reference to the ReliableTransferClass
 	 */
 	private ReliableDataTransfer rdt;
-    
+
 	/**
-	 * Contains the the mapping from <messageId, sourceId> to InetAddresses currently active
+	 * Cleared when the node shuts down
 	 */
-	ConcurrentHashMap<HashValue, InetAddress> multicastAddressesInUse;
-	
+	private volatile boolean running = true;
+    
 	/**
 	 * Creates an instance of the ReceiveThread
 	 * 
@@ -86,7 +82,6 @@ public class ReceiveThread extends Thread {
 	 */
 	public ReceiveThread(ReliableDataTransfer rdt) {
 		this.rdt = rdt;
-		multicastAddressesInUse = new ConcurrentHashMap<HashValue, InetAddress>();
 	}
 
 	/**
@@ -96,11 +91,16 @@ public class ReceiveThread extends Thread {
 	@Override
 	public void run() {
 		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Starting receive thread");
-		while (true) {
+		while (running) {
 			// blocking = No need to sleep
 			try {
 				Tuple<InetAddress, byte[]> tmp = rdt.receive();
+				if (tmp == null) {
+					// Interrupted while receiving
+					continue;
+				}
 				Pdu packet = Pdu.parsePDU(tmp.t2);
+				rdt.metrics.pduReceived(packet);
 				if (packet == null) {
 				    Log.writeLine(Log.LOG_LEVEL_DEBUG, "Packet is null");
 					continue;
@@ -117,6 +117,15 @@ public class ReceiveThread extends Thread {
 		}
 	}
 
+	/**
+	 * Stops the thread once it is done with the current packet. Receiving
+	 * blocks, so the thread ends when the next packet arrives.
+	 */
+	void shutdown() {
+		running = false;
+		interrupt();
+	}
+
     /**
      * Handles PDU packets and applies the appropriate operation depending on
      * its type
@@ -167,6 +176,10 @@ public class ReceiveThread extends Thread {
 			Log.writeLine(Log.LOG_LEVEL_DEBUG, "Handle received RequestPdu");
 			handleRequestPdu(data);
 			break;
+		case Pdu.Repair_PDU:
+			Log.writeLine(Log.LOG_LEVEL_DEBUG, "Handle received RepairPdu");
+			handleRepairPdu(data);
+			break;
 		}
 
 	}
@@ -184,8 +197,7 @@ public class ReceiveThread extends Thread {
 			ArrayList<DestinationEntry> destinationEntries = addressPdu
 					.getDestinationEntries();
 			for (DestinationEntry destinationEntry : destinationEntries) {
-				if (destinationEntry.getDestinationID() == Configuration
-						.getNodeId()) {
+				if (destinationEntry.getDestinationID() == rdt.getNodeId()) {
 					return true;
 				}
 			}
@@ -195,7 +207,7 @@ public class ReceiveThread extends Thread {
 			AnnouncePdu announcePdu = (AnnouncePdu) pdu;
 			int[] destinationIds = announcePdu.getDestinationIds();
 			for (int i : destinationIds) {
-				if (i == Configuration.getNodeId()) {
+				if (i == rdt.getNodeId()) {
 					return true;
 				}
 			}
@@ -266,87 +278,75 @@ public class ReceiveThread extends Thread {
 	private void handleAddressPdu(Tuple<InetAddress, Pdu> packet)
 			throws InterruptedException {
 		AddressPdu addressPdu = (AddressPdu) packet.t2;
-		HashValue key = new HashValue(addressPdu.getMessageId(),
+		long key = MessageTable.key(addressPdu.getMessageId(),
 				addressPdu.getSourceID());
 
 		// Calculate ack delay
-		Random random = new Random();
+		Random random = RandomSource.newRandom();
 		long endTime = random.nextInt((int) Configuration
 				.getAckDelayUpperBound());
 
-		if (!isDestination(addressPdu) && addressPdu.getSourceID() != Configuration.getNodeId()) {
+		if (!isDestination(addressPdu) && addressPdu.getSourceID() != rdt.getNodeId()) {
 			//We are not supposed to get this message
-			
-			//Check if we have previously received any dataPdu associated with this addressPdu
-			if(rdt.inMessages.containsKey(key)){
-				MessageEntry currentEntry = rdt.inMessages.get(key);
-				rdt.stopTimer(TimerType.UNIDENTIFIED_DATA_DPU_VALIDITY_TIMER, currentEntry);
-				rdt.inMessages.remove(key);
+			if (rdt.inMessages.containsKey(key)) {
+				//We are, but this Address_PDU lists other destinations of it,
+				//as in a retransmission or when sent to several groups
+				return;
 			}
+			
+			//Drop any dataPdu received before this addressPdu
+			rdt.metrics.orphansDropped(rdt.orphans.remove(key).size());
 			return;
 		}
 		
 		
-		if(rdt.inMessages.containsKey(key)){
-			Log.writeLine(Log.LOG_LEVEL_DEBUG, "Got a address PDU, and we already got some data PDUs.");
-			MessageEntry currentEntry = rdt.inMessages.get(key);
+		MessageEntry currentEntry = rdt.inMessages.get(key);
+		if(currentEntry != null){
+			Log.writeLine(Log.LOG_LEVEL_DEBUG, "Got a address PDU for a message we already know.");
 			currentEntry.setAckAddress(packet.t1);
 			
-			if (currentEntry.getAddressPdu() == null) {
-				// We already have dataPdus for this message
-				currentEntry.addAddressPdu(addressPdu);
-				rdt.stopTimer(TimerType.UNIDENTIFIED_DATA_DPU_VALIDITY_TIMER,
-						currentEntry);
-				
-				
-				if(rdt.EMCON.get() == false){
-					rdt.initializeTimer(endTime, TimerType.ACK_DELAY, currentEntry, null);
-					
-					if(currentEntry.dataReady()){
-						rdt.initializeTimer(endTime, TimerType.COMPLETE_ACK_TIMER, currentEntry, null);
-						currentEntry.setState(States.COMPLETE);
-						Libjpmul.completedMessages.put(currentEntry);
-						rdt.stopTimer(TimerType.ACK_TIMER, currentEntry);
-					}
-				
-				}
-				//Nothing more to do
-				return;
-
-			} else {
-				// AddressPDU already received
-	            if (isDuplicateAddressPdu(addressPdu)){
-	                currentEntry.setState(States.RE_TRANSMITTING);
-					if (currentEntry.dataReady()) {
-						// Already sent ack
-						if(rdt.EMCON.get() == false){
-							rdt.initializeTimer(endTime, TimerType.COMPLETE_ACK_TIMER,
-									currentEntry, null);
-						}
-						return;
-					} else {
-						// Ack not sent, message not complete
-						return;
+			// AddressPDU already received
+            if (isDuplicateAddressPdu(addressPdu)){
+                currentEntry.setState(States.RE_TRANSMITTING);
+				if (currentEntry.dataReady()) {
+					// Already sent ack
+					if(rdt.EMCON.get() == false){
+						rdt.initializeTimer(endTime, TimerType.COMPLETE_ACK_TIMER,
+								currentEntry, null);
 					}
+					return;
+				} else {
+					// Ack not sent, message not complete
+					return;
 				}
-
 			}
+
 		
 		}else {
 			Log.writeLine(Log.LOG_LEVEL_DEBUG, "Received the addressPdu for the first time");
+			long currentUnixTime = Clock.currentTimeMillis()/1000;
+			
+			if (currentUnixTime > addressPdu.getExpiryTime()){
+				Log.writeLine(Log.LOG_LEVEL_DEBUG, "Discarded because it has expired");
+				rdt.metrics.orphansDropped(rdt.orphans.remove(key).size());
+				return;
+			}
 			MessageEntry newMessageEntry = new MessageEntry();
 			newMessageEntry.addAddressPdu(addressPdu);
 			newMessageEntry.setState(States.RECEIVING);
 			rdt.inMessages.put(key, newMessageEntry);
-			long currentUnixTime = System.currentTimeMillis()/1000;
-			
-			if (currentUnixTime > addressPdu.getExpiryTime()){
-				Log.writeLine(Log.LOG_LEVEL_DEBUG, "Discarded because it has expired");
+			ArrayList<DataPdu> orphans = rdt.orphans.remove(key);
+			if (!rdt.reassembly.charge(key, newMessageEntry, addressPdu)) {
+				rdt.metrics.orphansDropped(orphans.size());
 				return;
-			}else {
-				long diff = addressPdu.getExpiryTime() - currentUnixTime;
-				rdt.initializeTimer(diff * 1000L, TimerType.EXPIRY_TIMER_RECEIVE, newMessageEntry, null);
-				
+			}
+			long diff = addressPdu.getExpiryTime() - currentUnixTime;
+			rdt.initializeTimer(diff * 1000L, TimerType.EXPIRY_TIMER_RECEIVE, newMessageEntry, null);
+			
+			// Promote the DataPdus that arrived before the addressPdu
+			rdt.metrics.orphansPromoted(orphans.size());
+			for (DataPdu orphan : orphans) {
+				handleDataPdu(new Tuple<InetAddress, Pdu>(packet.t1, orphan));
 			}
 		}
 		
@@ -359,7 +359,7 @@ public class ReceiveThread extends Thread {
 	 * @return true if duplicate, and false otherwise.
 	 */
 	private boolean isDuplicateAddressPdu(AddressPdu addressPdu) {
-		HashValue key = new HashValue(addressPdu.getMessageId(), addressPdu.getSourceID());
+		long key = MessageTable.key(addressPdu.getMessageId(), addressPdu.getSourceID());
 		
 		MessageEntry entry = rdt.inMessages.get(key);
 		return (entry != null && entry.getAddressPdu() != null);
@@ -378,7 +378,7 @@ public class ReceiveThread extends Thread {
 			if (pdu == null) {
 				continue;
 			}
-			if (pdu.getPduType() == Pdu.Address_PDU) {
+			if (pdu.getPduType() != Pdu.Data_PDU) {
 				continue;
 			}
 			DataPdu d = (DataPdu) pdu;
@@ -414,16 +414,10 @@ public class ReceiveThread extends Thread {
 	 * (see para 315). If the associated Address_PDU has been received but no
 	 * message entry exists, the receiving node shall discard the Data_PDU.
 	 * 
-	 * (2) If the associated Address_PDU has not yet been received the receiving
-	 * node shall check whether there is a Data_PDU entry associated with the
-	 * Source_ID and Message_ID contents of the received Data_PDU. If there is
-	 * no Data_PDU entry associated with this Data_PDU, the receiving node shall
-	 * create a Data_PDU entry and await transmission of the associated
-	 * Address_PDU. In addition, the receiving node shall initialise a
-	 * "Unidentified_Data_PDUValidity_Timer". If there is a Data_PDU entry
-	 * associated with this Data_PDU, the receiving node shall update the status
-	 * of the Data_PDU entry and await transmission of the associated
-	 * Address_PDU.
+	 * (2) If the associated Address_PDU has not yet been received, the
+	 * Data_PDU is kept in the orphan store until the Address_PDU arrives. The
+	 * store bounds the bytes held per source and in total, and drops Data_PDUs
+	 * older than ORPHAN_TTL.
 	 * 
 	 * @param packet packet tuple containing the source address for this packet, and actual packet.
 	 * @throws InterruptedException if interrupted while waiting to put the complete message
@@ -434,21 +428,20 @@ public class ReceiveThread extends Thread {
 			throws InterruptedException {
 
 		DataPdu dataPdu = (DataPdu) packet.t2;
-		HashValue key = new HashValue(dataPdu.getMessageId(),
+		long key = MessageTable.key(dataPdu.getMessageId(),
 				dataPdu.getSourceID());
-		MessageEntry currentEntry;
+		MessageEntry currentEntry = rdt.inMessages.get(key);
 
-		if (rdt.inMessages.containsKey(key)) {
+		if (currentEntry != null) {
 			// The entry exists
 			Log.writeLine(Log.LOG_LEVEL_DEBUG, "Entry exists");
-			currentEntry = rdt.inMessages.get(key);
 			// Set ack address
 			currentEntry.setAckAddress(packet.t1);
 			if (isDataPduReceived(currentEntry, dataPdu)) {
 				// This is a duplicate -> discard
 				Log.writeLine(Log.LOG_LEVEL_DEBUG, "Received duplicate");
-				if(currentEntry.getAddressPdu() != null && currentEntry.getMissingDataSequenceNumbers().size() > 0){
-					Random random = new Random();
+				if(currentEntry.getMissingDataSequenceNumbers().size() > 0){
+					Random random = RandomSource.newRandom();
 					long endTime = random.nextInt((int)Configuration.getAckDelayUpperBound());
 					rdt.initializeTimer(endTime, TimerType.ACK_DELAY, currentEntry, null);
 				}
@@ -456,82 +449,119 @@ public class ReceiveThread extends Thread {
 				return;
 			} else {
 				// Not received before
-				if (currentEntry.getAddressPdu() == null) {
-					// Message entry exists, but contain no addressPdu
-					Log.writeLine(Log.LOG_LEVEL_DEBUG,
-							"Contains no address pdu");
-					currentEntry.addDataPdu(dataPdu);
-					
-					Random random = new Random();
-					long endTime = random.nextInt((int)Configuration.getAckDelayUpperBound());
-					rdt.initializeTimer(endTime, TimerType.ACK_DELAY, currentEntry, null);
-					
-					
-				} else {
-					
-					ArrayList<Integer> missing = currentEntry.getMissingDataSequenceNumbers();
-					Integer highestMissing = 0;
-					for (Integer integer : missing) {
-						if (integer > highestMissing){
-							highestMissing = integer;
-						}
-						
-						Log.writeLine(Log.LOG_LEVEL_DEBUG ,"Missing " + integer);
-						
+				ArrayList<Integer> missing = currentEntry.getMissingDataSequenceNumbers();
+				Integer highestMissing = 0;
+				for (Integer integer : missing) {
+					if (integer > highestMissing){
+						highestMissing = integer;
 					}
-					Log.writeLine(Log.LOG_LEVEL_DEBUG, "Highest missing: " + highestMissing);
-					currentEntry.setHighestMissingSequenceNumber(highestMissing);
 					
-					// There is an addressPdu
-					Log.writeLine(Log.LOG_LEVEL_DEBUG, "Have an AddressPdu");
-					currentEntry.addDataPdu(dataPdu);
-					if (currentEntry.dataReady()) {
-						Log.writeLine(Log.LOG_LEVEL_DEBUG, "Data is ready");
-						Libjpmul.completedMessages.put(currentEntry);
-						currentEntry.setState(States.COMPLETE);
-						rdt.stopTimer(TimerType.ACK_TIMER, currentEntry);
-						
-		                Random random = new Random();
-		                long endTime = random.nextInt((int)Configuration.getAckDelayUpperBound());
-		                if (!rdt.EMCON.get()) {
-		                    rdt.initializeTimer(endTime, TimerType.COMPLETE_ACK_TIMER, currentEntry, null);
-		                }	
-					}
+					Log.writeLine(Log.LOG_LEVEL_DEBUG ,"Missing {}", integer);
 					
-					Random random = new Random();
-					long endTime = random.nextInt((int)Configuration.getAckDelayUpperBound());
+				}
+				Log.writeLine(Log.LOG_LEVEL_DEBUG, "Highest missing: {}", highestMissing);
+				currentEntry.setHighestMissingSequenceNumber(highestMissing);
+				
+				// There is an addressPdu
+				Log.writeLine(Log.LOG_LEVEL_DEBUG, "Have an AddressPdu");
+				currentEntry.addDataPdu(dataPdu);
+				if (currentEntry.dataReady()) {
+					Log.writeLine(Log.LOG_LEVEL_DEBUG, "Data is ready");
+					rdt.libjpmul.completedMessages.put(currentEntry);
+					rdt.metrics.messageCompleted(Clock.nanoTime() - currentEntry.getCreationTime());
+					currentEntry.finishTrace("complete");
+					currentEntry.setState(States.COMPLETE);
+					rdt.stopTimer(TimerType.ACK_TIMER, currentEntry);
 					
-					if(!rdt.EMCON.get() && currentEntry.getState() != States.COMPLETE){
-						rdt.initializeTimer(endTime, TimerType.ACK_DELAY,
-								currentEntry, null);
-					}else if (rdt.EMCON.get()) {
-						/*
-						 *In EMCON. Store the reference of the entry.
-						 *It will be used for later when leaving EMCON 
-						 */
-						rdt.readyToAckEmcon.put(key, currentEntry);
-					}
+	                Random random = RandomSource.newRandom();
+	                long endTime = random.nextInt((int)Configuration.getAckDelayUpperBound());
+	                if (!rdt.EMCON.get()) {
+	                    rdt.initializeTimer(endTime, TimerType.COMPLETE_ACK_TIMER, currentEntry, null);
+	                }	
+	                rdt.reassembly.release(key);
+	                rdt.groupUsage.complete(key);
+				} else if (!rdt.reassembly.charge(key, currentEntry, dataPdu)) {
+					return;
+				}
+				
+				Random random = RandomSource.newRandom();
+				long endTime = random.nextInt((int)Configuration.getAckDelayUpperBound());
+				
+				if(!rdt.EMCON.get() && currentEntry.getState() != States.COMPLETE){
+					rdt.initializeTimer(endTime, TimerType.ACK_DELAY,
+							currentEntry, null);
+				}else if (rdt.EMCON.get()) {
+					/*
+					 *In EMCON. Store the reference of the entry.
+					 *It will be used for later when leaving EMCON 
+					 */
+					rdt.readyToAckEmcon.put(key, currentEntry);
 				}
 			}
 			currentEntry.setLastReceivedDataPdu(dataPdu);
+			recoverDataPdus(packet.t1, currentEntry);
 
 		} else {
-			// Message entry for this dataPdu does not exist
+			// Message entry for this dataPdu does not exist, keep it until the
+			// addressPdu arrives
 			Log.writeLine(Log.LOG_LEVEL_DEBUG,
 					"We did not find any entry with this sourceId and Msid");
-			currentEntry = new MessageEntry();
-			currentEntry.addDataPdu(dataPdu);
-			
-			currentEntry.setLastReceivedDataPdu(dataPdu);
-			currentEntry.setState(States.RECEIVING);
-			
-			rdt.inMessages.put(key, currentEntry);
-			rdt.initializeTimer(
-					Configuration.getUndefinedPduExpiryTime(),
-					TimerType.UNIDENTIFIED_DATA_DPU_VALIDITY_TIMER,
-					currentEntry, null);
+			rdt.orphans.add(dataPdu);
+		}
+
+	}
+
+	/**
+	 * Handle a received RepairPdu. The RepairPdu is stored in the message
+	 * entry it belongs to, and used to rebuild a missing DataPdu of its block
+	 * before the next Ack_PDU is prepared. RepairPdus for unknown or complete
+	 * messages are discarded.
+	 * 
+	 * @param packet packet tuple containing the source address for this packet, and actual packet.
+	 * @throws InterruptedException if interrupted while waiting to put the complete message
+	 * in the completedMessages queue of Libjpmul.
+	 */
+	private void handleRepairPdu(Tuple<InetAddress, Pdu> packet)
+			throws InterruptedException {
+		RepairPdu repairPdu = (RepairPdu) packet.t2;
+		if (repairPdu.getSourceID() == rdt.getNodeId()) {
+			// Our own repair PDU
+			return;
+		}
+
+		long key = MessageTable.key(repairPdu.getMessageId(),
+				repairPdu.getSourceID());
+		MessageEntry currentEntry = rdt.inMessages.get(key);
+		if (currentEntry == null || currentEntry.getState() == States.COMPLETE) {
+			Log.writeLine(Log.LOG_LEVEL_DEBUG, "Discarded RepairPdu, no incomplete message entry");
+			return;
 		}
 
+		currentEntry.addRepairPdu(repairPdu);
+		if (!rdt.reassembly.charge(key, currentEntry, repairPdu)) {
+			return;
+		}
+		recoverDataPdus(packet.t1, currentEntry);
+	}
+
+	/**
+	 * Rebuild missing DataPdus of the given entry from its RepairPdus, and
+	 * handle them as if they were received from the given source.
+	 * 
+	 * @param source address the PDUs of the entry were received from.
+	 * @param currentEntry the message entry to rebuild DataPdus for.
+	 * @throws InterruptedException if interrupted while waiting to put the complete message
+	 * in the completedMessages queue of Libjpmul.
+	 */
+	private void recoverDataPdus(InetAddress source, MessageEntry currentEntry)
+			throws InterruptedException {
+		for (DataPdu recovered : currentEntry.recoverDataPdus()) {
+			if (currentEntry.isTraced()) {
+				currentEntry.trace("recovered Data_PDU " + recovered.getSequenceNumber());
+			}
+			Log.writeLine(Log.LOG_LEVEL_DEBUG, "Rebuilt DataPdu {} from RepairPdu", recovered.getSequenceNumber());
+			handleDataPdu(new Tuple<InetAddress, Pdu>(source, recovered));
+		}
 	}
 
 	/**
@@ -545,17 +575,29 @@ public class ReceiveThread extends Thread {
 		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Handle received ack");
 		AckPdu ackPdu = (AckPdu) packet.t2;
 		// int sourceId = ackPdu.getSourceID();
-		int sourceId = Configuration.getNodeId();
+		int sourceId = rdt.getNodeId();
 		MessageEntry currentEntry = null;
 		AckInfoEntry[] allAckInfoEntries = ackPdu.getAckInfoEntries();
 
 		ArrayList <Integer> emconIndexes = new ArrayList<Integer>();
 		
 		for (AckInfoEntry ackInfoEntry : allAckInfoEntries) {
-			HashValue key = new HashValue(ackInfoEntry.getMessageID(), sourceId);
-			if (rdt.inMessages.containsKey(key)) {
-				currentEntry = rdt.inMessages.get(key);
+			long key = MessageTable.key(ackInfoEntry.getMessageID(), sourceId);
+			MessageEntry ackedEntry = rdt.inMessages.get(key);
+			if (ackedEntry != null) {
+				currentEntry = ackedEntry;
 				currentEntry.setAcked(ackInfoEntry);
+				if (currentEntry.getTransmitTime() != 0) {
+					rdt.metrics.ackReceived(Clock.nanoTime() - currentEntry.getTransmitTime());
+				}
+				int missing = ackInfoEntry.getMissingSequenceNumbers().length;
+				if (currentEntry.isTraced()) {
+					currentEntry.trace("ack from " + packet.t2.getSourceID() + ", " + missing + " missing");
+				}
+				if (currentEntry.getAddressPdu() != null) {
+					rdt.updateObservedLoss(missing, currentEntry.getAddressPdu().getTotalNumberOfPDUs());
+				}
+				rdt.updatePduSizeProbe(currentEntry, missing);
 			}
 		}
 
@@ -574,23 +616,15 @@ public class ReceiveThread extends Thread {
 		}
 		
 		boolean emcon = false;
-		// Check if everything is acked
-		boolean complete = true;
         boolean[][] acked = currentEntry.getAckedMatrix();
-        for (int i = 0; i < acked.length; i++) {
-            //If this node is in EMCON, we ignore it
-            if(emconIndexes.contains(i)){
-                Log.writeLine(Log.LOG_LEVEL_DEBUG, i + " is in emcon.");
+        for (int i : emconIndexes) {
+            if (i < acked.length) {
+                Log.writeLine(Log.LOG_LEVEL_DEBUG, "{} is in emcon.", i);
                 emcon = true;
-                continue;
-            }
-
-            for (int j = 1; j < acked[i].length; j++) {
-                if (acked[i][j] == false) {
-                    complete = false;
-                }
             }
         }
+		// Check if everything is acked
+		boolean complete = isCompletelyAcked(acked, emconIndexes);
 
         //if we received an ack from a source, and no other sources are in EMCON we can safely remove the timer
         if(emconIndexes.isEmpty()){
@@ -603,29 +637,16 @@ public class ReceiveThread extends Thread {
         if (complete) {
             Log.writeLine(Log.LOG_LEVEL_DEBUG, "Stop re-transmission timer.");
             rdt.stopTimer(TimerType.RETRANSMISSION_TIMER, currentEntry);
+            currentEntry.finishTrace("acknowledged");
         }
 
-        CopyOnWriteArraySet<MessageEntry> entries = null;
-        if (currentEntry.getMulticastAddress() != null && rdt.persistentGroupSessions.get(currentEntry.getMulticastAddress()) != null) {
-             entries = rdt.persistentGroupSessions.get(currentEntry.getMulticastAddress()).t1;
-        }
-
-        if(entries != null && entries.size() == 1 && complete){
-            //We are the last message using this multicast group
-            if(currentEntry.getMulticastAddress() != null && rdt.persistentGroupSessions.get(currentEntry.getMulticastAddress()).t2.get() == false){
+        // The cache releases its groups when they are no longer used
+        if (complete && rdt.groupCache.contains(currentEntry.getMulticastAddress())) {
+            if (rdt.groupCache.finish(currentEntry)) {
+                //We were the last message on a group to be released
                 prepareReleasePdu(currentEntry.getMulticastAddress(), currentEntry.getAddressPdu().getMessageId());
-                rdt.persistentGroupSessions.remove(currentEntry.getMulticastAddress());
-                rdt.persistentGroups.remove(currentEntry.getRecipients().hashCode());
-                System.err.println("We where the last to use this, and persistent where false.");
-                return;
-            } else {
-                entries.remove(currentEntry);
             }
-
-        }else if(entries != null && entries.size() > 1 && complete){
-            entries.remove(currentEntry);
-            currentEntry.setPersistentMulticastGroup(true);
-            System.err.println("more ppl is using this, or we still set persistent true.");
+            return;
         }
 
         // send release group when message is complete
@@ -636,6 +657,31 @@ public class ReceiveThread extends Thread {
 
 	}
 
+	/**
+	 * Determines whether every recipient not in EMCON has acknowledged every
+	 * Data_PDU in the given acknowledgment matrix.
+	 * 
+	 * @param acked acknowledgment matrix, one row per recipient.
+	 * @param emconIndexes rows of recipients in EMCON, which are ignored.
+	 * @return true if everything is acknowledged, false otherwise.
+	 */
+	static boolean isCompletelyAcked(boolean[][] acked, ArrayList<Integer> emconIndexes) {
+		boolean complete = true;
+		for (int i = 0; i < acked.length; i++) {
+			//If this node is in EMCON, we ignore it
+			if (emconIndexes.contains(i)) {
+				continue;
+			}
+
+			for (int j = 1; j < acked[i].length; j++) {
+				if (acked[i][j] == false) {
+					complete = false;
+				}
+			}
+		}
+		return complete;
+	}
+
 	/**
 	 * As soon as a member of R_Nodes has received the Announce_PDU, it decides
 	 * whether it is a member of the announced group, based on whether it is
@@ -650,12 +696,20 @@ public class ReceiveThread extends Thread {
 
 		AnnouncePdu pdu = (AnnouncePdu) packet.t2;
 		InetAddress address = pdu.getInetMulticastGroupAddress();
+		rdt.addressAllocator.announced(address, pdu.getExpiryTime() * 1000L);
 
 		if (!isDestination(pdu)) {
 			return;
 		} else {
-			rdt.udpWrapper.joinMulticastGroup(address);
-			multicastAddressesInUse.put(new HashValue(pdu.getMessageId(), pdu.getSourceID()), address);
+			rdt.transport.joinMulticastGroup(address);
+			long key = MessageTable.key(pdu.getMessageId(), pdu.getSourceID());
+			rdt.groupUsage.bind(key, address);
+			// On a reused group the message may be complete before its
+			// Announce_PDU arrives
+			MessageEntry currentEntry = rdt.inMessages.get(key);
+			if (currentEntry != null && currentEntry.getState() == States.COMPLETE) {
+				rdt.groupUsage.complete(key);
+			}
 		}
 		
 		
@@ -677,16 +731,24 @@ public class ReceiveThread extends Thread {
 
 	private void handleDiscardMessagePdu(Tuple<InetAddress, Pdu> packet) {
 		DiscardMessagePdu discardMessagePdu = (DiscardMessagePdu) packet.t2;
-		HashValue key = new HashValue(discardMessagePdu.getMessageId(),
+		long key = MessageTable.key(discardMessagePdu.getMessageId(),
 				discardMessagePdu.getSourceID());
-		if (rdt.inMessages.containsKey(key)) {
-			//This is only relevant if we are using dynamic or persistent multicast groups
-			InetAddress groupAddress = multicastAddressesInUse.get(key);
-			int groupAddressInteger = ByteBuffer.wrap(groupAddress.getAddress()).getInt();
-			checkMulticastUsageAndLeave(discardMessagePdu, rdt.udpWrapper.getCurrentMulticastGroups(), groupAddressInteger);
-			
-			//Remove message 
-			rdt.inMessages.remove(key);
+		rdt.metrics.orphansDropped(rdt.orphans.remove(key).size());
+		
+		//This is only relevant if we are using dynamic or persistent multicast groups
+		InetAddress groupAddress = rdt.groupUsage.unbind(key);
+		if (groupAddress != null && rdt.transport.getCurrentMulticastGroups().contains(groupAddress)) {
+			leaveIfUnused(groupAddress, "discardPDU");
+		}
+		
+		//Remove message 
+		MessageEntry discardedEntry = rdt.inMessages.remove(key);
+		if (discardedEntry != null) {
+			if (discardedEntry.getState() != States.COMPLETE) {
+				rdt.metrics.messageDiscarded();
+			}
+			discardedEntry.finishTrace("discarded");
+			rdt.reassembly.release(key);
 		}
 	}
 
@@ -699,8 +761,9 @@ public class ReceiveThread extends Thread {
 	protected synchronized void prepareReleasePdu(InetAddress multicastAddress, int messageId) {
 	    RequestRejectReleasePdu release = null;
             release = ReleasePdu
-                    .create(Configuration.getNodeId(), messageId,
-                            ByteBuffer.wrap(multicastAddress.getAddress()).getInt());
+                    .create(rdt.getNodeId(), messageId,
+                            MulticastAddressAllocator.toInt(multicastAddress));
+		rdt.addressAllocator.free(multicastAddress);
 		PacketEntry entry = new PacketEntry();
 		try {
             entry.addDestinationAddress(Configuration.getGg());
@@ -721,16 +784,31 @@ public class ReceiveThread extends Thread {
 	 */
 	private void handleRejectMessagePdu(Tuple<InetAddress, Pdu> packet) {
 		RejectPdu pdu = (RejectPdu) packet.t2;
+		InetAddress address = MulticastAddressAllocator.toInetAddress(pdu.getMulticastGroupAddress());
 		
-		try {
-            prepareReleasePdu(InetAddress.getByAddress(BigInteger.valueOf(pdu.getMulticastGroupAddress()).toByteArray()), pdu.getMessageId());
-            } catch (UnknownHostException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-		HashValue key = new HashValue(pdu.getMessageId(), pdu.getSourceID());
+		// Someone uses the group, so do not pick it again soon
+		rdt.addressAllocator.requested(address);
+		if (rdt.groupPool.rejected(address)) {
+			// Requested ahead of time, no message waits for it. Do not release
+			// it, as a Release_PDU with message id 0 releases the whole group
+			// on the members using it
+			Log.writeLine(Log.LOG_LEVEL_DEBUG, "The pooled multicast group was rejected");
+			// The pool held it for good; requested() above covers the use
+			// by the rejecting node
+			rdt.addressAllocator.free(address);
+			return;
+		}
+		prepareReleasePdu(address, pdu.getMessageId());
+		long key = MessageTable.key(pdu.getMessageId(), pdu.getSourceID());
 		MessageEntry currentEntry = rdt.inMessages.get(key);
+		if (currentEntry == null || !address.equals(currentEntry.getMulticastAddress())) {
+			// The message is gone, or already asked for another group
+			return;
+		}
 		rdt.stopTimer(TimerType.WAIT_FOR_REJECT_TIME, currentEntry);
+		if (currentEntry.isTraced()) {
+			currentEntry.trace("group rejected by " + pdu.getSourceID());
+		}
 		currentEntry.setMulticastAddress(null);
 		Log.writeLine(Log.LOG_LEVEL_DEBUG, "The multicast group was rejected");
 		// Renew request
@@ -744,7 +822,8 @@ public class ReceiveThread extends Thread {
 	 */
 	private void handleReleasePdu(Tuple<InetAddress, Pdu> packet) {
 		ReleasePdu pdu = (ReleasePdu) packet.t2;
-		CopyOnWriteArrayList<InetAddress> memberAddresses = rdt.udpWrapper
+		rdt.addressAllocator.released(MulticastAddressAllocator.toInetAddress(pdu.getMulticastGroupAddress()));
+		CopyOnWriteArrayList<InetAddress> memberAddresses = rdt.transport
 				.getCurrentMulticastGroups();
 		checkMulticastUsageAndLeave(pdu, memberAddresses);
 
@@ -760,85 +839,54 @@ public class ReceiveThread extends Thread {
 	 */
 	private void checkMulticastUsageAndLeave(ReleasePdu pdu,
 			CopyOnWriteArrayList<InetAddress> memberAddresses) {
-		int releasePduMulticastGroup = pdu.getMulticastGroupAddress();
-		HashValue key = new HashValue(pdu.getMessageId(), pdu.getSourceID());
-		for (InetAddress memberAddress : memberAddresses) {
-			int myMulticastGroup = ByteBuffer.wrap(memberAddress.getAddress()).getInt();
-			if (myMulticastGroup == releasePduMulticastGroup) {
-			    // We are currently using this address, make sure
-			    // the release pdu corresponds to a complete message.
-                //Check magic number, if magic number is detected; leave group
-				if ( pdu.getMessageId() == 0 || rdt.inMessages.containsKey(key) && rdt.inMessages.get(key).dataReady() ) {
-                    multicastAddressesInUse.remove(key);
-                    if ( !multicastGroupInUse(memberAddress) ) {
-                        rdt.leaveMulticastGroup(memberAddress);
-                    } else {
-                        Log.writeLine(Log.LOG_LEVEL_VERBOSE, "We got a releasePDU for a multicast" +
-                        		"group that we are currently using in a message entry. Don't leave it.");
-                    }
-                }
-			}
+		InetAddress memberAddress = MulticastAddressAllocator.toInetAddress(pdu.getMulticastGroupAddress());
+		if (!memberAddresses.contains(memberAddress)) {
+			return;
+		}
+		// We are currently using this address, make sure
+		// the release pdu corresponds to a complete message.
+		//Check magic number, if magic number is detected; leave group
+		long key = MessageTable.key(pdu.getMessageId(), pdu.getSourceID());
+		if ( pdu.getMessageId() == 0 ) {
+			// The sender releases the whole group, so no message of it will
+			// ask to be released any more
+			rdt.groupUsage.unbindGroup(pdu.getMulticastGroupAddress());
+			leaveIfUnused(memberAddress, "releasePDU");
+		} else if ( isComplete(key) ) {
+			rdt.groupUsage.unbind(key);
+			leaveIfUnused(memberAddress, "releasePDU");
 		}
-		
 	}
-	
+
 	/**
-	 * When using persistent groups we need to make sure we can safely leave
-	 * the group. If other messages are currently using the group in question, this method will
-	 * not leave the group.
-	 * 
-	 * @param pdu
-	 *            DiscardMessagePdu
-	 * @param memberAddresses
-	 *            All multicast groups we are currently listening to
-	 * @param releasePduMulticastGroup
-	 *            the we potentially want to leave
+	 * Determines whether the message is completely received. Messages bound to
+	 * a group are looked up in the group index, others in inMessages.
+	 * 
+	 * @param key of the message.
+	 * @return true if complete, false otherwise.
 	 */
-	
-	private void checkMulticastUsageAndLeave(DiscardMessagePdu pdu,
-			CopyOnWriteArrayList<InetAddress> memberAddresses, int releasePduMulticastGroup) {
-		HashValue key = new HashValue(pdu.getMessageId(), pdu.getSourceID());
-		for (InetAddress memberAddress : memberAddresses) {
-			int myMulticastGroup = ByteBuffer.wrap(memberAddress.getAddress()).getInt();
-			if (myMulticastGroup == releasePduMulticastGroup) {
-			    // We are currently using this address, make sure
-			    // the release pdu corresponds to a complete message.
-                //Check magic number, if magic number is detected; leave group
-				if ( pdu.getMessageId() == 0 || rdt.inMessages.containsKey(key) && rdt.inMessages.get(key).dataReady() ) {
-                    multicastAddressesInUse.remove(key);
-                    if ( !multicastGroupInUse(memberAddress) ) {
-                        rdt.leaveMulticastGroup(memberAddress);
-                    } else {
-                        Log.writeLine(Log.LOG_LEVEL_VERBOSE, "We got a discardPDU for a multicast" +
-                        		"group that we are currently using in a message entry. Don't leave it.");
-                    }
-                }
-			}
+	private boolean isComplete(long key) {
+		if (rdt.groupUsage.isBound(key)) {
+			return rdt.groupUsage.isComplete(key);
 		}
-		
+		MessageEntry entry = rdt.inMessages.get(key);
+		return entry != null && entry.dataReady();
 	}
-	
-	
 
 	/**
-	 * Iterate through the inMessages and see if we can safely leave this group.
-	 * If it returns true, we got message entry/entries that is still in flight on this
-	 * multicast group. If no message entry is found, or all that are found have
-	 * completed, return false.
-	 * @param memberAddress Address to check.
-	 * @return true or false
+	 * Leave the multicast group, unless a message still in flight is using it.
+	 * 
+	 * @param memberAddress group to leave.
+	 * @param pduName name of the PDU asking to leave, for the log.
 	 */
-	private boolean multicastGroupInUse( InetAddress memberAddress ) {
-	    Set<Map.Entry<HashValue, MessageEntry>> inMessagesKeySet = rdt.inMessages.entrySet();
-        for (Map.Entry<HashValue, MessageEntry> entry : inMessagesKeySet) {
-            if (!entry.getValue().dataReady()) {
-                if (multicastAddressesInUse.containsValue(memberAddress)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
+	private void leaveIfUnused(InetAddress memberAddress, String pduName) {
+		if ( !rdt.groupUsage.isInUse(MulticastAddressAllocator.toInt(memberAddress)) ) {
+			rdt.leaveMulticastGroup(memberAddress);
+		} else {
+			Log.writeLine(Log.LOG_LEVEL_VERBOSE, "We got a {} for a multicast " +
+					"group that we are currently using in a message entry. Don't leave it.", pduName);
+		}
+	}
 
     /**
 	 * Prepare a RejectPdu for sending, and put it in the outMessages queue.
@@ -852,11 +900,10 @@ public class ReceiveThread extends Thread {
 			return;
 		}
 		
-		BigInteger destinationAddress = new BigInteger(destination.getAddress());
 		RequestRejectReleasePdu request = (RequestRejectReleasePdu) pdu;
 		RequestRejectReleasePdu reject = RejectPdu
 				.create(request.getSourceID(), request.getMessageId(),
-						destinationAddress.intValue());
+						request.getMulticastGroupAddress());
 		PacketEntry packetEntry = new PacketEntry();
 		packetEntry.addRequestReleaseReject(reject);
 		packetEntry.addDestinationAddress(destination);
@@ -875,17 +922,25 @@ public class ReceiveThread extends Thread {
 	private void handleRequestPdu(Tuple<InetAddress, Pdu> packet) {
 		RequestRejectReleasePdu pdu = (RequestRejectReleasePdu) packet.t2;
 		int multicastAddress = pdu.getMulticastGroupAddress();
+		InetAddress address = MulticastAddressAllocator.toInetAddress(multicastAddress);
+		rdt.addressAllocator.requested(address);
 
 		if(rdt.EMCON.get()){
 			//We are in EMCON, ignore
 			return;
 		}
 		
-		CopyOnWriteArrayList<InetAddress> addresses = rdt.udpWrapper
+		// Addresses we requested ahead of time are ours as long as they are
+		// in the pool
+		if (pdu.getSourceID() != rdt.getNodeId() && rdt.groupPool.contains(address)) {
+			prepareRejectPdu(packet.t2, packet.t1);
+			return;
+		}
+		
+		CopyOnWriteArrayList<InetAddress> addresses = rdt.transport
 				.getCurrentMulticastGroups();
 		for (InetAddress inetAddress : addresses) {
-			BigInteger inGroup = new BigInteger(inetAddress.getAddress());
-			if (inGroup.intValue() == multicastAddress) {
+			if (inetAddress.equals(address)) {
 				// send reject
 				prepareRejectPdu(packet.t2, packet.t1);
 				return;
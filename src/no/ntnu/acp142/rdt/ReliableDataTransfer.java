@@ -5,15 +5,20 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import no.ntnu.acp142.Clock;
 import no.ntnu.acp142.Libjpmul;
 import no.ntnu.acp142.Configuration;
 import no.ntnu.acp142.Log;
-import no.ntnu.acp142.MulticastGroup;
+import no.ntnu.acp142.jfr.PduSendEvent;
+import no.ntnu.acp142.metrics.Gauge;
+import no.ntnu.acp142.metrics.Metrics;
 import no.ntnu.acp142.pdu.Pdu;
+import no.ntnu.acp142.pdu.RequestPdu;
+import no.ntnu.acp142.udp.Transport;
 import no.ntnu.acp142.udp.Tuple;
 import no.ntnu.acp142.udp.UDPWrapper;
 
@@ -63,7 +68,15 @@ public class ReliableDataTransfer {
     /**
      * Reference to the UDP layer
      */
-	protected UDPWrapper                                 udpWrapper;
+	protected Transport                                  transport;
+    /**
+     * True if this node created the transport, and closes it on shutdown
+     */
+    private final boolean                                ownsTransport;
+    /**
+     * Source ID of this node
+     */
+	private final int                                    nodeId;
     /**
      * Reference to the ACP layer
      */
@@ -83,19 +96,36 @@ public class ReliableDataTransfer {
     /**
      * Thread safe queue used for incoming messages
      */
-    protected ConcurrentHashMap<HashValue, MessageEntry> inMessages;
+    protected MessageTable<MessageEntry>                 inMessages;
+    /**
+     * Bytes held by the partially received messages in inMessages
+     */
+    protected ReassemblyBudget                           reassembly;
+    /**
+     * Data_PDUs received before the Address_PDU of their message
+     */
+    protected OrphanStore                                orphans;
+    /**
+     * Maps each message to the dynamic multicast group it was announced on,
+     * and each group to the number of its incomplete messages
+     */
+    protected GroupUsageIndex                            groupUsage;
     /**
      * Thread safe queue used for outgoing messages
      */
     protected BlockingQueue<Entry>                       outMessages;
     /**
-     * Mapping users to a persistent group
+     * Announced dynamic multicast groups kept for reuse, by destinations
+     */
+    protected GroupCache                                 groupCache;
+    /**
+     * Dynamic multicast group addresses requested ahead of time
      */
-    protected ConcurrentHashMap<Integer, InetAddress> persistentGroups;
+    protected GroupPool                                  groupPool;
     /**
-     * Mapping ip addresses to multicast groups
+     * Picks free addresses for new dynamic multicast groups
      */
-    protected ConcurrentHashMap<InetAddress, MulticastGroup> dynamicMulticast;
+    protected MulticastAddressAllocator                  addressAllocator;
     /**
      * EMCON flag, stores EMCON status
      */
@@ -104,15 +134,37 @@ public class ReliableDataTransfer {
     /**
      * Structure to store reference to every message not acknowledgment when in EMCON.
      */
-    protected ConcurrentHashMap<HashValue, MessageEntry> readyToAckEmcon;
+    protected MessageTable<MessageEntry> readyToAckEmcon;
+
+    /**
+     * Smoothed ratio of Data_PDUs reported missing in received Ack_PDUs. Used to
+     * reduce the FEC block size when FEC_ADAPTIVE is enabled.
+     */
+    protected volatile double observedLoss = 0;
+
+    /**
+     * PDU sizes to probe with, given by the MTU plateaus of RFC 1191 less
+     * the IPv4 and UDP headers. Largest first.
+     */
+    private static final int[] PDU_SIZE_PLATEAUS = { 17914 - 28, 8166 - 28, 4352 - 28, 2002 - 28, 1500 - 28,
+            1492 - 28, 1280 - 28, 1006 - 28, 576 - 28 };
+
+    /**
+     * Number of messages acknowledged without loss before probing the next
+     * larger PDU size.
+     */
+    private static final int PDU_SIZE_PROBE_INTERVAL = 16;
+
+    /**
+     * Given a multicast group, it stores the PDU size currently probed, and the
+     * number of messages acknowledged without loss at this size.
+     */
+    protected ConcurrentHashMap<InetAddress, Tuple<AtomicInteger, AtomicInteger>> pduSizeProbes;
 
     /**
-     * Given a multicast group (persistent ) it stores references to messages currently using this group. 
-     * The last value of the Tuple indicates when it is safe to stop listening to this group.
-     * False = can leave if not used. 
-     * True = Should not be released
+     * Protocol counters, histograms and queue gauges of this node
      */
-    protected ConcurrentHashMap<InetAddress, Tuple<CopyOnWriteArraySet<MessageEntry>, AtomicBoolean>> persistentGroupSessions;
+    protected final Metrics metrics = new Metrics();
     
     /**
      * Default Constructor
@@ -123,18 +175,48 @@ public class ReliableDataTransfer {
      */
 
     public ReliableDataTransfer(Libjpmul libjpmul, InetAddress bindAddress) {
+    	this(libjpmul, new UDPWrapper(bindAddress), Configuration.getNodeId(), true);
+    }
+
+    /**
+     * Constructor using the given transport instead of UDP sockets.
+     * Will start the threads and initialize data structures.
+     * The transport belongs to the caller, who closes it after shutdown().
+     * @param libjpmul a reference to the ACP142 layer.
+     * @param transport to send and receive packets on.
+     * @param nodeId source ID of this node.
+     */
+    public ReliableDataTransfer(Libjpmul libjpmul, Transport transport, int nodeId) {
+    	this(libjpmul, transport, nodeId, false);
+    }
+
+    /**
+     * Constructor using the given transport, which is closed on shutdown()
+     * if owned by this node.
+     * @param libjpmul a reference to the ACP142 layer.
+     * @param transport to send and receive packets on.
+     * @param nodeId source ID of this node.
+     * @param ownsTransport true if this node created the transport.
+     */
+    private ReliableDataTransfer(Libjpmul libjpmul, Transport transport, int nodeId, boolean ownsTransport) {
     	this.libjpmul = libjpmul;
+    	this.transport = transport;
+    	this.ownsTransport = ownsTransport;
+    	this.nodeId = nodeId;
     	EMCON = new AtomicBoolean(false);
     	//Queues
-    	inMessages = new ConcurrentHashMap<HashValue, MessageEntry>();
+    	inMessages = new MessageTable<MessageEntry>();
     	outMessages = new LinkedBlockingQueue<Entry>();
-    	persistentGroups = new ConcurrentHashMap<Integer, InetAddress>();
-    	dynamicMulticast = new ConcurrentHashMap<InetAddress, MulticastGroup>();
-        readyToAckEmcon = new ConcurrentHashMap<HashValue, MessageEntry>();
-        persistentGroupSessions = new ConcurrentHashMap<InetAddress, Tuple<CopyOnWriteArraySet<MessageEntry>, AtomicBoolean>>();
+    	groupCache = new GroupCache();
+    	groupPool = new GroupPool();
+    	addressAllocator = new MulticastAddressAllocator(this);
+        readyToAckEmcon = new MessageTable<MessageEntry>();
+        pduSizeProbes = new ConcurrentHashMap<InetAddress, Tuple<AtomicInteger, AtomicInteger>>();
+        reassembly = new ReassemblyBudget(this);
+        orphans = new OrphanStore(metrics);
+        groupUsage = new GroupUsageIndex();
 	
 		//Threads
-		udpWrapper = new UDPWrapper(bindAddress);
     	sendThread = new SendThread(this);
         receiveThread = new ReceiveThread(this);
         timerThread = new TimerThread(this);
@@ -144,6 +226,105 @@ public class ReliableDataTransfer {
         sendThread.start();
         receiveThread.start();
         timerThread.start();
+
+        initializeGauges();
+        metrics.register(nodeId);
+    }
+
+    /**
+     * Stops the threads of this node and removes its metrics from JMX. The
+     * transport is closed if this node created it; a transport given to the
+     * constructor is left open for the caller to close.
+     */
+    public void shutdown() {
+        sendThread.shutdown();
+        receiveThread.shutdown();
+        timerThread.shutdown();
+        metrics.unregister();
+        if (ownsTransport) {
+            transport.close();
+        }
+    }
+
+    /**
+     * Add the gauges sampling the queues of this node to the metrics.
+     */
+    private void initializeGauges() {
+        metrics.addGauge("queue.outMessages", new Gauge() {
+            @Override
+            public long getValue() {
+                return outMessages.size();
+            }
+        });
+        metrics.addGauge("queue.inMessages", new Gauge() {
+            @Override
+            public long getValue() {
+                return inMessages.size();
+            }
+        });
+        metrics.addGauge("reassembly.bytes", new Gauge() {
+            @Override
+            public long getValue() {
+                return reassembly.getUsedBytes();
+            }
+        });
+        metrics.addGauge("reassembly.messages", new Gauge() {
+            @Override
+            public long getValue() {
+                return reassembly.getMessageCount();
+            }
+        });
+        metrics.addGauge("orphans.bytes", new Gauge() {
+            @Override
+            public long getValue() {
+                return orphans.getBytes();
+            }
+        });
+        metrics.addGauge("groups.cached", new Gauge() {
+            @Override
+            public long getValue() {
+                return groupCache.size();
+            }
+        });
+        metrics.addGauge("groups.reserved", new Gauge() {
+            @Override
+            public long getValue() {
+                return groupPool.size();
+            }
+        });
+        metrics.addGauge("queue.timers", new Gauge() {
+            @Override
+            public long getValue() {
+                return timerThread.getTimerCount();
+            }
+        });
+        if (transport instanceof UDPWrapper) {
+            final UDPWrapper udpWrapper = (UDPWrapper) transport;
+            metrics.addGauge("queue.received", new Gauge() {
+                @Override
+                public long getValue() {
+                    return udpWrapper.getQueueSize();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the source ID of this node.
+     * 
+     * @return node ID.
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Returns the metrics of this node.
+     * 
+     * @return metrics.
+     */
+    public Metrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -152,7 +333,7 @@ public class ReliableDataTransfer {
      * @param group to join.
      */
     public void joinMulticastGroup(InetAddress group) {
-        udpWrapper.joinMulticastGroup(group);
+        transport.joinMulticastGroup(group);
     }
 
     /**
@@ -160,7 +341,7 @@ public class ReliableDataTransfer {
      * @param group to leave.
      */
     public void leaveMulticastGroup(InetAddress group) {
-        udpWrapper.leaveMulticastGroup(group);
+        transport.leaveMulticastGroup(group);
     }
 
     /**
@@ -181,7 +362,7 @@ public class ReliableDataTransfer {
      */
     protected Tuple<InetAddress, byte[]> receive() {
         Log.writeLine(Log.LOG_LEVEL_DEBUG, "Receive in RDT called");
-        return udpWrapper.receivePacket();
+        return transport.receivePacket();
     }
 
     /**
@@ -198,10 +379,10 @@ public class ReliableDataTransfer {
      */
 
     protected void initializeTimer(long endTime, TimerType type, MessageEntry messageEntry, ArrayList <MessageEntry> entries) {
-        long startTime = System.currentTimeMillis();
+        long startTime = Clock.currentTimeMillis();
         
 
-        if ( messageEntry.getAddressPdu() != null && inMessages.get(new HashValue(messageEntry.getAddressPdu().getMessageId(), messageEntry
+        if ( messageEntry.getAddressPdu() != null && inMessages.get(MessageTable.key(messageEntry.getAddressPdu().getMessageId(), messageEntry
                 .getAddressPdu().getSourceID())) == null ) {
             // If someone want to start a timer that references a messageEntry that we
             // have removed, don't start the timer. Don't use the previous timer as
@@ -227,10 +408,6 @@ public class ReliableDataTransfer {
         case ACK_TIMER:
             timerThread.addTimer(new Timer(endTime, startTime, TimerType.ACK_TIMER, messageEntry));
             break;
-        case UNIDENTIFIED_DATA_DPU_VALIDITY_TIMER:
-            timerThread.addTimer(new Timer(endTime, startTime, TimerType.UNIDENTIFIED_DATA_DPU_VALIDITY_TIMER,
-                    messageEntry));
-            break;
         case WAIT_FOR_REJECT_TIME:
             timerThread.addTimer(new Timer(endTime,startTime, TimerType.WAIT_FOR_REJECT_TIME, messageEntry));
             break;
@@ -253,7 +430,7 @@ public class ReliableDataTransfer {
         	break;
         
         default:
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Unknown timer: "+ type);
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Unknown timer: {}", type);
 
         }
     }
@@ -277,12 +454,16 @@ public class ReliableDataTransfer {
     protected void sendAddressDataPdu(Pdu pdu, InetAddress destination) throws IOException {
         
     	try {
-			Thread.sleep(Configuration.getDataAndAddressPduSendDelay());
+			Clock.sleep(Configuration.getDataAndAddressPduSendDelay());
 		} catch (InterruptedException e) {
 			Log.writeLine(Log.LOG_LEVEL_DEBUG, "Congestion delay sleep interrupted");
 		}
     	
-    	udpWrapper.sendAddressDataPdu(pdu.getBinary(), destination, pdu.getPriority());
+    	PduSendEvent event = new PduSendEvent();
+    	event.begin();
+    	transport.sendAddressDataPdu(pdu.getBinary(), destination, pdu.getPriority());
+    	event.commit(pdu, destination);
+    	metrics.pduSent(pdu);
     }
 
     /**
@@ -293,7 +474,11 @@ public class ReliableDataTransfer {
      * @throws IOException if we fail to send the pdu.
      */
     protected void sendAckPdu(Pdu pdu, InetAddress destination) throws IOException {
-        udpWrapper.sendAckPdu(pdu.getBinary(), destination, pdu.getPriority());
+        PduSendEvent event = new PduSendEvent();
+        event.begin();
+        transport.sendAckPdu(pdu.getBinary(), destination, pdu.getPriority());
+        event.commit(pdu, destination);
+        metrics.pduSent(pdu);
     }
 
    
@@ -306,7 +491,11 @@ public class ReliableDataTransfer {
      */
     protected void sendRequestRelease(Pdu pdu, InetAddress group){
        Log.writeLine(Log.LOG_LEVEL_DEBUG, "Sending Release/Request");
-       udpWrapper.sendRequestReleasePdu(pdu.getBinary(), group);   
+       PduSendEvent event = new PduSendEvent();
+       event.begin();
+       transport.sendRequestReleasePdu(pdu.getBinary(), group);   
+       event.commit(pdu, group);
+       metrics.pduSent(pdu);
     }
     
     /**
@@ -316,7 +505,11 @@ public class ReliableDataTransfer {
      * @param destination where to send it
      */
     protected void sendReject(Pdu pdu, InetAddress destination){
-        udpWrapper.sendRejectPdu(pdu.getBinary(), destination);
+        PduSendEvent event = new PduSendEvent();
+        event.begin();
+        transport.sendRejectPdu(pdu.getBinary(), destination);
+        event.commit(pdu, destination);
+        metrics.pduSent(pdu);
     }
 
     /**
@@ -325,7 +518,11 @@ public class ReliableDataTransfer {
      * @param pdu announce packet to send
      */
     protected void sendAnnouncePdu(Pdu pdu) {
-        udpWrapper.sendAnnouncePdu(pdu.getBinary());
+        PduSendEvent event = new PduSendEvent();
+        event.begin();
+        transport.sendAnnouncePdu(pdu.getBinary());
+        event.commit(pdu, null);
+        metrics.pduSent(pdu);
     }
     
     /**
@@ -336,51 +533,132 @@ public class ReliableDataTransfer {
      * @throws IOException if we fail to send the pdu.
      */
     public void sendDiscard( Pdu pdu, InetAddress destinationAddress ) throws IOException {
-        udpWrapper.sendDiscardPdu(pdu.getBinary(), destinationAddress, pdu.getPriority());
+        PduSendEvent event = new PduSendEvent();
+        event.begin();
+        transport.sendDiscardPdu(pdu.getBinary(), destinationAddress, pdu.getPriority());
+        event.commit(pdu, destinationAddress);
+        metrics.pduSent(pdu);
     }
     
     
     /**
-     * Map a list of recipients to a multicast group. Used when creating persistent groups.
+     * Update the observed loss with the number of Data_PDUs a receiver
+     * reported missing out of the total number of Data_PDUs of the message.
      * 
-     * @param recipients array list of integers representing destination ID's.
-     * @param multicastGroup that these clients is on.
+     * @param missing number of Data_PDUs reported missing.
+     * @param total number of Data_PDUs of the message.
      */
-    protected void setPersistentMulticastGroup(ArrayList <Integer> recipients, InetAddress multicastGroup) {
-    	persistentGroups.put(recipients.hashCode(), multicastGroup);
+    protected void updateObservedLoss(int missing, int total) {
+        if (total <= 0) {
+            return;
+        }
+        double sample = Math.min(1.0, (double) missing / total);
+        observedLoss = observedLoss * 0.875 + sample * 0.125;
     }
-    
+
+    /**
+     * Get the number of Data_PDUs to cover with each RepairPdu for a message of
+     * the given priority. If FEC_ADAPTIVE is enabled, the configured block size
+     * is reduced so that a block on average loses at most half a Data_PDU,
+     * since a single RepairPdu can only rebuild one.
+     * 
+     * @param priority of the message.
+     * @return FEC block size, 0 if FEC is disabled for this priority.
+     */
+    protected int getFecBlockSize(int priority) {
+        int blockSize = Configuration.getFecBlockSize(priority);
+        if (blockSize > 2 && Configuration.isFecAdaptive() && observedLoss > 0) {
+            int adaptedBlockSize = (int) Math.min(blockSize, 0.5 / observedLoss);
+            blockSize = Math.max(2, adaptedBlockSize);
+        }
+        return blockSize;
+    }
+
     /**
-     * Will use an already existing persistent group mapping if it exists. The
-     * existing group address will be set as the destination address in the
+     * Get the maximum size of PDUs sent to the given multicast group. When
+     * PDU_SIZE_PROBING is enabled this is the size currently probed for the
+     * group, which never exceeds the configured size.
+     * 
+     * @param group multicast group, null if not yet known.
+     * @return maximum PDU size.
+     */
+    public int getPduMaxSize(InetAddress group) {
+        int pduMaxSize = Configuration.getPduMaxSize(group);
+        Tuple<AtomicInteger, AtomicInteger> probe;
+        if (group != null && Configuration.isPduSizeProbing() && (probe = pduSizeProbes.get(group)) != null) {
+            return Math.min(pduMaxSize, probe.t1.get());
+        }
+        return pduMaxSize;
+    }
+
+    /**
+     * Update the PDU size probe of the multicast group of the given message with
+     * the result of an acknowledgement. Missing Data_PDUs step the size down to
+     * the next plateau, since losing one IP fragment loses the whole PDU, but
+     * only once per message, as every recipient may report the same loss.
+     * PDU_SIZE_PROBE_INTERVAL acknowledgements without loss step it back up.
+     * 
+     * @param entry message the acknowledgement is for.
+     * @param missing number of Data_PDUs reported missing.
+     */
+    protected void updatePduSizeProbe(MessageEntry entry, int missing) {
+        InetAddress group = entry.getMulticastAddress();
+        if (group == null || !Configuration.isPduSizeProbing()) {
+            return;
+        }
+        int ceiling = Configuration.getPduMaxSize(group);
+        pduSizeProbes.putIfAbsent(group, new Tuple<AtomicInteger, AtomicInteger>(new AtomicInteger(ceiling),
+                new AtomicInteger(0)));
+        Tuple<AtomicInteger, AtomicInteger> probe = pduSizeProbes.get(group);
+        int current = Math.min(ceiling, probe.t1.get());
+
+        if (missing > 0) {
+            probe.t2.set(0);
+            if (!entry.reportPduSizeLoss()) {
+                return;
+            }
+            for (int plateau : PDU_SIZE_PLATEAUS) {
+                if (plateau < current) {
+                    Log.writeLine(Log.LOG_LEVEL_VERBOSE, "Loss on {}, probing PDU size {}", group.getHostAddress(),
+                            plateau);
+                    probe.t1.set(plateau);
+                    return;
+                }
+            }
+        } else if (current < ceiling && probe.t2.incrementAndGet() >= PDU_SIZE_PROBE_INTERVAL) {
+            probe.t2.set(0);
+            int next = ceiling;
+            for (int plateau : PDU_SIZE_PLATEAUS) {
+                if (plateau > current && plateau < next) {
+                    next = plateau;
+                }
+            }
+            Log.writeLine(Log.LOG_LEVEL_VERBOSE, "No loss on {}, probing PDU size {}", group.getHostAddress(),
+                    next);
+            probe.t1.set(next);
+        }
+    }
+
+    /**
+     * Will use the cached group of the destinations of the message if it
+     * exists. The group address will be set as the destination address in the
      * message. On the other hand, if it does not exist this method will return
      * false.
      * 
      * @param currentEntry
-     *            of the message we want to check if can be sent on a existing
-     *            persistent multicast group.
+     *            of the message we want to check if can be sent on a cached
+     *            multicast group.
      * @return <tt>true</tt> if we found a group with these destinations, and
      *         are going to use it. <tt>false</tt> othervice.
      */
     protected boolean usePersistentGroupIfAvailable(MessageEntry currentEntry){
-    	int key = currentEntry.getRecipients().hashCode();
-    	
-    	if(persistentGroups.containsKey(key)){
-    		//Success use the existing group
-    		InetAddress groupAddress = persistentGroups.get(key);
-    		CopyOnWriteArraySet<MessageEntry> entries;
-    		if((entries = persistentGroupSessions.get(groupAddress).t1) != null){
-    			entries.add(currentEntry);
-    			
-    			if(currentEntry.isPersistentMulticastGroups() == false){
-    				persistentGroupSessions.get(groupAddress).t2.set(false);
-    			}
-    		}
-    		currentEntry.setMulticastAddress(groupAddress);
-    		return true;
+    	InetAddress groupAddress = groupCache.acquire(currentEntry);
+    	if (groupAddress == null) {
+    		//No group is cached for these destinations
+    		return false;
     	}
-    	//The persistent group does not exist
-    	return false;
+    	currentEntry.setMulticastAddress(groupAddress);
+    	return true;
     }
     
     /**
@@ -390,28 +668,55 @@ public class ReliableDataTransfer {
      * @param recipients list of destinations.
      */
     public void leavePersistentMulticastGroup(ArrayList <Integer> recipients){
-    	int key = recipients.hashCode();
     	InetAddress multicastGroup;
-    	if ((multicastGroup = persistentGroups.get(key)) != null) {
-    	    Tuple<CopyOnWriteArraySet<MessageEntry>, AtomicBoolean> tuple;
-    	    if ((tuple = persistentGroupSessions.get(multicastGroup)) != null && !tuple.t1.isEmpty()) {
-    	        tuple.t2.set(false);
-    	    } else if ((tuple == null) || (tuple != null && tuple.t1.isEmpty())) {
-    	        persistentGroupSessions.remove(multicastGroup);
-    	        persistentGroups.remove(key);
-    	        // Magic number:
-    	        // When we release a persistent multicast group, the release
-    	        // is referring to multiple message id's. There is also no way
-    	        // for us to get the message id of the last message that was sent
-    	        // on this multicast group (yes there is, but don't argue!).
-    	        
-    	        // For us, 0 (zero) is a special case in this specific
-    	        // implementation.
-    	        receiveThread.prepareReleasePdu(multicastGroup, 0);
-    	    }
+    	if ((multicastGroup = groupCache.leave(recipients)) != null) {
+    	    // Magic number:
+    	    // When we release a persistent multicast group, the release
+    	    // is referring to multiple message id's. There is also no way
+    	    // for us to get the message id of the last message that was sent
+    	    // on this multicast group (yes there is, but don't argue!).
     	    
+    	    // For us, 0 (zero) is a special case in this specific
+    	    // implementation.
+    	    receiveThread.prepareReleasePdu(multicastGroup, 0);
     	}
     }
+
+    /**
+     * Release the cached multicast groups that nobody has used for
+     * GROUP_IDLE_TIME. Like persistent groups they are released with message
+     * id 0.
+     */
+    protected void releaseIdleGroups() {
+        for (InetAddress multicastGroup : groupCache.evictIdle(Clock.currentTimeMillis())) {
+            Log.writeLine(Log.LOG_LEVEL_VERBOSE, "Releasing idle multicast group {}", multicastGroup.getHostAddress());
+            receiveThread.prepareReleasePdu(multicastGroup, 0);
+        }
+    }
+
+    /**
+     * Request new addresses for the pool of dynamic multicast groups until it
+     * holds GROUP_POOL_SIZE addresses. Like releases of cached groups the
+     * requests use message id 0, as they do not belong to any message yet.
+     */
+    protected synchronized void refillGroupPool() {
+        if (EMCON.get()) {
+            return;
+        }
+        long now = Clock.currentTimeMillis();
+        for (int i = groupPool.missing(now); i > 0; i--) {
+            // Only take addresses nobody seems to use
+            InetAddress address = addressAllocator.allocateFree(Long.MAX_VALUE);
+            if (address == null) {
+                return;
+            }
+            groupPool.requested(address, now);
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Requesting multicast group {} for the pool", address.getHostAddress());
+            PacketEntry packetEntry = new PacketEntry();
+            packetEntry.addRequestReleaseReject(RequestPdu.create(nodeId, 0, MulticastAddressAllocator.toInt(address)));
+            outMessages.add(packetEntry);
+        }
+    }
     
     /**
      * Enter EMCON
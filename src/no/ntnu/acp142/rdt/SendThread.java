@@ -1,14 +1,11 @@
 ﻿package no.ntnu.acp142.rdt;
 
 import java.io.IOException;
-import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.atomic.AtomicBoolean;
 
-import no.ntnu.acp142.Libjpmul;
+import no.ntnu.acp142.Clock;
 import no.ntnu.acp142.Configuration;
 import no.ntnu.acp142.Log;
 import no.ntnu.acp142.MulticastGroup;
@@ -16,9 +13,9 @@ import no.ntnu.acp142.pdu.AddressPdu;
 import no.ntnu.acp142.pdu.AddressPdu.DestinationEntry;
 import no.ntnu.acp142.pdu.AnnouncePdu;
 import no.ntnu.acp142.pdu.Pdu;
+import no.ntnu.acp142.pdu.RepairPdu;
 import no.ntnu.acp142.pdu.RequestPdu;
 import no.ntnu.acp142.rdt.Entry.EntryType;
-import no.ntnu.acp142.udp.Tuple;
 
 /*
  * Copyright (c) 2013, Bjørn Tungesvik, Karl Mardoff Kittilsen
@@ -66,6 +63,11 @@ public class SendThread extends Thread {
 	 */
 	private ReliableDataTransfer rdt;
 
+	/**
+	 * Cleared when the node shuts down
+	 */
+	private volatile boolean running = true;
+
 	/**
 	 * Create and new instance of the sendThread
 	 * 
@@ -84,23 +86,33 @@ public class SendThread extends Thread {
 	@Override
 	public void run() {
 	    Log.writeLine(Log.LOG_LEVEL_DEBUG, "Starting send thread");
-		while (true) {
+		while (running) {
 			try {
 				// Get a message entry to send
 
 				Entry currentEntry = rdt.outMessages.take();
-				Log.writeLine(Log.LOG_LEVEL_DEBUG, "Size of queue after take: "
-						+ rdt.outMessages.size());
+				Log.writeLine(Log.LOG_LEVEL_DEBUG, "Size of queue after take: {}",
+						rdt.outMessages.size());
 
 				sendHandler(currentEntry);
 				Log.writeLine(Log.LOG_LEVEL_DEBUG, "Processing send request");
 			} catch (InterruptedException e) {
-				e.printStackTrace();
+				if (running) {
+					e.printStackTrace();
+				}
 			}
 
 		}
 	}
 
+	/**
+	 * Stops the thread once it is done with the current entry.
+	 */
+	void shutdown() {
+		running = false;
+		interrupt();
+	}
+
 	
 
 	/**
@@ -120,27 +132,23 @@ public class SendThread extends Thread {
 				// set to transmitting state
 				tmp.setState(States.TRANSMITTING);
 			}
-	        Tuple<CopyOnWriteArraySet<MessageEntry>, AtomicBoolean> tuple;
 			if (tmp.getMulticastAddress() == null) {
-				//Set up a new persistent group if it does not already exist
-				//This method will do nothing if we do not use persistent groups
+				//Set up a new dynamic group if none is cached for these destinations
 				if(!rdt.usePersistentGroupIfAvailable(tmp)){
 					//Does not exist
 					Log.writeLine(Log.LOG_LEVEL_DEBUG,
 							"Destination address is null");
 					prepareRequestPdu(tmp);
 					return;
-				}  else if ( (tuple = rdt.persistentGroupSessions.get(tmp.getMulticastAddress())) != null
-				        && tmp.isPersistentMulticastGroups() == false) {
-		            tuple.t2.set(false);
-		        }
+				}
+				prepareReuseAnnouncePdu(tmp);
 			}
 
 			//Get the addressPdu
 			AddressPdu addressPdu = tmp.getAddressPdu();
 			
 			if(addressPdu == null){
-				Log.writeLine(Log.LOG_LEVEL_DEBUG, "AddressPdu was NULL in mode " + tmp.getState());
+				Log.writeLine(Log.LOG_LEVEL_DEBUG, "AddressPdu was NULL in mode {}", tmp.getState());
 			}
 
 			if(tmp.getState() == States.TRANSMITTING){
@@ -150,17 +158,28 @@ public class SendThread extends Thread {
 				 * Store it and start the expiry timer
 				 */
 				
-				long expiryTime = addressPdu.getExpiryTime() - System.currentTimeMillis()/1000;
+				long expiryTime = addressPdu.getExpiryTime() - Clock.currentTimeMillis()/1000;
 				rdt.initializeTimer(expiryTime * 1000,
 						TimerType.EXPIRY_TIMER_TRANSMIT,
 						(MessageEntry) currentEntry, null);
 				
-				HashValue key = new HashValue(addressPdu.getMessageId(),
+				long key = MessageTable.key(addressPdu.getMessageId(),
 						addressPdu.getSourceID());
 				tmp.initAckedList();
 				rdt.inMessages.put(key, tmp);
 				// Initialize ack matrix
 				
+				// Add repair PDUs if FEC is enabled for this priority
+				int fecBlockSize = rdt.getFecBlockSize(tmp.getPriority());
+				if (fecBlockSize > 0 && tmp.getRepairPdus().isEmpty()) {
+					ArrayList<RepairPdu> repairPdus = RepairPdu.create(tmp.getPriority(),
+							addressPdu.getSourceID(), addressPdu.getMessageId(),
+							tmp.getDataPdus(), fecBlockSize);
+					for (RepairPdu repairPdu : repairPdus) {
+						tmp.addRepairPdu(repairPdu);
+					}
+				}
+				
 				System.err.println("Node id creation: " + addressPdu.getSourceID());
 				System.err.println("Message id creation: " + addressPdu.getMessageId());
 				
@@ -168,22 +187,34 @@ public class SendThread extends Thread {
 			
 			//Send pdus
 			ArrayList <Pdu> pdus = tmp.getPdus();
-			for (Pdu pdu : pdus) {
-				if (pdu != null) {
-					try {
-                        rdt.sendAddressDataPdu(pdu, tmp.getMulticastAddress());
-                    } catch (IOException e) {
-                        // TODO Auto-generated catch block
-                        e.printStackTrace();
-                    }
-				} else {
-					// PDU was null, we can not deal with this.
-					Log.writeLine(Log.LOG_LEVEL_NORMAL,
-							"One of the PDUs in messageEntry was null!");
+			if (tmp.getState() == States.TRANSMITTING && tmp.isTraced()) {
+				tmp.trace(MessageTrace.Phase.TRANSMISSION, "transmission of " + pdus.size() + " PDUs");
+			}
+			if (tmp.getFanOut() != null) {
+				sendFanOut(tmp);
+			} else {
+				for (Pdu pdu : pdus) {
+					if (pdu != null) {
+						try {
+                            rdt.sendAddressDataPdu(pdu, tmp.getMulticastAddress());
+                        } catch (IOException e) {
+                            // TODO Auto-generated catch block
+                            e.printStackTrace();
+                        }
+					} else {
+						// PDU was null, we can not deal with this.
+						Log.writeLine(Log.LOG_LEVEL_NORMAL,
+								"One of the PDUs in messageEntry was null!");
+					}
 				}
 			}
 			
 
+			if (tmp.getState() == States.TRANSMITTING) {
+				// Acks to the first transmission are timed from now
+				tmp.setTransmitTime(Clock.nanoTime());
+			}
+
 			/*
 			 * Check the emcon state of our destinations, and act accordingly.
 			 */
@@ -267,8 +298,57 @@ public class SendThread extends Thread {
 		}
 	}
 	
+	/**
+	 * Send a message to every static multicast group it is fanned out to. The
+	 * Data_PDUs and repair PDUs are the same for every group, while the
+	 * Address_PDUs sent to a group only list the destinations assigned to it.
+	 * Destinations no longer listed in the Address_PDUs of the message, as in
+	 * a retransmission, are left out, and so are groups left without any.
+	 * 
+	 * @param currentEntry message to send.
+	 */
+	private void sendFanOut(MessageEntry currentEntry) {
+		AddressPdu addressPdu = currentEntry.getAddressPdu();
+		ArrayList<DestinationEntry> destinationEntries = new ArrayList<DestinationEntry>();
+		for (AddressPdu pdu : currentEntry.getAddressPdus()) {
+			if (pdu != null) {
+				destinationEntries.addAll(pdu.getDestinationEntries());
+			}
+		}
+		ArrayList<Pdu> sharedPdus = new ArrayList<Pdu>(currentEntry.getDataPdus());
+		sharedPdus.addAll(currentEntry.getRepairPdus());
+
+		for (MulticastGroup group : currentEntry.getFanOut()) {
+			ArrayList<DestinationEntry> groupEntries = new ArrayList<DestinationEntry>();
+			for (DestinationEntry destinationEntry : destinationEntries) {
+				if (group.getSourceIds().contains(destinationEntry.getDestinationID())) {
+					groupEntries.add(destinationEntry);
+				}
+			}
+			if (groupEntries.isEmpty()) {
+				continue;
+			}
+
+			ArrayList<Pdu> pdus = new ArrayList<Pdu>(AddressPdu.create(addressPdu.getPriority(),
+					addressPdu.getTotalNumberOfPDUs(), addressPdu.getSourceID(), addressPdu.getMessageId(),
+					addressPdu.getExpiryTime(), groupEntries.toArray(new DestinationEntry[groupEntries.size()]),
+					addressPdu.getLengthOfReservedField(), rdt.getPduMaxSize(group.getMulticastAddress())));
+			pdus.addAll(sharedPdus);
+			for (Pdu pdu : pdus) {
+				try {
+					rdt.sendAddressDataPdu(pdu, group.getMulticastAddress());
+				} catch (IOException e) {
+					Log.writeLine(Log.LOG_LEVEL_NORMAL, "Failed to send a PDU to {}", group.getMulticastAddress());
+				}
+			}
+		}
+	}
+
 	/**
 	 * This method will prepare a requestPdu and pass it to the send handler.
+	 * If an address requested ahead of time is reserved in the group pool, it
+	 * is used instead, and the message is announced without waiting
+	 * WAIT_FOR_REJECT_TIME.
 	 * 
 	 * @param currentEntry the message entry this requestPdu should represent.
 	 */
@@ -281,22 +361,81 @@ public class SendThread extends Thread {
 		int sourceId = addressPdu.getSourceID();
 		int messageId = addressPdu.getMessageId();
 
-		InetAddress destination = Libjpmul.getRandomMulticastGroup();
-		BigInteger intAddress = new BigInteger(destination.getAddress());
-		RequestPdu pdu = RequestPdu.create(
-				sourceId, messageId, intAddress.intValue());
-		MulticastGroup multicastGroup = new MulticastGroup(destination);
-		rdt.dynamicMulticast.put(destination, multicastGroup);
-		PacketEntry packetEntry = new PacketEntry();
-		packetEntry.addRequestReleaseReject(pdu);
-		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Sending request");
-		rdt.outMessages.add(packetEntry);
+		long expiryTime = addressPdu.getExpiryTime() * 1000L;
+		long waitForRejectTime = Configuration.getWaitForRejectTime();
+		InetAddress destination = rdt.groupPool.take(Clock.currentTimeMillis());
+		if (destination != null) {
+			// Already survived WAIT_FOR_REJECT_TIME in the pool
+			rdt.addressAllocator.hold(destination, expiryTime);
+			if (currentEntry.isTraced()) {
+				currentEntry.trace(MessageTrace.Phase.GROUP_SETUP, "reserved " + destination.getHostAddress());
+			}
+			waitForRejectTime = 0;
+			rdt.refillGroupPool();
+		} else {
+			destination = rdt.addressAllocator.allocate(expiryTime);
+			RequestPdu pdu = RequestPdu.create(
+					sourceId, messageId, MulticastAddressAllocator.toInt(destination));
+			if (currentEntry.isTraced()) {
+				currentEntry.trace(MessageTrace.Phase.GROUP_SETUP, "request for " + destination.getHostAddress());
+			}
+			PacketEntry packetEntry = new PacketEntry();
+			packetEntry.addRequestReleaseReject(pdu);
+			Log.writeLine(Log.LOG_LEVEL_DEBUG, "Sending request");
+			rdt.outMessages.add(packetEntry);
+		}
 
 		// Assume that we are going to use this multicast group, so create the
 		// announcePdu
+		long key = MessageTable.key(messageId, sourceId);
+		createAnnouncePdu(currentEntry, MulticastAddressAllocator.toInt(destination));
+		
+		//Set announce ct
+		currentEntry.setAnnounceCt(Configuration.getAnnounceCt());
 
+		currentEntry.setMulticastAddress(destination);
+		rdt.inMessages.put(key, currentEntry);
+		// Stop timer if any
+		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Stop timer if any");
+		rdt.stopTimer(TimerType.WAIT_FOR_REJECT_TIME, currentEntry);
+		// And start timer
+		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Start timer {}", waitForRejectTime);
+		rdt.initializeTimer(waitForRejectTime,
+				TimerType.WAIT_FOR_REJECT_TIME, currentEntry, null);
+
+	}
+
+	/**
+	 * Announce a message sent on a cached multicast group. The destinations
+	 * joined the group when it was first announced, so the Announce_PDU is
+	 * sent once and the message is sent right away, without waiting for
+	 * ANNOUNCE_DELAY. It binds the message to the group at the destinations,
+	 * so they do not leave it while the message is in flight, and makes any
+	 * destination that already left join it again.
+	 * 
+	 * @param currentEntry message sent on a cached group.
+	 */
+	private void prepareReuseAnnouncePdu(MessageEntry currentEntry) {
+		createAnnouncePdu(currentEntry, MulticastAddressAllocator.toInt(currentEntry.getMulticastAddress()));
+		if (currentEntry.isTraced()) {
+			currentEntry.trace(MessageTrace.Phase.GROUP_SETUP, "reusing "
+					+ currentEntry.getMulticastAddress().getHostAddress());
+		}
+
+		PacketEntry packetEntry = new PacketEntry();
+		packetEntry.addAnnouncePdu(currentEntry.getAnnouncePdu());
+		rdt.outMessages.add(packetEntry);
+	}
+
+	/**
+	 * Create the AnnouncePdu of a message, and add it to the message entry.
+	 * 
+	 * @param currentEntry message to announce.
+	 * @param group multicast group address as an int.
+	 */
+	private void createAnnouncePdu(MessageEntry currentEntry, int group) {
 		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Creating announcePdu");
-		HashValue key = new HashValue(messageId, sourceId);
+		AddressPdu addressPdu = currentEntry.getAddressPdu();
 		// create new AnnouncePdu
 		ArrayList<DestinationEntry> dest = addressPdu.getDestinationEntries();
 		int[] destinationIds = new int[dest.size()];
@@ -304,27 +443,19 @@ public class SendThread extends Thread {
 			destinationIds[i] = dest.get(i).getDestinationID();
 		}
 		int expiryTime = (int) addressPdu.getExpiryTime();
+		// Announce_PDUs are sent to GG
+		InetAddress gg = null;
+		try {
+			gg = Configuration.getGg();
+		} catch (UnknownHostException e) {
+			Log.writeLine(Log.LOG_LEVEL_QUIET, "GG address threw an UnknownHostException");
+		}
 		ArrayList<AnnouncePdu> announcePdus = AnnouncePdu.create(
 				addressPdu.getSourceID(), addressPdu.getMessageId(),
-				expiryTime, intAddress.intValue(), destinationIds);
+				expiryTime, group, destinationIds, rdt.getPduMaxSize(gg));
 
 		for (AnnouncePdu announcePdu : announcePdus) {
 			currentEntry.addAnnouncePdu(announcePdu);
 		}
-		
-		//Set announce ct
-		currentEntry.setAnnounceCt(Configuration.getAnnounceCt());
-
-		currentEntry.setMulticastAddress(destination);
-		rdt.inMessages.put(key, currentEntry);
-		// Stop timer if any
-		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Stop timer if any");
-		rdt.stopTimer(TimerType.WAIT_FOR_REJECT_TIME, currentEntry);
-		// And start timer
-		Log.writeLine(Log.LOG_LEVEL_DEBUG,
-				"Start timer " + Configuration.getWaitForRejectTime());
-		rdt.initializeTimer(Configuration.getWaitForRejectTime(),
-				TimerType.WAIT_FOR_REJECT_TIME, currentEntry, null);
-
 	}
 }
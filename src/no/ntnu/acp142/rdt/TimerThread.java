@@ -2,14 +2,16 @@
 
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.atomic.AtomicBoolean;
 
+import no.ntnu.acp142.Clock;
 import no.ntnu.acp142.Configuration;
 import no.ntnu.acp142.Log;
+import no.ntnu.acp142.MulticastGroup;
+import no.ntnu.acp142.jfr.TimerEvent;
 import no.ntnu.acp142.pdu.AckPdu;
 import no.ntnu.acp142.pdu.AckPdu.AckInfoEntry;
 import no.ntnu.acp142.pdu.AddressPdu;
@@ -17,7 +19,6 @@ import no.ntnu.acp142.pdu.AddressPdu.DestinationEntry;
 import no.ntnu.acp142.pdu.AnnouncePdu;
 import no.ntnu.acp142.pdu.DataPdu;
 import no.ntnu.acp142.pdu.DiscardMessagePdu;
-import no.ntnu.acp142.udp.Tuple;
 
 /*
  * Copyright (c) 2013, Bjørn Tungesvik,  Karl Mardoff Kittilsen
@@ -74,6 +75,11 @@ public class TimerThread extends Thread {
 	 */
 	private ReliableDataTransfer rdt;
 
+	/**
+	 * Cleared when the node shuts down
+	 */
+	private volatile boolean running = true;
+
 	/**
 	 * Create new instance of TimerThread
 	 * @param rdt reference to the RDT layer.
@@ -93,18 +99,21 @@ public class TimerThread extends Thread {
 		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Started timer thread");
 		long timestamp;
 		long sleep;
-		while (true) {
+		while (running) {
 			try {
 				Log.writeLine(Log.LOG_LEVEL_DEBUG, "Timer thread running");
-				timestamp = System.currentTimeMillis();
+				timestamp = Clock.currentTimeMillis();
 				timerExpires(timestamp);
+				houseKeeping();
 				if (timerList.isEmpty()) {
-					Thread.sleep(10000);
+					Clock.sleep(10000);
 				} else {
 
-					sleep = findSleepTime();
-					Log.writeLine(Log.LOG_LEVEL_DEBUG, "Sleep time: " + sleep);
-					Thread.sleep(sleep);
+					// Wake up at least as often as when idle, to release
+					// idle multicast groups
+					sleep = Math.min(findSleepTime(), 10000);
+					Log.writeLine(Log.LOG_LEVEL_DEBUG, "Sleep time: {}", sleep);
+					Clock.sleep(sleep);
 				}
 
 			} catch (InterruptedException e) {
@@ -114,6 +123,30 @@ public class TimerThread extends Thread {
 
 	}
 
+	/**
+	 * Stops the thread once it is done with the expired timers.
+	 */
+	void shutdown() {
+		running = false;
+		interrupt();
+	}
+
+	/**
+	 * Releases idle multicast groups and refills the pool of dynamic groups.
+	 * A failure is logged, so that it does not stop the timers.
+	 */
+	void houseKeeping() {
+		if (rdt == null) {
+			return;
+		}
+		try {
+			rdt.releaseIdleGroups();
+			rdt.refillGroupPool();
+		} catch (RuntimeException e) {
+			Log.writeLine(Log.LOG_LEVEL_NORMAL, "Timer thread: multicast group housekeeping failed: {}", e.toString());
+		}
+	}
+
 	/**
 	 * Removes any timer of the given type pertaining to the given MessageEntry and type. Notifies
 	 * when the timer is removed. 
@@ -134,7 +167,7 @@ public class TimerThread extends Thread {
 		    }
 		    
 			if (timer.getMsg().equals(messageEntry) && timer.getType() == timerType) {
-				Log.writeLine(Log.LOG_LEVEL_DEBUG, "Removing timer+++++++++++++++  " + timer.getType().toString());
+				Log.writeLine(Log.LOG_LEVEL_DEBUG, "Removing timer+++++++++++++++  {}", timer.getType());
 				timerList.remove(timer);
 				 
 			}
@@ -162,13 +195,22 @@ public class TimerThread extends Thread {
 	}
 	
 
+	/**
+	 * Get the number of timers currently active.
+	 * 
+	 * @return number of timers.
+	 */
+	public int getTimerCount() {
+		return timerList.size();
+	}
+
 	/**
 	 * Add the timer to the list and notify the thread.
 	 * 
 	 * @param timer to add.
 	 */
 	public void addTimer(Timer timer) {
-	    Log.writeLine(Log.LOG_LEVEL_DEBUG, "Adding timer+++++++++++++++++++++ " + timer.getType().toString());
+	    Log.writeLine(Log.LOG_LEVEL_DEBUG, "Adding timer+++++++++++++++++++++ {}", timer.getType());
 		
 		timerList.add(timer);
 		// Interrupt the sleep function
@@ -183,13 +225,21 @@ public class TimerThread extends Thread {
 	 * @throws InterruptedException if we get interrupted while calling {@link #timeHandler}.
 	 */
 	public void timerExpires(long timestamp) throws InterruptedException {
-		Log.writeLine(Log.LOG_LEVEL_DEBUG,
-				"TimerList size: " + timerList.size());
+		Log.writeLine(Log.LOG_LEVEL_DEBUG, "TimerList size: {}",
+				timerList.size());
 		for (Timer timer : timerList) {
 			long diff = timer.getStartTime() + timer.getEndTime();
 			if (diff <= timestamp) {
 				Log.writeLine(Log.LOG_LEVEL_DEBUG, "Timer expires");
-				timeHandler(timer);
+				try {
+					timeHandler(timer);
+				} catch (RuntimeException e) {
+					// Drop the timer, so that it neither stops the other
+					// timers nor fails again on every pass
+					timerList.remove(timer);
+					Log.writeLine(Log.LOG_LEVEL_NORMAL, "Timer thread: {} failed and was stopped: {}",
+							timer.getType(), e.toString());
+				}
 			}
 		}
 	}
@@ -203,12 +253,12 @@ public class TimerThread extends Thread {
 	private long findSleepTime() {
 		long min;
 		long current;
-		long timeStamp = System.currentTimeMillis();
+		long timeStamp = Clock.currentTimeMillis();
 		// First timer
 		Timer first = timerList.getFirst();
 		min = first.getEndTime() + first.getStartTime() - timeStamp;
 		for (Timer timer : timerList) {
-			timeStamp = System.currentTimeMillis();
+			timeStamp = Clock.currentTimeMillis();
 			current = timer.getEndTime() + timer.getStartTime() - timeStamp;
 			if (min > current) {
 				min = current;
@@ -218,17 +268,37 @@ public class TimerThread extends Thread {
 		if (min < 0) {
 			return 0;
 		}
-		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Sleep time: " + min);
+		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Sleep time: {}", min);
 		return min;
 	}
 
 	/**
-	 * Determine timer type and execute the appropriate task.
+	 * Determine timer type and execute the appropriate task. Package private
+	 * so that the timer benchmarks can run the scheduling without the tasks.
 	 * 
 	 * @param timer to handle.
 	 * @throws InterruptedException if we get interrupted while putting to {@link no.ntnu.acp142.rdt.ReliableDataTransfer#outMessages}.
 	 */
-	private void timeHandler(Timer timer) throws InterruptedException {
+	void timeHandler(Timer timer) throws InterruptedException {
+		TimerEvent event = new TimerEvent();
+		event.begin(timer);
+		try {
+			handle(timer);
+		} finally {
+			event.commit(timer);
+		}
+	}
+
+	/**
+	 * Dispatch the timer to the handler of its type.
+	 * 
+	 * @param timer that has ended.
+	 * @throws InterruptedException
+	 */
+	private void handle(Timer timer) throws InterruptedException {
+		if (timer.getMsg() != null && timer.getMsg().isTraced()) {
+			timer.getMsg().trace("timer " + timer.getType());
+		}
 		switch (timer.getType()) {
 		case EXPIRY_TIMER_RECEIVE:
 			handleExpiryTimerReceive(timer);
@@ -245,9 +315,6 @@ public class TimerThread extends Thread {
 		case ACK_TIMER:
 			handleAckTimer(timer);
 			break;
-		case UNIDENTIFIED_DATA_DPU_VALIDITY_TIMER:
-			handleUnidentifiedDataPduValidityTimer(timer);
-			break;
 		case WAIT_FOR_REJECT_TIME:
 			handleWaitForRejectTimer(timer);
 			break;
@@ -299,8 +366,14 @@ public class TimerThread extends Thread {
         }
 		int sourceId = apdu.getSourceID();
 		int messageId = apdu.getMessageId();
-		HashValue key = new HashValue(messageId, sourceId);
+		long key = MessageTable.key(messageId, sourceId);
 		rdt.inMessages.remove(key);
+		rdt.reassembly.release(key);
+		rdt.groupUsage.unbind(key);
+		if (currentEntry.getState() != States.COMPLETE) {
+			rdt.metrics.messageExpired();
+		}
+		currentEntry.finishTrace("expired");
 		
 		stopTimer(timer.getMsg(), TimerType.EXPIRY_TIMER_RECEIVE);
 	}
@@ -321,18 +394,35 @@ public class TimerThread extends Thread {
 	 */
 	private void handleExpiryTimerTransmit(Timer timer) throws InterruptedException {
         stopTimer(timer.getMsg(), TimerType.RETRANSMISSION_TIMER);
-        rdt.persistentGroups.remove(timer.getMsg().getRecipients().hashCode());
+        // If this was the last message on a group to be released, the
+        // Discard_Message_PDU below releases it
+        rdt.groupCache.finish(timer.getMsg());
         MessageEntry currentEntry = timer.getMsg();
+        boolean[][] acked = currentEntry.getAckedMatrix();
+        if (acked == null || !ReceiveThread.isCompletelyAcked(acked, new ArrayList<Integer>())) {
+            rdt.metrics.messageExpired();
+        }
+        currentEntry.finishTrace("expired");
         int sourceId = currentEntry.getAddressPdu().getSourceID();
         int messageId = currentEntry.getAddressPdu().getMessageId();
         DiscardMessagePdu discard = DiscardMessagePdu.create(currentEntry.getPriority(), sourceId, messageId);
-        PacketEntry entry = new PacketEntry();
-        entry.addDiscardMessagedPdu(discard);
-        entry.addDestinationAddress(currentEntry.getMulticastAddress());
+        ArrayList<InetAddress> destinations = new ArrayList<InetAddress>();
+        if (currentEntry.getFanOut() == null) {
+            destinations.add(currentEntry.getMulticastAddress());
+        } else {
+            for (MulticastGroup group : currentEntry.getFanOut()) {
+                destinations.add(group.getMulticastAddress());
+            }
+        }
         Thread.interrupted();
-        rdt.outMessages.put(entry);
+        for (InetAddress destination : destinations) {
+            PacketEntry entry = new PacketEntry();
+            entry.addDiscardMessagedPdu(discard);
+            entry.addDestinationAddress(destination);
+            rdt.outMessages.put(entry);
+        }
         stopTimer(timer.getMsg(), TimerType.EXPIRY_TIMER_TRANSMIT);
-        rdt.inMessages.remove(new HashValue(messageId, sourceId));
+        rdt.inMessages.remove(MessageTable.key(messageId, sourceId));
 	}
 
 	/**
@@ -424,10 +514,11 @@ public class TimerThread extends Thread {
 		
 		
 		
-		Log.writeLine(Log.LOG_LEVEL_DEBUG, "We need to re-transmit to " + modifiedDestinations.size() + " destinations");
+		Log.writeLine(Log.LOG_LEVEL_DEBUG, "We need to re-transmit to {} destinations", modifiedDestinations.size());
 		if (modifiedDestinations.size() == 0) {
 		    return;
 		}
+		rdt.metrics.retransmissionRound();
 		
 		DestinationEntry[] destinationsArray = new DestinationEntry[modifiedDestinations
 				.size()];
@@ -443,6 +534,7 @@ public class TimerThread extends Thread {
 		messageEntry.setState(States.RE_TRANSMITTING);
 		// Send to same multicast address as previous message
 		messageEntry.setMulticastAddress(currentEntry.getMulticastAddress());
+		messageEntry.setFanOut(currentEntry.getFanOut());
 		messageEntry.setPriority(currentEntry.getPriority());
 		
 		short numberOfDataPduToSend = 0;
@@ -468,7 +560,7 @@ public class TimerThread extends Thread {
 			Log.writeLine(Log.LOG_LEVEL_DEBUG,
 					"Re-transmit only missing dataPDUs");
 				for (Integer integer : missingDataPduSequenceNumbers) {
-				    Log.writeLine(Log.LOG_LEVEL_DEBUG, "Missing  sequence number: " + integer);
+				    Log.writeLine(Log.LOG_LEVEL_DEBUG, "Missing  sequence number: {}", integer);
 				    messageEntry.addDataPdu(currentEntry.getDataPdus().get(integer - 1));
 				}
 				
@@ -499,12 +591,19 @@ public class TimerThread extends Thread {
                 currentEntry.getPriority(),
                 numberOfDataPduToSend, addressPdu.getSourceID(),
                 addressPdu.getMessageId(), (int) addressPdu.getExpiryTime(),
-                destinationsArray, 0);
+                destinationsArray, addressPdu.getLengthOfReservedField(),
+                rdt.getPduMaxSize(currentEntry.getMulticastAddress()));
         
         for (AddressPdu addrPdu : addressPdus) {
             messageEntry.addAddressPdu(addrPdu);
         }
         
+        // Acks to this round are timed from now
+        currentEntry.setTransmitTime(Clock.nanoTime());
+        if (currentEntry.isTraced()) {
+            currentEntry.trace(MessageTrace.Phase.REPAIR, "retransmission of " + numberOfDataPduToSend
+                    + " Data_PDUs to " + destinationsArray.length + " destinations");
+        }
         // Clear interrupt vector and queue for sending
         Thread.interrupted();
         rdt.outMessages.put(messageEntry);
@@ -543,13 +642,20 @@ public class TimerThread extends Thread {
 			//Create new address PDU for the occasion
 			
 			int seqNumber = 1; //Sequence number for the destination entries
-			byte[] b = new byte[0];
+			// Keep the reserved field of each destination, which carries
+			// the segment or batch header
+			HashMap<Integer, byte[]> reservedFields = new HashMap<Integer, byte[]>();
+			for (AddressPdu addressPdu : currentEntry.getAddressPdus()) {
+				for (DestinationEntry destinationEntry : addressPdu.getDestinationEntries()) {
+					reservedFields.put(destinationEntry.getDestinationID(), destinationEntry.getReservedField());
+				}
+			}
 			ArrayList<DestinationEntry> destinationEntries = new ArrayList <DestinationEntry>();
 			for(Integer destination: currentEntry.getRecipients()){
 				if(rdt.isEmcon(destination)){
 					//This node is currently in EMCON
-					destinationEntries.add(new DestinationEntry(destination, seqNumber++, b));
-					Log.writeLine(Log.LOG_LEVEL_DEBUG, "Adding " + destination + " as an emcon destination.");
+					destinationEntries.add(new DestinationEntry(destination, seqNumber++, reservedFields.get(destination)));
+					Log.writeLine(Log.LOG_LEVEL_DEBUG, "Adding {} as an emcon destination.", destination);
 				}
 			}
 			
@@ -567,7 +673,7 @@ public class TimerThread extends Thread {
 				destinationArray[i] = destinationEntries.get(i);
 			}
 			
-			ArrayList <AddressPdu> addressPdus = AddressPdu.create(currentEntry.getPriority(), (short) currentEntry.getDataPdus().size(), Configuration.getNodeId(), currentEntry.getAddressPdu().getMessageId(), currentEntry.getAddressPdu().getExpiryTime(), destinationArray, (byte)0);
+			ArrayList <AddressPdu> addressPdus = AddressPdu.create(currentEntry.getPriority(), (short) currentEntry.getDataPdus().size(), rdt.getNodeId(), currentEntry.getAddressPdu().getMessageId(), currentEntry.getAddressPdu().getExpiryTime(), destinationArray, currentEntry.getAddressPdu().getLengthOfReservedField(), rdt.getPduMaxSize(currentEntry.getMulticastAddress()));
 			
 			MessageEntry readyForSending = new MessageEntry();
 			for (AddressPdu addressPdu : addressPdus) {
@@ -581,10 +687,15 @@ public class TimerThread extends Thread {
 			}
 			
 			readyForSending.setMulticastAddress(currentEntry.getMulticastAddress());
+			readyForSending.setFanOut(currentEntry.getFanOut());
 			readyForSending.setDynamicGroupTag(currentEntry.usesDynamicGroup());
 			readyForSending.setPersistentMulticastGroup(currentEntry.isPersistentMulticastGroups());
 			
 			readyForSending.setState(States.EMCON_RE_TRANSMISSION);
+			if (currentEntry.isTraced()) {
+				currentEntry.trace(MessageTrace.Phase.REPAIR, "EMCON retransmission to " + destinationArray.length
+						+ " destinations");
+			}
 			
 			rdt.outMessages.put(readyForSending);
 			
@@ -625,7 +736,7 @@ public class TimerThread extends Thread {
 		AckInfoEntry ackInfoEntry = prepareAckInfoEntry(currentEntry, missing, currentEntry.getAckAddress());
 		AckInfoEntry[] ackInfoEntries = { ackInfoEntry };
 		ArrayList<AckPdu> ackPdus = AckPdu.create(sourceID, currentEntry.getPriority(),
-				ackInfoEntries);
+				ackInfoEntries, rdt.getPduMaxSize(currentEntry.getAckAddress()));
 
 		PacketEntry packetEntry = new PacketEntry();
 		packetEntry.addAckPdus(ackPdus);
@@ -640,38 +751,6 @@ public class TimerThread extends Thread {
 		rdt.initializeTimer(endTime, TimerType.ACK_TIMER, currentEntry, null);
 	}
 
-	/**
-	 * Perform necessary tasks associated with the
-	 * UNIDENTIFIED_DATA_DPU_VALIDITY_TIMER
-	 * 
-	 * This timer indicates the time remaining before the Data_PDUs in a
-	 * Data_PDU entry are no longer considered valid and can therefore be
-	 * discarded.
-	 * 
-	 * If the timer expires before the receiving node receives either the
-	 * Address_PDU or a Discard_Message_PDU associated with the Data_PDUs in the
-	 * Data_PDU entry, the receiving node shall discard all Data_PDUs.
-	 * 
-	 * @param timer that expired.
-	 */
-	private void handleUnidentifiedDataPduValidityTimer(Timer timer) {
-		MessageEntry currentEntry = timer.getMsg();
-		DataPdu tmp = currentEntry.getDataPdus().get(0);
-		HashValue key = new HashValue(tmp.getMessageId(), tmp.getSourceID());
-		
-	
-		if (rdt.inMessages.containsKey(key)) {
-			// Remove this entry
-			rdt.inMessages.remove(key);
-			stopTimer(timer.getMsg(), TimerType.UNIDENTIFIED_DATA_DPU_VALIDITY_TIMER);
-		} else {
-			// Should never happen
-		    Log.writeLine(Log.LOG_LEVEL_QUIET, "Something bad happened! Did not find the key associated with the timer!?");
-		    throw new RuntimeException("Did not find the key associated with the timer?!. Bad...");
-		}
-
-	}
-
 	/**
 	 * Perform necessary tasks associated with the WAIT_FOR_REJECT_TIME timer
 	 * 
@@ -700,20 +779,6 @@ public class TimerThread extends Thread {
 			return;
 		}
 		
-		//This message is supposed to use a persistent group
-		if(currentEntry.isPersistentMulticastGroups()){
-			//Store it for later use
-			InetAddress group = announcePdu.getInetMulticastGroupAddress();
-			rdt.persistentGroups.put(currentEntry.getRecipients().hashCode(), group);
-			
-			if(rdt.persistentGroupSessions.get(group) == null){
-			    CopyOnWriteArraySet<MessageEntry> entries = new CopyOnWriteArraySet<MessageEntry>();
-			    entries.add(currentEntry);
-				rdt.persistentGroupSessions.put(group, new Tuple<CopyOnWriteArraySet<MessageEntry>, AtomicBoolean>(entries, new AtomicBoolean(true)));
-				
-			}
-		}
-
 		Log.writeLine(Log.LOG_LEVEL_DEBUG, "Sending announce PDU");
 		PacketEntry packetEntry = new PacketEntry();
 		packetEntry.addAnnouncePdu(currentEntry.getAnnouncePdu());
@@ -748,10 +813,11 @@ public class TimerThread extends Thread {
 		MessageEntry currentEntry = timer.getMsg();
 		
 		
-		//If we are going to use persistent groups we add these here
-		if(currentEntry.isPersistentMulticastGroups()){
-			//Persistent group added
-			rdt.setPersistentMulticastGroup(currentEntry.getRecipients(), currentEntry.getMulticastAddress());
+		//The group is announced, keep it for later messages to the same destinations
+		if(!rdt.groupCache.add(currentEntry)){
+			//Not kept, or another group is kept for these destinations, so
+			//release this one when the message is complete
+			currentEntry.setPersistentMulticastGroup(false);
 		}
 		
 		rdt.outMessages.put(currentEntry);
@@ -805,13 +871,13 @@ public class TimerThread extends Thread {
 
 				// Received the last dataPDU for the first time
 					ackInfoEntriesList.add(prepareAckInfoEntry(entry, missing, entry.getAckAddress()));
-					Log.writeLine(Log.LOG_LEVEL_DEBUG, "Last dataPDU received for the first time " + entry.getState().toString());
+					Log.writeLine(Log.LOG_LEVEL_DEBUG, "Last dataPDU received for the first time {}", entry.getState());
 				
 			}else{
 				// Missing MM or more pdus
 				if (entry.getAddressPdu() != null && missing.size() >= Configuration.getMm()) {
 					ackInfoEntriesList.add(prepareAckInfoEntry(entry, missing, entry.getAckAddress()));
-					Log.writeLine(Log.LOG_LEVEL_DEBUG, "MM dataPdus missing " + entry.getState().toString());
+					Log.writeLine(Log.LOG_LEVEL_DEBUG, "MM dataPdus missing {}", entry.getState());
 				}
 			}
 		
@@ -825,14 +891,15 @@ public class TimerThread extends Thread {
 			//Not in EMCON
 			//Prepare ack
 			AckInfoEntry[] ackInfoEntries = new AckInfoEntry[ackInfoEntriesList.size()];
-			int sourceID = Configuration.getNodeId();
+			int sourceID = rdt.getNodeId();
 			for(int i = 0; i < ackInfoEntriesList.size(); i++){
 				ackInfoEntries[i] = ackInfoEntriesList.get(i);
 				
             }
 
             if ( missing != null && missing.size() != 0 ) {
-                ArrayList<AckPdu> ackPdus = AckPdu.create(sourceID, currentEntry.getPriority(), ackInfoEntries);
+                ArrayList<AckPdu> ackPdus = AckPdu.create(sourceID, currentEntry.getPriority(), ackInfoEntries,
+                        rdt.getPduMaxSize(destinationAddress));
                 PacketEntry entry = new PacketEntry();
                 entry.addAckPdus(ackPdus);
                 entry.addDestinationAddress(destinationAddress);
@@ -862,8 +929,9 @@ public class TimerThread extends Thread {
 	    
 	    AckInfoEntry[] ackInfoEntries = new AckInfoEntry[1];
         ackInfoEntries[0] = prepareAckInfoEntry(currentEntry, new ArrayList<Integer>(), currentEntry.getAckAddress());
-	    int sourceID = Configuration.getNodeId();
-	    ArrayList<AckPdu> ackPdus = AckPdu.create(sourceID, currentEntry.getPriority(), ackInfoEntries);
+	    int sourceID = rdt.getNodeId();
+	    ArrayList<AckPdu> ackPdus = AckPdu.create(sourceID, currentEntry.getPriority(), ackInfoEntries,
+	            rdt.getPduMaxSize(currentEntry.getAckAddress()));
 	    entry.addAckPdus(ackPdus);
 	    
 	    entry.addDestinationAddress(currentEntry.getAckAddress());
@@ -887,16 +955,13 @@ public class TimerThread extends Thread {
 			ArrayList<Integer> missing, InetAddress destinationAddress)
 			throws InterruptedException {
 
-		int sourceID = Configuration.getNodeId();
+		int sourceID = rdt.getNodeId();
 		int messageID = currentEntry.getAddressPdu().getMessageId();
 		short[] m;
 		
 		if(rdt.EMCON.get()){
 			//In EMCON
-			HashValue key = new HashValue(messageID, sourceID);
-			if(!rdt.readyToAckEmcon.containsKey(key)){
-				rdt.readyToAckEmcon.put(key, currentEntry);
-			}
+			rdt.readyToAckEmcon.putIfAbsent(MessageTable.key(messageID, sourceID), currentEntry);
 		}
 		
 		if (missing.size() <= Configuration.getMm()) {
@@ -919,7 +984,7 @@ public class TimerThread extends Thread {
 		MessageEntry currentEntry = timer.getMsg();
 		
 		if(currentEntry.getAndDecrementAnnounceCt() > 0){
-		    Log.writeLine(Log.LOG_LEVEL_DEBUG, currentEntry.getAnnounceCt() + " announces left to send.");
+		    Log.writeLine(Log.LOG_LEVEL_DEBUG, "{} announces left to send.", currentEntry.getAnnounceCt());
 			PacketEntry packet = new PacketEntry();
 			packet.addAnnouncePdu(currentEntry.getAnnouncePdu());
 			
@@ -77,11 +77,6 @@ public enum TimerType {
      */
     ACK_TIMER, 
     
-    /**
-     * 
-     */
-    UNIDENTIFIED_DATA_DPU_VALIDITY_TIMER, 
-    
     /**
      * 
      */
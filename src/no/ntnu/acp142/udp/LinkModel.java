@@ -0,0 +1,188 @@
+﻿package no.ntnu.acp142.udp;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * 
+ * Describes how a link of a {@link MemoryBus} treats the packets sent over it.
+ * A new LinkModel is a perfect link: no loss, no delay and unlimited
+ * bandwidth. <br>
+ * <br>
+ * Each packet is first lost with probability lossRate. A packet that is not
+ * lost waits for the link to finish sending the packets before it, at the
+ * given bandwidth, and is then delayed by delay plus a uniform random jitter
+ * of at most jitter milliseconds. With probability reorderRate a packet is
+ * held back a further reorderDelay milliseconds, so packets sent after it
+ * overtake it. With probability duplicateRate a packet is delivered twice.
+ * 
+ * @author libjpmul contributors
+ *
+ */
+public class LinkModel {
+
+    private double lossRate;
+    private long   delay;
+    private long   jitter;
+    private double reorderRate;
+    private long   reorderDelay;
+    private double duplicateRate;
+    private long   bandwidth;
+
+    /**
+     * Creates a perfect link.
+     */
+    public LinkModel() {
+    }
+
+    /**
+     * Creates a link with the given loss and delay.
+     * 
+     * @param lossRate
+     *            probability of losing a packet, 0 to 1.
+     * @param delay
+     *            delay of every packet in milliseconds.
+     * @param jitter
+     *            maximum random delay added to every packet in milliseconds.
+     */
+    public LinkModel(double lossRate, long delay, long jitter) {
+        this.lossRate = lossRate;
+        this.delay = delay;
+        this.jitter = jitter;
+    }
+
+    /**
+     * @return probability of losing a packet.
+     */
+    public double getLossRate( ) {
+        return lossRate;
+    }
+
+    /**
+     * @param lossRate
+     *            probability of losing a packet, 0 to 1.
+     */
+    public void setLossRate( double lossRate ) {
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * @return delay of every packet in milliseconds.
+     */
+    public long getDelay( ) {
+        return delay;
+    }
+
+    /**
+     * @param delay
+     *            delay of every packet in milliseconds.
+     */
+    public void setDelay( long delay ) {
+        this.delay = delay;
+    }
+
+    /**
+     * @return maximum random delay added to every packet in milliseconds.
+     */
+    public long getJitter( ) {
+        return jitter;
+    }
+
+    /**
+     * @param jitter
+     *            maximum random delay added to every packet in milliseconds.
+     */
+    public void setJitter( long jitter ) {
+        this.jitter = jitter;
+    }
+
+    /**
+     * @return probability of holding a packet back.
+     */
+    public double getReorderRate( ) {
+        return reorderRate;
+    }
+
+    /**
+     * @param reorderRate
+     *            probability of holding a packet back, 0 to 1.
+     */
+    public void setReorderRate( double reorderRate ) {
+        this.reorderRate = reorderRate;
+    }
+
+    /**
+     * @return time a packet is held back in milliseconds.
+     */
+    public long getReorderDelay( ) {
+        return reorderDelay;
+    }
+
+    /**
+     * @param reorderDelay
+     *            time a packet is held back in milliseconds.
+     */
+    public void setReorderDelay( long reorderDelay ) {
+        this.reorderDelay = reorderDelay;
+    }
+
+    /**
+     * @return probability of delivering a packet twice.
+     */
+    public double getDuplicateRate( ) {
+        return duplicateRate;
+    }
+
+    /**
+     * @param duplicateRate
+     *            probability of delivering a packet twice, 0 to 1.
+     */
+    public void setDuplicateRate( double duplicateRate ) {
+        this.duplicateRate = duplicateRate;
+    }
+
+    /**
+     * @return bandwidth of the link in bits per second, 0 if unlimited.
+     */
+    public long getBandwidth( ) {
+        return bandwidth;
+    }
+
+    /**
+     * @param bandwidth
+     *            bandwidth of the link in bits per second, 0 if unlimited.
+     */
+    public void setBandwidth( long bandwidth ) {
+        this.bandwidth = bandwidth;
+    }
+}
@@ -0,0 +1,462 @@
+﻿package no.ntnu.acp142.udp;
+
+import java.net.InetAddress;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import no.ntnu.acp142.Clock;
+import no.ntnu.acp142.Log;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * 
+ * An in-memory multicast network connecting {@link MemoryTransport}s, so that
+ * many nodes can run in one JVM without opening any sockets. Packets sent to a
+ * multicast group are delivered to every transport that is a member of the
+ * group, including the sender itself, and packets sent to a unicast address
+ * to the transport with that address. <br>
+ * <br>
+ * Every pair of transports is connected by a link, which loses, delays,
+ * reorders and duplicates packets as given by its {@link LinkModel}. Each
+ * link draws its random decisions from its own Random, seeded from the seed
+ * of the bus and the addresses of the link, so the same packets sent over a
+ * link meet the same fate in every run. Packets to the sender itself never
+ * pass a link. Delayed packets are delivered by a single daemon thread, in
+ * the time of the library {@link Clock}, until the bus is closed.
+ * 
+ * @author libjpmul contributors
+ *
+ */
+public class MemoryBus {
+
+    /**
+     * Transports attached to the bus, by address.
+     */
+    private final ConcurrentHashMap<InetAddress, MemoryTransport> transports;
+
+    /**
+     * Link models set for single links, by link key.
+     */
+    private final ConcurrentHashMap<String, LinkModel>            linkModels;
+
+    /**
+     * State of every link that has carried a packet, by link key.
+     */
+    private final ConcurrentHashMap<String, LinkState>            linkStates;
+
+    /**
+     * Link model of links without a model of their own.
+     */
+    private volatile LinkModel                                    defaultLinkModel;
+
+    /**
+     * Seed of the random decisions of the links.
+     */
+    private final long                                            seed;
+
+    /**
+     * Packets waiting for their delivery time.
+     */
+    private final PriorityQueue<Delivery>                         deliveries;
+
+    /**
+     * Orders deliveries with the same delivery time.
+     */
+    private final AtomicLong                                      deliverySequence;
+
+    /**
+     * Delivers the delayed packets.
+     */
+    private final Thread                                          deliveryThread;
+
+    /**
+     * Set when the bus is closed.
+     */
+    private volatile boolean                                      closed;
+
+    /**
+     * Statistics
+     */
+    private final AtomicLong                                      sentPackets;
+    private final AtomicLong                                      deliveredPackets;
+    private final AtomicLong                                      lostPackets;
+    private final AtomicLong                                      duplicatedPackets;
+    private final AtomicLong                                      deliveredBytes;
+
+    /**
+     * Creates a bus of perfect links.
+     * 
+     * @param seed
+     *            seed of the random decisions of the links.
+     */
+    public MemoryBus(long seed) {
+        this.seed = seed;
+        transports = new ConcurrentHashMap<InetAddress, MemoryTransport>();
+        linkModels = new ConcurrentHashMap<String, LinkModel>();
+        linkStates = new ConcurrentHashMap<String, LinkState>();
+        defaultLinkModel = new LinkModel();
+        deliveries = new PriorityQueue<Delivery>();
+        deliverySequence = new AtomicLong();
+        sentPackets = new AtomicLong();
+        deliveredPackets = new AtomicLong();
+        lostPackets = new AtomicLong();
+        duplicatedPackets = new AtomicLong();
+        deliveredBytes = new AtomicLong();
+
+        deliveryThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!closed) {
+                    try {
+                        Delivery delivery = takeDelivery();
+                        if ( delivery == null ) {
+                            return;
+                        }
+                        deliver(delivery.destination, delivery.source, delivery.data);
+                    } catch (InterruptedException e) {
+                        Log.writeLine(Log.LOG_LEVEL_DEBUG, "Interrupted delivery thread of MemoryBus");
+                        return;
+                    }
+                }
+            }
+        }, "MemoryBus delivery");
+        deliveryThread.setDaemon(true);
+        deliveryThread.start();
+    }
+
+    /**
+     * Creates a transport with the given address and attaches it to the bus.
+     * 
+     * @param address
+     *            the unicast address of the new transport.
+     * @return the transport.
+     * @throws IllegalArgumentException
+     *             if a transport with this address is attached already.
+     */
+    public MemoryTransport createTransport( InetAddress address ) throws IllegalArgumentException {
+        MemoryTransport transport = new MemoryTransport(this, address);
+        if ( transports.putIfAbsent(address, transport) != null ) {
+            throw new IllegalArgumentException("Address " + address.getHostAddress() + " is in use on the bus.");
+        }
+        return transport;
+    }
+
+    /**
+     * Detaches the given transport from the bus. Packets to it that are
+     * still delayed on a link are dropped on delivery.
+     * 
+     * @param transport
+     *            the transport to detach.
+     */
+    public void removeTransport( MemoryTransport transport ) {
+        transports.remove(transport.getLocalAddress(), transport);
+    }
+
+    /**
+     * Closes the bus. The delivery thread stops, delayed packets are dropped,
+     * and packets sent afterwards are lost.
+     */
+    public void close( ) {
+        closed = true;
+        synchronized (deliveries) {
+            deliveries.clear();
+            deliveries.notifyAll();
+        }
+        deliveryThread.interrupt();
+    }
+
+    /**
+     * Sets the link model of all links without a model of their own.
+     * 
+     * @param linkModel
+     *            the link model.
+     */
+    public void setDefaultLinkModel( LinkModel linkModel ) {
+        this.defaultLinkModel = linkModel;
+    }
+
+    /**
+     * Sets the link model of the link from one address to another. The link
+     * in the opposite direction is not affected.
+     * 
+     * @param from
+     *            address of the sender.
+     * @param to
+     *            address of the receiver.
+     * @param linkModel
+     *            the link model, or null to use the default link model.
+     */
+    public void setLinkModel( InetAddress from, InetAddress to, LinkModel linkModel ) {
+        if ( linkModel == null ) {
+            linkModels.remove(getLinkKey(from, to));
+        } else {
+            linkModels.put(getLinkKey(from, to), linkModel);
+        }
+    }
+
+    /**
+     * @return number of packets sent to a transport over a link.
+     */
+    public long getSentPackets( ) {
+        return sentPackets.get();
+    }
+
+    /**
+     * @return number of packets delivered to a transport, duplicates included.
+     */
+    public long getDeliveredPackets( ) {
+        return deliveredPackets.get();
+    }
+
+    /**
+     * @return number of packets lost on a link.
+     */
+    public long getLostPackets( ) {
+        return lostPackets.get();
+    }
+
+    /**
+     * @return number of packets duplicated on a link.
+     */
+    public long getDuplicatedPackets( ) {
+        return duplicatedPackets.get();
+    }
+
+    /**
+     * @return number of bytes delivered to a transport, duplicates included.
+     */
+    public long getDeliveredBytes( ) {
+        return deliveredBytes.get();
+    }
+
+    /**
+     * Sends a packet from the given transport to a multicast group or unicast
+     * address.
+     * 
+     * @param source
+     *            the sending transport.
+     * @param data
+     *            the packet.
+     * @param destination
+     *            multicast group or unicast address to send to.
+     */
+    void send( MemoryTransport source, byte[] data, InetAddress destination ) {
+        if ( closed ) {
+            return;
+        }
+        if ( destination.isMulticastAddress() ) {
+            for (MemoryTransport transport : transports.values()) {
+                if ( transport.isMember(destination) ) {
+                    send(source, transport, data);
+                }
+            }
+        } else {
+            MemoryTransport transport = transports.get(destination);
+            if ( transport != null ) {
+                send(source, transport, data);
+            }
+        }
+    }
+
+    /**
+     * Sends a packet over the link from one transport to another.
+     * 
+     * @param source
+     *            the sending transport.
+     * @param destination
+     *            the receiving transport.
+     * @param data
+     *            the packet.
+     */
+    private void send( MemoryTransport source, MemoryTransport destination, byte[] data ) {
+        InetAddress sourceAddress = source.getLocalAddress();
+        if ( source == destination ) {
+            deliver(destination, sourceAddress, data);
+            return;
+        }
+
+        sentPackets.incrementAndGet();
+        String linkKey = getLinkKey(sourceAddress, destination.getLocalAddress());
+        LinkModel linkModel = linkModels.get(linkKey);
+        if ( linkModel == null ) {
+            linkModel = defaultLinkModel;
+        }
+
+        LinkState linkState = linkStates.get(linkKey);
+        if ( linkState == null ) {
+            linkStates.putIfAbsent(linkKey, new LinkState(seed * 31 + linkKey.hashCode()));
+            linkState = linkStates.get(linkKey);
+        }
+
+        long now = Clock.nanoTime();
+        long deliveryTime;
+        int copies = 1;
+        synchronized (linkState) {
+            Random random = linkState.random;
+            if ( linkModel.getLossRate() > 0 && random.nextDouble() < linkModel.getLossRate() ) {
+                lostPackets.incrementAndGet();
+                return;
+            }
+
+            // The packet leaves when the link has sent the packets before it
+            deliveryTime = now;
+            if ( linkModel.getBandwidth() > 0 ) {
+                deliveryTime = Math.max(now, linkState.busyUntil) + data.length * 8L * 1000000000L
+                        / linkModel.getBandwidth();
+                linkState.busyUntil = deliveryTime;
+            }
+
+            long delay = linkModel.getDelay();
+            if ( linkModel.getJitter() > 0 ) {
+                delay += (long) (random.nextDouble() * (linkModel.getJitter() + 1));
+            }
+            if ( linkModel.getReorderRate() > 0 && random.nextDouble() < linkModel.getReorderRate() ) {
+                delay += linkModel.getReorderDelay();
+            }
+            deliveryTime += TimeUnit.MILLISECONDS.toNanos(delay);
+
+            if ( linkModel.getDuplicateRate() > 0 && random.nextDouble() < linkModel.getDuplicateRate() ) {
+                duplicatedPackets.incrementAndGet();
+                copies = 2;
+            }
+        }
+
+        for (int i = 0; i < copies; i++) {
+            if ( deliveryTime <= now ) {
+                deliver(destination, sourceAddress, data);
+            } else {
+                synchronized (deliveries) {
+                    deliveries.add(new Delivery(deliveryTime, deliverySequence.getAndIncrement(), destination,
+                            sourceAddress, data));
+                    deliveries.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the earliest delayed packet is due, and removes it.
+     * 
+     * @return the delivery of the packet, or null if the bus is closed.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    private Delivery takeDelivery( ) throws InterruptedException {
+        synchronized (deliveries) {
+            while (!closed) {
+                Delivery delivery = deliveries.peek();
+                if ( delivery == null ) {
+                    deliveries.wait();
+                    continue;
+                }
+                long delay = delivery.deliveryTime - Clock.nanoTime();
+                if ( delay <= 0 ) {
+                    return deliveries.poll();
+                }
+                Clock.waitOnNanos(deliveries, delay);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Delivers a copy of a packet to a transport, if it is still attached.
+     * 
+     * @param destination
+     *            the receiving transport.
+     * @param source
+     *            address of the sender.
+     * @param data
+     *            the packet.
+     */
+    private void deliver( MemoryTransport destination, InetAddress source, byte[] data ) {
+        if ( transports.get(destination.getLocalAddress()) != destination ) {
+            return;
+        }
+        deliveredPackets.incrementAndGet();
+        deliveredBytes.addAndGet(data.length);
+        destination.deliver(source, data.clone());
+    }
+
+    /**
+     * @return the key of the link from one address to another.
+     */
+    private static String getLinkKey( InetAddress from, InetAddress to ) {
+        return from.getHostAddress() + ">" + to.getHostAddress();
+    }
+
+    /**
+     * The random decisions and the sending queue of a link.
+     */
+    private static class LinkState {
+        private final Random random;
+        private long         busyUntil;
+
+        private LinkState(long seed) {
+            this.random = new Random(seed);
+        }
+    }
+
+    /**
+     * A packet waiting for its delivery time.
+     */
+    private static class Delivery implements Comparable<Delivery> {
+        private final long            deliveryTime;
+        private final long            sequence;
+        private final MemoryTransport destination;
+        private final InetAddress     source;
+        private final byte[]          data;
+
+        private Delivery(long deliveryTime, long sequence, MemoryTransport destination, InetAddress source,
+                byte[] data) {
+            this.deliveryTime = deliveryTime;
+            this.sequence = sequence;
+            this.destination = destination;
+            this.source = source;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo( Delivery delivery ) {
+            if ( deliveryTime != delivery.deliveryTime ) {
+                return deliveryTime < delivery.deliveryTime ? -1 : 1;
+            }
+            return Long.compare(sequence, delivery.sequence);
+        }
+    }
+}
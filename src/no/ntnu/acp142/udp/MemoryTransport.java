@@ -0,0 +1,197 @@
+﻿package no.ntnu.acp142.udp;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import no.ntnu.acp142.Configuration;
+import no.ntnu.acp142.Log;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * 
+ * A transport over a {@link MemoryBus}. Like a UDPWrapper it is always a
+ * member of GG, and receives packets sent to its own address and to the
+ * multicast groups it has joined. Priorities are ignored, as the bus has no
+ * traffic classes.
+ * 
+ * @author libjpmul contributors
+ *
+ */
+public class MemoryTransport implements Transport {
+
+    /**
+     * The bus we send packets on.
+     */
+    private final MemoryBus                                  bus;
+
+    /**
+     * Our unicast address on the bus.
+     */
+    private final InetAddress                                address;
+
+    /**
+     * A blocking queue where the bus puts tuples of source address and packets.
+     */
+    private final BlockingQueue<Tuple<InetAddress, byte[]>> queue;
+
+    /**
+     * List of multicast groups
+     */
+    private final CopyOnWriteArrayList<InetAddress>          multicastGroups;
+
+    /**
+     * Creates a transport. Use {@link MemoryBus#createTransport(InetAddress)}.
+     * 
+     * @param bus
+     *            the bus to send packets on.
+     * @param address
+     *            our unicast address on the bus.
+     */
+    MemoryTransport(MemoryBus bus, InetAddress address) {
+        this.bus = bus;
+        this.address = address;
+        this.queue = new LinkedBlockingQueue<Tuple<InetAddress, byte[]>>();
+        this.multicastGroups = new CopyOnWriteArrayList<InetAddress>();
+    }
+
+    /**
+     * Detaches this transport from its bus. No packets are received after
+     * this.
+     */
+    @Override
+    public void close( ) {
+        bus.removeTransport(this);
+    }
+
+    /**
+     * Puts a packet delivered by the bus in the receiving queue.
+     * 
+     * @param source
+     *            address of the sender.
+     * @param data
+     *            the packet.
+     */
+    void deliver( InetAddress source, byte[] data ) {
+        queue.add(new Tuple<InetAddress, byte[]>(source, data));
+    }
+
+    /**
+     * Returns true if packets sent to the given multicast group should be
+     * delivered to us.
+     * 
+     * @param multicastGroup
+     *            the multicast group.
+     * @return true if we are a member of the group.
+     */
+    boolean isMember( InetAddress multicastGroup ) {
+        if ( multicastGroups.contains(multicastGroup) ) {
+            return true;
+        }
+        try {
+            return multicastGroup.equals(Configuration.getGg());
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public InetAddress getLocalAddress( ) {
+        return address;
+    }
+
+    @Override
+    public Tuple<InetAddress, byte[]> receivePacket( ) {
+        Tuple<InetAddress, byte[]> tmp = null;
+        try {
+            tmp = queue.take();
+        } catch (InterruptedException e) {
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Interrupted while waiting for a packet from MemoryBus");
+        }
+        return tmp;
+    }
+
+    @Override
+    public void joinMulticastGroup( InetAddress multicastGroup ) {
+        multicastGroups.addIfAbsent(multicastGroup);
+    }
+
+    @Override
+    public void leaveMulticastGroup( InetAddress multicastGroup ) {
+        multicastGroups.remove(multicastGroup);
+        Log.writeLine(Log.LOG_LEVEL_DEBUG, "Leaving multicast group: {}", multicastGroup.getHostAddress());
+    }
+
+    @Override
+    public CopyOnWriteArrayList<InetAddress> getCurrentMulticastGroups( ) {
+        return multicastGroups;
+    }
+
+    @Override
+    public void sendRequestReleasePdu( byte[] data, InetAddress group ) {
+        bus.send(this, data, group);
+    }
+
+    @Override
+    public void sendRejectPdu( byte[] data, InetAddress destination ) {
+        bus.send(this, data, destination);
+    }
+
+    @Override
+    public void sendAnnouncePdu( byte[] data ) {
+        try {
+            bus.send(this, data, Configuration.getGg());
+        } catch (UnknownHostException e) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "UnknownHostException in sendAnnouncePdu in class MemoryTransport");
+        }
+    }
+
+    @Override
+    public void sendAddressDataPdu( byte[] data, InetAddress destination, int priority ) {
+        bus.send(this, data, destination);
+    }
+
+    @Override
+    public void sendAckPdu( byte[] data, InetAddress destination, int priority ) {
+        bus.send(this, data, destination);
+    }
+
+    @Override
+    public void sendDiscardPdu( byte[] binary, InetAddress destinationAddress, int priority ) {
+        bus.send(this, binary, destinationAddress);
+    }
+}
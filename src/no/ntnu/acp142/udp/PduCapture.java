@@ -0,0 +1,258 @@
+﻿package no.ntnu.acp142.udp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+
+import no.ntnu.acp142.Clock;
+import no.ntnu.acp142.Log;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * 
+ * Writes every datagram received by a UDPWrapper to a capture file, so the
+ * traffic can be replayed with a {@link ReplayTransport}. Capturing is enabled
+ * by the CAPTURE_FILE parameter. <br>
+ * <br>
+ * A capture file starts with the marker "JPC1", the start time in
+ * milliseconds since the epoch and the local address. Each datagram follows
+ * as its time in nanoseconds since the start, source address, source port,
+ * length and bytes. An address is written as its length, 4 or 16, and its
+ * bytes. All numbers are big endian.
+ * 
+ * @author libjpmul contributors
+ *
+ */
+public class PduCapture implements Closeable {
+
+    /**
+     * Marks a capture file ("JPC1").
+     */
+    private static final int       CAPTURE_MARKER = 0x4A504331;
+
+    /**
+     * Size of the write buffer.
+     */
+    private static final int       BUFFER_SIZE    = 1 << 16;
+
+    private final DataOutputStream out;
+
+    /**
+     * Time of the start of the capture in nanoseconds.
+     */
+    private final long             startTime;
+
+    private boolean                closed         = false;
+
+    /**
+     * Creates a capture file, replacing any existing file. The file is closed
+     * when the JVM shuts down, if not closed before.
+     * 
+     * @param path
+     *            location of the capture file.
+     * @param localAddress
+     *            address of the interface the datagrams are received on.
+     * @throws IOException
+     *             if the file can not be created.
+     */
+    public PduCapture(String path, InetAddress localAddress) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), BUFFER_SIZE));
+        startTime = Clock.nanoTime();
+        out.writeInt(CAPTURE_MARKER);
+        out.writeLong(Clock.currentTimeMillis());
+        writeAddress(out, localAddress);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        }));
+    }
+
+    /**
+     * Writes a received datagram to the capture file.
+     * 
+     * @param source
+     *            source address of the datagram.
+     * @param port
+     *            source port of the datagram.
+     * @param data
+     *            buffer holding the datagram.
+     * @param length
+     *            length of the datagram.
+     */
+    public synchronized void write( InetAddress source, int port, byte[] data, int length ) {
+        if ( closed ) {
+            return;
+        }
+        try {
+            out.writeLong(Clock.nanoTime() - startTime);
+            writeAddress(out, source);
+            out.writeShort(port);
+            out.writeInt(length);
+            out.write(data, 0, length);
+        } catch (IOException e) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "IOException in write in class PduCapture; capture stopped.");
+            close();
+        }
+    }
+
+    /**
+     * Flushes and closes the capture file.
+     */
+    @Override
+    public synchronized void close( ) {
+        if ( closed ) {
+            return;
+        }
+        closed = true;
+        try {
+            out.close();
+        } catch (IOException e) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "IOException in close in class PduCapture");
+        }
+    }
+
+    private static void writeAddress( DataOutputStream out, InetAddress address ) throws IOException {
+        byte[] bytes = address.getAddress();
+        out.writeByte(bytes.length);
+        out.write(bytes);
+    }
+
+    private static InetAddress readAddress( DataInputStream in ) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedByte()];
+        in.readFully(bytes);
+        return InetAddress.getByAddress(bytes);
+    }
+
+    /**
+     * A datagram read from a capture file.
+     */
+    public static class Record {
+        /**
+         * Time of the datagram in nanoseconds since the start of the capture.
+         */
+        public final long        time;
+        public final InetAddress source;
+        public final int         port;
+        public final byte[]      data;
+
+        private Record(long time, InetAddress source, int port, byte[] data) {
+            this.time = time;
+            this.source = source;
+            this.port = port;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Reads the datagrams of a capture file in order.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long            startTime;
+        private final InetAddress     localAddress;
+
+        /**
+         * Opens a capture file.
+         * 
+         * @param path
+         *            location of the capture file.
+         * @throws IOException
+         *             if the file can not be read, or is not a capture file.
+         */
+        public Reader(String path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE));
+            try {
+                if ( in.readInt() != CAPTURE_MARKER ) {
+                    throw new IOException(path + " is not a capture file.");
+                }
+                startTime = in.readLong();
+                localAddress = readAddress(in);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return start time of the capture in milliseconds since the epoch.
+         */
+        public long getStartTime( ) {
+            return startTime;
+        }
+
+        /**
+         * @return address of the interface the datagrams were received on.
+         */
+        public InetAddress getLocalAddress( ) {
+            return localAddress;
+        }
+
+        /**
+         * Reads the next datagram.
+         * 
+         * @return the datagram, or null at the end of the capture.
+         * @throws IOException
+         *             if the file can not be read, or ends within a datagram.
+         */
+        public Record next( ) throws IOException {
+            long time;
+            try {
+                time = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            InetAddress source = readAddress(in);
+            int port = in.readUnsignedShort();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new Record(time, source, port, data);
+        }
+
+        @Override
+        public void close( ) throws IOException {
+            in.close();
+        }
+    }
+}
@@ -84,17 +84,25 @@ public class ReceiveThread extends Thread {
             Tuple<InetAddress, byte[]> data = null;
             try {
                 
-                int length = Configuration.getPduMaxSize();
+                int length = Configuration.getPduMaxReceiveSize();
                 byte buffer[] = new byte[length];
                 DatagramPacket packet = new DatagramPacket(buffer, length);
                 socket.receive(packet);
 
                 Log.writeLine(Log.LOG_LEVEL_DEBUG, "Received data");
+                if ( udpWrapper.capture != null ) {
+                    udpWrapper.capture.write(packet.getAddress(), packet.getPort(), packet.getData(),
+                            packet.getLength());
+                }
                 data = new Tuple<InetAddress, byte[]>(packet.getAddress(), packet.getData());
                 udpWrapper.queue.put(data);
                 Log.writeLine(Log.LOG_LEVEL_DEBUG, "Received and put data in queue");
 
             } catch (IOException e) {
+                if ( socket.isClosed() ) {
+                    // The transport is closed
+                    return;
+                }
                 // TODO Auto-generated catch block
                 e.printStackTrace();
             } catch (InterruptedException e) {
@@ -122,7 +130,7 @@ public class ReceiveThread extends Thread {
     public void joinMulticastGroup(InetAddress multicastAddress){
         
         try {
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Trying to join: " + multicastAddress.getHostAddress());
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Trying to join: {}", multicastAddress.getHostAddress());
             socket.joinGroup(multicastAddress);
        
         } catch(SocketException se){
@@ -146,7 +154,7 @@ public class ReceiveThread extends Thread {
     public void leaveMulticastGroup(InetAddress multicastAddress){
        
         try {
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Leaving multicast group: " + multicastAddress.getHostAddress());
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Leaving multicast group: {}", multicastAddress.getHostAddress());
             socket.leaveGroup(multicastAddress);
         } catch (IOException e) {
             // TODO Auto-generated catch block
@@ -0,0 +1,229 @@
+﻿package no.ntnu.acp142.udp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import no.ntnu.acp142.Clock;
+import no.ntnu.acp142.Log;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * 
+ * A transport that feeds the datagrams of a capture file, written by
+ * {@link PduCapture}, to the RDT layer, and discards everything sent. Its
+ * local address is that of the captured node, so the node ID derived from it
+ * matches the captured traffic unless NODE_ID was set by hand. <br>
+ * <br>
+ * Datagrams are replayed with the spacing they were captured with, divided
+ * by the speed. A speed of {@link #AS_FAST_AS_POSSIBLE} replays them as fast
+ * as the RDT layer takes them.
+ * 
+ * @author libjpmul contributors
+ *
+ */
+public class ReplayTransport implements Transport {
+
+    /**
+     * Speed to replay at without any spacing.
+     */
+    public static final double                      AS_FAST_AS_POSSIBLE = 0;
+
+    private final PduCapture.Reader                 reader;
+
+    private final double                            speed;
+
+    /**
+     * Time the first datagram was replayed in nanoseconds, -1 before that.
+     */
+    private long                                    replayStart         = -1;
+
+    /**
+     * Counted down when the RDT layer asks for a datagram after the last.
+     */
+    private final CountDownLatch                    end                 = new CountDownLatch(1);
+
+    private final AtomicLong                        replayedPackets     = new AtomicLong();
+    private final AtomicLong                        discardedPackets    = new AtomicLong();
+
+    /**
+     * List of multicast groups
+     */
+    private final CopyOnWriteArrayList<InetAddress> multicastGroups     = new CopyOnWriteArrayList<InetAddress>();
+
+    /**
+     * Opens a capture file for replay.
+     * 
+     * @param path
+     *            location of the capture file.
+     * @param speed
+     *            replay speed relative to the captured speed, or
+     *            AS_FAST_AS_POSSIBLE.
+     * @throws IOException
+     *             if the file can not be read, or is not a capture file.
+     */
+    public ReplayTransport(String path, double speed) throws IOException {
+        this.reader = new PduCapture.Reader(path);
+        this.speed = speed;
+    }
+
+    /**
+     * Waits until every datagram of the capture has been taken and handled by
+     * the RDT layer.
+     * 
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    public void awaitEnd( ) throws InterruptedException {
+        end.await();
+    }
+
+    /**
+     * @return number of datagrams replayed so far.
+     */
+    public long getReplayedPackets( ) {
+        return replayedPackets.get();
+    }
+
+    /**
+     * @return number of PDUs the RDT layer sent, and that were discarded.
+     */
+    public long getDiscardedPackets( ) {
+        return discardedPackets.get();
+    }
+
+    @Override
+    public InetAddress getLocalAddress( ) {
+        return reader.getLocalAddress();
+    }
+
+    /**
+     * Returns the next datagram of the capture when it is due. Blocks forever
+     * after the last datagram, as a socket without traffic.
+     * 
+     * @return tuple of source address and datagram, or null if interrupted.
+     */
+    @Override
+    public Tuple<InetAddress, byte[]> receivePacket( ) {
+        try {
+            PduCapture.Record record = null;
+            try {
+                record = reader.next();
+            } catch (IOException e) {
+                Log.writeLine(Log.LOG_LEVEL_NORMAL, "IOException in receivePacket in class ReplayTransport; "
+                        + "replay ended.");
+            }
+            if ( record == null ) {
+                end.countDown();
+                new CountDownLatch(1).await();
+                return null;
+            }
+
+            if ( speed > 0 ) {
+                if ( replayStart < 0 ) {
+                    replayStart = Clock.nanoTime() - (long) (record.time / speed);
+                }
+                long delay = replayStart + (long) (record.time / speed) - Clock.nanoTime();
+                if ( delay > 0 ) {
+                    Clock.getClock().sleepNanos(delay);
+                }
+            }
+            replayedPackets.incrementAndGet();
+            return new Tuple<InetAddress, byte[]>(record.source, record.data);
+        } catch (InterruptedException e) {
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Interrupted while replaying a capture");
+            return null;
+        }
+    }
+
+    @Override
+    public void joinMulticastGroup( InetAddress multicastGroup ) {
+        multicastGroups.addIfAbsent(multicastGroup);
+    }
+
+    @Override
+    public void leaveMulticastGroup( InetAddress multicastGroup ) {
+        multicastGroups.remove(multicastGroup);
+    }
+
+    @Override
+    public CopyOnWriteArrayList<InetAddress> getCurrentMulticastGroups( ) {
+        return multicastGroups;
+    }
+
+    @Override
+    public void sendRequestReleasePdu( byte[] data, InetAddress group ) {
+        discardedPackets.incrementAndGet();
+    }
+
+    @Override
+    public void sendRejectPdu( byte[] data, InetAddress destination ) {
+        discardedPackets.incrementAndGet();
+    }
+
+    @Override
+    public void sendAnnouncePdu( byte[] data ) {
+        discardedPackets.incrementAndGet();
+    }
+
+    @Override
+    public void sendAddressDataPdu( byte[] data, InetAddress destination, int priority ) {
+        discardedPackets.incrementAndGet();
+    }
+
+    @Override
+    public void sendAckPdu( byte[] data, InetAddress destination, int priority ) {
+        discardedPackets.incrementAndGet();
+    }
+
+    @Override
+    public void sendDiscardPdu( byte[] binary, InetAddress destinationAddress, int priority ) {
+        discardedPackets.incrementAndGet();
+    }
+
+    /**
+     * Closes the capture file.
+     */
+    @Override
+    public void close( ) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            Log.writeLine(Log.LOG_LEVEL_NORMAL, "IOException in close in class ReplayTransport");
+        }
+    }
+}
@@ -0,0 +1,165 @@
+﻿package no.ntnu.acp142.udp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+ * Copyright (c) 2026, the libjpmul contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     (1) Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer. 
+ * 
+ *     (2) Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in
+ *     the documentation and/or other materials provided with the
+ *     distribution.  
+ *     
+ *     (3) The name of the author may not be used to
+ *     endorse or promote products derived from this software without
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING
+ * IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * 
+ * The packet transport used by the RDT layer. A transport delivers received
+ * packets, tagged with the address of their source, and sends the PDUs of the
+ * RDT layer to their groups and destinations. {@link UDPWrapper} is the
+ * transport over UDP sockets, {@link MemoryTransport} a transport over an
+ * in-memory {@link MemoryBus}.
+ * 
+ * @author libjpmul contributors
+ *
+ */
+public interface Transport {
+
+    /**
+     * Returns the address of the local interface of this transport. Packets
+     * we send carry this address as their source address.
+     * 
+     * @return the local address.
+     */
+    public InetAddress getLocalAddress( );
+
+    /**
+     * This function is called by the RDT layer to get a packet
+     * from the receiving queue. This method will block.
+     * 
+     * @return tuple of source address and packet in bytes
+     */
+    public Tuple<InetAddress, byte[]> receivePacket( );
+
+    /**
+     * Join the given multicast group so that messages sent to us on this
+     * group gets picked up.
+     * 
+     * @param multicastGroup
+     *            the multicast group to join.
+     */
+    public void joinMulticastGroup( InetAddress multicastGroup );
+
+    /**
+     * Leave the given multicast group.
+     * 
+     * @param multicastGroup
+     *            the multicast group to leave.
+     */
+    public void leaveMulticastGroup( InetAddress multicastGroup );
+
+    /**
+     * Get all multicast groups that we currently listen to/are members of.
+     * 
+     * @return All multicast groups we are members of.
+     */
+    public CopyOnWriteArrayList<InetAddress> getCurrentMulticastGroups( );
+
+    /**
+     * Sends Request and Release PDUs to the given multicast group.
+     * 
+     * @param data
+     *            The data representing the PDU.
+     * @param group 
+     *            The multicast group to send this PDU to.
+     */
+    public void sendRequestReleasePdu( byte[] data, InetAddress group );
+
+    /**
+     * Sends a Reject PDU as unicast to the given destination.
+     * 
+     * @param data
+     *            The data representing the PDU.
+     * @param destination
+     *            The destination of the packet.
+     */
+    public void sendRejectPdu( byte[] data, InetAddress destination );
+
+    /**
+     * Sends an Announce PDU to GG.
+     * 
+     * @param data
+     *            The data representing the Announce Pdu.
+     */
+    public void sendAnnouncePdu( byte[] data );
+
+    /**
+     * Sends an Address or Data PDU to the given multicast group.
+     * 
+     * @param data
+     *            The data representing the PDU.
+     * @param destination
+     *            The multicast address to send to.
+     * @param priority
+     *            The P_Mul priority
+     * @throws IOException if we fail to send the PDU.
+     */
+    public void sendAddressDataPdu( byte[] data, InetAddress destination, int priority ) throws IOException;
+
+    /**
+     * Sends an Ack PDU to the given destination.
+     * 
+     * @param data
+     *            The data representing the Ack PDU.
+     * @param destination
+     *            The address to send to.
+     * @param priority
+     *            The P_Mul priority
+     * @throws IOException if we fail to send the PDU.
+     */
+    public void sendAckPdu( byte[] data, InetAddress destination, int priority ) throws IOException;
+
+    /**
+     * Sends a Discard Message PDU to the given destination.
+     * 
+     * @param binary
+     *            The data representing the DiscardPDU.
+     * @param destinationAddress
+     *            The destination of this discard message.
+     * @param priority
+     *            The ACP142 priority.
+     * @throws IOException if we fail to send.
+     */
+    public void sendDiscardPdu( byte[] binary, InetAddress destinationAddress, int priority ) throws IOException;
+
+    /**
+     * Releases the resources of this transport, and leaves its multicast
+     * groups. Nothing is sent or received after this.
+     */
+    public void close( );
+}
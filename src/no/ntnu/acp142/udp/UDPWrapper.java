@@ -7,14 +7,12 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
 import java.net.SocketException;
-import java.util.ArrayList;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import no.ntnu.acp142.Configuration;
 import no.ntnu.acp142.Log;
-import no.ntnu.acp142.PriorityMapping;
 
 /*
  * Copyright (c) 2013, Bjørn Tungesvik, Karl Mardoff Kittilsen, Erik Lothe
@@ -59,7 +57,7 @@ import no.ntnu.acp142.PriorityMapping;
  * @author Bjørn Tungesvik, Karl Mardoff Kittilsen, Erik Lothe
  *
  */
-public class UDPWrapper {
+public class UDPWrapper implements Transport {
     /**
      * A blocking queue where we put tuples of source address and datagram packets.
      */
@@ -94,6 +92,16 @@ public class UDPWrapper {
       */
      private int defaultTc;
      private int unicastDefaultTc;
+
+     /**
+      * Address of the interface we are bound to
+      */
+     private final InetAddress bindAddress;
+
+     /**
+      * Capture of received datagrams, or null if not capturing
+      */
+     protected PduCapture capture;
     
 
     /**
@@ -103,6 +111,14 @@ public class UDPWrapper {
      * @param bindAddress address of the interface we want to bind our sockets to.
      */
     public UDPWrapper(InetAddress bindAddress) {
+        this.bindAddress = bindAddress;
+        if ( !Configuration.getCaptureFile().isEmpty() ) {
+            try {
+                capture = new PduCapture(Configuration.getCaptureFile(), bindAddress);
+            } catch (IOException e) {
+                Log.writeLine(Log.LOG_LEVEL_QUIET, "Could not create capture file " + Configuration.getCaptureFile());
+            }
+        }
         //Initialize sockets
             try {
                 multicastSendSocket = new MulticastSocket();
@@ -132,12 +148,12 @@ public class UDPWrapper {
             ack = new MulticastSocket(Configuration.getAPort());
             ack.setInterface(bindAddress);
             
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "interface bound to for announce: " + announce.getNetworkInterface().getDisplayName());
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "interface bound to for release: " + requestRejectRelease.getNetworkInterface().getDisplayName());
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "interface bound to for data: " + data.getNetworkInterface().getDisplayName());
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "interface bound to for ack: " + ack.getNetworkInterface().getDisplayName());
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "interface bound to for multicast send: " + multicastSendSocket.getNetworkInterface().getDisplayName());
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "interface bound to for unicast send: " + unicastSendSocket.getLocalSocketAddress());
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "interface bound to for announce: {}", announce.getNetworkInterface().getDisplayName());
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "interface bound to for release: {}", requestRejectRelease.getNetworkInterface().getDisplayName());
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "interface bound to for data: {}", data.getNetworkInterface().getDisplayName());
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "interface bound to for ack: {}", ack.getNetworkInterface().getDisplayName());
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "interface bound to for multicast send: {}", multicastSendSocket.getNetworkInterface().getDisplayName());
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "interface bound to for unicast send: {}", unicastSendSocket.getLocalSocketAddress());
             
             // Initialize the queues.
             this.queue = new LinkedBlockingQueue<Tuple<InetAddress,byte[]>>();
@@ -173,6 +189,26 @@ public class UDPWrapper {
 
     }
 
+    /**
+     * Returns the address of the interface our sockets are bound to.
+     * 
+     * @return the bind address.
+     */
+    @Override
+    public InetAddress getLocalAddress( ) {
+        return bindAddress;
+    }
+
+    /**
+     * Returns the number of received packets waiting to be taken by the RDT
+     * layer.
+     * 
+     * @return number of queued packets.
+     */
+    public int getQueueSize( ) {
+        return queue.size();
+    }
+
     /**
      * This function is called by the RDT layer to get a packet
      * from the receiving queue. The Interrupted exception shall
@@ -180,6 +216,7 @@ public class UDPWrapper {
      * 
      * @return packet in bytes
      */
+    @Override
     public Tuple<InetAddress, byte[]> receivePacket( ) {
         Tuple <InetAddress, byte[]> tmp = null;
         try {
@@ -200,6 +237,7 @@ public class UDPWrapper {
      * @param multicastGroup
      *            the multicast group to join.
      */
+    @Override
     public void joinMulticastGroup( InetAddress multicastGroup ) {
         receiveAPort.joinMulticastGroup(multicastGroup);
         receiveDPort.joinMulticastGroup(multicastGroup);
@@ -214,12 +252,13 @@ public class UDPWrapper {
      * @param multicastGroup
      *            the multicast group to leave.
      */
+    @Override
     public void leaveMulticastGroup( InetAddress multicastGroup ) {
         receiveAPort.leaveMulticastGroup(multicastGroup);
         receiveDPort.leaveMulticastGroup(multicastGroup);
         multicastGroups.remove(multicastGroup);
-        Log.writeLine(Log.LOG_LEVEL_DEBUG, "Leaving multicast group: " + multicastGroup.getHostAddress());
-        Log.writeLine(Log.LOG_LEVEL_DEBUG, "multicast group size:" + multicastGroups.size());
+        Log.writeLine(Log.LOG_LEVEL_DEBUG, "Leaving multicast group: {}", multicastGroup.getHostAddress());
+        Log.writeLine(Log.LOG_LEVEL_DEBUG, "multicast group size:{}", multicastGroups.size());
         }
     
     /**
@@ -227,6 +266,7 @@ public class UDPWrapper {
      * 
      * @return All multicast groups we are members of.
      */
+    @Override
     public CopyOnWriteArrayList<InetAddress> getCurrentMulticastGroups() {
         return multicastGroups;
     }
@@ -240,6 +280,7 @@ public class UDPWrapper {
      * @param group 
      *            The multicast group to send this PDU to.
      */
+    @Override
     public void sendRequestReleasePdu( byte[] data , InetAddress group) {
         try {
             DatagramPacket packet = new DatagramPacket(data, data.length, group, Configuration.getTPort());
@@ -260,6 +301,7 @@ public class UDPWrapper {
      * @param destination
      *            The destination of the packet.
      */
+    @Override
     public void sendRejectPdu( byte[] data, InetAddress destination) {
         try {
             DatagramPacket packet = new DatagramPacket(data, data.length, destination, Configuration.getTPort());
@@ -278,6 +320,7 @@ public class UDPWrapper {
      * @param data
      *            The data representing the Announce Pdu.
      */
+    @Override
     public void sendAnnouncePdu( byte[] data) {
         try {
             DatagramPacket packet = new DatagramPacket(data, data.length, Configuration.getGg(), Configuration.getRPort());
@@ -301,6 +344,7 @@ public class UDPWrapper {
      *            The P_Mul priority
      * @throws IOException if we fail to send the PDU.
      */
+    @Override
     public void sendAddressDataPdu( byte[] data, InetAddress destination, int priority ) throws IOException {
         
         try {
@@ -329,13 +373,14 @@ public class UDPWrapper {
      *            The P_Mul priority
      * @throws IOException if we fail to send the PDU.
      */
+    @Override
     public void sendAckPdu( byte[] data, InetAddress destination, int priority ) throws IOException {
         try {
             DatagramPacket packet = new DatagramPacket(data, data.length, destination, Configuration.getAPort());
             setUnicastTrafficClass(priority);
             unicastSendSocket.send(packet);
             unicastSendSocket.setTrafficClass(unicastDefaultTc);
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Sending ackPdu to: " + destination.getHostAddress());
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Sending ackPdu to: {}", destination);
             
         } catch (SocketException e) {
             Log.writeLine(Log.LOG_LEVEL_NORMAL, "SocketException in sendAckPdu in class UDPWrapper");
@@ -355,10 +400,11 @@ public class UDPWrapper {
      *            The ACP142 priority.
      * @throws IOException if we fail to send.
      */
+    @Override
     public void sendDiscardPdu( byte[] binary, InetAddress destinationAddress, int priority ) throws IOException {
         DatagramPacket packet = new DatagramPacket(binary, binary.length, destinationAddress, Configuration.getAPort());
         try {
-            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Sending discardPdu to: " + destinationAddress.getHostAddress());
+            Log.writeLine(Log.LOG_LEVEL_DEBUG, "Sending discardPdu to: {}", destinationAddress);
             setTrafficClass(priority);
             multicastSendSocket.send(packet);
             multicastSendSocket.setTrafficClass(defaultTc);
@@ -381,12 +427,9 @@ public class UDPWrapper {
         if (!Configuration.isEnablePriorityMapping()) {
             return;
         }
-        ArrayList<PriorityMapping> mappings = Configuration.getPriorityMappings();
-        for (PriorityMapping mapping: mappings) {
-            if (mapping.getFrom() == acp142Priority) {
-                multicastSendSocket.setTrafficClass(mapping.getTo());
-                return;
-            }
+        int trafficClass = Configuration.getTrafficClass(acp142Priority);
+        if (trafficClass >= 0) {
+            multicastSendSocket.setTrafficClass(trafficClass);
         }
     }
 
@@ -403,12 +446,35 @@ public class UDPWrapper {
         if (!Configuration.isEnablePriorityMapping()) {
             return;
         }
-        ArrayList<PriorityMapping> mappings = Configuration.getPriorityMappings();
-        for (PriorityMapping mapping: mappings) {
-            if (mapping.getFrom() == acp142Priority) {
-                unicastSendSocket.setTrafficClass(mapping.getTo());
-                return;
+        int trafficClass = Configuration.getTrafficClass(acp142Priority);
+        if (trafficClass >= 0) {
+            unicastSendSocket.setTrafficClass(trafficClass);
+        }
+    }
+
+    /**
+     * Closes the sockets, which leaves their multicast groups and stops the
+     * receive threads, and closes the capture file if capturing.
+     */
+    @Override
+    public void close( ) {
+        MulticastSocket[] receiveSockets = { announce, requestRejectRelease, data, ack };
+        for (MulticastSocket socket : receiveSockets) {
+            if ( socket != null ) {
+                socket.close();
             }
         }
+        if ( multicastSendSocket != null ) {
+            multicastSendSocket.close();
+        }
+        if ( unicastSendSocket != null ) {
+            unicastSendSocket.close();
+        }
+        if ( capture != null ) {
+            capture.close();
+        }
+        if ( multicastGroups != null ) {
+            multicastGroups.clear();
+        }
     }
 }